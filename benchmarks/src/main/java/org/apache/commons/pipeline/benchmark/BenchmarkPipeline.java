@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.benchmark;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageDriverFactory;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.driver.SynchronousStageDriverFactory;
+import org.apache.commons.pipeline.driver.ThreadPoolStageDriverFactory;
+import org.apache.commons.pipeline.driver.control.BalancedPoolStageDriverFactory;
+import org.apache.commons.pipeline.driver.control.ExecutorStageDriverFactory;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+import org.apache.commons.pipeline.util.CountingFeeder;
+import org.apache.commons.pipeline.validation.ValidationException;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * A pipeline of a single stage, run by the driver under test, whose terminal
+ * feeder counts the objects that have passed through it. Every driver that
+ * queues objects is given a queue of the same capacity so that feeders are
+ * held back by the stage rather than filling an unbounded queue.
+ */
+class BenchmarkPipeline {
+    /**
+     * The names of the drivers that can be benchmarked.
+     */
+    static final String SYNCHRONOUS = "synchronous", DEDICATED = "dedicated",
+            THREAD_POOL = "threadPool", BALANCED_POOL = "balancedPool", EXECUTOR = "executor";
+    
+    private final Pipeline pipeline = new Pipeline();
+    private final CountingFeeder terminalFeeder = new CountingFeeder();
+    
+    /**
+     * Creates a new BenchmarkPipeline.
+     * @param driver the name of the driver that runs the stage
+     * @param consumers the number of threads processing objects, for drivers
+     * that use more than one
+     * @param queueCapacity the capacity of the queue of the driver
+     * @param work the amount of work done for each object, in the units of
+     * {@link Blackhole#consumeCPU(long)}
+     */
+    BenchmarkPipeline(String driver, int consumers, int queueCapacity, long work) throws ValidationException {
+        this.pipeline.setTerminalFeeder(terminalFeeder);
+        this.pipeline.addStage(new WorkStage(work), createDriverFactory(driver, consumers, queueCapacity));
+    }
+    
+    /**
+     * Creates the factory for the named driver.
+     */
+    static StageDriverFactory createDriverFactory(String driver, int consumers, int queueCapacity) {
+        BlockingQueueFactory.ArrayBlockingQueueFactory<Object> queueFactory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Object>();
+        queueFactory.setCapacity(queueCapacity);
+        
+        if (SYNCHRONOUS.equals(driver)) {
+            return new SynchronousStageDriverFactory();
+        } else if (DEDICATED.equals(driver)) {
+            DedicatedThreadStageDriverFactory factory = new DedicatedThreadStageDriverFactory();
+            factory.setQueueFactory(queueFactory);
+            return factory;
+        } else if (THREAD_POOL.equals(driver)) {
+            ThreadPoolStageDriverFactory factory = new ThreadPoolStageDriverFactory();
+            factory.setQueueFactory(queueFactory);
+            factory.setNumThreads(consumers);
+            return factory;
+        } else if (BALANCED_POOL.equals(driver)) {
+            BalancedPoolStageDriverFactory factory = new BalancedPoolStageDriverFactory();
+            factory.setQueueFactory(queueFactory);
+            factory.setInitialThreads(consumers);
+            return factory;
+        } else if (EXECUTOR.equals(driver)) {
+            ExecutorStageDriverFactory factory = new ExecutorStageDriverFactory();
+            factory.setQueueFactory(queueFactory);
+            factory.setInitialPriority(consumers);
+            return factory;
+        } else {
+            throw new IllegalArgumentException("Unknown driver: " + driver);
+        }
+    }
+    
+    void start() throws StageException {
+        this.pipeline.start();
+    }
+    
+    void finish() throws StageException {
+        this.pipeline.finish();
+    }
+    
+    Feeder getSourceFeeder() {
+        return this.pipeline.getSourceFeeder();
+    }
+    
+    /**
+     * Returns the number of objects that have passed through the pipeline.
+     */
+    long getCount() {
+        return this.terminalFeeder.getCount();
+    }
+    
+    /**
+     * Waits until the specified number of objects have passed through the pipeline.
+     */
+    void awaitCount(long count) {
+        while (this.terminalFeeder.getCount() < count) Thread.yield();
+    }
+    
+    /**
+     * A stage that consumes a fixed amount of CPU time for each object and
+     * passes the object on.
+     */
+    static class WorkStage extends BaseStage {
+        private final long work;
+        
+        WorkStage(long work) {
+            this.work = work;
+        }
+        
+        public void process(Object obj) throws StageException {
+            if (work > 0) Blackhole.consumeCPU(work);
+            this.emit(obj);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pipeline.util.CodecRegistry;
+import org.apache.commons.pipeline.util.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of encoding and decoding an object as a frame of the
+ * default {@link CodecRegistry} with that of Java serialization, which is
+ * what the codecs replace for the built-in types. The frame benchmark reuses
+ * one buffer, as a queue or spill file writer would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"string", "long", "bytes", "file"})
+    public String itemType;
+    
+    private Object item;
+    private CodecRegistry registry;
+    private ByteBuffer buffer;
+    private Serializer<Object> serializer;
+    
+    @Setup
+    public void setUp() {
+        if ("string".equals(itemType)) {
+            item = "The quick brown fox jumps over the lazy dog, f\u00f8\u00f3b\u00e5r \u20ac";
+        } else if ("long".equals(itemType)) {
+            item = Long.valueOf(1234567890123L);
+        } else if ("bytes".equals(itemType)) {
+            item = new byte[256];
+        } else if ("file".equals(itemType)) {
+            item = new File("/var/data/pipeline/input/part-00042.dat");
+        } else {
+            throw new IllegalArgumentException("Unknown item type: " + itemType);
+        }
+        
+        registry = CodecRegistry.getDefault();
+        buffer = ByteBuffer.allocate(registry.frameSize(item));
+        serializer = new Serializer.JavaSerializer<Object>();
+    }
+    
+    @Benchmark
+    public Object frame() {
+        buffer.clear();
+        registry.writeFrame(item, buffer);
+        buffer.flip();
+        return registry.readFrame(buffer);
+    }
+    
+    @Benchmark
+    public Object serialization() throws IOException {
+        return serializer.deserialize(serializer.serialize(item));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from feeding a single object to a stage until it has been
+ * processed, for each driver. Only one object is in the pipeline at a time, so
+ * this is the latency added by the driver's hand-off between threads; the
+ * sampled distribution includes percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverLatencyBenchmark {
+    @Param({BenchmarkPipeline.SYNCHRONOUS, BenchmarkPipeline.DEDICATED, BenchmarkPipeline.THREAD_POOL,
+            BenchmarkPipeline.BALANCED_POOL, BenchmarkPipeline.EXECUTOR})
+    public String driver;
+    
+    @Param({"1", "4"})
+    public int consumers;
+    
+    @Param({"0", "100"})
+    public long work;
+    
+    private BenchmarkPipeline pipeline;
+    private long expected;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pipeline = new BenchmarkPipeline(driver, consumers, 1000, work);
+        pipeline.start();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        pipeline.finish();
+    }
+    
+    @Benchmark
+    public long roundTrip() {
+        pipeline.getSourceFeeder().feed(Integer.valueOf(1));
+        pipeline.awaitCount(++expected);
+        return expected;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pipeline.Feeder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rate at which objects fed to a stage are processed by each
+ * driver. Each invocation feeds a batch of objects from the producer threads
+ * and waits until all of them have left the pipeline, so the score is the
+ * sustained feed-to-process throughput in objects per second.
+ *
+ * <p>The number of consumers is the number of threads processing objects; it
+ * is ignored by the synchronous and dedicated thread drivers.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DriverThroughputBenchmark {
+    private static final int BATCH = 10000;
+    
+    @Param({BenchmarkPipeline.SYNCHRONOUS, BenchmarkPipeline.DEDICATED, BenchmarkPipeline.THREAD_POOL,
+            BenchmarkPipeline.BALANCED_POOL, BenchmarkPipeline.EXECUTOR})
+    public String driver;
+    
+    @Param({"1", "4"})
+    public int producers;
+    
+    @Param({"1", "4"})
+    public int consumers;
+    
+    @Param({"0", "100"})
+    public long work;
+    
+    @Param({"1000"})
+    public int queueCapacity;
+    
+    private BenchmarkPipeline pipeline;
+    private ExecutorService producerPool;
+    private List<Callable<Object>> producerTasks;
+    private long expected;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pipeline = new BenchmarkPipeline(driver, consumers, queueCapacity, work);
+        pipeline.start();
+        
+        producerPool = Executors.newFixedThreadPool(producers);
+        producerTasks = new ArrayList<Callable<Object>>();
+        final Feeder feeder = pipeline.getSourceFeeder();
+        final int share = BATCH / producers;
+        for (int i = 0; i < producers; i++) {
+            //the last producer feeds the remainder of the batch
+            final int count = (i == producers - 1) ? BATCH - share * (producers - 1) : share;
+            producerTasks.add(new Callable<Object>() {
+                public Object call() {
+                    feed(feeder, count);
+                    return null;
+                }
+            });
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        producerPool.shutdown();
+        pipeline.finish();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long feedAndProcess() throws Exception {
+        if (producers == 1) {
+            feed(pipeline.getSourceFeeder(), BATCH);
+        } else {
+            for (Future<Object> future : producerPool.invokeAll(producerTasks)) future.get();
+        }
+        
+        expected += BATCH;
+        pipeline.awaitCount(expected);
+        return expected;
+    }
+    
+    private static void feed(Feeder feeder, int count) {
+        Integer obj = Integer.valueOf(1);
+        for (int i = 0; i < count; i++) feeder.feed(obj);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pipeline.invoke.LambdaInvokerGenerator;
+import org.apache.commons.pipeline.util.MethodInvoker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reflective and generated invocation of the methods called by the
+ * reflective stages, for the three shapes of call they make: a static method
+ * with the object as its argument, a method on the object without arguments,
+ * and a method on the object with a bound argument.
+ * <p>
+ * Each shape is called directly, as the lower bound; with
+ * {@link Method#invoke(Object, Object[])} the way the stages called it before
+ * invokers were introduced, without suppressed access checks and with a new
+ * argument array for each call; through a reflective {@link MethodInvoker};
+ * and through the invoker created by {@link LambdaInvokerGenerator}. The
+ * first two shapes are generated as spun functional interfaces, the third as
+ * a bound method handle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+    private final String obj = "pipeline";
+    private final String suffix = "!";
+    
+    private Method staticMethod;
+    private Method receiverMethod;
+    private Method targetMethod;
+    private MethodInvoker staticReflective;
+    private MethodInvoker receiverReflective;
+    private MethodInvoker targetReflective;
+    private MethodInvoker staticGenerated;
+    private MethodInvoker receiverGenerated;
+    private MethodInvoker targetGenerated;
+    
+    /**
+     * The static method called with each object.
+     */
+    public static String identity(String value) {
+        return value;
+    }
+    
+    @Setup
+    public void setUp() throws Exception {
+        staticMethod = InvokerBenchmark.class.getMethod("identity", String.class);
+        receiverMethod = String.class.getMethod("trim");
+        targetMethod = String.class.getMethod("concat", String.class);
+        
+        //invokers suppress access checks on their own copies of the methods
+        MethodInvoker.Generator installed = MethodInvoker.getGenerator();
+        try {
+            MethodInvoker.setGenerator(null);
+            staticReflective = MethodInvoker.withArgument(InvokerBenchmark.class.getMethod("identity", String.class));
+            receiverReflective = MethodInvoker.onTarget(String.class.getMethod("trim"));
+            targetReflective = MethodInvoker.onTarget(String.class.getMethod("concat", String.class), suffix);
+            
+            MethodInvoker.setGenerator(new LambdaInvokerGenerator());
+            staticGenerated = MethodInvoker.withArgument(InvokerBenchmark.class.getMethod("identity", String.class));
+            receiverGenerated = MethodInvoker.onTarget(String.class.getMethod("trim"));
+            targetGenerated = MethodInvoker.onTarget(String.class.getMethod("concat", String.class), suffix);
+        } finally {
+            MethodInvoker.setGenerator(installed);
+        }
+    }
+    
+    @Benchmark
+    public Object staticDirect() {
+        return identity(obj);
+    }
+    
+    @Benchmark
+    public Object staticMethodInvoke() throws Exception {
+        return staticMethod.invoke(null, new Object[] { obj });
+    }
+    
+    @Benchmark
+    public Object staticReflective() throws Exception {
+        return staticReflective.invoke(obj);
+    }
+    
+    @Benchmark
+    public Object staticGenerated() throws Exception {
+        return staticGenerated.invoke(obj);
+    }
+    
+    @Benchmark
+    public Object receiverDirect() {
+        return obj.trim();
+    }
+    
+    @Benchmark
+    public Object receiverMethodInvoke() throws Exception {
+        return receiverMethod.invoke(obj, new Object[0]);
+    }
+    
+    @Benchmark
+    public Object receiverReflective() throws Exception {
+        return receiverReflective.invoke(obj);
+    }
+    
+    @Benchmark
+    public Object receiverGenerated() throws Exception {
+        return receiverGenerated.invoke(obj);
+    }
+    
+    @Benchmark
+    public Object targetDirect() {
+        return obj.concat(suffix);
+    }
+    
+    @Benchmark
+    public Object targetMethodInvoke() throws Exception {
+        return targetMethod.invoke(obj, new Object[] { suffix });
+    }
+    
+    @Benchmark
+    public Object targetReflective() throws Exception {
+        return targetReflective.invoke(obj);
+    }
+    
+    @Benchmark
+    public Object targetGenerated() throws Exception {
+        return targetGenerated.invoke(obj);
+    }
+}
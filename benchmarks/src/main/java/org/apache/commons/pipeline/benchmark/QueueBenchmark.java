@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the rate at which objects pass between threads through the queues
+ * created by each {@link BlockingQueueFactory}. Producers and consumers use
+ * timed offers and polls, so an iteration can always end even if one side
+ * outpaces the other; the ratio of producers to consumers can be changed with
+ * JMH's <code>-tg</code> option.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark {
+    //an element that can be queued by every kind of queue, including DelayQueue
+    private static final Delayed ELEMENT = new Delayed() {
+        public long getDelay(TimeUnit unit) {
+            return 0;
+        }
+        
+        public int compareTo(Delayed other) {
+            return 0;
+        }
+    };
+    
+    @Param({"array", "linked", "priority", "synchronous", "delay"})
+    public String queueType;
+    
+    @Param({"1000"})
+    public int capacity;
+    
+    private BlockingQueue<Delayed> queue;
+    
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = createQueueFactory().createQueue();
+    }
+    
+    private BlockingQueueFactory<Delayed> createQueueFactory() {
+        if ("array".equals(queueType)) {
+            BlockingQueueFactory.ArrayBlockingQueueFactory<Delayed> factory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Delayed>();
+            factory.setCapacity(capacity);
+            return factory;
+        } else if ("linked".equals(queueType)) {
+            BlockingQueueFactory.LinkedBlockingQueueFactory<Delayed> factory = new BlockingQueueFactory.LinkedBlockingQueueFactory<Delayed>();
+            factory.setCapacity(capacity);
+            return factory;
+        } else if ("priority".equals(queueType)) {
+            return new BlockingQueueFactory.PriorityBlockingQueueFactory<Delayed>();
+        } else if ("synchronous".equals(queueType)) {
+            return new BlockingQueueFactory.SynchronousQueueFactory<Delayed>();
+        } else if ("delay".equals(queueType)) {
+            return new BlockingQueueFactory.DelayQueueFactoryL<Delayed>();
+        } else {
+            throw new IllegalArgumentException("Unknown queue type: " + queueType);
+        }
+    }
+    
+    @Benchmark
+    @Group("transfer")
+    @GroupThreads(1)
+    public boolean offer() throws InterruptedException {
+        return queue.offer(ELEMENT, 10, TimeUnit.MILLISECONDS);
+    }
+    
+    @Benchmark
+    @Group("transfer")
+    @GroupThreads(1)
+    public Delayed poll() throws InterruptedException {
+        return queue.poll(10, TimeUnit.MILLISECONDS);
+    }
+}
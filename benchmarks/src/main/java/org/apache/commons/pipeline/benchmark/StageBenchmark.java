@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.SynchronousStageDriverFactory;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.stage.DynamicLookupStaticMethodStage;
+import org.apache.commons.pipeline.stage.ExtendedBaseStage;
+import org.apache.commons.pipeline.stage.InvokeMethodStage;
+import org.apache.commons.pipeline.stage.InvokeStaticMethodStage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a single call to {@link Stage#process(Object)} for
+ * stages that all perform the same trivial operation, so that differences
+ * between them are the overhead of the stage implementation: the statistics
+ * kept by {@link ExtendedBaseStage}, and the reflective invocation performed by
+ * the method-invoking stages. The stage is called directly, without a driver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+    @Param({"base", "extended", "invokeMethod", "invokeStaticMethod", "dynamicLookupStaticMethod"})
+    public String stageType;
+    
+    private Stage stage;
+    private final String obj = "pipeline";
+    
+    /**
+     * The operation performed by every stage.
+     */
+    public static String identity(String value) {
+        return value;
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stage = createStage();
+        
+        Pipeline pipeline = new Pipeline();
+        pipeline.setTerminalFeeder(Feeder.VOID);
+        pipeline.addStage(stage, new SynchronousStageDriverFactory());
+        stage.preprocess();
+    }
+    
+    private Stage createStage() throws Exception {
+        if ("base".equals(stageType)) {
+            return new BaseStage() {
+                public void process(Object obj) throws StageException {
+                    this.emit(identity((String) obj));
+                }
+            };
+        } else if ("extended".equals(stageType)) {
+            return new ExtendedBaseStage() {
+                public void innerProcess(Object obj) throws StageException {
+                    this.emit(identity((String) obj));
+                }
+                
+                public String status() {
+                    return "";
+                }
+            };
+        } else if ("invokeMethod".equals(stageType)) {
+            return new InvokeMethodStage(String.class.getMethod("toString"));
+        } else if ("invokeStaticMethod".equals(stageType)) {
+            return new InvokeStaticMethodStage(StageBenchmark.class.getMethod("identity", String.class));
+        } else if ("dynamicLookupStaticMethod".equals(stageType)) {
+            return new DynamicLookupStaticMethodStage(StageBenchmark.class, "identity");
+        } else {
+            throw new IllegalArgumentException("Unknown stage type: " + stageType);
+        }
+    }
+    
+    @Benchmark
+    public void process() throws StageException {
+        stage.process(obj);
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.invoke;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.util.MethodInvoker;
+
+/**
+ * A {@link MethodInvoker.Generator} that creates invokers which call their
+ * methods without reflection.
+ * <p>
+ * A public method of a public class that is called with the processed object
+ * as its receiver or sole argument is bound by {@link LambdaMetafactory} to an
+ * implementation of {@link Function}, {@link Consumer}, {@link Supplier} or
+ * {@link Runnable} spun at run time, which calls the method directly. Other
+ * methods, including those called with fixed arguments, are called through a
+ * method handle with the arguments bound in. Methods whose processed-object
+ * parameter is primitive are left to the reflective invokers, whose widening
+ * conversions the generated code does not reproduce.
+ * <p>
+ * Like {@link Method#invoke(Object, Object[])}, the generated invokers throw
+ * {@link NullPointerException} for a null receiver, {@link IllegalArgumentException}
+ * for an object of the wrong type, and wrap anything thrown by the method in an
+ * {@link InvocationTargetException}.
+ */
+public class LambdaInvokerGenerator implements MethodInvoker.Generator {
+    private static final Log log = LogFactory.getLog(LambdaInvokerGenerator.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Creates an invoker calling the method on each object with the specified
+     * arguments, or returns null if no method handle can be obtained for it.
+     */
+    public MethodInvoker onTarget(Method method, Object[] arguments) {
+        try {
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            Class<?> receiver = isStatic ? null : method.getDeclaringClass();
+            MethodHandle handle = unreflect(method);
+
+            if (arguments.length == 0 && canSpin(method)) {
+                Class<?> returnType = method.getReturnType();
+                if (isStatic && returnType == void.class) {
+                    Runnable runnable = (Runnable) spin(Runnable.class, "run",
+                            MethodType.methodType(void.class), handle, MethodType.methodType(void.class));
+                    return new RunnableInvoker(method, runnable);
+                } else if (isStatic) {
+                    Supplier<?> supplier = (Supplier<?>) spin(Supplier.class, "get",
+                            MethodType.methodType(Object.class), handle, MethodType.methodType(box(returnType)));
+                    return new SupplierInvoker(method, supplier);
+                } else if (returnType == void.class) {
+                    return new ConsumerInvoker(method, consumer(handle, receiver), receiver, false);
+                } else {
+                    return new FunctionInvoker(method, function(handle, receiver, returnType), receiver, false);
+                }
+            }
+
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                //Method.invoke widens boxed primitives; a bound handle only unboxes
+                if (parameterTypes[i].isPrimitive()
+                        && (arguments[i] == null || arguments[i].getClass() != box(parameterTypes[i]))) return null;
+            }
+
+            if (isStatic) {
+                handle = MethodHandles.dropArguments(MethodHandles.insertArguments(handle, 0, arguments), 0, Object.class);
+            } else {
+                handle = MethodHandles.insertArguments(handle, 1, arguments);
+            }
+            return new HandleInvoker(method, handle.asType(GENERIC), receiver, false);
+        } catch (Throwable t) {
+            log.debug("Unable to generate an invoker for " + method + "; it will be invoked reflectively.", t);
+            return null;
+        }
+    }
+
+    /**
+     * Creates an invoker calling the static method with each object, or returns
+     * null if its parameter is primitive or no method handle can be obtained for it.
+     */
+    public MethodInvoker withArgument(Method method) {
+        Class<?> parameterType = method.getParameterTypes()[0];
+        if (parameterType.isPrimitive()) return null;
+
+        try {
+            MethodHandle handle = unreflect(method);
+            Class<?> returnType = method.getReturnType();
+            if (!canSpin(method)) {
+                return new HandleInvoker(method, handle.asType(GENERIC), parameterType, true);
+            } else if (returnType == void.class) {
+                return new ConsumerInvoker(method, consumer(handle, parameterType), parameterType, true);
+            } else {
+                return new FunctionInvoker(method, function(handle, parameterType, returnType), parameterType, true);
+            }
+        } catch (Throwable t) {
+            log.debug("Unable to generate an invoker for " + method + "; it will be invoked reflectively.", t);
+            return null;
+        }
+    }
+
+    /**
+     * Returns a direct method handle for the method, suppressing access checks
+     * if permitted so that methods the reflective invokers could call can also
+     * be called through the handle.
+     */
+    private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+        try {
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            //the lookup will fail if the method is not accessible to this class
+        }
+        return LOOKUP.unreflect(method);
+    }
+
+    /**
+     * Returns true if a class spun with this class as its host can call the
+     * method directly: the method and its declaring classes must be public,
+     * and every type in its signature must resolve to the same class from the
+     * class loader of this class.
+     */
+    private static boolean canSpin(Method method) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (!Modifier.isPublic(method.getModifiers())) return false;
+        if (declaringClass.isInterface() && Modifier.isStatic(method.getModifiers())) return false;
+        for (Class<?> c = declaringClass; c != null; c = c.getDeclaringClass()) {
+            if (!Modifier.isPublic(c.getModifiers())) return false;
+        }
+
+        if (!isVisible(declaringClass) || !isVisible(method.getReturnType())) return false;
+        for (Class<?> type : method.getParameterTypes()) {
+            if (!isVisible(type)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isVisible(Class<?> type) {
+        while (type.isArray()) type = type.getComponentType();
+        if (type.isPrimitive()) return true;
+        try {
+            return Class.forName(type.getName(), false, LambdaInvokerGenerator.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static Class<?> box(Class<?> type) {
+        return MethodType.methodType(type).wrap().returnType();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> function(MethodHandle handle, Class<?> parameterType, Class<?> returnType) throws Throwable {
+        return (Function<Object, Object>) spin(Function.class, "apply",
+                GENERIC, handle, MethodType.methodType(box(returnType), parameterType));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<Object> consumer(MethodHandle handle, Class<?> parameterType) throws Throwable {
+        return (Consumer<Object>) spin(Consumer.class, "accept",
+                MethodType.methodType(void.class, Object.class), handle, MethodType.methodType(void.class, parameterType));
+    }
+
+    /**
+     * Spins an implementation of the functional interface whose single method
+     * calls the method behind the direct handle.
+     */
+    private static Object spin(Class<?> type, String name, MethodType erasedType,
+            MethodHandle implementation, MethodType instantiatedType) throws Throwable {
+        CallSite site = LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(type),
+                erasedType, implementation, instantiatedType);
+        return site.getTarget().invoke();
+    }
+
+    /**
+     * Checks the processed object against the type required by the generated
+     * code, so that a mismatch is reported the way Method.invoke reports it
+     * rather than as an exception thrown by the method.
+     *
+     * @param method the method being invoked
+     * @param obj the processed object
+     * @param type the type of the receiver or argument, or null if the object is ignored
+     * @param nullable whether null may be passed, which is false for a receiver
+     */
+    static void check(Method method, Object obj, Class<?> type, boolean nullable) {
+        if (type == null) return;
+        if (obj == null) {
+            if (!nullable) throw new NullPointerException("Method " + method + " cannot be invoked on a null object.");
+        } else if (!type.isInstance(obj)) {
+            throw new IllegalArgumentException("Method " + method + " cannot be invoked with an object of " + obj.getClass());
+        }
+    }
+
+    //Each invoker implements invoke itself rather than sharing it through a
+    //common superclass, so that the call to the generated code has a
+    //receiver profile of its own for each kind of invoker.
+
+    private static final class FunctionInvoker extends MethodInvoker {
+        private final Function<Object, Object> function;
+        private final Class<?> type;
+        private final boolean nullable;
+
+        FunctionInvoker(Method method, Function<Object, Object> function, Class<?> type, boolean nullable) {
+            super(method);
+            this.function = function;
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+        public Object invoke(Object obj) throws InvocationTargetException {
+            check(method, obj, type, nullable);
+            try {
+                return function.apply(obj);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    private static final class ConsumerInvoker extends MethodInvoker {
+        private final Consumer<Object> consumer;
+        private final Class<?> type;
+        private final boolean nullable;
+
+        ConsumerInvoker(Method method, Consumer<Object> consumer, Class<?> type, boolean nullable) {
+            super(method);
+            this.consumer = consumer;
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+        public Object invoke(Object obj) throws InvocationTargetException {
+            check(method, obj, type, nullable);
+            try {
+                consumer.accept(obj);
+                return null;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    private static final class SupplierInvoker extends MethodInvoker {
+        private final Supplier<?> supplier;
+
+        SupplierInvoker(Method method, Supplier<?> supplier) {
+            super(method);
+            this.supplier = supplier;
+        }
+
+        public Object invoke(Object obj) throws InvocationTargetException {
+            try {
+                return supplier.get();
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    private static final class RunnableInvoker extends MethodInvoker {
+        private final Runnable runnable;
+
+        RunnableInvoker(Method method, Runnable runnable) {
+            super(method);
+            this.runnable = runnable;
+        }
+
+        public Object invoke(Object obj) throws InvocationTargetException {
+            try {
+                runnable.run();
+                return null;
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+
+    /**
+     * Invoker calling a method handle of type (Object)Object, with any fixed
+     * arguments already bound.
+     */
+    private static final class HandleInvoker extends MethodInvoker {
+        private final MethodHandle handle;
+        private final Class<?> type;
+        private final boolean nullable;
+
+        HandleInvoker(Method method, MethodHandle handle, Class<?> type, boolean nullable) {
+            super(method);
+            this.handle = handle;
+            this.type = type;
+            this.nullable = nullable;
+        }
+
+        public Object invoke(Object obj) throws InvocationTargetException {
+            check(method, obj, type, nullable);
+            try {
+                return (Object) handle.invokeExact(obj);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
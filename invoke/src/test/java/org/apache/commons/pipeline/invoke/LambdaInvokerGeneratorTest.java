@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.invoke;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.util.MethodInvoker;
+
+/**
+ * Test cases for LambdaInvokerGenerator.
+ */
+public class LambdaInvokerGeneratorTest extends TestCase {
+    private static final List<Object> calls = new ArrayList<Object>();
+    
+    private LambdaInvokerGenerator generator = new LambdaInvokerGenerator();
+    
+    public LambdaInvokerGeneratorTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(LambdaInvokerGeneratorTest.class);
+    }
+    
+    protected void setUp() {
+        calls.clear();
+    }
+    
+    public static void record(Object obj) {
+        calls.add(obj);
+    }
+    
+    public static void tick() {
+        calls.add("tick");
+    }
+    
+    public static String greeting() {
+        return "hello";
+    }
+    
+    private static String shout(String value) {
+        return value.toUpperCase();
+    }
+    
+    /**
+     * Test that the generator is installed when the module is on the class path.
+     */
+    public void testInstalled() throws Exception {
+        assertTrue(MethodInvoker.getGenerator() instanceof LambdaInvokerGenerator);
+        
+        MethodInvoker invoker = MethodInvoker.onTarget(String.class.getMethod("length"));
+        assertSame(LambdaInvokerGenerator.class, invoker.getClass().getEnclosingClass());
+        assertEquals(3, invoker.invoke("abc"));
+    }
+    
+    /**
+     * Test of onTarget with instance methods, with and without bound arguments.
+     */
+    public void testOnTarget() throws Exception {
+        MethodInvoker length = generator.onTarget(String.class.getMethod("length"), new Object[0]);
+        assertEquals(3, length.invoke("abc"));
+        
+        MethodInvoker indexOf = generator.onTarget(String.class.getMethod("indexOf", String.class), new Object[] { "c" });
+        assertEquals(2, indexOf.invoke("abc"));
+        assertEquals(-1, indexOf.invoke("xyz"));
+        
+        MethodInvoker substring = generator.onTarget(String.class.getMethod("substring", int.class, int.class), new Object[] { 1, 2 });
+        assertEquals("b", substring.invoke("abc"));
+        
+        List<Object> list = new ArrayList<Object>();
+        MethodInvoker clear = generator.onTarget(ArrayList.class.getMethod("clear"), new Object[0]);
+        list.add("a");
+        assertNull(clear.invoke(list));
+        assertTrue(list.isEmpty());
+    }
+    
+    /**
+     * Test of onTarget with static methods, which ignore the processed object.
+     */
+    public void testOnTargetStatic() throws Exception {
+        MethodInvoker greeting = generator.onTarget(getClass().getMethod("greeting"), new Object[0]);
+        assertEquals("hello", greeting.invoke("ignored"));
+        
+        MethodInvoker tick = generator.onTarget(getClass().getMethod("tick"), new Object[0]);
+        assertNull(tick.invoke(null));
+        
+        MethodInvoker record = generator.onTarget(getClass().getMethod("record", Object.class), new Object[] { "bound" });
+        assertNull(record.invoke("ignored"));
+        assertEquals(2, calls.size());
+        assertEquals("bound", calls.get(1));
+    }
+    
+    /**
+     * Test that arguments that need a widening conversion are left to the
+     * reflective invoker.
+     */
+    public void testOnTargetWidenedArgument() throws Exception {
+        Method method = String.class.getMethod("substring", int.class, int.class);
+        assertNull(generator.onTarget(method, new Object[] { (short) 1, 2 }));
+        assertNull(generator.onTarget(method, new Object[] { null, 2 }));
+    }
+    
+    /**
+     * Test of withArgument, including methods that cannot be called from a spun class.
+     */
+    public void testWithArgument() throws Exception {
+        MethodInvoker valueOf = generator.withArgument(Integer.class.getMethod("valueOf", String.class));
+        assertEquals(5, valueOf.invoke("5"));
+        
+        MethodInvoker record = generator.withArgument(getClass().getMethod("record", Object.class));
+        assertNull(record.invoke("a"));
+        assertNull(record.invoke(null));
+        assertEquals(2, calls.size());
+        
+        MethodInvoker shout = generator.withArgument(getClass().getDeclaredMethod("shout", String.class));
+        assertEquals("ABC", shout.invoke("abc"));
+        
+        assertNull(generator.withArgument(Integer.class.getMethod("valueOf", int.class)));
+    }
+    
+    /**
+     * Test that failures are reported the way Method.invoke reports them.
+     */
+    public void testExceptions() throws Exception {
+        MethodInvoker valueOf = generator.withArgument(Integer.class.getMethod("valueOf", String.class));
+        try {
+            valueOf.invoke("five");
+            fail("Exception thrown by the invoked method should have been wrapped.");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+        
+        try {
+            valueOf.invoke(5);
+            fail("Argument of the wrong type should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        
+        MethodInvoker length = generator.onTarget(String.class.getMethod("length"), new Object[0]);
+        try {
+            length.invoke(5);
+            fail("Receiver of the wrong type should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        
+        try {
+            length.invoke(null);
+            fail("Null receiver should have been rejected.");
+        } catch (NullPointerException e) {
+            //expected
+        }
+    }
+}
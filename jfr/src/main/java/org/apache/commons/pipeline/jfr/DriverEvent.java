@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import org.apache.commons.pipeline.StageDriver;
+
+/**
+ * Base class of the events that concern a single stage driver. Events are
+ * described only once it is known that they will be committed, so that
+ * events below their threshold cost no more than reading the clock.
+ */
+@Category("Commons Pipeline")
+abstract class DriverEvent extends Event {
+    @Label("Stage")
+    @Description("The stage run by the driver")
+    String stage;
+    
+    @Label("Stage Class")
+    Class<?> stageClass;
+    
+    @Label("Driver Class")
+    Class<?> driverClass;
+    
+    //the driver, kept until the event is committed; transient fields are not recorded
+    transient StageDriver driver;
+    
+    /**
+     * Fills in the fields describing the driver.
+     */
+    void describe() {
+        this.stage = String.valueOf(driver.getStage());
+        this.stageClass = driver.getStage().getClass();
+        this.driverClass = driver.getClass();
+    }
+}
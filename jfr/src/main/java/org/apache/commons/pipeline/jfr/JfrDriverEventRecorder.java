@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jfr;
+
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.StageDriver.State;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+import org.apache.commons.pipeline.driver.DriverEventRecorder;
+import org.apache.commons.pipeline.driver.control.DriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.PrioritizableStageDriver;
+
+/**
+ * A DriverEventRecorder that emits Java Flight Recorder events. Events that
+ * are not enabled in the running recordings are not created; events with a
+ * duration are only described and committed if they exceed their threshold,
+ * which is 10 ms by default and can be changed in the recording settings.
+ */
+public class JfrDriverEventRecorder implements DriverEventRecorder {
+    
+    /** Creates a new instance of JfrDriverEventRecorder */
+    public JfrDriverEventRecorder() {
+    }
+    
+    public Object beginProcess(StageDriver driver, Object obj) {
+        StageProcessEvent event = new StageProcessEvent();
+        if (!event.isEnabled()) return null;
+        event.driver = driver;
+        event.item = obj;
+        event.begin();
+        return event;
+    }
+    
+    public void endProcess(Object e, boolean succeeded) {
+        StageProcessEvent event = (StageProcessEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe();
+            event.itemType = event.item == null ? null : event.item.getClass();
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+    
+    public Object beginFeedBlocked(StageDriver driver, Object obj) {
+        FeedBlockedEvent event = new FeedBlockedEvent();
+        if (!event.isEnabled()) return null;
+        event.driver = driver;
+        event.item = obj;
+        event.begin();
+        return event;
+    }
+    
+    public void endFeedBlocked(Object e) {
+        FeedBlockedEvent event = (FeedBlockedEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe();
+            event.itemType = event.item == null ? null : event.item.getClass();
+            if (event.driver instanceof AbstractStageDriver) {
+                event.queueLength = ((AbstractStageDriver) event.driver).getQueueOccupancy();
+            }
+            event.commit();
+        }
+    }
+    
+    public Object beginDequeueWait(StageDriver driver) {
+        DequeueWaitEvent event = new DequeueWaitEvent();
+        if (!event.isEnabled()) return null;
+        event.driver = driver;
+        event.begin();
+        return event;
+    }
+    
+    public void endDequeueWait(Object e, boolean received) {
+        DequeueWaitEvent event = (DequeueWaitEvent) e;
+        event.end();
+        if (event.shouldCommit()) {
+            event.describe();
+            event.received = received;
+            event.commit();
+        }
+    }
+    
+    public void stateChanged(StageDriver driver, State from, State to) {
+        DriverStateEvent event = new DriverStateEvent();
+        if (event.shouldCommit()) {
+            event.driver = driver;
+            event.describe();
+            event.from = String.valueOf(from);
+            event.to = String.valueOf(to);
+            event.commit();
+        }
+    }
+    
+    public void priorityChanged(PrioritizableStageDriver driver, DriverControlStrategy strategy, double from, double to) {
+        PriorityChangeEvent event = new PriorityChangeEvent();
+        if (event.shouldCommit()) {
+            event.driver = driver;
+            event.describe();
+            event.strategyClass = strategy.getClass();
+            event.from = from;
+            event.to = to;
+            event.commit();
+        }
+    }
+}
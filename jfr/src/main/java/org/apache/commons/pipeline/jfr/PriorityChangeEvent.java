@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A change in the priority of a stage driver made by a driver control strategy.
+ */
+@Name("org.apache.commons.pipeline.PriorityChange")
+@Label("Priority Change")
+@Description("A driver control strategy changing the priority of a stage driver")
+class PriorityChangeEvent extends DriverEvent {
+    @Label("Strategy Class")
+    Class<?> strategyClass;
+    
+    @Label("From")
+    double from;
+    
+    @Label("To")
+    double to;
+}
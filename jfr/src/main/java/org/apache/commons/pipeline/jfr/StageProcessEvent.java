@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The processing of an object by a stage.
+ */
+@Name("org.apache.commons.pipeline.StageProcess")
+@Label("Stage Process")
+@Description("A stage processing a single object")
+@Threshold("10 ms")
+class StageProcessEvent extends DriverEvent {
+    @Label("Item Type")
+    @Description("The class of the object processed")
+    Class<?> itemType;
+    
+    @Label("Succeeded")
+    @Description("False if the stage threw an exception")
+    boolean succeeded;
+    
+    transient Object item;
+}
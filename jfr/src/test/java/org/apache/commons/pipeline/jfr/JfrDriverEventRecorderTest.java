@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jfr;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.driver.DriverEvents;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+
+/**
+ * Test cases for JfrDriverEventRecorder.
+ */
+public class JfrDriverEventRecorderTest extends TestCase {
+    
+    public JfrDriverEventRecorderTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(JfrDriverEventRecorderTest.class);
+    }
+    
+    protected void tearDown() {
+        DriverEvents.setRecorder(null);
+    }
+    
+    /**
+     * Test that the events of a running pipeline are written to a recording.
+     */
+    public void testRecording() throws Exception {
+        DriverEvents.setRecorder(new JfrDriverEventRecorder());
+        
+        Pipeline pipeline = new Pipeline();
+        DedicatedThreadStageDriverFactory factory = new DedicatedThreadStageDriverFactory();
+        BlockingQueueFactory.ArrayBlockingQueueFactory<Object> queueFactory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Object>();
+        queueFactory.setCapacity(1);
+        factory.setQueueFactory(queueFactory);
+        pipeline.addStage(new DelayStage(5), factory);
+        pipeline.addStage(new DelayStage(0), factory);
+        
+        Recording recording = new Recording();
+        recording.enable(StageProcessEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(FeedBlockedEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(DequeueWaitEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(DriverStateEvent.class);
+        recording.start();
+        
+        pipeline.start();
+        for (int i = 0; i < 10; i++) pipeline.getSourceFeeder().feed(i);
+        pipeline.finish();
+        
+        recording.stop();
+        File file = File.createTempFile("pipeline", ".jfr");
+        try {
+            recording.dump(file.toPath());
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                String name = event.getEventType().getName();
+                Integer count = counts.get(name);
+                counts.put(name, count == null ? 1 : count + 1);
+                
+                if (name.equals("org.apache.commons.pipeline.StageProcess")) {
+                    assertEquals("java.lang.Integer", event.getClass("itemType").getName());
+                    assertTrue(event.getBoolean("succeeded"));
+                }
+            }
+            
+            assertEquals(Integer.valueOf(20), counts.get("org.apache.commons.pipeline.StageProcess"));
+            assertNotNull(counts.get("org.apache.commons.pipeline.FeedBlocked"));
+            assertNotNull(counts.get("org.apache.commons.pipeline.DequeueWait"));
+            
+            //each driver goes through STARTED, RUNNING, STOP_REQUESTED and FINISHED
+            assertTrue(counts.get("org.apache.commons.pipeline.DriverState") >= 8);
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+    
+    /**
+     * Stage that passes each object downstream after a fixed delay. A delay
+     * long enough makes the producer block on its single-element queue.
+     */
+    private static class DelayStage extends BaseStage {
+        private final long delay;
+        
+        DelayStage(long delay) {
+            this.delay = delay;
+        }
+        
+        public void process(Object obj) throws StageException {
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new StageException(this, e);
+                }
+            }
+            
+            emit(obj);
+        }
+    }
+}
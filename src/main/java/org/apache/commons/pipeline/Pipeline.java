@@ -17,6 +17,7 @@
 
 package org.apache.commons.pipeline;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -26,6 +27,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.pipeline.driver.SynchronousStageDriver;
+import org.apache.commons.pipeline.driver.control.ThreadBudget;
+import org.apache.commons.pipeline.jmx.PipelineRegistration;
+import org.apache.commons.pipeline.trace.Tracer;
 import org.apache.commons.pipeline.validation.PipelineValidator;
 import org.apache.commons.pipeline.validation.ValidationException;
 import org.apache.commons.pipeline.validation.ValidationFailure;
@@ -79,6 +83,18 @@ public class Pipeline implements Runnable, StageContext {
     // List of jobs to be run at defined points in pipeline lifecycle
     private Collection<PipelineLifecycleJob> lifecycleJobs = new ArrayList<PipelineLifecycleJob>();
     
+    //Flag determining whether the pipeline registers its MBeans when started
+    private boolean jmxEnabled = true;
+    
+    //MBeans registered for the pipeline while it is running
+    private PipelineRegistration registration;
+    
+    //Tracer used to sample objects fed to the pipeline, or null if tracing is disabled
+    private Tracer tracer;
+    
+    //Limit on the worker threads of the pipeline's prioritizable drivers, or null if unlimited
+    private volatile ThreadBudget threadBudget;
+    
     /**
      * Creates and initializes a new Pipeline.
      */
@@ -139,7 +155,7 @@ public class Pipeline implements Runnable, StageContext {
     public Feeder getDownstreamFeeder(Stage stage) {
         if (stage == null) throw new IllegalArgumentException("Unable to look up downstream feeder for null stage.");
         if (stage == drivers.getLast().getStage()) {
-            return this.terminalFeeder;
+            return getTracedTerminalFeeder();
         } else {
             //Iterate backwards over the list until the stage is found, then return
             //the feeder for the subsequent stage. Comparisons are done using reference
@@ -291,8 +307,30 @@ public class Pipeline implements Runnable, StageContext {
      * @return the feeder to feed the first stage of the pipeline
      */
     public Feeder getSourceFeeder() {
-        if (drivers.isEmpty()) return this.terminalFeeder;
-        return drivers.peek().getFeeder();
+        if (drivers.isEmpty()) return getTracedTerminalFeeder();
+        Tracer t = findTracer();
+        return t == null ? drivers.peek().getFeeder() : t.getSourceFeeder(drivers.peek().getFeeder());
+    }
+    
+    /**
+     * Returns the terminal feeder, wrapped so that traces are completed if
+     * tracing is enabled.
+     */
+    private Feeder getTracedTerminalFeeder() {
+        Tracer t = findTracer();
+        return t == null ? this.terminalFeeder : t.getTerminalFeeder(this.terminalFeeder);
+    }
+    
+    /**
+     * Returns the tracer of this pipeline or, if it has none, of the nearest
+     * enclosing pipeline that has one.
+     */
+    private Tracer findTracer() {
+        for (Pipeline p = this; p != null; p = p.parent) {
+            if (p.tracer != null) return p.tracer;
+        }
+        
+        return null;
     }
     
     /**
@@ -328,6 +366,11 @@ public class Pipeline implements Runnable, StageContext {
      * @throws org.apache.commons.pipeline.StageException Thrown if there is an error during pipeline startup
      */
     public void start() throws StageException {
+        if (jmxEnabled && parent == null && registration == null) {
+            registration = PipelineRegistration.register(this, Integer.toHexString(System.identityHashCode(this)),
+                    ManagementFactory.getPlatformMBeanServer());
+        }
+        
         for (PipelineLifecycleJob job : lifecycleJobs) job.onStart(this);
         for (StageDriver driver: this.drivers) driver.start();
         for (Pipeline branch : branches.values()) branch.start();
@@ -344,9 +387,16 @@ public class Pipeline implements Runnable, StageContext {
      * @throws org.apache.commons.pipeline.StageException Thrown if there is an unhandled error during stage shutdown
      */
     public void finish() throws StageException {
-        for (StageDriver driver: this.drivers) driver.finish();
-        for (Pipeline pipeline : branches.values()) pipeline.finish();
-        for (PipelineLifecycleJob job : lifecycleJobs) job.onFinish(this);
+        try {
+            for (StageDriver driver: this.drivers) driver.finish();
+            for (Pipeline pipeline : branches.values()) pipeline.finish();
+            for (PipelineLifecycleJob job : lifecycleJobs) job.onFinish(this);
+        } finally {
+            if (registration != null) {
+                registration.unregister();
+                registration = null;
+            }
+        }
     }
     
     /**
@@ -379,6 +429,92 @@ public class Pipeline implements Runnable, StageContext {
         this.validator = validator;
     }
     
+    /**
+     * Returns whether the pipeline registers MBeans for itself, its branches
+     * and its stage drivers with the platform MBean server when started.
+     */
+    public boolean isJmxEnabled() {
+        return this.jmxEnabled;
+    }
+    
+    /**
+     * Sets whether the pipeline registers MBeans for itself, its branches and
+     * its stage drivers with the platform MBean server when started. The MBeans
+     * are unregistered when the pipeline finishes. This setting has no effect
+     * on branch pipelines, which are registered along with their parent.
+     */
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+    
+    /**
+     * Returns the tracer used to sample objects fed to this pipeline, or null
+     * if this pipeline has none. Branches without a tracer of their own use
+     * the tracer of the enclosing pipeline.
+     * @return Tracer used to trace objects through the pipeline.
+     */
+    public Tracer getTracer() {
+        return this.tracer;
+    }
+    
+    /**
+     * Sets the tracer used to sample objects fed to this pipeline and measure
+     * their end-to-end latency and queue waits. This must be set before the
+     * pipeline is started, since stages may look up their downstream feeders
+     * only once. Setting the tracer to null disables tracing.
+     * @param tracer Tracer used to trace objects through the pipeline.
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+    
+    /**
+     * Returns the budget from which the prioritizable stage drivers of this
+     * pipeline and its branches allocate worker threads, or null if their
+     * thread counts are unlimited. Branches without a budget of their own
+     * share the budget of the enclosing pipeline.
+     * @return ThreadBudget shared by the pipeline's drivers.
+     */
+    public ThreadBudget getThreadBudget() {
+        for (Pipeline p = this; p != null; p = p.parent) {
+            if (p.threadBudget != null) return p.threadBudget;
+        }
+        return null;
+    }
+    
+    /**
+     * Sets the budget from which the prioritizable stage drivers of this
+     * pipeline and its branches allocate worker threads. Drivers for which
+     * a budget has been set explicitly use that budget instead. This must be
+     * set before the pipeline is started.
+     * @param threadBudget ThreadBudget shared by the pipeline's drivers.
+     */
+    public void setThreadBudget(ThreadBudget threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+    
+    /**
+     * Returns the maximum number of worker threads that may be allocated to
+     * the prioritizable stage drivers of this pipeline, or zero if unlimited.
+     */
+    public int getMaxThreads() {
+        ThreadBudget budget = getThreadBudget();
+        return budget == null ? 0 : budget.getLimit();
+    }
+    
+    /**
+     * Limits the total number of worker threads that may be allocated to the
+     * prioritizable stage drivers of this pipeline and its branches, by
+     * setting a new thread budget with the specified limit. This allows the
+     * limit to be set as the <code>maxThreads</code> attribute of a pipeline
+     * configuration. A value of zero removes the limit.
+     * @param maxThreads the maximum number of worker threads, or zero
+     */
+    public void setMaxThreads(int maxThreads) {
+        if (maxThreads < 0) throw new IllegalArgumentException("Maximum thread count may not be negative.");
+        setThreadBudget(maxThreads == 0 ? null : new ThreadBudget(maxThreads));
+    }
+    
     /**
      * Returns the parent of this pipeline, if it is a branch
      * @return parent Pipeline, or null if this is the main pipeline
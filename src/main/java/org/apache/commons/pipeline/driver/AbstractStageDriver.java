@@ -19,7 +19,19 @@ package org.apache.commons.pipeline.driver;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.pipeline.*;
+import org.apache.commons.pipeline.stage.ExtendedBaseStage;
+import org.apache.commons.pipeline.trace.Trace;
+import org.apache.commons.pipeline.trace.TracedObject;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+import org.apache.commons.pipeline.util.StageQueueFactory;
+import org.apache.commons.pipeline.util.StripedCounter;
 
 /**
  * This interface is used to define how processing for a stage is started,
@@ -60,6 +72,15 @@ public abstract class AbstractStageDriver implements StageDriver {
      */
     protected List<Throwable> errors = new ArrayList<Throwable>();
     
+    //number of objects accepted by this driver's feeder
+    private final StripedCounter objectsFed = new StripedCounter();
+    
+    //number of objects successfully processed by the stage
+    private final StripedCounter objectsProcessed = new StripedCounter();
+    
+    //number of producer threads currently waiting for space in the queue
+    private final AtomicInteger blockedProducers = new AtomicInteger();
+    
     /**
      * Creates a StageDriver for the specified stage.
      * 
@@ -122,8 +143,12 @@ public abstract class AbstractStageDriver implements StageDriver {
      * that may be waiting on a state change.
      */
     protected synchronized void setState(State nextState) {
+        State previous = this.currentState;
         this.currentState = nextState;
         this.notifyAll();
+        
+        DriverEventRecorder recorder = DriverEvents.getRecorder();
+        if (recorder != null && previous != nextState) recorder.stateChanged(this, previous, nextState);
     }
     
     /**
@@ -202,6 +227,7 @@ public abstract class AbstractStageDriver implements StageDriver {
      * @param error The error encountered
      */
     protected void recordProcessingException(Object data, Throwable error) {
+        if (data instanceof TracedObject) data = ((TracedObject) data).getPayload();
         ProcessingException ex = new ProcessingException(this.stage, error, data, this.getState());  
         this.processingExceptions.add(ex);
     }    
@@ -215,4 +241,201 @@ public abstract class AbstractStageDriver implements StageDriver {
     public List<ProcessingException> getProcessingExceptions() {
         return this.processingExceptions;
     }
+    
+    /**
+     * Processes the specified object using the managed stage and counts it
+     * as processed if no exception is thrown. Drivers should process objects
+     * through this method rather than calling {@link Stage#process(Object)}
+     * directly so that the count is kept and traced objects are unwrapped.
+     *
+     * @param obj The object to be processed
+     * @throws org.apache.commons.pipeline.StageException if thrown by the stage
+     */
+    protected void process(Object obj) throws StageException {
+        boolean traced = obj instanceof TracedObject;
+        Trace previous = null;
+        if (traced) {
+            previous = Trace.setCurrent(((TracedObject) obj).dequeue());
+            obj = ((TracedObject) obj).getPayload();
+        }
+        
+        DriverEventRecorder recorder = DriverEvents.getRecorder();
+        Object event = recorder == null ? null : recorder.beginProcess(this, obj);
+        boolean succeeded = false;
+        try {
+            this.stage.process(obj);
+            succeeded = true;
+        } finally {
+            if (event != null) recorder.endProcess(event, succeeded);
+            if (traced) Trace.setCurrent(previous);
+        }
+        
+        recordProcessed();
+    }
+    
+    /**
+     * Counts an object as having been processed by the stage. Drivers that
+     * process objects using {@link #process(Object)} need not call this method.
+     */
+    protected void recordProcessed() {
+        this.objectsProcessed.increment();
+    }
+    
+    /**
+     * Counts an object as having been accepted by this driver's feeder. Drivers
+     * that enqueue objects using {@link #enqueue(BlockingQueue, Object)} need not
+     * call this method.
+     */
+    protected void recordFed() {
+        this.objectsFed.increment();
+    }
+    
+    /**
+     * Creates the queue for the specified stage using the specified factory,
+     * passing the stage to the factory if it is a {@link StageQueueFactory}.
+     *
+     * @param queueFactory the factory creating the queue
+     * @param stage the stage whose objects the queue will hold
+     * @param context the context in which the stage will be run
+     * @return the newly created queue
+     */
+    protected static <T> BlockingQueue<T> createQueue(BlockingQueueFactory<T> queueFactory, Stage stage, StageContext context) {
+        if (queueFactory instanceof StageQueueFactory) {
+            return ((StageQueueFactory<T>) queueFactory).createQueue(stage, context);
+        }
+        
+        return queueFactory.createQueue();
+    }
+    
+    /**
+     * Adds the specified object to the queue, waiting for space to become
+     * available if necessary. Producers that have to wait are counted as
+     * blocked for the duration of the wait. If the feeding thread is processing
+     * a traced object, the object is wrapped so that the trace is carried
+     * through the queue, unless the queue orders its contents.
+     *
+     * @param queue the queue to which the object will be added
+     * @param obj the object to enqueue
+     * @throws InterruptedException if interrupted while waiting for space
+     */
+    protected final void enqueue(BlockingQueue<Object> queue, Object obj) throws InterruptedException {
+        Trace trace = Trace.current();
+        if (trace != null && !(queue instanceof PriorityBlockingQueue || queue instanceof DelayQueue)) {
+            obj = trace.enqueue(this.stage, obj);
+        }
+        
+        if (!queue.offer(obj)) {
+            DriverEventRecorder recorder = DriverEvents.getRecorder();
+            Object event = recorder == null ? null : recorder.beginFeedBlocked(this, obj);
+            blockedProducers.incrementAndGet();
+            try {
+                queue.put(obj);
+            } finally {
+                blockedProducers.decrementAndGet();
+                if (event != null) recorder.endFeedBlocked(event);
+            }
+        }
+        
+        this.objectsFed.increment();
+    }
+    
+    /**
+     * Removes the next object from the queue, waiting up to the specified time
+     * for one to become available if the queue is empty. Waits are reported
+     * to the installed {@link DriverEventRecorder}, if any, and the time waited
+     * for each object that is returned is recorded by the stage if it is an
+     * {@link ExtendedBaseStage}.
+     *
+     * @param queue the queue from which to take the object
+     * @param timeout how long to wait for an object, in units of unit
+     * @param unit the unit of the timeout
+     * @return the object, or null if none became available in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected final Object dequeue(BlockingQueue<?> queue, long timeout, TimeUnit unit) throws InterruptedException {
+        Object obj = queue.poll();
+        if (obj != null) {
+            recordQueueWait(0);
+            return obj;
+        }
+        
+        DriverEventRecorder recorder = DriverEvents.getRecorder();
+        Object event = recorder == null ? null : recorder.beginDequeueWait(this);
+        long start = System.nanoTime();
+        try {
+            obj = queue.poll(timeout, unit);
+        } finally {
+            if (event != null) recorder.endDequeueWait(event, obj != null);
+        }
+        
+        if (obj != null) recordQueueWait(System.nanoTime() - start);
+        return obj;
+    }
+    
+    /**
+     * Passes the time a driver thread waited for an object to the stage's
+     * queue wait statistics. Waits are measured per call to dequeue, so a wait
+     * longer than the driver's poll timeout is recorded from its last poll.
+     */
+    private void recordQueueWait(long nanos) {
+        if (this.stage instanceof ExtendedBaseStage) ((ExtendedBaseStage) this.stage).recordQueueWait(nanos);
+    }
+    
+    /**
+     * Returns the queue holding objects awaiting processing by this driver,
+     * or null if the driver does not queue objects. The default implementation
+     * returns null.
+     */
+    protected Queue<?> getQueue() {
+        return null;
+    }
+    
+    /**
+     * Returns the number of objects currently waiting to be processed.
+     */
+    public int getQueueOccupancy() {
+        Queue<?> queue = getQueue();
+        return queue == null ? 0 : queue.size();
+    }
+    
+    /**
+     * Returns the number of additional objects that can be queued without
+     * blocking, or {@link Integer#MAX_VALUE} if the queue is unbounded.
+     */
+    public int getQueueRemainingCapacity() {
+        Queue<?> queue = getQueue();
+        return (queue instanceof BlockingQueue) ? ((BlockingQueue<?>) queue).remainingCapacity() : Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Returns the number of producer threads currently blocked waiting for
+     * space in this driver's queue.
+     */
+    public int getBlockedProducerCount() {
+        return this.blockedProducers.get();
+    }
+    
+    /**
+     * Returns the number of objects that have been fed to this driver.
+     */
+    public long getObjectsFed() {
+        return this.objectsFed.sum();
+    }
+    
+    /**
+     * Returns the number of objects that have been processed by the stage
+     * without error.
+     */
+    public long getObjectsProcessed() {
+        return this.objectsProcessed.sum();
+    }
+    
+    /**
+     * Returns the number of threads allocated to processing objects for the
+     * stage. The default implementation returns zero, indicating that objects
+     * are processed in the threads that feed them.
+     */
+    public int getWorkerCount() {
+        return 0;
+    }
 }
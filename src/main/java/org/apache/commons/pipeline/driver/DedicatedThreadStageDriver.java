@@ -21,6 +21,7 @@
 package org.apache.commons.pipeline.driver;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
@@ -49,7 +50,7 @@ public class DedicatedThreadStageDriver extends AbstractStageDriver {
     private Thread workerThread;
     
     //queue to hold data to be processed
-    private BlockingQueue queue;    
+    private BlockingQueue<Object> queue;    
     
     //feeder used to feed data to this stage's queue
     private final Feeder feeder = new Feeder() {
@@ -57,7 +58,7 @@ public class DedicatedThreadStageDriver extends AbstractStageDriver {
             if (log.isDebugEnabled()) log.debug(obj + " is being fed to stage " + stage
                     + " (" + DedicatedThreadStageDriver.this.queue.remainingCapacity() + " available slots in queue)");
             try {
-                DedicatedThreadStageDriver.this.queue.put(obj);
+                enqueue(DedicatedThreadStageDriver.this.queue, obj);
             } catch (InterruptedException e) {
                 throw new IllegalStateException("Unexpected interrupt while waiting for space to become available for object "
                         + obj + " in queue for stage " + stage, e);
@@ -194,13 +195,13 @@ public class DedicatedThreadStageDriver extends AbstractStageDriver {
                 testAndSetState(STARTED, RUNNING);
                 running: while (currentState != ERROR) {
                     try {
-                        Object obj = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                        Object obj = dequeue(queue, timeout, TimeUnit.MILLISECONDS);
                         if (obj == null) {
                             if (currentState == STOP_REQUESTED) break running;
                             //else continue running;
                         } else {
                             try {
-                                stage.process(obj);
+                                DedicatedThreadStageDriver.this.process(obj);
                             } catch (StageException e) {
                                 recordProcessingException(obj, e);
                                 if (faultTolerance == NONE) throw e;
@@ -250,4 +251,19 @@ public class DedicatedThreadStageDriver extends AbstractStageDriver {
     public long getTimeout() {
         return this.timeout;
     }
+    
+    /**
+     * Returns one while the worker thread is alive, zero otherwise.
+     */
+    public int getWorkerCount() {
+        Thread worker = this.workerThread;
+        return (worker != null && worker.isAlive()) ? 1 : 0;
+    }
+    
+    /**
+     * Returns the queue of objects awaiting processing.
+     */
+    protected Queue<?> getQueue() {
+        return this.queue;
+    }
 }
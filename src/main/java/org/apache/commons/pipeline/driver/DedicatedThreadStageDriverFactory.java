@@ -48,7 +48,7 @@ public class DedicatedThreadStageDriverFactory implements StageDriverFactory {
      */
     public StageDriver createStageDriver(Stage stage, StageContext context) {
         try {
-            return new DedicatedThreadStageDriver(stage, context, queueFactory.createQueue(), timeout, faultTolerance);
+            return new DedicatedThreadStageDriver(stage, context, AbstractStageDriver.createQueue(queueFactory, stage, context), timeout, faultTolerance);
         } catch (Exception e) {
             throw new IllegalStateException("Instantiation of driver failed due to illegal factory state.", e);
         }
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver;
+
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.StageDriver.State;
+import org.apache.commons.pipeline.driver.control.DriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.PrioritizableStageDriver;
+
+/**
+ * Receives low-level events from stage drivers and driver controllers, for
+ * example to emit them as events of an event recording facility such as Java
+ * Flight Recorder. A recorder is installed for the whole JVM with
+ * {@link DriverEvents#setRecorder(DriverEventRecorder)}; when none is
+ * installed, drivers do not measure the events at all.
+ *
+ * <p>Events that have a duration are reported with a pair of methods. The
+ * <code>begin</code> method is called on the thread that is about to process,
+ * block or wait and returns an object representing the event, or null if the
+ * event is not to be recorded; the matching <code>end</code> method is called
+ * on the same thread with that object, and only if it is not null. Recorders
+ * should therefore do as little as possible when an event type is disabled.
+ * Waits are only reported when they actually occur: objects that can be
+ * queued or taken from a queue without waiting produce no event.</p>
+ */
+public interface DriverEventRecorder {
+    /**
+     * Called before a driver's stage processes an object.
+     * @param driver the driver running the stage
+     * @param obj the object to be processed
+     * @return the event, or null if it is not to be recorded
+     */
+    public Object beginProcess(StageDriver driver, Object obj);
+    
+    /**
+     * Called after a driver's stage has processed an object.
+     * @param event the event returned by {@link #beginProcess}
+     * @param succeeded false if the stage threw an exception
+     */
+    public void endProcess(Object event, boolean succeeded);
+    
+    /**
+     * Called when a producer has to wait for space in a driver's queue.
+     * @param driver the driver whose queue is full
+     * @param obj the object being fed
+     * @return the event, or null if it is not to be recorded
+     */
+    public Object beginFeedBlocked(StageDriver driver, Object obj);
+    
+    /**
+     * Called when a producer has finished waiting for space in a driver's queue.
+     * @param event the event returned by {@link #beginFeedBlocked}
+     */
+    public void endFeedBlocked(Object event);
+    
+    /**
+     * Called when a worker thread has to wait for an object to be queued.
+     * @param driver the driver whose queue is empty
+     * @return the event, or null if it is not to be recorded
+     */
+    public Object beginDequeueWait(StageDriver driver);
+    
+    /**
+     * Called when a worker thread has finished waiting for an object.
+     * @param event the event returned by {@link #beginDequeueWait}
+     * @param received false if the wait timed out without an object being queued
+     */
+    public void endDequeueWait(Object event, boolean received);
+    
+    /**
+     * Called when a driver changes state.
+     * @param driver the driver
+     * @param from the previous state
+     * @param to the new state
+     */
+    public void stateChanged(StageDriver driver, State from, State to);
+    
+    /**
+     * Called when a driver control strategy changes the priority of a driver.
+     * @param driver the driver whose priority changed
+     * @param strategy the strategy that made the change
+     * @param from the priority before the change
+     * @param to the priority after the change
+     */
+    public void priorityChanged(PrioritizableStageDriver driver, DriverControlStrategy strategy, double from, double to);
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Holds the {@link DriverEventRecorder} to which stage drivers report events.
+ * A recorder can be installed by calling {@link #setRecorder} or by naming its
+ * class, which must have a public no-argument constructor, in the system
+ * property <code>org.apache.commons.pipeline.driver.recorder</code>.
+ */
+public final class DriverEvents {
+    /**
+     * Name of the system property naming the class of the recorder installed
+     * when this class is loaded.
+     */
+    public static final String RECORDER_PROPERTY = "org.apache.commons.pipeline.driver.recorder";
+    
+    private static final Log log = LogFactory.getLog(DriverEvents.class);
+    
+    private static volatile DriverEventRecorder recorder;
+    
+    static {
+        String className = System.getProperty(RECORDER_PROPERTY);
+        if (className != null) {
+            try {
+                recorder = (DriverEventRecorder) Class.forName(className).newInstance();
+            } catch (Exception e) {
+                log.error("Unable to install driver event recorder " + className, e);
+            }
+        }
+    }
+    
+    private DriverEvents() {
+    }
+    
+    /**
+     * Returns the installed recorder, or null if none is installed.
+     */
+    public static DriverEventRecorder getRecorder() {
+        return recorder;
+    }
+    
+    /**
+     * Installs the recorder to which drivers report events.
+     * @param recorder the recorder, or null to stop reporting events
+     */
+    public static void setRecorder(DriverEventRecorder recorder) {
+        DriverEvents.recorder = recorder;
+    }
+}
@@ -50,8 +50,9 @@ public class SynchronousStageDriver extends AbstractStageDriver {
                 }
             }
             
+            recordFed();
             try {
-                stage.process(obj);
+                process(obj);
             } catch (StageException e) {
                 recordProcessingException(obj, e);
                 if (faultTolerance == NONE) throw fatalError(e);
@@ -138,4 +139,11 @@ public class SynchronousStageDriver extends AbstractStageDriver {
         
         return new RuntimeException("Fatal error halted processing of stage: " + stage);
     }
+    
+    /**
+     * Returns the queue of objects fed to the driver before it was started.
+     */
+    protected Queue<?> getQueue() {
+        return this.queue;
+    }
 }
@@ -20,6 +20,7 @@
 package org.apache.commons.pipeline.driver;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -57,7 +58,7 @@ public class ThreadPoolStageDriver extends AbstractStageDriver {
     private final int numThreads;
     
     // queue to hold data to be processed
-    private final BlockingQueue queue;
+    private final BlockingQueue<Object> queue;
     
     //feeder used to feed data to this stage's queue
     private final Feeder feeder = new Feeder() {
@@ -66,7 +67,7 @@ public class ThreadPoolStageDriver extends AbstractStageDriver {
                     + " (" + ThreadPoolStageDriver.this.queue.remainingCapacity() + " available slots in queue)");
             
             try {
-                ThreadPoolStageDriver.this.queue.put(obj);
+                enqueue(ThreadPoolStageDriver.this.queue, obj);
             } catch (InterruptedException e) {
                 throw new IllegalStateException("Unexpected interrupt while waiting for space to become available for object "
                         + obj + " in queue for stage " + stage, e);
@@ -238,6 +239,20 @@ public class ThreadPoolStageDriver extends AbstractStageDriver {
         return numThreads;
     }
     
+    /**
+     * Returns the number of worker threads that have not yet exited.
+     */
+    public int getWorkerCount() {
+        return (int) doneSignal.getCount();
+    }
+    
+    /**
+     * Returns the queue of objects awaiting processing.
+     */
+    protected Queue<?> getQueue() {
+        return this.queue;
+    }
+    
     /*********************************
      * WORKER THREAD IMPLEMENTATIONS *
      *********************************/
@@ -273,12 +288,12 @@ public class ThreadPoolStageDriver extends AbstractStageDriver {
                 //do not transition into running state if an error has occurred or a stop requested
                 running: while (currentState != ERROR) {
                     try {
-                        Object obj = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                        Object obj = dequeue(queue, timeout, TimeUnit.MILLISECONDS);
                         if (obj == null) {
                             if (currentState == STOP_REQUESTED) break running;
                         } else {
                             try {
-                                stage.process(obj);
+                                process(obj);
                             } catch (StageException e) {
                                 recordProcessingException(obj, e);
                                 if (faultTolerance == NONE) throw e;
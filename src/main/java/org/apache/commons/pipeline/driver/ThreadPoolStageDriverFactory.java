@@ -45,7 +45,7 @@ public class ThreadPoolStageDriverFactory implements StageDriverFactory {
      */
     public StageDriver createStageDriver(Stage stage, StageContext context) {
         try {
-            return new ThreadPoolStageDriver(stage, context, queueFactory.createQueue(), timeout, faultTolerance, numThreads);
+            return new ThreadPoolStageDriver(stage, context, AbstractStageDriver.createQueue(queueFactory, stage, context), timeout, faultTolerance, numThreads);
         } catch (Exception e) {
             throw new IllegalStateException("Instantiation of driver failed due to illegal factory state.", e);
         }
@@ -23,6 +23,8 @@ import java.util.EventObject;
 import java.util.List;
 import org.apache.commons.pipeline.PipelineLifecycleJob;
 import org.apache.commons.pipeline.StageEventListener;
+import org.apache.commons.pipeline.driver.DriverEventRecorder;
+import org.apache.commons.pipeline.driver.DriverEvents;
 
 /**
  *
@@ -61,4 +63,24 @@ public abstract class AbstractDriverController implements StageEventListener {
     	this.driverControl = driverControl;
     }
     
+    /**
+     * Passes the specified events to the driver control strategy, and reports
+     * any resulting changes in priority to the installed {@link DriverEventRecorder}.
+     * Subclasses should invoke the strategy through this method.
+     */
+    protected void handleEvents(List<StageProcessTimingEvent> eventsToHandle) {
+        DriverEventRecorder recorder = DriverEvents.getRecorder();
+        if (recorder == null) {
+            driverControl.handleEvents(drivers, eventsToHandle);
+            return;
+        }
+        
+        double[] before = new double[drivers.size()];
+        for (int i = 0; i < before.length; i++) before[i] = drivers.get(i).getPriority();
+        driverControl.handleEvents(drivers, eventsToHandle);
+        for (int i = 0; i < before.length; i++) {
+            double after = drivers.get(i).getPriority();
+            if (after != before[i]) recorder.priorityChanged(drivers.get(i), driverControl, before[i], after);
+        }
+    }
 }
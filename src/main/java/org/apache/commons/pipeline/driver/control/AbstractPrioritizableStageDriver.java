@@ -18,6 +18,7 @@
 
 package org.apache.commons.pipeline.driver.control;
 
+import org.apache.commons.pipeline.Pipeline;
 import org.apache.commons.pipeline.Stage;
 import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageException;
@@ -34,9 +35,146 @@ public abstract class AbstractPrioritizableStageDriver extends AbstractStageDriv
         super(stage, context, faultTolerance);
     }
     
+    //measures the CPU time used by worker threads to classify the stage's workload
+    private final WorkloadMonitor workloadMonitor = new WorkloadMonitor();
+    
+    //per-thread call counts used to choose the calls for which timing events are raised
+    private final ThreadLocal<int[]> callCounts = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    
+    /**
+     * Processes the object, raising a {@link StageProcessTimingEvent} for one
+     * in every <code>timingEventInterval</code> objects processed by each
+     * worker thread.
+     */
     protected void process(Object obj) throws StageException {
-        long start = System.currentTimeMillis();
-        this.stage.process(obj);
-        context.raise(new StageProcessTimingEvent(this.stage, System.currentTimeMillis() - start));
+        int interval = this.timingEventInterval;
+        int[] calls = callCounts.get();
+        boolean timed = calls[0]++ % interval == 0;
+        
+        long start = timed ? System.currentTimeMillis() : 0;
+        long[] sample = workloadMonitor.begin();
+        super.process(obj);
+        workloadMonitor.end(sample);
+        if (timed) context.raise(new StageProcessTimingEvent(this.stage, System.currentTimeMillis() - start, interval));
+    }
+    
+    /**
+     * Returns the classification of the managed stage's workload, based on the
+     * CPU time consumed by worker threads while processing.
+     */
+    public StageWorkload getWorkload() {
+        return workloadMonitor.getWorkload();
+    }
+    
+    /**
+     * Returns the monitor used to classify the managed stage's workload.
+     */
+    public WorkloadMonitor getWorkloadMonitor() {
+        return workloadMonitor;
+    }
+    
+    /**
+     * Allocates up to the requested number of threads from this driver's
+     * thread budget. If the driver has no budget, all requested threads are granted.
+     * @param requested the number of threads the driver would like to add
+     * @return the number of threads the driver may add
+     */
+    protected synchronized int acquireThreads(int requested) {
+        if (requested <= 0) return 0;
+        //threads are always returned to the budget from which they were allocated
+        if (allocatedThreads == 0) allocatedFrom = getThreadBudget();
+        if (allocatedFrom == null) return requested;
+        int granted = allocatedFrom.acquire(requested);
+        allocatedThreads += granted;
+        return granted;
+    }
+    
+    /**
+     * Returns threads no longer used by this driver to its thread budget.
+     * @param count the number of threads the driver has stopped using
+     */
+    protected synchronized void releaseThreads(int count) {
+        if (allocatedFrom == null || count <= 0) return;
+        count = Math.min(count, allocatedThreads);
+        allocatedThreads -= count;
+        allocatedFrom.release(count);
+    }
+    
+    /**
+     * Returns all threads allocated to this driver to its thread budget.
+     */
+    protected synchronized void releaseAllThreads() {
+        releaseThreads(allocatedThreads);
+    }
+    
+    //number of threads currently allocated to this driver from its budget
+    private int allocatedThreads;
+    
+    //the budget from which the allocated threads were taken
+    private ThreadBudget allocatedFrom;
+    
+    /**
+     * Holds value of property timingEventInterval.
+     */
+    private volatile int timingEventInterval = DEFAULT_TIMING_EVENT_INTERVAL;
+    
+    /**
+     * The default number of objects processed by a worker thread for each
+     * {@link StageProcessTimingEvent} raised: an event is raised for every object.
+     */
+    public static final int DEFAULT_TIMING_EVENT_INTERVAL = 1;
+    
+    /**
+     * Getter for property timingEventInterval.
+     * @return Value of property timingEventInterval.
+     */
+    public int getTimingEventInterval() {
+        return this.timingEventInterval;
+    }
+    
+    /**
+     * Setter for property timingEventInterval. Each worker thread raises a
+     * timing event for one in this many of the objects it processes, which
+     * stands for all of them. Raising an event for every object, with the
+     * default interval of one, makes the events a significant part of the cost
+     * of processing cheap stages; the driver controllers and strategies weight
+     * each event by {@link StageProcessTimingEvent#getCount()}, so a larger
+     * interval reduces that cost without changing their decisions.
+     * @param timingEventInterval New value of property timingEventInterval.
+     */
+    public void setTimingEventInterval(int timingEventInterval) {
+        if (timingEventInterval < 1) throw new IllegalArgumentException("Timing event interval must be at least 1.");
+        this.timingEventInterval = timingEventInterval;
+    }
+    
+    /**
+     * Holds value of property threadBudget.
+     */
+    private ThreadBudget threadBudget;
+    
+    /**
+     * Getter for property threadBudget. If no budget has been set for this
+     * driver and it runs in a {@link Pipeline}, the pipeline's budget is returned.
+     * @return Value of property threadBudget, or null if the driver's thread
+     * count is not limited by a shared budget.
+     */
+    public synchronized ThreadBudget getThreadBudget() {
+        if (this.threadBudget == null && context instanceof Pipeline) return ((Pipeline) context).getThreadBudget();
+        return this.threadBudget;
+    }
+    
+    /**
+     * Setter for property threadBudget. The budget must be set before the
+     * driver is started. If it is null, the driver uses the budget of the
+     * pipeline in which it runs, if any.
+     * @param threadBudget New value of property threadBudget.
+     */
+    public synchronized void setThreadBudget(ThreadBudget threadBudget) {
+        if (allocatedThreads > 0) throw new IllegalStateException("Thread budget cannot be changed while threads are allocated.");
+        this.threadBudget = threadBudget;
     }
 }
@@ -16,6 +16,9 @@
  */
 package org.apache.commons.pipeline.driver.control;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -43,9 +46,15 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
     //counter for worker identity assignment
     private int nextWorkerId = 0;
     
-    //queue of worker instances - each is associated with a running thread
+    //queue of active worker instances - each is associated with a running thread
     private final Queue<BalancedWorker> workers = new ConcurrentLinkedQueue<BalancedWorker>();
     
+    //deactivated workers whose threads are parked, available for reactivation
+    private final Queue<BalancedWorker> idleWorkers = new LinkedList<BalancedWorker>();
+    
+    //every worker whose thread has been started
+    private final List<BalancedWorker> allWorkers = new ArrayList<BalancedWorker>();
+    
     //number of threads to start initially
     private int initialThreads;
     
@@ -64,7 +73,7 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
      */
     private class SwitchingFeeder implements Feeder {
         //queue to hold data to be processed.
-        private final BlockingQueue queue;
+        private final BlockingQueue<Object> queue;
         
         public SwitchingFeeder(BlockingQueue queue) {
             this.queue = queue;
@@ -77,7 +86,7 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
                         || (workers.size() == 1 && workers.peek().runnability == Runnability.RUNNABLE)) {
                     try {
                         if (log.isDebugEnabled()) log.debug(stage + ": Queueing object: " + obj);
-                        this.queue.put(obj);
+                        enqueue(this.queue, obj);
                     } catch (InterruptedException e) {
                         throw new Error("Assertion failure: thread interrupted while attempting to enqueue data object.", e);
                     }
@@ -88,6 +97,7 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             
             try {
                 if (log.isDebugEnabled()) log.debug(stage + ":Processing object directly: " + obj);
+                recordFed();
                 BalancedPoolStageDriver.this.process(obj);
             } catch (StageException e) {
                 recordProcessingException(obj, e);
@@ -100,12 +110,12 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
      * This StageDriver implementation runs stage processing in a pool of threads
      *
      */
-    public BalancedPoolStageDriver(Stage stage, StageContext context, BlockingQueueFactory queueFactory,
+    public BalancedPoolStageDriver(Stage stage, StageContext context, BlockingQueueFactory<?> queueFactory,
             int initialThreads, FaultTolerance faultTolerance,
             long timeout, TimeUnit timeoutTimeUnit) {
         super(stage, context, faultTolerance);
         
-        this.feeder = new SwitchingFeeder(queueFactory.createQueue());
+        this.feeder = new SwitchingFeeder(createQueue(queueFactory, stage, context));
         this.startSignal = new CountDownLatch(1);
         this.initialThreads = initialThreads;
         this.timeout = timeout;
@@ -129,7 +139,7 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             if (log.isDebugEnabled()) log.debug("Preprocessing for stage " + stage + " complete.");
             
             log.debug("Starting worker threads for stage " + stage + ".");
-            this.addWorkers(initialThreads);
+            this.addWorkers(acquireThreads(initialThreads));
             
             // let threads know they can start
             testAndSetState(STARTED, RUNNING);
@@ -147,6 +157,11 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             throw new IllegalStateException("The driver is not currently running.");
         }
         
+        //remember the pool size reached, which is reported as the priority once stopped
+        synchronized (this) {
+            this.initialThreads = workers.size();
+        }
+        
         try {
             //it may be the case that finish() is called when the driver is still in the process
             //of starting up, so it is necessary to wait to enter the running state before
@@ -157,10 +172,19 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             testAndSetState(RUNNING, STOP_REQUESTED);
             
             if (log.isDebugEnabled()) log.debug("Waiting for worker threads to stop for stage " + stage + ".");
-            while (!workers.isEmpty()) {
-                BalancedWorker worker = workers.remove();
-                worker.awaitCompletion();
+            List<BalancedWorker> started;
+            synchronized (this) {
+                for (BalancedWorker worker : idleWorkers) worker.retire();
+                idleWorkers.clear();
+                started = new ArrayList<BalancedWorker>(allWorkers);
             }
+            
+            for (BalancedWorker worker : started) worker.awaitCompletion();
+            synchronized (this) {
+                workers.clear();
+                allWorkers.clear();
+            }
+            releaseAllThreads();
             if (log.isDebugEnabled()) log.debug("Worker threads for stage " + stage + " halted");
             
             //transition into finished state (not used internally?)
@@ -206,27 +230,39 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
     }
     
     /**
-     *
+     * Activates the specified number of workers, reusing parked workers where
+     * possible and starting new threads only for the remainder.
      */
     private synchronized void addWorkers(int count) {
         while (count-- > 0) {
-            BalancedWorker worker = new BalancedWorker(nextWorkerId, this.feeder.queue);
-            Thread workerThread = new Thread(worker);
+            BalancedWorker worker = idleWorkers.poll();
+            if (worker != null) {
+                worker.activate();
+            } else {
+                worker = new BalancedWorker(nextWorkerId, this.feeder.queue);
+                Thread workerThread = new Thread(worker);
+                allWorkers.add(worker);
+                nextWorkerId++;
+                workerThread.start();
+            }
+            
             workers.add(worker);
-            nextWorkerId++;
-            workerThread.start();
         }
     }
     
     /**
-     *
+     * Deactivates the specified number of workers. Deactivated workers finish
+     * processing their current object and then park until they are reactivated
+     * or the driver finishes; this method does not wait for them. The last
+     * worker is allowed to empty the queue before parking.
      */
-    private synchronized void removeWorkers(int count) throws InterruptedException {
+    private synchronized void removeWorkers(int count) {
         while (count-- > 0 && !workers.isEmpty()) {
             if (workers.size() > 1) {
-            BalancedWorker worker = workers.remove();
+                BalancedWorker worker = workers.remove();
                 worker.deactivate(false);
-            worker.awaitCompletion();
+                idleWorkers.add(worker);
+                releaseThreads(1);
             } else {
                 BalancedWorker worker = workers.peek();
                 worker.deactivate(true);
@@ -236,26 +272,40 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
     
     /**
      * Increases the priority of the managed stage by increasing the number of
-     * threads in which the stage is running.
+     * threads in which the stage is running. If the driver has a thread budget,
+     * no more threads are added than the budget allows.
      */
     public void increasePriority(double amount) {
-        this.addWorkers((int) amount);
+        this.addWorkers(acquireThreads((int) amount));
     }
     
     /**
      * Decreases the priority of the managed stage by decreasing the number of
-     * threads in which the stage is running.
+     * threads in which the stage is running. If the driver has not been started,
+     * the number of threads to be started initially is decreased first.
      */
     public void decreasePriority(double amount) {
-        try {
-            this.removeWorkers((int) amount);
-        } catch (InterruptedException e) {
-            throw new Error("Assertion failure: interrupted while awaiting worker thread stop for pool size reduction.", e);
+        synchronized (this) {
+            if (this.currentState == STOPPED) {
+                int fromInitial = Math.min((int) amount, this.initialThreads);
+                this.initialThreads -= fromInitial;
+                amount -= fromInitial;
+                if (amount < 1) return;
+            }
         }
+        
+        this.removeWorkers((int) amount);
     }
     
-    public double getPriority()
+    /**
+     * Returns the number of worker threads. Before the driver is started this
+     * includes the threads to be started initially; once it has been asked to
+     * finish, it is the number of threads that were running at the time.
+     */
+    public synchronized double getPriority()
     {
+        if (this.currentState == STOPPED) return getWorkerCount() + this.initialThreads;
+        if (isInState(STOP_REQUESTED, FINISHED)) return this.initialThreads;
         return getWorkerCount();
     }
     
@@ -267,15 +317,31 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
     }
     
     /**
-     * The worker thread
+     * Return the number of deactivated worker threads that are parked awaiting reuse.
+     */
+    public synchronized int getIdleWorkerCount() {
+        return this.idleWorkers.size();
+    }
+    
+    /**
+     * Returns the queue of objects awaiting processing by worker threads.
+     */
+    protected Queue<?> getQueue() {
+        return this.feeder.queue;
+    }
+    
+    /**
+     * The worker thread. A worker that is deactivated parks its thread until
+     * it is activated again or retired when the driver finishes.
      */
     private class BalancedWorker implements Runnable {
         private volatile Runnability runnability = Runnability.RUNNABLE;
+        private boolean retired = false;
         private final int workerId;
-        private final BlockingQueue queue;
+        private final BlockingQueue<Object> queue;
         private final CountDownLatch doneSignal;
         
-        public BalancedWorker(int workerId, BlockingQueue queue) {
+        public BalancedWorker(int workerId, BlockingQueue<Object> queue) {
             this.workerId  = workerId;
             this.queue = queue;
             this.doneSignal = new CountDownLatch(1);
@@ -285,11 +351,14 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             try {
                 BalancedPoolStageDriver.this.startSignal.await();
                 
-                running: while (runnability != Runnability.NOT_RUNNABLE && currentState != ERROR) {
+                running: while (currentState != ERROR) {
                     try {
-                        Object obj = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                        if (!awaitActivation()) break running;
+                        
+                        Object obj = dequeue(queue, timeout, TimeUnit.MILLISECONDS);
                         if (obj == null) {
-                            if (currentState == STOP_REQUESTED || runnability == Runnability.STOPPABLE) break running;
+                            if (currentState == STOP_REQUESTED) break running;
+                            if (runnability == Runnability.STOPPABLE) park();
                             //else continue running;
                         } else {
                             try {
@@ -320,7 +389,36 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             }
         }
         
-        public void deactivate(boolean waitForQueue) {
+        /**
+         * Waits while this worker is deactivated.
+         * @return false if the worker has been retired and its thread should exit
+         */
+        private synchronized boolean awaitActivation() throws InterruptedException {
+            while (runnability == Runnability.NOT_RUNNABLE && !retired) this.wait();
+            return !retired;
+        }
+        
+        /**
+         * Moves this worker, which has emptied the queue after being asked to
+         * stop once it was empty, to the idle workers.
+         */
+        private void park() {
+            synchronized (BalancedPoolStageDriver.this) {
+                //finishing workers exit rather than park
+                if (currentState != RUNNING || runnability != Runnability.STOPPABLE) return;
+                workers.remove(this);
+                idleWorkers.add(this);
+                releaseThreads(1);
+                deactivate(false);
+            }
+        }
+        
+        public synchronized void activate() {
+            this.runnability = Runnability.RUNNABLE;
+            this.notifyAll();
+        }
+        
+        public synchronized void deactivate(boolean waitForQueue) {
             if (waitForQueue) {
                 this.runnability = Runnability.STOPPABLE;
             } else {
@@ -328,6 +426,14 @@ public class BalancedPoolStageDriver extends AbstractPrioritizableStageDriver {
             }
         }
         
+        /**
+         * Causes the thread of this worker to exit once it is no longer processing.
+         */
+        public synchronized void retire() {
+            this.retired = true;
+            this.notifyAll();
+        }
+        
         public void awaitCompletion() throws InterruptedException {
             this.doneSignal.await();
         }
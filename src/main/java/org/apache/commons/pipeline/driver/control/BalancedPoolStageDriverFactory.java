@@ -34,7 +34,34 @@ public class BalancedPoolStageDriverFactory implements PrioritizableStageDriverF
     }
 
     public BalancedPoolStageDriver createStageDriver(Stage stage, StageContext context) {
-        return new BalancedPoolStageDriver(stage, context, queueFactory, initialThreads, faultTolerance, timeout, timeoutTimeUnit);
+        BalancedPoolStageDriver driver = new BalancedPoolStageDriver(stage, context, queueFactory, initialThreads, faultTolerance, timeout, timeoutTimeUnit);
+        driver.setThreadBudget(threadBudget);
+        driver.setTimingEventInterval(timingEventInterval);
+        return driver;
+    }
+
+    /**
+     * Holds value of property timingEventInterval.
+     */
+    private int timingEventInterval = AbstractPrioritizableStageDriver.DEFAULT_TIMING_EVENT_INTERVAL;
+
+    /**
+     * Getter for property timingEventInterval.
+     * @return Value of property timingEventInterval.
+     */
+    public int getTimingEventInterval() {
+        return this.timingEventInterval;
+    }
+
+    /**
+     * Setter for property timingEventInterval. Each worker thread of the
+     * drivers created by this factory raises a timing event for one in this
+     * many of the objects it processes.
+     * @param timingEventInterval New value of property timingEventInterval.
+     */
+    public void setTimingEventInterval(int timingEventInterval) {
+        if (timingEventInterval < 1) throw new IllegalArgumentException("Timing event interval must be at least 1.");
+        this.timingEventInterval = timingEventInterval;
     }
 
     /**
@@ -142,6 +169,31 @@ public class BalancedPoolStageDriverFactory implements PrioritizableStageDriverF
         this.timeoutTimeUnit = timeoutTimeUnit;
     }
     
+    /**
+     * Holds value of property threadBudget.
+     */
+    private ThreadBudget threadBudget;
+
+    /**
+     * Getter for property threadBudget.
+     * @return Value of property threadBudget.
+     */
+    public ThreadBudget getThreadBudget() {
+        return this.threadBudget;
+    }
+
+    /**
+     * Setter for property threadBudget. Drivers created by this factory
+     * allocate their worker threads from this budget; if it is null, they
+     * use the budget of the pipeline, set with {@link org.apache.commons.pipeline.Pipeline#setMaxThreads},
+     * and the number of worker threads is unlimited only if the pipeline has
+     * no budget either.
+     * @param threadBudget New value of property threadBudget.
+     */
+    public void setThreadBudget(ThreadBudget threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+    
     /**
      * Sets the initial priority of the driver instance in an implementation-specific
      * manner.
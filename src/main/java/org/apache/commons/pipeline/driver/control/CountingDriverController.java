@@ -33,6 +33,9 @@ public class CountingDriverController extends AbstractDriverController implement
     // flag used to signal that controller thread should stop
     private volatile boolean running;
     
+    // number of processed objects represented by the events not yet handled
+    private int pendingObjects;
+    
     /** Creates a new instance of AbstractPriorityController */
     public CountingDriverController() { }
     
@@ -45,7 +48,7 @@ public class CountingDriverController extends AbstractDriverController implement
                 while (running) {
                     List<StageProcessTimingEvent> eventsToHandle;
                     synchronized(CountingDriverController.this) {
-                        while (events.size() < minimumEventsToHandle && running) {
+                        while (pendingObjects < minimumEventsToHandle && running) {
                             try {
                                 CountingDriverController.this.wait();
                             } catch (InterruptedException e) {
@@ -55,14 +58,27 @@ public class CountingDriverController extends AbstractDriverController implement
                         
                         eventsToHandle = events;
                         events = new ArrayList<StageProcessTimingEvent>();
+                        pendingObjects = 0;
                     }
                     
-                    driverControl.handleEvents(drivers, eventsToHandle);
+                    handleEvents(eventsToHandle);
                 }
             }
         }.start();
     }
     
+    /**
+     * Overridden to count the processed objects each timing event stands for,
+     * so that sampled events do not delay the strategy.
+     */
+    public synchronized void notify(EventObject ev) {
+        if (ev instanceof StageProcessTimingEvent) {
+            events.add((StageProcessTimingEvent) ev);
+            pendingObjects += ((StageProcessTimingEvent) ev).getCount();
+            notifyAll();
+        }
+    }
+    
     /**
      * Holds value of property minimumEventsToHandle.
      */
@@ -77,7 +93,10 @@ public class CountingDriverController extends AbstractDriverController implement
     }
     
     /**
-     * Setter for property minimumEventsToHandle.
+     * Setter for property minimumEventsToHandle. The strategy is invoked once
+     * the timing events received stand for at least this many processed
+     * objects, counting each event as {@link StageProcessTimingEvent#getCount()}
+     * objects.
      * @param minimumEventsToHandle New value of property minimumEventsToHandle.
      */
     public void setMinimumEventsToHandle(int minimumEventsToHandle) {
@@ -40,9 +40,12 @@ public class EqualizingDriverControlStrategy implements DriverControlStrategy {
         Tuple() {
         }
 
-        public void add(long duration) {
-            count++;
-            this.duration += duration;
+        /**
+         * Adds the latency of a sampled object standing for count processed objects.
+         */
+        public void add(long duration, int count) {
+            this.count += count;
+            this.duration += duration * count;
         }
     }
 
@@ -57,6 +60,7 @@ public class EqualizingDriverControlStrategy implements DriverControlStrategy {
 
         Map<Stage, Tuple> timings = new HashMap<Stage, Tuple>();
         long total = 0;
+        long objects = 0;
         for (StageProcessTimingEvent ev : events) {
             Tuple tuple = timings.get((Stage) ev.getSource());
             if (tuple == null) {
@@ -64,8 +68,9 @@ public class EqualizingDriverControlStrategy implements DriverControlStrategy {
                 timings.put((Stage) ev.getSource(), tuple);
             }
 
-            tuple.add(ev.getLatency());
-            total += ev.getLatency();
+            tuple.add(ev.getLatency(), ev.getCount());
+            total += ev.getLatency() * ev.getCount();
+            objects += ev.getCount();
         }
 
         if (log.isDebugEnabled()) {
@@ -77,7 +82,7 @@ public class EqualizingDriverControlStrategy implements DriverControlStrategy {
             log.debug("Total latency: " + total);
         }
 
-        double mean = total / events.size();
+        double mean = total / objects;
         //log.debug("Mean latency: " + mean);
 
         for (PrioritizableStageDriver driver : drivers) {
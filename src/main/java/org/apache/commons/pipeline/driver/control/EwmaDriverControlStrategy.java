@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Stage;
+
+/**
+ * An implementation of DriverControlStrategy intended to be invoked at a fixed
+ * interval, for example by an {@link IntervalDriverController}. On each
+ * invocation the utilization of each stage's threads is estimated as the total
+ * processing time reported by timing events divided by the time available to
+ * the stage's threads since the previous invocation. The utilization is
+ * smoothed with an exponentially weighted moving average whose weight depends
+ * on the elapsed time, so irregular invocations are smoothed consistently.
+ *
+ * <p>A thread is added when the smoothed utilization rises above the upper
+ * threshold and removed when it falls below the lower threshold; between the
+ * two thresholds nothing changes. After each adjustment the driver is left
+ * alone for the cooldown period so that the effect of the change can be
+ * observed before another is made.</p>
+ */
+public class EwmaDriverControlStrategy implements TimedDriverControlStrategy {
+    private final Log log = LogFactory.getLog(EwmaDriverControlStrategy.class);
+    
+    //smoothed state of each managed driver
+    private final Map<PrioritizableStageDriver, Average> averages = new IdentityHashMap<PrioritizableStageDriver, Average>();
+    
+    /**
+     * The smoothed utilization of a single driver.
+     */
+    private static class Average {
+        private long lastTime;
+        private boolean adjusted;
+        private long lastAdjustment;
+        private double utilization = Double.NaN;
+    }
+    
+    /** Creates a new instance of EwmaDriverControlStrategy */
+    public EwmaDriverControlStrategy() {
+    }
+    
+    public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events) {
+        handleEvents(drivers, events, System.currentTimeMillis());
+    }
+    
+    /**
+     * Updates the averages as of the specified time in milliseconds and adjusts
+     * the priorities of the drivers.
+     */
+    public synchronized void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events, long now) {
+        Map<Stage, Long> busyTimes = new HashMap<Stage, Long>();
+        for (StageProcessTimingEvent ev : events) {
+            Long busy = busyTimes.get((Stage) ev.getSource());
+            busyTimes.put((Stage) ev.getSource(), (busy == null ? 0 : busy) + ev.getLatency() * ev.getCount());
+        }
+        
+        for (PrioritizableStageDriver driver : drivers) {
+            Average average = averages.get(driver);
+            if (average == null) {
+                average = new Average();
+                average.lastTime = now;
+                averages.put(driver, average);
+                continue;
+            }
+            
+            long elapsed = now - average.lastTime;
+            if (elapsed <= 0) continue;
+            average.lastTime = now;
+            
+            Long busy = busyTimes.get(driver.getStage());
+            double threads = Math.max(1.0, driver.getPriority());
+            double utilization = (busy == null ? 0 : busy) / (elapsed * threads);
+            double weight = 1 - Math.exp(-elapsed / (double) timeConstant);
+            average.utilization = Double.isNaN(average.utilization)
+                    ? utilization
+                    : average.utilization + weight * (utilization - average.utilization);
+            
+            if (average.adjusted && now - average.lastAdjustment < cooldown) continue;
+            
+            if (average.utilization > upperThreshold) {
+                if (log.isDebugEnabled()) log.debug("Increasing priority for stage " + driver.getStage() + " with utilization " + average.utilization);
+                driver.increasePriority(1);
+                average.adjusted = true;
+                average.lastAdjustment = now;
+            } else if (average.utilization < lowerThreshold && driver.getPriority() > minimumPriority) {
+                if (log.isDebugEnabled()) log.debug("Decreasing priority for stage " + driver.getStage() + " with utilization " + average.utilization);
+                driver.decreasePriority(1);
+                average.adjusted = true;
+                average.lastAdjustment = now;
+            }
+        }
+    }
+    
+    /**
+     * Returns the smoothed utilization of the specified driver's threads, or
+     * NaN if it has not yet been measured.
+     */
+    public synchronized double getUtilization(PrioritizableStageDriver driver) {
+        Average average = averages.get(driver);
+        return average == null ? Double.NaN : average.utilization;
+    }
+    
+    /**
+     * Holds value of property timeConstant.
+     */
+    private long timeConstant = 5000;
+    
+    /**
+     * Getter for property timeConstant.
+     * @return Value of property timeConstant.
+     */
+    public long getTimeConstant() {
+        return this.timeConstant;
+    }
+    
+    /**
+     * Setter for property timeConstant. This is the time in milliseconds over
+     * which the weight of an observation in the moving average decays by a factor of e.
+     * @param timeConstant New value of property timeConstant.
+     */
+    public void setTimeConstant(long timeConstant) {
+        if (timeConstant < 1) throw new IllegalArgumentException("Time constant must be at least one millisecond.");
+        this.timeConstant = timeConstant;
+    }
+    
+    /**
+     * Holds value of property upperThreshold.
+     */
+    private double upperThreshold = 0.85;
+    
+    /**
+     * Getter for property upperThreshold.
+     * @return Value of property upperThreshold.
+     */
+    public double getUpperThreshold() {
+        return this.upperThreshold;
+    }
+    
+    /**
+     * Setter for property upperThreshold. Threads are added to stages whose
+     * smoothed utilization exceeds this value.
+     * @param upperThreshold New value of property upperThreshold.
+     */
+    public void setUpperThreshold(double upperThreshold) {
+        this.upperThreshold = upperThreshold;
+    }
+    
+    /**
+     * Holds value of property lowerThreshold.
+     */
+    private double lowerThreshold = 0.4;
+    
+    /**
+     * Getter for property lowerThreshold.
+     * @return Value of property lowerThreshold.
+     */
+    public double getLowerThreshold() {
+        return this.lowerThreshold;
+    }
+    
+    /**
+     * Setter for property lowerThreshold. Threads are removed from stages whose
+     * smoothed utilization falls below this value.
+     * @param lowerThreshold New value of property lowerThreshold.
+     */
+    public void setLowerThreshold(double lowerThreshold) {
+        this.lowerThreshold = lowerThreshold;
+    }
+    
+    /**
+     * Holds value of property cooldown.
+     */
+    private long cooldown = 5000;
+    
+    /**
+     * Getter for property cooldown.
+     * @return Value of property cooldown.
+     */
+    public long getCooldown() {
+        return this.cooldown;
+    }
+    
+    /**
+     * Setter for property cooldown. This is the time in milliseconds after an
+     * adjustment during which no further adjustment is made to the same driver.
+     * @param cooldown New value of property cooldown.
+     */
+    public void setCooldown(long cooldown) {
+        this.cooldown = cooldown;
+    }
+    
+    /**
+     * Holds value of property minimumPriority.
+     */
+    private double minimumPriority = 1;
+    
+    /**
+     * Getter for property minimumPriority.
+     * @return Value of property minimumPriority.
+     */
+    public double getMinimumPriority() {
+        return this.minimumPriority;
+    }
+    
+    /**
+     * Setter for property minimumPriority.
+     * @param minimumPriority New value of property minimumPriority.
+     */
+    public void setMinimumPriority(double minimumPriority) {
+        this.minimumPriority = minimumPriority;
+    }
+}
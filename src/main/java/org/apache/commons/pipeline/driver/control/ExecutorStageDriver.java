@@ -22,12 +22,11 @@ package org.apache.commons.pipeline.driver.control;
 import static org.apache.commons.pipeline.StageDriver.State.*;
 import static org.apache.commons.pipeline.driver.FaultTolerance.*;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.pipeline.Feeder;
@@ -36,88 +35,116 @@ import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageDriver;
 import org.apache.commons.pipeline.StageException;
 import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
 
 /**
  * This {@link StageDriver} implementation uses a pool of threads
  * to process objects from an input queue.
+ *
+ * <p>Each thread of the pool runs a long-lived worker that takes objects from
+ * the queue until it is told to retire, so no task object is created for
+ * each object fed. If the queue is bounded, feeders block when it is full;
+ * a feeder that would block before the driver has been started fails
+ * instead, since no worker would make room for it. The priority of the
+ * driver is the number of workers; when it is lowered, surplus workers retire
+ * once they have finished the object they are processing, returning their
+ * threads to the pool, where up to <code>coreThreads</code> idle threads are
+ * kept for reuse. When the priority is zero objects are processed in the
+ * feeding thread once the queue is empty.</p>
  */
 public class ExecutorStageDriver extends AbstractPrioritizableStageDriver {
     private final Log log = LogFactory.getLog(ExecutorStageDriver.class);
     
-    //executor service for parallel processing
+    //thread pool running the workers
     private final ThreadPoolExecutor threadPoolExecutor;
     
-    //executor service for synchronous processing
-    private final Executor directExecutor = new Executor(){
-        public void execute(Runnable r) { r.run(); }
-    };
-    
-    //signal that indicates it's okay to process objects
-    private final CountDownLatch startSignal;
+    //queue to hold data to be processed
+    private final BlockingQueue<Object> queue;
     
-    //reference to the executor that is currently in use by the feeder
-    private volatile Executor executor;
+    //wait timeout to ensure deadlock cannot occur on thread termination
+    private final long timeout;
     
-    //maximum number of threads in the pool
-    private int maxThreads;
+    //number of workers the driver should be running; written only while
+    //holding the driver's lock but read without it on the processing path
+    private volatile int targetThreads;
     
-    //average number of threads in the pool
-    private int coreThreads;
+    //number of workers that have been started and have not yet exited
+    private volatile int runningWorkers;
     
     //feeder used to feed data to this stage's queue
     private final Feeder feeder = new Feeder() {
-        public void feed(final Object obj) {
-            if (isInState(ERROR)) throw new IllegalStateException("Stage " + stage + " is in state ERROR and is hence unable to process data.");
+        public void feed(Object obj) {
+            if (currentState == ERROR) throw new IllegalStateException("Stage " + stage + " is in state ERROR and is hence unable to process data.");
+            if (currentState == STOPPED && queue.remainingCapacity() == 0) {
+                throw new IllegalStateException("Queue for stage " + stage + " is full and the driver has not been started, "
+                        + "so object " + obj + " could never be queued.");
+            }
             
-            executor.execute(new Runnable() {
-                public void run() {
-                    try {
-                        startSignal.await();
-                        ExecutorStageDriver.this.process(obj);
-                    } catch (InterruptedException e) {
-                        throw new Error("Assertion failure: interrupted while awaiting start signal.", e);
-                    } catch (StageException e) {
-                        recordProcessingException(obj, e);
-                        if (faultTolerance == NONE) setState(ERROR);
-                    } catch (RuntimeException e) {
-                        recordProcessingException(obj, e);
-                        if (faultTolerance == CHECKED || faultTolerance == NONE) throw e;
-                    }
-                }
-            });
+            if (processDirectly() && queue.isEmpty()) {
+                recordFed();
+                processObject(obj);
+                return;
+            }
+            
+            try {
+                enqueue(queue, obj);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Unexpected interrupt while waiting for space to become available for object "
+                        + obj + " in queue for stage " + stage, e);
+            }
+            
+            //the last worker may have retired while the object was being queued
+            while (processDirectly() && (obj = queue.poll()) != null) processObject(obj);
         }
     };
     
+    /**
+     * Creates a new ExecutorStageDriver with an unbounded queue.
+     *
+     * @param stage The stage that the driver will run
+     * @param context the context in which to run the stage
+     * @param faultTolerance Flag determining the behavior of the driver when
+     * an error is encountered in execution of {@link Stage#process(Object)}.
+     * @param coreThreads Number of idle threads kept in the pool for reuse
+     * @param maxThreads Number of threads that will be simultaneously reading from queue
+     */
+    public ExecutorStageDriver(Stage stage, StageContext context, FaultTolerance faultTolerance, int coreThreads, int maxThreads) {
+        this(stage, context, defaultQueueFactory(), 500, faultTolerance, coreThreads, maxThreads);
+    }
+    
     /**
      * Creates a new ExecutorStageDriver.
      *
      * @param stage The stage that the driver will run
      * @param context the context in which to run the stage
-     * @param queue The object queue to use for storing objects prior to processing. The
-     * default is {@link LinkedBlockingQueue}
-     * @param timeout The amount of time, in milliseconds, that the worker thread
+     * @param queueFactory The factory used to create the queue that stores objects
+     * prior to processing. Bounded queues make feeders wait when the stage
+     * falls behind.
+     * @param timeout The amount of time, in milliseconds, that a worker
      * will wait before checking the processing state if no objects are available
-     * in the thread's queue.
+     * in the queue.
      * @param faultTolerance Flag determining the behavior of the driver when
      * an error is encountered in execution of {@link Stage#process(Object)}.
-     * If this is set to false, any exception thrown during {@link Stage#process(Object)}
-     * will cause the worker thread to halt without executing {@link Stage#postprocess()}
-     * ({@link Stage#release()} will be called.)
-     * @param numThreads Number of threads that will be simultaneously reading from queue
+     * @param coreThreads Number of idle threads kept in the pool for reuse
+     * @param maxThreads Number of threads that will be simultaneously reading from queue
      */
-    public ExecutorStageDriver(Stage stage, StageContext context, FaultTolerance faultTolerance, int coreThreads, int maxThreads) {
+    @SuppressWarnings("unchecked")
+    public ExecutorStageDriver(Stage stage, StageContext context, BlockingQueueFactory<?> queueFactory, long timeout,
+            FaultTolerance faultTolerance, int coreThreads, int maxThreads) {
         super(stage, context, faultTolerance);
-        this.threadPoolExecutor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
-        this.threadPoolExecutor.setCorePoolSize(coreThreads);
-        this.threadPoolExecutor.setMaximumPoolSize(maxThreads);
-        this.threadPoolExecutor.setRejectedExecutionHandler(new RejectedExecutionHandler() {
-            public void rejectedExecution(Runnable command, ThreadPoolExecutor exec) {
-                ExecutorStageDriver.this.directExecutor.execute(command);
-            }
-        });
-        
-        this.executor = (maxThreads == 0) ? this.directExecutor : this.threadPoolExecutor;
-        this.startSignal = new CountDownLatch(1);
+        //the queue holds whatever is fed to the stage, whatever its declared element type
+        this.queue = (BlockingQueue<Object>) createQueue(queueFactory, stage, context);
+        this.timeout = timeout;
+        this.targetThreads = maxThreads;
+        this.threadPoolExecutor = new ThreadPoolExecutor(Math.max(0, coreThreads), Integer.MAX_VALUE,
+                60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+    }
+    
+    /**
+     * Returns a factory for the unbounded queues used when no queue factory is specified.
+     */
+    static BlockingQueueFactory<?> defaultQueueFactory() {
+        return new BlockingQueueFactory.LinkedBlockingQueueFactory<Object>();
     }
     
     /**
@@ -129,72 +156,264 @@ public class ExecutorStageDriver extends AbstractPrioritizableStageDriver {
     }
     
     /**
-     * Start the processing of the stage. Creates threads to poll items
-     * from queue.
+     * Start the processing of the stage. Starts workers to poll items
+     * from the queue.
      * @throws org.apache.commons.pipeline.StageException Thrown if the driver is in an illegal state during startup
      */
     public synchronized void start() throws StageException {
         if (this.currentState == STOPPED) {
             setState(STARTED);
+            
+            //the pool may only grow as large as the thread budget allows
+            this.targetThreads = acquireThreads(this.targetThreads);
+            
             if (log.isDebugEnabled()) log.debug("Preprocessing stage " + stage + "...");
             this.stage.preprocess();
             if (log.isDebugEnabled()) log.debug("Preprocessing for stage " + stage + " complete.");
             
-            // let threads know they can start
             testAndSetState(STARTED, RUNNING);
-            this.startSignal.countDown();
+            this.startWorkers();
         }
     }
     
     /**
-     * Causes processing to shut down gracefully. Waits until all worker threads
-     * have completed.
+     * Causes processing to shut down gracefully. Waits until the queue has
+     * been emptied and all worker threads have terminated before
+     * postprocessing the stage.
      * @throws org.apache.commons.pipeline.StageException Thrown if the driver is in an illegal state for shutdown.
      */
-    public synchronized void finish() throws StageException {
-        try {
+    public void finish() throws StageException {
+        synchronized (this) {
+            if (currentState == STOPPED) {
+                throw new IllegalStateException("The driver is not currently running.");
+            }
+            
+            //ask the workers to shut down once the queue is empty
             testAndSetState(RUNNING, STOP_REQUESTED);
+        }
+        
+        try {
+            if (log.isDebugEnabled()) log.debug("Waiting for worker threads to stop for stage " + stage + ".");
+            synchronized (this) {
+                while (this.runningWorkers > 0) this.wait();
+            }
+            
+            //with no workers, anything left in the queue is processed here
+            Object obj;
+            while (this.currentState != ERROR && (obj = queue.poll()) != null) processObject(obj);
+            
             this.threadPoolExecutor.shutdown();
-            testAndSetState(STOP_REQUESTED, STOPPED);
+            while (!this.threadPoolExecutor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                if (log.isDebugEnabled()) log.debug("Awaiting termination of thread pool for stage " + stage + ".");
+            }
+            if (log.isDebugEnabled()) log.debug("Worker threads for stage " + stage + " halted");
             
-            while (!this.threadPoolExecutor.isShutdown() && this.currentState != ERROR) this.wait();
+            testAndSetState(STOP_REQUESTED, FINISHED);
             
-            if (log.isDebugEnabled()) log.debug("Postprocessing stage " + stage + "...");
-            this.stage.postprocess();
-            if (log.isDebugEnabled()) log.debug("Postprocessing for stage " + stage + " complete.");
+            //do not run postprocessing if the driver is in an error state
+            if (this.currentState != ERROR) {
+                if (log.isDebugEnabled()) log.debug("Postprocessing stage " + stage + "...");
+                this.stage.postprocess();
+                if (log.isDebugEnabled()) log.debug("Postprocessing for stage " + stage + " complete.");
+            }
+        } catch (StageException e) {
+            log.error("An error occurred during postprocessing of stage " + stage , e);
+            recordFatalError(e);
+            setState(ERROR);
         } catch (InterruptedException e) {
-            throw new RuntimeException("Unexpectedly interrupted while awaiting thread pool shutdown.", e);
+            throw new StageException(this.getStage(), "StageDriver unexpectedly interrupted while waiting for shutdown of worker threads.", e);
         } finally {
             if (log.isDebugEnabled()) log.debug("Releasing resources for stage " + stage + "...");
             stage.release();
             if (log.isDebugEnabled()) log.debug("Stage " + stage + " released.");
             
-            testAndSetState(STOPPED, FINISHED);
+            releaseAllThreads();
         }
+        
+        testAndSetState(FINISHED, STOPPED);
     }
     
+    /**
+     * Increases the number of workers by the specified amount, or
+     * by as much as the driver's thread budget allows.
+     */
     public synchronized void increasePriority(double amount) {
-        this.maxThreads += amount;
-        this.coreThreads += (int) (amount / 1.5);
-        this.threadPoolExecutor.setCorePoolSize(coreThreads);
-        this.threadPoolExecutor.setMaximumPoolSize(maxThreads);
-        if (this.executor == this.directExecutor || maxThreads > 0) {
-            this.executor = this.threadPoolExecutor;
-        }
+        //threads for the initial pool size are allocated from the budget on startup
+        int granted = isInState(STARTED, RUNNING) ? acquireThreads((int) amount) : (int) amount;
+        this.targetThreads += granted;
+        if (isInState(RUNNING)) this.startWorkers();
     }
     
+    /**
+     * Decreases the number of workers by the specified amount. Surplus workers
+     * retire once they have finished the object they are processing.
+     */
     public synchronized void decreasePriority(double amount) {
-        this.maxThreads = (amount / 1.5 > maxThreads) ? 0 : maxThreads - (int) (amount / 1.5);
-        this.coreThreads = (amount > coreThreads) ? 0 : coreThreads - (int) amount;
-        this.threadPoolExecutor.setCorePoolSize(coreThreads);
-        this.threadPoolExecutor.setMaximumPoolSize(maxThreads);
-        if (maxThreads == 0) {
-            this.executor = this.directExecutor;
-        }
+        int removed = Math.min((int) amount, this.targetThreads);
+        this.targetThreads -= removed;
+        if (isInState(STARTED, RUNNING)) releaseThreads(removed);
     }
     
     public double getPriority()
     {
-        return maxThreads;
+        return targetThreads;
+    }
+    
+    /**
+     * Starts workers until the target number is running.
+     */
+    private void startWorkers() {
+        while (this.runningWorkers < this.targetThreads) {
+            this.runningWorkers++;
+            this.threadPoolExecutor.execute(new Worker());
+        }
+    }
+    
+    /**
+     * Returns true if a worker should exit, in which case it is no longer
+     * counted as running. The last worker does not retire until the queue is
+     * empty, so that no objects are stranded.
+     */
+    private boolean retire() {
+        //avoid taking the lock for every object while the pool size is stable
+        if (this.runningWorkers <= this.targetThreads) return false;
+        
+        synchronized (this) {
+            if (this.runningWorkers > this.targetThreads && (this.targetThreads > 0 || queue.isEmpty())) {
+                this.runningWorkers--;
+                this.notifyAll();
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Returns true if objects should be processed in the feeding thread because
+     * the driver is running without workers.
+     */
+    private boolean processDirectly() {
+        if (this.targetThreads > 0) return false;
+        
+        synchronized (this) {
+            return this.currentState == RUNNING && this.runningWorkers == 0 && this.targetThreads == 0;
+        }
+    }
+    
+    /**
+     * Processes a single object, applying the fault tolerance policy.
+     */
+    private void processObject(Object obj) {
+        try {
+            this.process(obj);
+        } catch (StageException e) {
+            recordProcessingException(obj, e);
+            if (faultTolerance == NONE) {
+                recordFatalError(e);
+                setState(ERROR);
+            }
+        } catch (RuntimeException e) {
+            recordProcessingException(obj, e);
+            if (faultTolerance == CHECKED || faultTolerance == NONE) throw e;
+        }
+    }
+    
+    /**
+     * Returns the queue of objects awaiting processing.
+     */
+    protected Queue<?> getQueue() {
+        return this.queue;
+    }
+    
+    /**
+     * Returns the number of workers currently running.
+     */
+    public int getWorkerCount() {
+        return this.runningWorkers;
+    }
+    
+    /**
+     * Get the timeout value (in milliseconds) used by this StageDriver on
+     * thread termination.
+     * @return the timeout setting in milliseconds
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+    
+    /**
+     * Returns the approximate number of pool threads that are actively running workers.
+     */
+    public int getActiveCount() {
+        return this.threadPoolExecutor.getActiveCount();
+    }
+    
+    /**
+     * Returns the largest number of threads that have simultaneously been in the pool.
+     */
+    public int getLargestPoolSize() {
+        return this.threadPoolExecutor.getLargestPoolSize();
+    }
+    
+    /**
+     * Returns the number of idle threads kept in the pool for reuse.
+     */
+    public int getCorePoolSize() {
+        return this.threadPoolExecutor.getCorePoolSize();
+    }
+    
+    /**
+     * Returns the maximum number of workers, which is the current priority.
+     */
+    public int getMaximumPoolSize() {
+        return (int) getPriority();
+    }
+    
+    /**
+     * Returns the approximate number of workers that have completed.
+     */
+    public long getCompletedTaskCount() {
+        return this.threadPoolExecutor.getCompletedTaskCount();
+    }
+    
+    /**
+     * A worker that processes objects from the queue until it retires, the
+     * queue is exhausted after a stop has been requested, or an error occurs.
+     */
+    private class Worker implements Runnable {
+        public void run() {
+            boolean retired = false;
+            try {
+                while (currentState != ERROR) {
+                    if (retire()) {
+                        retired = true;
+                        break;
+                    }
+                    
+                    Object obj = dequeue(queue, timeout, TimeUnit.MILLISECONDS);
+                    if (obj == null) {
+                        if (currentState == STOP_REQUESTED) break;
+                    } else {
+                        processObject(obj);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.error("Worker for stage " + stage + " unexpectedly interrupted while waiting on data", e);
+                recordFatalError(e);
+                setState(ERROR);
+            } catch (RuntimeException e) {
+                log.error("Uncaught exception in stage " + stage, e);
+                recordFatalError(e);
+                setState(ERROR);
+            } finally {
+                if (!retired) {
+                    synchronized (ExecutorStageDriver.this) {
+                        runningWorkers--;
+                        ExecutorStageDriver.this.notifyAll();
+                    }
+                }
+            }
+        }
     }
 }
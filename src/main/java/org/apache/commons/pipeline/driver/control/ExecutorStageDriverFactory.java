@@ -21,6 +21,7 @@ import org.apache.commons.pipeline.Stage;
 import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageDriverFactory;
 import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
 
 /**
  *
@@ -32,7 +33,77 @@ public class ExecutorStageDriverFactory implements PrioritizableStageDriverFacto
     }
 
     public ExecutorStageDriver createStageDriver(Stage stage, StageContext context) {
-        return new ExecutorStageDriver(stage, context, faultTolerance, coreThreads, maxThreads);
+        ExecutorStageDriver driver = new ExecutorStageDriver(stage, context, queueFactory, timeout, faultTolerance, coreThreads, maxThreads);
+        driver.setThreadBudget(threadBudget);
+        driver.setTimingEventInterval(timingEventInterval);
+        return driver;
+    }
+
+    /**
+     * Holds value of property timingEventInterval.
+     */
+    private int timingEventInterval = AbstractPrioritizableStageDriver.DEFAULT_TIMING_EVENT_INTERVAL;
+
+    /**
+     * Getter for property timingEventInterval.
+     * @return Value of property timingEventInterval.
+     */
+    public int getTimingEventInterval() {
+        return this.timingEventInterval;
+    }
+
+    /**
+     * Setter for property timingEventInterval. Each worker thread of the
+     * drivers created by this factory raises a timing event for one in this
+     * many of the objects it processes.
+     * @param timingEventInterval New value of property timingEventInterval.
+     */
+    public void setTimingEventInterval(int timingEventInterval) {
+        if (timingEventInterval < 1) throw new IllegalArgumentException("Timing event interval must be at least 1.");
+        this.timingEventInterval = timingEventInterval;
+    }
+
+    /**
+     * Holds value of property queueFactory.
+     */
+    private BlockingQueueFactory<?> queueFactory = ExecutorStageDriver.defaultQueueFactory();
+
+    /**
+     * Getter for property queueFactory.
+     * @return Value of property queueFactory.
+     */
+    public BlockingQueueFactory<?> getQueueFactory() {
+        return this.queueFactory;
+    }
+
+    /**
+     * Setter for property queueFactory. Bounded queues make feeders wait when
+     * a stage falls behind; the default creates unbounded queues.
+     * @param queueFactory New value of property queueFactory.
+     */
+    public void setQueueFactory(BlockingQueueFactory<?> queueFactory) {
+        this.queueFactory = queueFactory;
+    }
+
+    /**
+     * Holds value of property timeout.
+     */
+    private long timeout = 500;
+
+    /**
+     * Getter for property timeout.
+     * @return Value of property timeout.
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Setter for property timeout.
+     * @param timeout New value of property timeout, in milliseconds.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
     }
 
     /**
@@ -98,6 +169,31 @@ public class ExecutorStageDriverFactory implements PrioritizableStageDriverFacto
         this.maxThreads = maxThreads;
     }
     
+    /**
+     * Holds value of property threadBudget.
+     */
+    private ThreadBudget threadBudget;
+
+    /**
+     * Getter for property threadBudget.
+     * @return Value of property threadBudget.
+     */
+    public ThreadBudget getThreadBudget() {
+        return this.threadBudget;
+    }
+
+    /**
+     * Setter for property threadBudget. Drivers created by this factory
+     * allocate the maximum size of their thread pools from this budget; if it
+     * is null, they use the budget of the pipeline, set with
+     * {@link org.apache.commons.pipeline.Pipeline#setMaxThreads}, and the pool
+     * size is unlimited only if the pipeline has no budget either.
+     * @param threadBudget New value of property threadBudget.
+     */
+    public void setThreadBudget(ThreadBudget threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+    
     public void setInitialPriority(double priority) {
         this.setCoreThreads((int) priority);
         this.setMaxThreads((int) priority);
@@ -30,7 +30,11 @@ import org.apache.commons.pipeline.Stage;
  * increases and decreases priorities to see if performance is improved.  If
  * a performance improvement is found, additional experiments are done in the
  * same direction
+ *
+ * @deprecated Each stage is tuned against its own latency rather than the
+ * throughput of the pipeline; use {@link ThroughputHillClimbingDriverControlStrategy}.
  */
+@Deprecated
 public class ExperimentalDriverControlStrategy implements DriverControlStrategy {
 
     private Log log = LogFactory.getLog(ExperimentalDriverControlStrategy.class);
@@ -73,12 +77,18 @@ public class ExperimentalDriverControlStrategy implements DriverControlStrategy
         Tuple() {
         }
 
-        public void add(long duration) {
-            count++;
-            this.duration += duration;
+        /**
+         * Adds the latency of a sampled object standing for count processed objects.
+         */
+        public void add(long duration, int count) {
+            this.count += count;
+            this.duration += duration * count;
         }
     }
     private Map<Stage, Tuple> lastTimings = new HashMap<Stage, Tuple>();
+    
+    //source of random actions
+    private final Random random = new Random();
 
     /** Creates a new instance of EqualizingDriverControlStrategy */
     public ExperimentalDriverControlStrategy() {
@@ -100,11 +110,14 @@ public class ExperimentalDriverControlStrategy implements DriverControlStrategy
                 timings.put((Stage) ev.getSource(), tuple);
             }
 
-            tuple.add(ev.getLatency());
+            tuple.add(ev.getLatency(), ev.getCount());
         }
 
         for (PrioritizableStageDriver driver : drivers) {
             Tuple mostRecentTiming = timings.get(driver.getStage());
+            //stages that processed nothing since the last call have nothing to compare
+            if (mostRecentTiming == null) continue;
+            
             Tuple previousTiming = lastTimings.get(driver.getStage());
             double avgMostRecentDuration = mostRecentTiming.duration / mostRecentTiming.count;
             //first time around, try increasing priority
@@ -169,12 +182,7 @@ public class ExperimentalDriverControlStrategy implements DriverControlStrategy
     }
 
     private Action getRandomAction() {
-        int val = new Random().nextInt();
-        if (val < 0) {
-            val *= -1;
-        }
-        int actionVal = val % 3;
-        switch (actionVal) {
+        switch (random.nextInt(3)) {
             case 0:
                 return Action.None;
             case 1:
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.EventObject;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.PipelineLifecycleJob;
+
+/**
+ * A driver controller that invokes its control strategy at a fixed interval,
+ * passing whatever timing events have arrived since the previous invocation.
+ * Unlike {@link CountingDriverController}, stages that slow to a trickle are
+ * still re-evaluated, and a burst of events does not trigger a burst of
+ * decisions. This controller is normally paired with
+ * {@link EwmaDriverControlStrategy}, which is designed for regular invocation.
+ */
+public class IntervalDriverController extends AbstractDriverController implements PipelineLifecycleJob {
+    private final Log log = LogFactory.getLog(IntervalDriverController.class);
+    
+    // flag used to signal that controller thread should stop
+    private volatile boolean running;
+    
+    /** Creates a new instance of IntervalDriverController */
+    public IntervalDriverController() { }
+    
+    public void onStart(Pipeline pipeline) {
+        if (pipeline != null) pipeline.registerListener(IntervalDriverController.this);
+        running = true;
+        
+        Thread controller = new Thread("IntervalDriverController") {
+            public void run() {
+                long next = System.currentTimeMillis() + interval;
+                while (running) {
+                    List<StageProcessTimingEvent> eventsToHandle;
+                    synchronized(IntervalDriverController.this) {
+                        long remaining;
+                        while (running && (remaining = next - System.currentTimeMillis()) > 0) {
+                            try {
+                                IntervalDriverController.this.wait(remaining);
+                            } catch (InterruptedException e) {
+                                throw new Error("Assertion failure: interrupted while waiting for control interval", e);
+                            }
+                        }
+                        
+                        eventsToHandle = events;
+                        events = new ArrayList<StageProcessTimingEvent>();
+                    }
+                    
+                    if (!running) break;
+                    try {
+                        handleEvents(eventsToHandle);
+                    } catch (RuntimeException e) {
+                        log.error("Driver control strategy failed; priorities left unchanged for this interval.", e);
+                    }
+                    //an overrun delays the next invocation rather than making it immediate
+                    next = Math.max(next + interval, System.currentTimeMillis() + interval);
+                }
+            }
+        };
+        controller.setDaemon(true);
+        controller.start();
+    }
+    
+    /**
+     * Overridden so that the arrival of timing events does not wake the
+     * controller thread before the end of the interval.
+     */
+    public synchronized void notify(EventObject ev) {
+        if (ev instanceof StageProcessTimingEvent) {
+            events.add((StageProcessTimingEvent) ev);
+        }
+    }
+    
+    public void onFinish(Pipeline pipeline) {
+        synchronized(this) {
+            this.running = false;
+            this.notifyAll();
+        }
+    }
+    
+    /**
+     * Holds value of property interval.
+     */
+    private long interval = 1000;
+    
+    /**
+     * Getter for property interval.
+     * @return Value of property interval.
+     */
+    public long getInterval() {
+        return this.interval;
+    }
+    
+    /**
+     * Setter for property interval.
+     * @param interval New value of property interval, the time in milliseconds
+     * between invocations of the control strategy.
+     */
+    public void setInterval(long interval) {
+        if (interval < 1) throw new IllegalArgumentException("Interval must be at least one millisecond.");
+        this.interval = interval;
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+
+/**
+ * An implementation of DriverControlStrategy that sizes driver thread pools
+ * according to where work is actually accumulating. On each invocation the
+ * input queue depth, arrival rate and departure rate of every managed driver
+ * are sampled. By Little's law, a stage receiving objects at rate
+ * <i>&lambda;</i> with mean service time <i>S</i> needs <i>&lambda;S</i>
+ * threads to keep up; a queue deeper than the target depth adds the threads
+ * needed to drain the excess within the drain time. Each driver is moved a
+ * damped step toward that number: the rates and service times are smoothed
+ * exponentially, only a fraction (the gain) of the difference is applied per
+ * invocation, and differences smaller than the deadband are ignored.
+ *
+ * <p>Drivers that do not extend {@link AbstractStageDriver} do not expose their
+ * queues and are left unchanged.</p>
+ *
+ * <p>Reductions are applied before increases. If a driver to be given more
+ * threads allocates them from a {@link ThreadBudget} that is exhausted, threads
+ * are first taken from the drivers sharing that budget that have the most
+ * threads beyond what they need, so that the bottleneck stages are served
+ * within the budget.</p>
+ *
+ * <p>The {@link StageWorkload} reported by each driver limits the threads it is
+ * given: a CPU-bound stage is given no more threads than there are processors,
+ * and a stage contended on locks is not given more threads at all.</p>
+ */
+public class QueueDepthDriverControlStrategy implements TimedDriverControlStrategy {
+    private final Log log = LogFactory.getLog(QueueDepthDriverControlStrategy.class);
+    
+    //number of processors available to the virtual machine
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    
+    //previous observations of each managed driver
+    private final Map<PrioritizableStageDriver, Sample> samples = new IdentityHashMap<PrioritizableStageDriver, Sample>();
+    
+    /**
+     * The smoothed observations of a single driver.
+     */
+    private static class Sample {
+        private long time;
+        private long fed;
+        private long processed;
+        private double arrivalRate = Double.NaN;   // objects per millisecond
+        private double departureRate = Double.NaN; // objects per millisecond
+        private double serviceTime = Double.NaN;   // milliseconds
+    }
+    
+    /**
+     * A planned change to the priority of a single driver.
+     */
+    private static class Adjustment {
+        private final PrioritizableStageDriver driver;
+        private final double desired;
+        private final long step;
+        
+        Adjustment(PrioritizableStageDriver driver, double desired, long step) {
+            this.driver = driver;
+            this.desired = desired;
+            this.step = step;
+        }
+        
+        double surplus() {
+            return driver.getPriority() - desired;
+        }
+    }
+    
+    //orders adjustments by decreasing size of the planned increase
+    private static final Comparator<Adjustment> LARGEST_STEP_FIRST = new Comparator<Adjustment>() {
+        public int compare(Adjustment a, Adjustment b) {
+            return a.step > b.step ? -1 : (a.step < b.step ? 1 : 0);
+        }
+    };
+    
+    /** Creates a new instance of QueueDepthDriverControlStrategy */
+    public QueueDepthDriverControlStrategy() {
+    }
+    
+    public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events) {
+        handleEvents(drivers, events, System.currentTimeMillis());
+    }
+    
+    /**
+     * Samples the drivers as of the specified time in milliseconds and adjusts
+     * their priorities.
+     */
+    public synchronized void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events, long now) {
+        Map<Stage, double[]> timings = new HashMap<Stage, double[]>();
+        for (StageProcessTimingEvent ev : events) {
+            double[] timing = timings.get((Stage) ev.getSource());
+            if (timing == null) {
+                timing = new double[2];
+                timings.put((Stage) ev.getSource(), timing);
+            }
+            
+            timing[0] += ev.getCount();
+            timing[1] += ev.getLatency() * ev.getCount();
+        }
+        
+        List<Adjustment> adjustments = new ArrayList<Adjustment>();
+        for (PrioritizableStageDriver driver : drivers) {
+            if (!(driver instanceof AbstractStageDriver)) continue;
+            AbstractStageDriver stats = (AbstractStageDriver) driver;
+            
+            long fed = stats.getObjectsFed();
+            long processed = stats.getObjectsProcessed();
+            Sample sample = samples.get(driver);
+            if (sample == null) {
+                sample = new Sample();
+                sample.time = now;
+                sample.fed = fed;
+                sample.processed = processed;
+                samples.put(driver, sample);
+                continue;
+            }
+            
+            double elapsed = now - sample.time;
+            if (elapsed <= 0) continue;
+            
+            sample.arrivalRate = smooth(sample.arrivalRate, (fed - sample.fed) / elapsed);
+            sample.departureRate = smooth(sample.departureRate, (processed - sample.processed) / elapsed);
+            sample.time = now;
+            sample.fed = fed;
+            sample.processed = processed;
+            
+            double[] timing = timings.get(driver.getStage());
+            if (timing != null) {
+                //timing events have millisecond resolution, so a mean of zero still
+                //represents a non-zero service time; use half a millisecond instead
+                sample.serviceTime = smooth(sample.serviceTime, Math.max(0.5, timing[1] / timing[0]));
+            }
+            
+            adjustments.add(plan(driver, stats.getQueueOccupancy(), sample));
+        }
+        
+        for (Adjustment adjustment : adjustments) {
+            if (adjustment.step < 0) adjustment.driver.decreasePriority(-adjustment.step);
+        }
+        
+        Collections.sort(adjustments, LARGEST_STEP_FIRST);
+        for (Adjustment adjustment : adjustments) {
+            if (adjustment.step <= 0) break;
+            makeRoom(adjustment, adjustments);
+            adjustment.driver.increasePriority(adjustment.step);
+        }
+    }
+    
+    /**
+     * Works out a damped step that moves the priority of the driver toward the
+     * number of threads needed to keep its queue near the target depth.
+     */
+    private Adjustment plan(PrioritizableStageDriver driver, int depth, Sample sample) {
+        double current = driver.getPriority();
+        double desired;
+        if (Double.isNaN(sample.serviceTime)) {
+            //without timings, fall back to following the sign of the queue error
+            if (depth > targetQueueDepth) {
+                desired = current + 1;
+            } else if (depth == 0 && sample.departureRate >= sample.arrivalRate) {
+                desired = current - 1;
+            } else {
+                desired = current;
+            }
+        } else {
+            desired = sample.arrivalRate * sample.serviceTime;
+            if (depth > targetQueueDepth) desired += (depth - targetQueueDepth) * sample.serviceTime / drainTime;
+        }
+        
+        //more threads than processors cannot speed up a CPU-bound stage, and more
+        //threads contending for the same locks only slow a contended stage down
+        StageWorkload workload = (driver instanceof AbstractPrioritizableStageDriver)
+                ? ((AbstractPrioritizableStageDriver) driver).getWorkload() : StageWorkload.UNKNOWN;
+        if (workload == StageWorkload.CPU_BOUND) {
+            desired = Math.min(desired, PROCESSORS);
+        } else if (workload == StageWorkload.CONTENDED) {
+            desired = Math.min(desired, current);
+        }
+        
+        desired = Math.max(minimumPriority, Math.min(maximumPriority, desired));
+        double error = desired - current;
+        if (Math.abs(error) < deadband) return new Adjustment(driver, desired, 0);
+        
+        long step = Math.round(error * gain);
+        if (step == 0) step = (error > 0) ? 1 : -1;
+        step = Math.max(-maximumStep, Math.min(maximumStep, step));
+        
+        if (log.isDebugEnabled()) log.debug("Stage " + driver.getStage() + ": queue depth " + depth + ", arrival rate "
+                + sample.arrivalRate + "/ms, departure rate " + sample.departureRate + "/ms, service time "
+                + sample.serviceTime + " ms; adjusting priority " + current + " by " + step);
+        
+        return new Adjustment(driver, desired, step);
+    }
+    
+    /**
+     * If the driver to be given more threads allocates them from an exhausted
+     * budget, takes threads from the over-provisioned drivers sharing the budget.
+     */
+    private void makeRoom(Adjustment recipient, List<Adjustment> adjustments) {
+        if (!(recipient.driver instanceof AbstractPrioritizableStageDriver)) return;
+        ThreadBudget budget = ((AbstractPrioritizableStageDriver) recipient.driver).getThreadBudget();
+        if (budget == null || budget.getAvailable() >= recipient.step) return;
+        
+        List<Adjustment> donors = new ArrayList<Adjustment>();
+        for (Adjustment candidate : adjustments) {
+            if (candidate != recipient && candidate.step <= 0
+                    && candidate.driver instanceof AbstractPrioritizableStageDriver
+                    && ((AbstractPrioritizableStageDriver) candidate.driver).getThreadBudget() == budget) {
+                donors.add(candidate);
+            }
+        }
+        
+        Collections.sort(donors, new Comparator<Adjustment>() {
+            public int compare(Adjustment a, Adjustment b) {
+                return Double.compare(b.surplus(), a.surplus());
+            }
+        });
+        
+        for (Adjustment donor : donors) {
+            long needed = recipient.step - budget.getAvailable();
+            if (needed <= 0) break;
+            long spare = (long) Math.floor(Math.min(donor.surplus(), donor.driver.getPriority() - minimumPriority));
+            if (spare < 1) break;
+            
+            long taken = Math.min(needed, spare);
+            if (log.isDebugEnabled()) log.debug("Reassigning " + taken + " thread(s) from stage " + donor.driver.getStage()
+                    + " to stage " + recipient.driver.getStage());
+            donor.driver.decreasePriority(taken);
+        }
+    }
+    
+    private double smooth(double previous, double value) {
+        return Double.isNaN(previous) ? value : previous + smoothing * (value - previous);
+    }
+    
+    /**
+     * Holds value of property targetQueueDepth.
+     */
+    private int targetQueueDepth = 1;
+    
+    /**
+     * Getter for property targetQueueDepth.
+     * @return Value of property targetQueueDepth.
+     */
+    public int getTargetQueueDepth() {
+        return this.targetQueueDepth;
+    }
+    
+    /**
+     * Setter for property targetQueueDepth. This is the number of objects that
+     * may wait in a stage's queue before threads are added to drain it.
+     * @param targetQueueDepth New value of property targetQueueDepth.
+     */
+    public void setTargetQueueDepth(int targetQueueDepth) {
+        this.targetQueueDepth = targetQueueDepth;
+    }
+    
+    /**
+     * Holds value of property drainTime.
+     */
+    private long drainTime = 1000;
+    
+    /**
+     * Getter for property drainTime.
+     * @return Value of property drainTime.
+     */
+    public long getDrainTime() {
+        return this.drainTime;
+    }
+    
+    /**
+     * Setter for property drainTime. This is the time, in milliseconds, within
+     * which a queue deeper than the target depth should be drained.
+     * @param drainTime New value of property drainTime.
+     */
+    public void setDrainTime(long drainTime) {
+        if (drainTime < 1) throw new IllegalArgumentException("Drain time must be at least one millisecond.");
+        this.drainTime = drainTime;
+    }
+    
+    /**
+     * Holds value of property gain.
+     */
+    private double gain = 0.5;
+    
+    /**
+     * Getter for property gain.
+     * @return Value of property gain.
+     */
+    public double getGain() {
+        return this.gain;
+    }
+    
+    /**
+     * Setter for property gain. This is the fraction of the difference between
+     * the current and desired priority that is applied on each invocation.
+     * @param gain New value of property gain.
+     */
+    public void setGain(double gain) {
+        if (gain <= 0 || gain > 1) throw new IllegalArgumentException("Gain must be greater than 0 and at most 1.");
+        this.gain = gain;
+    }
+    
+    /**
+     * Holds value of property smoothing.
+     */
+    private double smoothing = 0.3;
+    
+    /**
+     * Getter for property smoothing.
+     * @return Value of property smoothing.
+     */
+    public double getSmoothing() {
+        return this.smoothing;
+    }
+    
+    /**
+     * Setter for property smoothing. This is the weight given to each new
+     * observation of arrival rate, departure rate and service time.
+     * @param smoothing New value of property smoothing.
+     */
+    public void setSmoothing(double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) throw new IllegalArgumentException("Smoothing must be greater than 0 and at most 1.");
+        this.smoothing = smoothing;
+    }
+    
+    /**
+     * Holds value of property deadband.
+     */
+    private double deadband = 0.5;
+    
+    /**
+     * Getter for property deadband.
+     * @return Value of property deadband.
+     */
+    public double getDeadband() {
+        return this.deadband;
+    }
+    
+    /**
+     * Setter for property deadband. Differences between the current and desired
+     * priority smaller than this are ignored.
+     * @param deadband New value of property deadband.
+     */
+    public void setDeadband(double deadband) {
+        this.deadband = deadband;
+    }
+    
+    /**
+     * Holds value of property maximumStep.
+     */
+    private int maximumStep = 2;
+    
+    /**
+     * Getter for property maximumStep.
+     * @return Value of property maximumStep.
+     */
+    public int getMaximumStep() {
+        return this.maximumStep;
+    }
+    
+    /**
+     * Setter for property maximumStep. This is the largest change in priority
+     * made to a single driver on one invocation.
+     * @param maximumStep New value of property maximumStep.
+     */
+    public void setMaximumStep(int maximumStep) {
+        if (maximumStep < 1) throw new IllegalArgumentException("Maximum step must be at least 1.");
+        this.maximumStep = maximumStep;
+    }
+    
+    /**
+     * Holds value of property minimumPriority.
+     */
+    private double minimumPriority = 1;
+    
+    /**
+     * Getter for property minimumPriority.
+     * @return Value of property minimumPriority.
+     */
+    public double getMinimumPriority() {
+        return this.minimumPriority;
+    }
+    
+    /**
+     * Setter for property minimumPriority.
+     * @param minimumPriority New value of property minimumPriority.
+     */
+    public void setMinimumPriority(double minimumPriority) {
+        this.minimumPriority = minimumPriority;
+    }
+    
+    /**
+     * Holds value of property maximumPriority.
+     */
+    private double maximumPriority = 4 * Runtime.getRuntime().availableProcessors();
+    
+    /**
+     * Getter for property maximumPriority.
+     * @return Value of property maximumPriority.
+     */
+    public double getMaximumPriority() {
+        return this.maximumPriority;
+    }
+    
+    /**
+     * Setter for property maximumPriority.
+     * @param maximumPriority New value of property maximumPriority.
+     */
+    public void setMaximumPriority(double maximumPriority) {
+        this.maximumPriority = maximumPriority;
+    }
+}
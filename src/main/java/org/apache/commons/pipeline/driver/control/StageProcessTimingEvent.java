@@ -22,18 +22,41 @@ import java.util.EventObject;
 import org.apache.commons.pipeline.Stage;
 
 /**
- *
+ * Event reporting the time taken to process an object. Drivers may raise
+ * events for a sample of the objects they process, in which case each event
+ * stands for {@link #getCount()} objects; strategies that total processing
+ * times should weight each latency by that count.
  */
 public class StageProcessTimingEvent extends EventObject {
     private long latency;
+    private int count;
     
     /** Creates a new instance of StageProcessTimingEvent */
     public StageProcessTimingEvent(Stage source, long latency) {
+        this(source, latency, 1);
+    }
+    
+    /**
+     * Creates a new instance of StageProcessTimingEvent for a sampled object.
+     * @param source the stage that processed the object
+     * @param latency the time taken to process the sampled object, in milliseconds
+     * @param count the number of processed objects the sample stands for
+     */
+    public StageProcessTimingEvent(Stage source, long latency, int count) {
         super(source);
+        if (count < 1) throw new IllegalArgumentException("Count must be at least 1.");
         this.latency = latency;
+        this.count = count;
     }
 
     public long getLatency() {
         return latency;
     }    
+    
+    /**
+     * Returns the number of processed objects this event stands for.
+     */
+    public int getCount() {
+        return count;
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+/**
+ * The kind of work a stage does, as observed by a {@link WorkloadMonitor}.
+ * Control strategies use the workload to decide whether adding threads to a
+ * stage can increase its throughput.
+ */
+public enum StageWorkload {
+    /**
+     * Not enough processing has been observed, or CPU time cannot be measured
+     * on this platform.
+     */
+    UNKNOWN,
+    /**
+     * Worker threads spend most of their processing time on the CPU. Adding
+     * threads helps only while there are idle processors.
+     */
+    CPU_BOUND,
+    /**
+     * Worker threads spend most of their processing time waiting, for example
+     * on I/O or on downstream queues. Adding threads generally increases
+     * throughput.
+     */
+    BLOCKING,
+    /**
+     * Worker threads spend a large part of their processing time blocked on
+     * locks held by other threads. Adding threads increases contention rather
+     * than throughput.
+     */
+    CONTENDED;
+}
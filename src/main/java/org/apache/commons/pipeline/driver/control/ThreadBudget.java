@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+/**
+ * A limit on the total number of worker threads that may be allocated to the
+ * prioritizable drivers sharing it. Drivers allocate threads from the budget
+ * as their priority is increased and return them as it is decreased, so that
+ * control strategies cannot grow every stage at once beyond what the machine
+ * can run. When the budget is exhausted, threads can only be given to a stage
+ * by first taking them away from another.
+ */
+public class ThreadBudget {
+    //maximum number of threads that may be allocated
+    private final int limit;
+    
+    //number of threads currently allocated
+    private int allocated;
+    
+    /**
+     * Creates a new ThreadBudget limited to the number of available processors.
+     */
+    public ThreadBudget() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Creates a new ThreadBudget with the specified limit.
+     * @param limit the maximum number of threads that may be allocated
+     */
+    public ThreadBudget(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Thread budget limit must be at least 1.");
+        this.limit = limit;
+    }
+    
+    /**
+     * Allocates up to the requested number of threads from the budget.
+     * @param requested the number of threads requested
+     * @return the number of threads actually allocated, which may be less than
+     * requested (or zero) if the budget is exhausted
+     */
+    public synchronized int acquire(int requested) {
+        int granted = Math.max(0, Math.min(requested, limit - allocated));
+        allocated += granted;
+        return granted;
+    }
+    
+    /**
+     * Returns the specified number of previously allocated threads to the budget.
+     */
+    public synchronized void release(int count) {
+        if (count < 0 || count > allocated) {
+            throw new IllegalArgumentException("Cannot release " + count + " threads; only " + allocated + " are allocated.");
+        }
+        allocated -= count;
+    }
+    
+    /**
+     * Returns the number of threads that may still be allocated.
+     */
+    public synchronized int getAvailable() {
+        return limit - allocated;
+    }
+    
+    /**
+     * Returns the number of threads currently allocated.
+     */
+    public synchronized int getAllocated() {
+        return allocated;
+    }
+    
+    /**
+     * Returns the maximum number of threads that may be allocated.
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
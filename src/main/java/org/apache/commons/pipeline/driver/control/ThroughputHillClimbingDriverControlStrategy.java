@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+import org.apache.commons.pipeline.util.CountingFeeder;
+
+/**
+ * An implementation of DriverControlStrategy that searches for the thread
+ * counts that maximize the end-to-end throughput of the pipeline, rather than
+ * the performance of any individual stage. It is intended to be invoked at a
+ * fixed interval, for example by an {@link IntervalDriverController}; each
+ * interval is one measurement.
+ *
+ * <p>Throughput is measured as the rate at which objects arrive at a
+ * {@link CountingFeeder} that should be set as the pipeline's terminal feeder.
+ * If no such feeder has been set, the number of objects processed by the last
+ * managed driver is used instead.</p>
+ *
+ * <p>The search is a coordinated hill climb. Only one change is tried at a time:
+ * after a baseline measurement the priority of a single stage is moved by one
+ * in its preferred direction and the throughput over the next interval is
+ * compared to the baseline. If throughput improved by at least the minimum
+ * improvement, the change is kept and the same stage is moved again; otherwise
+ * the change is rolled back, the stage's preferred direction is reversed and
+ * the next stage is tried after a fresh baseline. When every stage has been
+ * tried in both directions without improvement, all stages are increased
+ * together, which finds improvements where several stages are bottlenecks at
+ * once. If that also fails, the search pauses for the settle period.</p>
+ */
+public class ThroughputHillClimbingDriverControlStrategy implements TimedDriverControlStrategy {
+    private final Log log = LogFactory.getLog(ThroughputHillClimbingDriverControlStrategy.class);
+    
+    //the preferred direction of the next move of each driver
+    private final Map<PrioritizableStageDriver, Integer> directions = new IdentityHashMap<PrioritizableStageDriver, Integer>();
+    
+    //the moves of the trial currently being measured, or null if none
+    private List<Move> trial;
+    
+    //whether the current trial moves all stages together
+    private boolean jointTrial;
+    
+    //throughput in objects per second against which the current trial is compared
+    private double baseline = Double.NaN;
+    
+    //time and object count of the previous measurement
+    private long lastTime;
+    private long lastCount = -1;
+    
+    //index of the next driver to be moved
+    private int nextIndex;
+    
+    //number of consecutive rejected trials
+    private int rejections;
+    
+    //number of measurements remaining before the search resumes
+    private int settling;
+    
+    /**
+     * A change in priority applied to a single driver.
+     */
+    private static class Move {
+        private final PrioritizableStageDriver driver;
+        private final double amount;
+        
+        Move(PrioritizableStageDriver driver, double amount) {
+            this.driver = driver;
+            this.amount = amount;
+        }
+        
+        void rollback() {
+            if (amount > 0) {
+                driver.decreasePriority(amount);
+            } else {
+                driver.increasePriority(-amount);
+            }
+        }
+    }
+    
+    /** Creates a new instance of ThroughputHillClimbingDriverControlStrategy */
+    public ThroughputHillClimbingDriverControlStrategy() {
+    }
+    
+    /**
+     * Creates a new instance of ThroughputHillClimbingDriverControlStrategy that
+     * measures throughput with the specified feeder.
+     * @param throughputFeeder the terminal feeder of the pipeline
+     */
+    public ThroughputHillClimbingDriverControlStrategy(CountingFeeder throughputFeeder) {
+        this.throughputFeeder = throughputFeeder;
+    }
+    
+    public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events) {
+        handleEvents(drivers, events, System.currentTimeMillis());
+    }
+    
+    /**
+     * Measures the throughput since the previous invocation, which is taken to
+     * have been at the specified time in milliseconds, and continues the search.
+     */
+    public synchronized void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events, long now) {
+        if (drivers.isEmpty()) return;
+        
+        long count = getCount(drivers);
+        if (lastCount < 0) {
+            lastCount = count;
+            lastTime = now;
+            return;
+        }
+        
+        long elapsed = now - lastTime;
+        if (elapsed <= 0) return;
+        double throughput = (count - lastCount) * 1000.0 / elapsed;
+        lastCount = count;
+        lastTime = now;
+        
+        if (trial != null) {
+            if (throughput >= baseline * (1 + minimumImprovement) && throughput > baseline) {
+                if (log.isDebugEnabled()) log.debug("Keeping trial: throughput went from " + baseline + " to " + throughput);
+                for (Move move : trial) directions.put(move.driver, move.amount > 0 ? 1 : -1);
+                rejections = 0;
+                trial = null;
+                baseline = throughput;
+            } else {
+                if (log.isDebugEnabled()) log.debug("Rolling back trial: throughput went from " + baseline + " to " + throughput);
+                rollback();
+                return;
+            }
+        } else if (settling > 0) {
+            settling--;
+            return;
+        } else {
+            baseline = throughput;
+        }
+        
+        startTrial(drivers);
+    }
+    
+    /**
+     * Returns the number of objects that have left the pipeline.
+     */
+    private long getCount(List<PrioritizableStageDriver> drivers) {
+        if (throughputFeeder != null) return throughputFeeder.getCount();
+        
+        PrioritizableStageDriver last = drivers.get(drivers.size() - 1);
+        if (last instanceof AbstractStageDriver) return ((AbstractStageDriver) last).getObjectsProcessed();
+        
+        throw new IllegalStateException("No throughput feeder is set and the last driver does not count processed objects.");
+    }
+    
+    /**
+     * Undoes the moves of the current trial and decides how the search continues.
+     */
+    private void rollback() {
+        for (Move move : trial) {
+            move.rollback();
+            directions.put(move.driver, move.amount > 0 ? -1 : 1);
+        }
+        
+        if (jointTrial) {
+            if (log.isDebugEnabled()) log.debug("No improvement found, pausing search for " + settlePeriods + " intervals.");
+            settling = settlePeriods;
+            rejections = 0;
+        } else {
+            rejections++;
+            nextIndex++;
+        }
+        
+        trial = null;
+        baseline = Double.NaN;
+    }
+    
+    /**
+     * Applies the moves of the next trial.
+     */
+    private void startTrial(List<PrioritizableStageDriver> drivers) {
+        List<Move> moves = new ArrayList<Move>();
+        jointTrial = rejections >= 2 * drivers.size();
+        if (jointTrial) {
+            for (PrioritizableStageDriver driver : drivers) {
+                Move move = apply(driver, 1);
+                if (move != null) moves.add(move);
+            }
+        } else {
+            //try each driver in turn until one can be moved
+            for (int i = 0; i < drivers.size() && moves.isEmpty(); i++) {
+                PrioritizableStageDriver driver = drivers.get((nextIndex + i) % drivers.size());
+                Integer direction = directions.get(driver);
+                Move move = apply(driver, direction == null ? 1 : direction);
+                if (move == null) move = apply(driver, direction == null ? -1 : -direction);
+                if (move != null) {
+                    nextIndex = (nextIndex + i) % drivers.size();
+                    moves.add(move);
+                }
+            }
+        }
+        
+        if (moves.isEmpty()) {
+            settling = settlePeriods;
+            rejections = 0;
+        } else {
+            trial = moves;
+        }
+    }
+    
+    /**
+     * Moves the priority of the driver by one in the specified direction if the
+     * priority limits allow it, and returns the change actually made or null if
+     * none was made.
+     */
+    private Move apply(PrioritizableStageDriver driver, int direction) {
+        double before = driver.getPriority();
+        if (direction > 0) {
+            if (before + 1 > maximumPriority) return null;
+            driver.increasePriority(1);
+        } else {
+            if (before - 1 < minimumPriority) return null;
+            driver.decreasePriority(1);
+        }
+        
+        //the driver may have been unable to change, e.g. if its thread budget is exhausted
+        double amount = driver.getPriority() - before;
+        if (amount == 0) {
+            directions.put(driver, -direction);
+            return null;
+        }
+        
+        if (log.isDebugEnabled()) log.debug("Trying priority " + driver.getPriority() + " for stage " + driver.getStage());
+        return new Move(driver, amount);
+    }
+    
+    /**
+     * Returns the throughput in objects per second against which the current
+     * trial is being compared, or NaN if there is none.
+     */
+    public synchronized double getBaseline() {
+        return this.baseline;
+    }
+    
+    /**
+     * Holds value of property throughputFeeder.
+     */
+    private CountingFeeder throughputFeeder;
+    
+    /**
+     * Getter for property throughputFeeder.
+     * @return Value of property throughputFeeder.
+     */
+    public synchronized CountingFeeder getThroughputFeeder() {
+        return this.throughputFeeder;
+    }
+    
+    /**
+     * Setter for property throughputFeeder. This should be the terminal feeder
+     * of the pipeline whose drivers are controlled.
+     * @param throughputFeeder New value of property throughputFeeder.
+     */
+    public synchronized void setThroughputFeeder(CountingFeeder throughputFeeder) {
+        this.throughputFeeder = throughputFeeder;
+        this.lastCount = -1;
+    }
+    
+    /**
+     * Holds value of property minimumImprovement.
+     */
+    private double minimumImprovement = 0.05;
+    
+    /**
+     * Getter for property minimumImprovement.
+     * @return Value of property minimumImprovement.
+     */
+    public double getMinimumImprovement() {
+        return this.minimumImprovement;
+    }
+    
+    /**
+     * Setter for property minimumImprovement. A trial is kept only if it
+     * increases throughput by at least this fraction of the baseline.
+     * @param minimumImprovement New value of property minimumImprovement.
+     */
+    public void setMinimumImprovement(double minimumImprovement) {
+        if (minimumImprovement < 0) throw new IllegalArgumentException("Minimum improvement may not be negative.");
+        this.minimumImprovement = minimumImprovement;
+    }
+    
+    /**
+     * Holds value of property minimumPriority.
+     */
+    private double minimumPriority = 1;
+    
+    /**
+     * Getter for property minimumPriority.
+     * @return Value of property minimumPriority.
+     */
+    public double getMinimumPriority() {
+        return this.minimumPriority;
+    }
+    
+    /**
+     * Setter for property minimumPriority.
+     * @param minimumPriority New value of property minimumPriority.
+     */
+    public void setMinimumPriority(double minimumPriority) {
+        this.minimumPriority = minimumPriority;
+    }
+    
+    /**
+     * Holds value of property maximumPriority.
+     */
+    private double maximumPriority = Runtime.getRuntime().availableProcessors() * 4;
+    
+    /**
+     * Getter for property maximumPriority.
+     * @return Value of property maximumPriority.
+     */
+    public double getMaximumPriority() {
+        return this.maximumPriority;
+    }
+    
+    /**
+     * Setter for property maximumPriority. The default is four times the
+     * number of available processors.
+     * @param maximumPriority New value of property maximumPriority.
+     */
+    public void setMaximumPriority(double maximumPriority) {
+        this.maximumPriority = maximumPriority;
+    }
+    
+    /**
+     * Holds value of property settlePeriods.
+     */
+    private int settlePeriods = 10;
+    
+    /**
+     * Getter for property settlePeriods.
+     * @return Value of property settlePeriods.
+     */
+    public int getSettlePeriods() {
+        return this.settlePeriods;
+    }
+    
+    /**
+     * Setter for property settlePeriods. This is the number of invocations
+     * for which the search pauses once no improving change can be found.
+     * @param settlePeriods New value of property settlePeriods.
+     */
+    public void setSettlePeriods(int settlePeriods) {
+        if (settlePeriods < 0) throw new IllegalArgumentException("Settle periods may not be negative.");
+        this.settlePeriods = settlePeriods;
+    }
+}
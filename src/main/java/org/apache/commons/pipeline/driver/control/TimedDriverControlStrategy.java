@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.List;
+
+/**
+ * A DriverControlStrategy whose decisions depend on the passage of time. The
+ * current time may be supplied explicitly, so that the strategy can be driven
+ * by a clock other than the system clock, such as the virtual clock of a
+ * {@link org.apache.commons.pipeline.driver.control.simulation.Simulation}.
+ * Implementations of {@link #handleEvents(List, List)} use
+ * {@link System#currentTimeMillis()}.
+ */
+public interface TimedDriverControlStrategy extends DriverControlStrategy {
+    /**
+     * Handles the events received since the previous invocation, as of the
+     * specified time.
+     * @param drivers the drivers being controlled
+     * @param events the timing events received since the previous invocation
+     * @param now the current time in milliseconds
+     */
+    public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events, long now);
+}
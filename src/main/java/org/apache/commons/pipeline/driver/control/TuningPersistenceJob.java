@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.PipelineLifecycleJob;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageDriver;
+
+/**
+ * A {@link PipelineLifecycleJob} that carries the tuning of prioritizable
+ * stage drivers over from one run of a pipeline to the next. When the pipeline
+ * finishes, the priority reached by each {@link PrioritizableStageDriver} and
+ * the workload observed for its stage are saved to a properties file; when a
+ * pipeline with the same configuration starts, the drivers are set to the
+ * saved priorities before they are started, so that the pipeline runs at
+ * its tuned size from the beginning and the control strategies start from
+ * the saved workloads.
+ *
+ * <p>Saved values are keyed by a fingerprint of the pipeline's configuration:
+ * the classes of its stages and stage drivers, in order, including those of
+ * its branches. A change to the configuration yields a new fingerprint, and
+ * hence a cold start. Several pipelines may share the same file.</p>
+ *
+ * <p>Failure to read or write the file, and saved values that cannot be
+ * parsed, are logged and do not affect the pipeline.</p>
+ *
+ * <p>In a pipeline configuration the job is declared as a lifecycle job with
+ * a <code>fileName</code> attribute.</p>
+ */
+public class TuningPersistenceJob implements PipelineLifecycleJob {
+    private final Log log = LogFactory.getLog(TuningPersistenceJob.class);
+    
+    /**
+     * Creates a new TuningPersistenceJob. The file must be set before the
+     * pipeline is started.
+     */
+    public TuningPersistenceJob() {
+    }
+    
+    /**
+     * Creates a new TuningPersistenceJob.
+     * @param file the properties file in which tuning is saved
+     */
+    public TuningPersistenceJob(File file) {
+        setFile(file);
+    }
+    
+    /**
+     * Restores the saved priorities and workloads of the pipeline's drivers.
+     */
+    public void onStart(Pipeline pipeline) {
+        File file = this.file;
+        if (pipeline == null) return;
+        if (file == null) {
+            log.warn("No file has been set for saved tuning; drivers will start untuned.");
+            return;
+        }
+        
+        String fingerprint = fingerprint(pipeline);
+        Properties tuning = load(file);
+        List<StageDriver> drivers = getStageDrivers(pipeline);
+        for (int i = 0; i < drivers.size(); i++) {
+            if (!(drivers.get(i) instanceof PrioritizableStageDriver)) continue;
+            PrioritizableStageDriver driver = (PrioritizableStageDriver) drivers.get(i);
+            String prefix = fingerprint + "." + i + ".";
+            
+            try {
+                restore(driver, tuning, prefix);
+            } catch (IllegalArgumentException e) {
+                //includes NumberFormatException and unknown workload names
+                log.warn("Ignoring invalid saved tuning for stage " + driver.getStage() + " in " + file, e);
+            }
+        }
+    }
+    
+    /**
+     * Restores the saved priority and workload of a single driver.
+     */
+    private void restore(PrioritizableStageDriver driver, Properties tuning, String prefix) {
+        String priority = tuning.getProperty(prefix + "priority");
+        if (priority != null) {
+            double saved = Double.parseDouble(priority);
+            if (Double.isNaN(saved) || Double.isInfinite(saved)) throw new IllegalArgumentException("Invalid priority: " + priority);
+            
+            double difference = Math.max(0, saved) - driver.getPriority();
+            if (difference > 0) {
+                driver.increasePriority(difference);
+            } else if (difference < 0) {
+                driver.decreasePriority(-difference);
+            }
+            
+            if (log.isDebugEnabled()) log.debug("Restored priority " + driver.getPriority() + " for stage " + driver.getStage());
+        }
+        
+        String workload = tuning.getProperty(prefix + "workload");
+        if (workload != null && driver instanceof AbstractPrioritizableStageDriver) {
+            String cpuRatio = tuning.getProperty(prefix + "cpuRatio");
+            ((AbstractPrioritizableStageDriver) driver).getWorkloadMonitor().restore(
+                    StageWorkload.valueOf(workload.trim()), cpuRatio == null ? Double.NaN : Double.parseDouble(cpuRatio));
+        }
+    }
+    
+    /**
+     * Saves the priorities and workloads of the pipeline's drivers.
+     */
+    public void onFinish(Pipeline pipeline) {
+        File file = this.file;
+        if (pipeline == null || file == null) return;
+        
+        String fingerprint = fingerprint(pipeline);
+        Properties tuning = load(file);
+        for (Object key : new ArrayList<Object>(tuning.keySet())) {
+            if (((String) key).startsWith(fingerprint + ".")) tuning.remove(key);
+        }
+        
+        List<StageDriver> drivers = getStageDrivers(pipeline);
+        for (int i = 0; i < drivers.size(); i++) {
+            if (!(drivers.get(i) instanceof PrioritizableStageDriver)) continue;
+            PrioritizableStageDriver driver = (PrioritizableStageDriver) drivers.get(i);
+            String prefix = fingerprint + "." + i + ".";
+            
+            tuning.setProperty(prefix + "stage", driver.getStage().getClass().getName());
+            tuning.setProperty(prefix + "priority", Double.toString(driver.getPriority()));
+            if (driver instanceof AbstractPrioritizableStageDriver) {
+                WorkloadMonitor monitor = ((AbstractPrioritizableStageDriver) driver).getWorkloadMonitor();
+                StageWorkload workload = monitor.getWorkload();
+                if (workload != StageWorkload.UNKNOWN) {
+                    tuning.setProperty(prefix + "workload", workload.name());
+                    tuning.setProperty(prefix + "cpuRatio", Double.toString(monitor.getCpuRatio()));
+                }
+            }
+        }
+        
+        save(file, tuning);
+    }
+    
+    /**
+     * Returns the fingerprint identifying the configuration of the specified pipeline.
+     */
+    public static String fingerprint(Pipeline pipeline) {
+        StringBuilder config = new StringBuilder();
+        describe(pipeline, "", config);
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(config.toString().getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) hex.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("Assertion failure: MD5 digest is unavailable.", e);
+        } catch (IOException e) {
+            throw new Error("Assertion failure: UTF-8 encoding is unavailable.", e);
+        }
+    }
+    
+    /**
+     * Appends a description of the stages and drivers of the pipeline and its
+     * branches to the buffer.
+     */
+    private static void describe(Pipeline pipeline, String path, StringBuilder config) {
+        for (Stage stage : pipeline.getStages()) {
+            config.append(path).append('/').append(stage.getClass().getName());
+            config.append(':').append(pipeline.getStageDriver(stage).getClass().getName()).append('\n');
+        }
+        
+        for (Map.Entry<String, Pipeline> branch : new TreeMap<String, Pipeline>(pipeline.getBranches()).entrySet()) {
+            describe(branch.getValue(), path + "/" + branch.getKey(), config);
+        }
+    }
+    
+    /**
+     * Returns the drivers of the pipeline and its branches, in the order in
+     * which they are described in the fingerprint.
+     */
+    private static List<StageDriver> getStageDrivers(Pipeline pipeline) {
+        List<StageDriver> drivers = new ArrayList<StageDriver>(pipeline.getStageDrivers());
+        for (Pipeline branch : new TreeMap<String, Pipeline>(pipeline.getBranches()).values()) {
+            drivers.addAll(getStageDrivers(branch));
+        }
+        
+        return drivers;
+    }
+    
+    /**
+     * Reads the saved tuning, returning empty properties if there is none.
+     */
+    private synchronized Properties load(File file) {
+        Properties tuning = new Properties();
+        if (!file.exists()) return tuning;
+        
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            tuning.load(in);
+        } catch (IOException e) {
+            log.warn("Unable to read saved tuning from " + file, e);
+        } finally {
+            if (in != null) try { in.close(); } catch (IOException e) { }
+        }
+        
+        return tuning;
+    }
+    
+    /**
+     * Writes the tuning to a temporary file that then replaces the saved tuning.
+     */
+    private synchronized void save(File file, Properties tuning) {
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            tuning.store(out, "Stage driver tuning saved by " + TuningPersistenceJob.class.getName());
+            out.close();
+            out = null;
+            
+            //rename does not replace an existing file on all platforms
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to save tuning to " + file, e);
+        } finally {
+            if (out != null) try { out.close(); } catch (IOException e) { }
+        }
+    }
+    
+    /**
+     * Holds value of property file.
+     */
+    private volatile File file;
+    
+    /**
+     * Getter for property file.
+     * @return Value of property file.
+     */
+    public File getFile() {
+        return this.file;
+    }
+    
+    /**
+     * Setter for property file. This is the properties file in which tuning is saved.
+     * @param file New value of property file.
+     */
+    public void setFile(File file) {
+        if (file == null) throw new IllegalArgumentException("File may not be null.");
+        this.file = file;
+    }
+    
+    /**
+     * Getter for property fileName.
+     * @return The path of the file in which tuning is saved, or null if none has been set.
+     */
+    public String getFileName() {
+        File file = this.file;
+        return file == null ? null : file.getPath();
+    }
+    
+    /**
+     * Setter for property fileName. This sets the file in which tuning is
+     * saved from its path, for use in pipeline configurations.
+     * @param fileName New value of property fileName.
+     */
+    public void setFileName(String fileName) {
+        if (fileName == null) throw new IllegalArgumentException("File name may not be null.");
+        setFile(new File(fileName));
+    }
+}
@@ -42,9 +42,12 @@ public class WallClockThresholdDriverControlStrategy implements DriverControlStr
         
         Timing() { }
         
-        public void add(long duration) {
-            count++;
-            this.duration += duration;
+        /**
+         * Adds the latency of a sampled object standing for count processed objects.
+         */
+        public void add(long duration, int count) {
+            this.count += count;
+            this.duration += duration * count;
         }
     }
     
@@ -66,8 +69,8 @@ public class WallClockThresholdDriverControlStrategy implements DriverControlStr
                 timings.put((Stage) ev.getSource(), timing);
             }
             
-            timing.add(ev.getLatency());
-            total += ev.getLatency();
+            timing.add(ev.getLatency(), ev.getCount());
+            total += ev.getLatency() * ev.getCount();
         }
         
         long mean = total / timings.size();
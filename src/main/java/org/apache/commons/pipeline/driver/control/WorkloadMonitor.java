@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.commons.pipeline.util.StripedCounter;
+
+/**
+ * Classifies the workload of a stage by comparing the CPU time consumed by the
+ * worker thread during processing with the elapsed wall-clock time, using the
+ * platform {@link ThreadMXBean}. When thread contention monitoring is enabled
+ * on the platform MBean, the time spent blocked entering monitors is measured
+ * as well, allowing lock contention to be told apart from other waiting.
+ *
+ * <p>A thread that is ready to run but waiting for a processor accrues
+ * wall-clock time without CPU time, so on an oversubscribed host a CPU-bound
+ * stage can show a low CPU ratio. Before a stage is classified as blocking,
+ * its CPU ratio is therefore compared with the share of a processor each
+ * runnable thread can expect: the number of available processors divided by
+ * the number of runnable threads in the virtual machine, sampled when each
+ * window is completed. The JVM reports threads blocked in native I/O as
+ * runnable, so this errs towards classifying stages as CPU bound, which
+ * avoids adding threads to a host that cannot run them.</p>
+ *
+ * <p>Reading thread CPU time is not free, so only one in every
+ * <code>sampleInterval</code> calls made by each thread is measured.
+ * Classifications are made over windows of at least
+ * <code>windowSamples</code> measurements; between windows the previous
+ * classification is reported.</p>
+ */
+public class WorkloadMonitor {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    
+    //fraction of processing time on the CPU at or above which a stage is CPU bound
+    private static final double CPU_BOUND_THRESHOLD = 0.7;
+    
+    //fraction of processing time blocked on monitors at or above which a stage is contended
+    private static final double CONTENDED_THRESHOLD = 0.3;
+    
+    //mask applied to each thread's call count to choose the calls to measure
+    private final int sampleMask;
+    
+    //number of measurements required to complete a window
+    private final int windowSamples;
+    
+    //whether CPU time can be measured at all
+    private final boolean supported;
+    
+    //number of processors available to the virtual machine
+    private final int processors = Runtime.getRuntime().availableProcessors();
+    
+    //per-thread call counts used to choose the calls to measure
+    private final ThreadLocal<int[]> callCounts = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    
+    //totals over all measured calls
+    private final StripedCounter samples = new StripedCounter();
+    private final StripedCounter wallNanos = new StripedCounter();
+    private final StripedCounter cpuNanos = new StripedCounter();
+    private final StripedCounter blockedNanos = new StripedCounter();
+    
+    //totals at the start of the current window, and the last classification
+    private long windowSamplesStart, windowWallStart, windowCpuStart, windowBlockedStart;
+    private double cpuRatio = Double.NaN;
+    private double cpuShare = 1.0;
+    private StageWorkload workload = StageWorkload.UNKNOWN;
+    
+    /**
+     * Creates a new WorkloadMonitor measuring one in sixteen calls, with windows
+     * of 32 measurements.
+     */
+    public WorkloadMonitor() {
+        this(16, 32);
+    }
+    
+    /**
+     * Creates a new WorkloadMonitor.
+     * @param sampleInterval one in this many calls made by each thread is
+     * measured; rounded up to a power of two
+     * @param windowSamples the number of measurements in each classification window
+     */
+    public WorkloadMonitor(int sampleInterval, int windowSamples) {
+        if (sampleInterval < 1) throw new IllegalArgumentException("Sample interval must be at least 1.");
+        if (windowSamples < 1) throw new IllegalArgumentException("Window size must be at least 1.");
+        this.sampleMask = (sampleInterval == 1) ? 0 : Integer.highestOneBit(sampleInterval - 1) * 2 - 1;
+        this.windowSamples = windowSamples;
+        
+        boolean cpuTimeSupported;
+        try {
+            cpuTimeSupported = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            cpuTimeSupported = false;
+        }
+        this.supported = cpuTimeSupported;
+    }
+    
+    /**
+     * Begins measuring a call in the current thread, if this call is to be measured.
+     * @return the measurements at the start of the call, to be passed to
+     * {@link #end(long[])}, or null if the call is not measured
+     */
+    public long[] begin() {
+        if (!supported) return null;
+        int[] count = callCounts.get();
+        if ((count[0]++ & sampleMask) != 0) return null;
+        return new long[] { System.nanoTime(), THREADS.getCurrentThreadCpuTime(), blockedNanos() };
+    }
+    
+    /**
+     * Completes the measurement of a call begun with {@link #begin()}.
+     * @param start the value returned by begin(); nothing is done if it is null
+     */
+    public void end(long[] start) {
+        if (start == null) return;
+        long cpu = THREADS.getCurrentThreadCpuTime() - start[1];
+        long blocked = blockedNanos() - start[2];
+        long wall = System.nanoTime() - start[0];
+        
+        wallNanos.add(wall);
+        cpuNanos.add(Math.min(cpu, wall));
+        blockedNanos.add(Math.max(0, Math.min(blocked, wall)));
+        samples.increment();
+    }
+    
+    /**
+     * Returns the workload of the stage as of the last completed window.
+     */
+    public synchronized StageWorkload getWorkload() {
+        roll();
+        return workload;
+    }
+    
+    /**
+     * Returns the fraction of processing time spent on the CPU in the last
+     * completed window, or NaN if no window has been completed.
+     */
+    public synchronized double getCpuRatio() {
+        roll();
+        return cpuRatio;
+    }
+    
+    /**
+     * Returns the share of a processor that each runnable thread could expect
+     * when the last window was completed; this is 1 unless the host was
+     * oversubscribed.
+     */
+    public synchronized double getCpuShare() {
+        roll();
+        return cpuShare;
+    }
+    
+    /**
+     * Sets the classification to be reported until the next window is
+     * completed, for example one observed in a previous run of the stage.
+     * @param workload the workload of the stage
+     * @param cpuRatio the fraction of processing time spent on the CPU, or NaN if unknown
+     */
+    public synchronized void restore(StageWorkload workload, double cpuRatio) {
+        if (workload == null) throw new IllegalArgumentException("Workload may not be null.");
+        this.workload = workload;
+        this.cpuRatio = cpuRatio;
+    }
+    
+    /**
+     * Classifies the current window if enough measurements have been made,
+     * and starts a new one.
+     */
+    private void roll() {
+        long n = samples.sum();
+        if (n - windowSamplesStart < windowSamples) return;
+        
+        long wall = wallNanos.sum();
+        long cpu = cpuNanos.sum();
+        long blocked = blockedNanos.sum();
+        long windowWall = wall - windowWallStart;
+        if (windowWall > 0) {
+            cpuRatio = (cpu - windowCpuStart) / (double) windowWall;
+            double blockedRatio = (blocked - windowBlockedStart) / (double) windowWall;
+            cpuShare = Math.min(1.0, processors / (double) Math.max(1, runnableThreads()));
+            workload = classify(cpuRatio, blockedRatio, cpuShare);
+        }
+        
+        windowSamplesStart = n;
+        windowWallStart = wall;
+        windowCpuStart = cpu;
+        windowBlockedStart = blocked;
+    }
+    
+    /**
+     * Classifies a workload from the fractions of processing time spent on the
+     * CPU and blocked on monitors, on a host that is not oversubscribed.
+     */
+    static StageWorkload classify(double cpuRatio, double blockedRatio) {
+        return classify(cpuRatio, blockedRatio, 1.0);
+    }
+    
+    /**
+     * Classifies a workload from the fractions of processing time spent on the
+     * CPU and blocked on monitors, and the share of a processor available to
+     * each runnable thread. A stage that used most of the CPU time it could
+     * have been given is CPU bound, however little that was.
+     */
+    static StageWorkload classify(double cpuRatio, double blockedRatio, double cpuShare) {
+        if (cpuRatio >= CPU_BOUND_THRESHOLD * cpuShare) return StageWorkload.CPU_BOUND;
+        if (blockedRatio >= CONTENDED_THRESHOLD) return StageWorkload.CONTENDED;
+        return StageWorkload.BLOCKING;
+    }
+    
+    /**
+     * Returns the number of threads in the virtual machine that are currently
+     * runnable, other than the calling thread.
+     */
+    int runnableThreads() {
+        int runnable = 0;
+        for (ThreadInfo info : THREADS.getThreadInfo(THREADS.getAllThreadIds())) {
+            if (info != null && info.getThreadState() == Thread.State.RUNNABLE) runnable++;
+        }
+        return Math.max(0, runnable - 1);
+    }
+    
+    /**
+     * Returns the time the current thread has spent blocked entering monitors,
+     * or zero if contention monitoring is not enabled.
+     */
+    private static long blockedNanos() {
+        if (!THREADS.isThreadContentionMonitoringEnabled()) return 0;
+        ThreadInfo info = THREADS.getThreadInfo(Thread.currentThread().getId());
+        return (info == null || info.getBlockedTime() < 0) ? 0 : info.getBlockedTime() * 1000000L;
+    }
+}
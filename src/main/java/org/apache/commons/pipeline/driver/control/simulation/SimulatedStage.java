@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import org.apache.commons.pipeline.driver.control.StageWorkload;
+import org.apache.commons.pipeline.stage.BaseStage;
+
+/**
+ * A stage in a {@link Simulation}. The stage does no work; it describes the
+ * time taken to process each object and the kind of work being modelled,
+ * which determines how the service time is affected by the number of threads
+ * running at once.
+ */
+public class SimulatedStage extends BaseStage {
+    private final String name;
+    private final TimeDistribution serviceTime;
+    private final StageWorkload workload;
+    
+    /**
+     * Creates a new SimulatedStage whose threads spend their time waiting,
+     * so that service times are unaffected by the number of threads.
+     * @param name the name of the stage
+     * @param serviceTime the distribution of times taken to process an object
+     */
+    public SimulatedStage(String name, TimeDistribution serviceTime) {
+        this(name, serviceTime, StageWorkload.BLOCKING);
+    }
+    
+    /**
+     * Creates a new SimulatedStage.
+     * @param name the name of the stage
+     * @param serviceTime the distribution of times taken to process an object
+     * by a single thread running alone
+     * @param workload the kind of work done by the stage. Service times of
+     * {@link StageWorkload#CPU_BOUND} stages are stretched when more threads of
+     * such stages are busy than there are processors; service times of
+     * {@link StageWorkload#CONTENDED} stages are stretched by the number of
+     * busy threads of the stage, as if each object were processed holding a lock.
+     */
+    public SimulatedStage(String name, TimeDistribution serviceTime, StageWorkload workload) {
+        if (serviceTime == null) throw new IllegalArgumentException("Service time distribution may not be null.");
+        if (workload == null || workload == StageWorkload.UNKNOWN) throw new IllegalArgumentException("A known workload must be specified.");
+        this.name = name;
+        this.serviceTime = serviceTime;
+        this.workload = workload;
+    }
+    
+    /**
+     * Does nothing; processing is modelled by the simulation.
+     */
+    public void process(Object obj) {
+    }
+    
+    /**
+     * Returns the distribution of times taken to process an object.
+     */
+    public TimeDistribution getServiceTime() {
+        return this.serviceTime;
+    }
+    
+    /**
+     * Returns the kind of work done by the stage.
+     */
+    public StageWorkload getWorkload() {
+        return this.workload;
+    }
+    
+    /**
+     * Returns the name of the stage.
+     */
+    public String getName() {
+        return this.name;
+    }
+    
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import static org.apache.commons.pipeline.StageDriver.State.*;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.StageContext;
+import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.driver.control.AbstractPrioritizableStageDriver;
+import org.apache.commons.pipeline.driver.control.PrioritizableStageDriver;
+
+/**
+ * A {@link PrioritizableStageDriver} that runs a {@link SimulatedStage} in
+ * the virtual time of a {@link Simulation}. Its priority is the number of
+ * simulated worker threads; objects fed to the driver wait in its queue until
+ * a thread is free. When the priority is reduced, busy threads finish the
+ * object they are processing before they are removed.
+ */
+public class SimulatedStageDriver extends AbstractPrioritizableStageDriver {
+    //the simulation in which the driver runs
+    private final Simulation simulation;
+    
+    //objects awaiting a free thread
+    private final Queue<Simulation.Job> queue = new LinkedList<Simulation.Job>();
+    
+    //number of simulated threads, and the number of them that are busy
+    private int threads;
+    private int busy;
+    
+    //integral of the thread count over virtual time, and the time of the last change
+    private double threadTime;
+    private double lastChange;
+    
+    //longest queue seen
+    private int maxQueueLength;
+    
+    //feeder used to feed objects to this driver's queue
+    private final Feeder feeder = new Feeder() {
+        public void feed(Object obj) {
+            if (!(obj instanceof Simulation.Job)) throw new IllegalArgumentException("Only simulated objects may be fed to a simulated stage.");
+            recordFed();
+            queue.add((Simulation.Job) obj);
+            dispatch();
+            maxQueueLength = Math.max(maxQueueLength, queue.size());
+        }
+    };
+    
+    SimulatedStageDriver(Simulation simulation, SimulatedStage stage, StageContext context, int threads) {
+        super(stage, context, FaultTolerance.NONE);
+        this.simulation = simulation;
+        this.threads = threads;
+        getWorkloadMonitor().restore(stage.getWorkload(), Double.NaN);
+    }
+    
+    /**
+     * Returns the feeder for the simulated stage. Only objects created by
+     * the simulation may be fed to it.
+     */
+    public Feeder getFeeder() {
+        return this.feeder;
+    }
+    
+    /**
+     * Allocates the initial threads from the thread budget, if any.
+     */
+    public void start() {
+        setState(STARTED);
+        changeThreads(acquireThreads(threads) - threads);
+        setState(RUNNING);
+    }
+    
+    /**
+     * Returns the driver's threads to the thread budget.
+     */
+    public void finish() {
+        setState(STOP_REQUESTED);
+        releaseAllThreads();
+        setState(STOPPED);
+    }
+    
+    /**
+     * Adds simulated threads, as many as the thread budget allows.
+     */
+    public void increasePriority(double amount) {
+        int granted = isInState(STARTED, RUNNING) ? acquireThreads((int) amount) : (int) amount;
+        changeThreads(granted);
+        dispatch();
+    }
+    
+    /**
+     * Removes simulated threads. Busy threads are removed once they become free.
+     */
+    public void decreasePriority(double amount) {
+        int removed = Math.min((int) amount, threads);
+        changeThreads(-removed);
+        if (isInState(STARTED, RUNNING)) releaseThreads(removed);
+    }
+    
+    public double getPriority() {
+        return threads;
+    }
+    
+    /**
+     * Returns the number of simulated threads.
+     */
+    public int getWorkerCount() {
+        return threads;
+    }
+    
+    /**
+     * Returns the queue of objects awaiting a free thread.
+     */
+    protected Queue<?> getQueue() {
+        return queue;
+    }
+    
+    /**
+     * Returns the simulated stage.
+     */
+    public SimulatedStage getSimulatedStage() {
+        return (SimulatedStage) this.stage;
+    }
+    
+    /**
+     * Returns the number of threads busy processing an object.
+     */
+    public int getBusyCount() {
+        return busy;
+    }
+    
+    /**
+     * Returns the longest the queue has been.
+     */
+    public int getMaxQueueLength() {
+        return maxQueueLength;
+    }
+    
+    /**
+     * Returns the mean number of threads over the virtual time elapsed so far.
+     */
+    public double getMeanThreads() {
+        double now = simulation.getTime();
+        return now <= 0 ? threads : (threadTime + threads * (now - lastChange)) / now;
+    }
+    
+    /**
+     * Starts processing queued objects in free threads.
+     */
+    private void dispatch() {
+        while (busy < threads && !queue.isEmpty()) {
+            busy++;
+            simulation.startService(this, queue.remove());
+        }
+    }
+    
+    /**
+     * Called by the simulation when a thread completes processing of an object.
+     */
+    void complete() {
+        busy--;
+        recordProcessed();
+        dispatch();
+    }
+    
+    /**
+     * Changes the thread count, keeping the integral of the count up to date.
+     */
+    private void changeThreads(int change) {
+        double now = simulation.getTime();
+        threadTime += threads * (now - lastChange);
+        lastChange = now;
+        threads += change;
+    }
+}
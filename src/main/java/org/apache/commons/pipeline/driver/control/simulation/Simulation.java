@@ -0,0 +1,437 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageContext;
+import org.apache.commons.pipeline.StageEventListener;
+import org.apache.commons.pipeline.driver.control.DriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.PrioritizableStageDriver;
+import org.apache.commons.pipeline.driver.control.StageProcessTimingEvent;
+import org.apache.commons.pipeline.driver.control.StageWorkload;
+import org.apache.commons.pipeline.driver.control.ThreadBudget;
+import org.apache.commons.pipeline.driver.control.TimedDriverControlStrategy;
+import org.apache.commons.pipeline.util.RollingHistogram;
+
+/**
+ * A discrete-event simulation of a linear pipeline of {@link SimulatedStage}s
+ * under the control of a {@link DriverControlStrategy}. Objects arrive at the
+ * first stage according to an inter-arrival time distribution, wait in each
+ * stage's queue for a free simulated thread, and are processed for a time
+ * drawn from the stage's service time distribution. At every control interval
+ * the strategy is invoked with the simulated drivers and the timing events
+ * raised since the previous invocation, exactly as a driver controller would
+ * invoke it in a running pipeline.
+ *
+ * <p>Everything happens in virtual time, so minutes of pipeline operation are
+ * simulated in milliseconds, and a simulation run with a given seed always
+ * produces the same result. Strategies implementing
+ * {@link TimedDriverControlStrategy} are given the virtual time; other
+ * strategies must not depend on the system clock.</p>
+ *
+ * <p>A simulation may be run only once.</p>
+ */
+public class Simulation {
+    //the strategy under evaluation, or null to leave thread counts unchanged
+    private final DriverControlStrategy strategy;
+    
+    //source of all randomness in the simulation
+    private final Random random;
+    
+    //drivers of the stages, in pipeline order
+    private final List<SimulatedStageDriver> drivers = new ArrayList<SimulatedStageDriver>();
+    
+    //pending events, in order of time
+    private final PriorityQueue<Event> agenda = new PriorityQueue<Event>();
+    
+    //timing events raised since the last invocation of the strategy
+    private List<StageProcessTimingEvent> events = new ArrayList<StageProcessTimingEvent>();
+    
+    //the current virtual time in milliseconds
+    private double time;
+    
+    //number of events scheduled, used to order simultaneous events
+    private long sequence;
+    
+    //number of busy threads of CPU bound stages
+    private int cpuBusy;
+    
+    //results being collected
+    private boolean started;
+    private long arrived;
+    private long completed;
+    private double latencySum;
+    private double maxLatency;
+    private RollingHistogram latencies;
+    
+    //context shared by the simulated stages
+    private final StageContext context = new StageContext() {
+        public void registerListener(StageEventListener listener) { }
+        
+        public Collection<StageEventListener> getRegisteredListeners() {
+            return Collections.emptyList();
+        }
+        
+        public void raise(EventObject ev) { }
+        
+        public Feeder getBranchFeeder(String branch) {
+            return Feeder.VOID;
+        }
+        
+        public Feeder getDownstreamFeeder(Stage stage) {
+            return Feeder.VOID;
+        }
+        
+        public Object getEnv(String key) {
+            return null;
+        }
+    };
+    
+    /**
+     * An object passing through the simulated pipeline.
+     */
+    static class Job {
+        private final double created;
+        private int stage;
+        
+        Job(double created) {
+            this.created = created;
+        }
+    }
+    
+    /**
+     * Something that happens at a point in virtual time.
+     */
+    private abstract class Event implements Comparable<Event> {
+        private final double time;
+        private final long sequence;
+        
+        Event(double time) {
+            this.time = time;
+            this.sequence = Simulation.this.sequence++;
+        }
+        
+        public int compareTo(Event other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+        }
+        
+        abstract void fire();
+    }
+    
+    /**
+     * Creates a new Simulation.
+     * @param strategy the strategy to be evaluated, or null to leave thread
+     * counts at their initial values
+     * @param seed the seed of the simulation's source of randomness
+     */
+    public Simulation(DriverControlStrategy strategy, long seed) {
+        this.strategy = strategy;
+        this.random = new Random(seed);
+    }
+    
+    /**
+     * Adds a stage to the end of the simulated pipeline.
+     * @param stage the stage to add
+     * @param initialThreads the number of threads with which the stage starts
+     * @return the driver for the stage
+     */
+    public SimulatedStageDriver addStage(SimulatedStage stage, int initialThreads) {
+        if (started) throw new IllegalStateException("Stages cannot be added once the simulation has run.");
+        if (initialThreads < 0) throw new IllegalArgumentException("Initial thread count may not be negative.");
+        
+        SimulatedStageDriver driver = new SimulatedStageDriver(this, stage, context, initialThreads);
+        driver.setThreadBudget(threadBudget);
+        stage.init(context);
+        drivers.add(driver);
+        return driver;
+    }
+    
+    /**
+     * Runs the simulation for the specified virtual time.
+     * @param duration the virtual time in milliseconds to simulate
+     * @return the results of the simulation
+     */
+    public SimulationResult run(long duration) {
+        if (started) throw new IllegalStateException("A simulation may only be run once.");
+        if (drivers.isEmpty()) throw new IllegalStateException("No stages have been added to the simulation.");
+        if (interArrivalTime == null) throw new IllegalStateException("No inter-arrival time distribution has been set.");
+        if (warmup >= duration) throw new IllegalStateException("Warmup must be shorter than the simulation.");
+        started = true;
+        latencies = new RollingHistogram(duration + 1, 1);
+        
+        for (SimulatedStageDriver driver : drivers) driver.start();
+        scheduleArrival();
+        if (strategy != null) scheduleControl();
+        
+        while (!agenda.isEmpty() && agenda.peek().time <= duration) {
+            Event event = agenda.remove();
+            time = event.time;
+            event.fire();
+        }
+        time = duration;
+        
+        SimulationResult result = new SimulationResult(this, duration - warmup);
+        for (SimulatedStageDriver driver : drivers) driver.finish();
+        return result;
+    }
+    
+    /**
+     * Returns the current virtual time in milliseconds.
+     */
+    public double getTime() {
+        return time;
+    }
+    
+    /**
+     * Returns the drivers of the simulated stages, in pipeline order.
+     */
+    public List<SimulatedStageDriver> getDrivers() {
+        return Collections.unmodifiableList(drivers);
+    }
+    
+    /**
+     * Schedules the arrival of the next object at the first stage.
+     */
+    private void scheduleArrival() {
+        agenda.add(new Event(time + interArrivalTime.sample(random)) {
+            void fire() {
+                if (time >= warmup) arrived++;
+                drivers.get(0).getFeeder().feed(new Job(time));
+                scheduleArrival();
+            }
+        });
+    }
+    
+    /**
+     * Schedules the next invocation of the strategy.
+     */
+    private void scheduleControl() {
+        agenda.add(new Event(time + controlInterval) {
+            void fire() {
+                List<StageProcessTimingEvent> batch = events;
+                events = new ArrayList<StageProcessTimingEvent>();
+                List<PrioritizableStageDriver> managed = new ArrayList<PrioritizableStageDriver>(drivers);
+                if (strategy instanceof TimedDriverControlStrategy) {
+                    ((TimedDriverControlStrategy) strategy).handleEvents(managed, batch, (long) time);
+                } else {
+                    strategy.handleEvents(managed, batch);
+                }
+                
+                scheduleControl();
+            }
+        });
+    }
+    
+    /**
+     * Begins processing of an object by a thread of the specified driver,
+     * scheduling the completion of the processing.
+     */
+    void startService(final SimulatedStageDriver driver, final Job job) {
+        final SimulatedStage stage = driver.getSimulatedStage();
+        double serviceTime = stage.getServiceTime().sample(random);
+        if (stage.getWorkload() == StageWorkload.CPU_BOUND) {
+            //processor sharing among the busy threads of CPU bound stages
+            cpuBusy++;
+            serviceTime *= Math.max(1.0, cpuBusy / (double) processors);
+        } else if (stage.getWorkload() == StageWorkload.CONTENDED) {
+            //busy threads of the stage take turns holding the lock
+            serviceTime *= driver.getBusyCount();
+        }
+        
+        final long latency = Math.round(serviceTime);
+        agenda.add(new Event(time + serviceTime) {
+            void fire() {
+                if (stage.getWorkload() == StageWorkload.CPU_BOUND) cpuBusy--;
+                events.add(new StageProcessTimingEvent(stage, latency));
+                driver.complete();
+                
+                if (++job.stage < drivers.size()) {
+                    drivers.get(job.stage).getFeeder().feed(job);
+                } else if (time >= warmup) {
+                    double latency = time - job.created;
+                    completed++;
+                    latencySum += latency;
+                    maxLatency = Math.max(maxLatency, latency);
+                    latencies.record((long) (latency * 1000), (long) (time * 1000000));
+                }
+            }
+        });
+    }
+    
+    /**
+     * Returns the number of objects that arrived after the warmup period.
+     */
+    long getArrived() {
+        return arrived;
+    }
+    
+    /**
+     * Returns the number of objects that left the pipeline after the warmup period.
+     */
+    long getCompleted() {
+        return completed;
+    }
+    
+    /**
+     * Returns the total latency in milliseconds of objects that left the pipeline
+     * after the warmup period.
+     */
+    double getLatencySum() {
+        return latencySum;
+    }
+    
+    /**
+     * Returns the largest latency in milliseconds of objects that left the
+     * pipeline after the warmup period.
+     */
+    double getMaxLatency() {
+        return maxLatency;
+    }
+    
+    /**
+     * Returns a snapshot of the latencies in microseconds of objects that left
+     * the pipeline after the warmup period.
+     */
+    RollingHistogram.Snapshot getLatencies() {
+        return latencies.snapshot((long) (time * 1000000));
+    }
+    
+    /**
+     * Holds value of property interArrivalTime.
+     */
+    private TimeDistribution interArrivalTime;
+    
+    /**
+     * Getter for property interArrivalTime.
+     * @return Value of property interArrivalTime.
+     */
+    public TimeDistribution getInterArrivalTime() {
+        return this.interArrivalTime;
+    }
+    
+    /**
+     * Setter for property interArrivalTime. This is the distribution of the
+     * times between arrivals of objects at the first stage.
+     * @param interArrivalTime New value of property interArrivalTime.
+     */
+    public void setInterArrivalTime(TimeDistribution interArrivalTime) {
+        this.interArrivalTime = interArrivalTime;
+    }
+    
+    /**
+     * Holds value of property controlInterval.
+     */
+    private long controlInterval = 1000;
+    
+    /**
+     * Getter for property controlInterval.
+     * @return Value of property controlInterval.
+     */
+    public long getControlInterval() {
+        return this.controlInterval;
+    }
+    
+    /**
+     * Setter for property controlInterval. This is the virtual time in
+     * milliseconds between invocations of the strategy.
+     * @param controlInterval New value of property controlInterval.
+     */
+    public void setControlInterval(long controlInterval) {
+        if (controlInterval < 1) throw new IllegalArgumentException("Control interval must be at least one millisecond.");
+        this.controlInterval = controlInterval;
+    }
+    
+    /**
+     * Holds value of property warmup.
+     */
+    private long warmup = 0;
+    
+    /**
+     * Getter for property warmup.
+     * @return Value of property warmup.
+     */
+    public long getWarmup() {
+        return this.warmup;
+    }
+    
+    /**
+     * Setter for property warmup. Objects arriving or leaving during this
+     * initial period of virtual time in milliseconds are not counted in the results.
+     * @param warmup New value of property warmup.
+     */
+    public void setWarmup(long warmup) {
+        if (warmup < 0) throw new IllegalArgumentException("Warmup may not be negative.");
+        this.warmup = warmup;
+    }
+    
+    /**
+     * Holds value of property processors.
+     */
+    private int processors = 4;
+    
+    /**
+     * Getter for property processors.
+     * @return Value of property processors.
+     */
+    public int getProcessors() {
+        return this.processors;
+    }
+    
+    /**
+     * Setter for property processors. This is the number of simulated
+     * processors shared by the threads of CPU bound stages. The default is
+     * four, independent of the machine running the simulation.
+     * @param processors New value of property processors.
+     */
+    public void setProcessors(int processors) {
+        if (processors < 1) throw new IllegalArgumentException("There must be at least one processor.");
+        this.processors = processors;
+    }
+    
+    /**
+     * Holds value of property threadBudget.
+     */
+    private ThreadBudget threadBudget;
+    
+    /**
+     * Getter for property threadBudget.
+     * @return Value of property threadBudget.
+     */
+    public ThreadBudget getThreadBudget() {
+        return this.threadBudget;
+    }
+    
+    /**
+     * Setter for property threadBudget. The budget is shared by the drivers of
+     * stages added after it is set.
+     * @param threadBudget New value of property threadBudget.
+     */
+    public void setThreadBudget(ThreadBudget threadBudget) {
+        this.threadBudget = threadBudget;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import java.util.List;
+
+import org.apache.commons.pipeline.util.RollingHistogram;
+
+/**
+ * The results of running a {@link Simulation}, measured after its warmup period.
+ */
+public class SimulationResult {
+    private final long duration;
+    private final long arrived;
+    private final long completed;
+    private final double meanLatency;
+    private final double maxLatency;
+    private final RollingHistogram.Snapshot latencies;
+    private final double[] meanThreads;
+    private final double[] finalThreads;
+    private final int[] maxQueueLengths;
+    
+    SimulationResult(Simulation simulation, long duration) {
+        this.duration = duration;
+        this.arrived = simulation.getArrived();
+        this.completed = simulation.getCompleted();
+        this.meanLatency = completed == 0 ? Double.NaN : simulation.getLatencySum() / completed;
+        this.maxLatency = simulation.getMaxLatency();
+        this.latencies = simulation.getLatencies();
+        
+        List<SimulatedStageDriver> drivers = simulation.getDrivers();
+        this.meanThreads = new double[drivers.size()];
+        this.finalThreads = new double[drivers.size()];
+        this.maxQueueLengths = new int[drivers.size()];
+        for (int i = 0; i < drivers.size(); i++) {
+            meanThreads[i] = drivers.get(i).getMeanThreads();
+            finalThreads[i] = drivers.get(i).getPriority();
+            maxQueueLengths[i] = drivers.get(i).getMaxQueueLength();
+        }
+    }
+    
+    /**
+     * Returns the measured virtual time in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+    
+    /**
+     * Returns the number of objects that arrived at the pipeline.
+     */
+    public long getArrived() {
+        return arrived;
+    }
+    
+    /**
+     * Returns the number of objects that left the pipeline.
+     */
+    public long getCompleted() {
+        return completed;
+    }
+    
+    /**
+     * Returns the number of objects that left the pipeline per second.
+     */
+    public double getThroughput() {
+        return completed * 1000.0 / duration;
+    }
+    
+    /**
+     * Returns the mean time in milliseconds objects took to pass through the
+     * pipeline, or NaN if none did.
+     */
+    public double getMeanLatency() {
+        return meanLatency;
+    }
+    
+    /**
+     * Returns the longest time in milliseconds an object took to pass through the pipeline.
+     */
+    public double getMaxLatency() {
+        return maxLatency;
+    }
+    
+    /**
+     * Returns the time in milliseconds within which the specified percentage of
+     * objects passed through the pipeline, to within the precision of
+     * {@link RollingHistogram}.
+     * @param percentile the percentile, between 0 and 100
+     */
+    public double getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+    
+    /**
+     * Returns the mean number of threads of each stage over the whole simulation.
+     */
+    public double[] getMeanThreads() {
+        return meanThreads.clone();
+    }
+    
+    /**
+     * Returns the number of threads of each stage at the end of the simulation.
+     */
+    public double[] getFinalThreads() {
+        return finalThreads.clone();
+    }
+    
+    /**
+     * Returns the longest queue seen by each stage.
+     */
+    public int[] getMaxQueueLengths() {
+        return maxQueueLengths.clone();
+    }
+    
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("throughput=").append(getThroughput()).append("/s");
+        b.append(", latency mean=").append(meanLatency).append("ms");
+        b.append(" p99=").append(getLatencyAtPercentile(99)).append("ms");
+        b.append(" max=").append(maxLatency).append("ms");
+        b.append(", threads=[");
+        for (int i = 0; i < finalThreads.length; i++) {
+            if (i > 0) b.append(", ");
+            b.append(finalThreads[i]).append(" (mean ").append(Math.round(meanThreads[i] * 100) / 100.0).append(")");
+        }
+        b.append("]");
+        return b.toString();
+    }
+}
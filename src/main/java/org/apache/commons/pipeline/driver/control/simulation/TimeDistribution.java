@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import java.util.Random;
+
+/**
+ * A distribution of durations in milliseconds, used by a {@link Simulation}
+ * to model the service times of stages and the times between arrivals of
+ * objects at the pipeline.
+ */
+public interface TimeDistribution {
+    /**
+     * Returns a duration in milliseconds drawn from this distribution.
+     * @param random the source of randomness to use
+     */
+    public double sample(Random random);
+    
+    /**
+     * Returns the mean duration in milliseconds.
+     */
+    public double getMean();
+    
+    /**
+     * A distribution that always yields the same duration.
+     */
+    public static class Constant implements TimeDistribution {
+        private final double time;
+        
+        public Constant(double time) {
+            if (time < 0) throw new IllegalArgumentException("Time may not be negative.");
+            this.time = time;
+        }
+        
+        public double sample(Random random) {
+            return time;
+        }
+        
+        public double getMean() {
+            return time;
+        }
+        
+        public String toString() {
+            return "constant(" + time + ")";
+        }
+    }
+    
+    /**
+     * An exponential distribution, modelling memoryless service times or
+     * Poisson arrivals.
+     */
+    public static class Exponential implements TimeDistribution {
+        private final double mean;
+        
+        public Exponential(double mean) {
+            if (mean <= 0) throw new IllegalArgumentException("Mean must be positive.");
+            this.mean = mean;
+        }
+        
+        public double sample(Random random) {
+            return -mean * Math.log(1.0 - random.nextDouble());
+        }
+        
+        public double getMean() {
+            return mean;
+        }
+        
+        public String toString() {
+            return "exponential(" + mean + ")";
+        }
+    }
+    
+    /**
+     * A distribution uniform between a minimum and a maximum duration.
+     */
+    public static class Uniform implements TimeDistribution {
+        private final double min;
+        private final double max;
+        
+        public Uniform(double min, double max) {
+            if (min < 0 || max < min) throw new IllegalArgumentException("Bounds must satisfy 0 <= min <= max.");
+            this.min = min;
+            this.max = max;
+        }
+        
+        public double sample(Random random) {
+            return min + (max - min) * random.nextDouble();
+        }
+        
+        public double getMean() {
+            return (min + max) / 2;
+        }
+        
+        public String toString() {
+            return "uniform(" + min + ", " + max + ")";
+        }
+    }
+    
+    /**
+     * A log-normal distribution with the specified mean and coefficient of
+     * variation, modelling service times with a long tail.
+     */
+    public static class LogNormal implements TimeDistribution {
+        private final double mean;
+        private final double mu;
+        private final double sigma;
+        
+        public LogNormal(double mean, double coefficientOfVariation) {
+            if (mean <= 0) throw new IllegalArgumentException("Mean must be positive.");
+            if (coefficientOfVariation < 0) throw new IllegalArgumentException("Coefficient of variation may not be negative.");
+            this.mean = mean;
+            this.sigma = Math.sqrt(Math.log(1 + coefficientOfVariation * coefficientOfVariation));
+            this.mu = Math.log(mean) - sigma * sigma / 2;
+        }
+        
+        public double sample(Random random) {
+            return Math.exp(mu + sigma * random.nextGaussian());
+        }
+        
+        public double getMean() {
+            return mean;
+        }
+        
+        public String toString() {
+            return "lognormal(" + mean + ", " + sigma + ")";
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+/**
+ * Management interface for drivers that run their stage in a thread pool
+ * executor, adding the statistics of the pool.
+ */
+public interface ExecutorStageDriverMBean extends StageDriverMBean {
+    
+    /**
+     * @return approximate number of pool threads actively processing objects
+     */
+    public int getActiveCount();
+    
+    /**
+     * @return largest number of threads that have simultaneously been in the pool
+     */
+    public int getLargestPoolSize();
+    
+    /**
+     * @return core number of threads in the pool
+     */
+    public int getCorePoolSize();
+    
+    /**
+     * @return maximum allowed number of threads in the pool
+     */
+    public int getMaximumPoolSize();
+    
+    /**
+     * @return approximate number of objects processed by pool threads
+     */
+    public long getCompletedTaskCount();
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import org.apache.commons.pipeline.driver.control.ExecutorStageDriver;
+
+/**
+ * Exposes an {@link ExecutorStageDriver} and the statistics of its thread
+ * pool through the {@link ExecutorStageDriverMBean} interface.
+ */
+public class ExecutorStageDriverMonitor extends StageDriverMonitor implements ExecutorStageDriverMBean {
+    private final ExecutorStageDriver executorDriver;
+    
+    /**
+     * Creates a new ExecutorStageDriverMonitor for the specified driver.
+     */
+    public ExecutorStageDriverMonitor(ExecutorStageDriver driver) {
+        super(driver);
+        this.executorDriver = driver;
+    }
+    
+    public int getActiveCount() {
+        return executorDriver.getActiveCount();
+    }
+    
+    public int getLargestPoolSize() {
+        return executorDriver.getLargestPoolSize();
+    }
+    
+    public int getCorePoolSize() {
+        return executorDriver.getCorePoolSize();
+    }
+    
+    public int getMaximumPoolSize() {
+        return executorDriver.getMaximumPoolSize();
+    }
+    
+    public long getCompletedTaskCount() {
+        return executorDriver.getCompletedTaskCount();
+    }
+}
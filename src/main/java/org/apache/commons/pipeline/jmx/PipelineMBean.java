@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+/**
+ * Management interface for a pipeline or one of its branches.
+ */
+public interface PipelineMBean {
+    
+    /**
+     * @return the key of the branch, or "main" for the root pipeline
+     */
+    public String getBranchName();
+    
+    /**
+     * @return number of stages in the pipeline, not including its branches
+     */
+    public int getStageCount();
+    
+    /**
+     * @return number of branches attached directly to the pipeline
+     */
+    public int getBranchCount();
+    
+    /**
+     * @return number of objects fed to the first stage of the pipeline
+     */
+    public long getObjectsFed();
+    
+    /**
+     * @return total number of objects waiting in the queues of the pipeline's stages
+     */
+    public int getQueuedObjectCount();
+    
+    /**
+     * @return total number of producers blocked on the queues of the pipeline's stages
+     */
+    public int getBlockedProducerCount();
+    
+    /**
+     * Returns the stage most likely to be limiting the throughput of the
+     * pipeline: the stage with the most producers blocked on its queue or,
+     * if no producers are blocked, the stage with the most queued objects.
+     *
+     * @return description of the bottleneck stage, or null if no objects are queued
+     */
+    public String getBottleneckStage();
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import java.util.List;
+
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+
+/**
+ * Exposes a pipeline or branch through the {@link PipelineMBean} interface.
+ */
+public class PipelineMonitor implements PipelineMBean {
+    private final Pipeline pipeline;
+    private final String branchName;
+    
+    /**
+     * Creates a new PipelineMonitor for the specified pipeline.
+     *
+     * @param pipeline the pipeline or branch to monitor
+     * @param branchName the key of the branch, or "main" for the root pipeline
+     */
+    public PipelineMonitor(Pipeline pipeline, String branchName) {
+        if (pipeline == null) throw new IllegalArgumentException("Pipeline may not be null.");
+        this.pipeline = pipeline;
+        this.branchName = branchName;
+    }
+    
+    public String getBranchName() {
+        return branchName;
+    }
+    
+    public int getStageCount() {
+        return pipeline.getStages().size();
+    }
+    
+    public int getBranchCount() {
+        return pipeline.getBranches().size();
+    }
+    
+    public long getObjectsFed() {
+        List<StageDriver> drivers = pipeline.getStageDrivers();
+        if (drivers.isEmpty() || !(drivers.get(0) instanceof AbstractStageDriver)) return -1;
+        return ((AbstractStageDriver) drivers.get(0)).getObjectsFed();
+    }
+    
+    public int getQueuedObjectCount() {
+        int count = 0;
+        for (StageDriver driver : pipeline.getStageDrivers()) {
+            if (driver instanceof AbstractStageDriver) count += ((AbstractStageDriver) driver).getQueueOccupancy();
+        }
+        return count;
+    }
+    
+    public int getBlockedProducerCount() {
+        int count = 0;
+        for (StageDriver driver : pipeline.getStageDrivers()) {
+            if (driver instanceof AbstractStageDriver) count += ((AbstractStageDriver) driver).getBlockedProducerCount();
+        }
+        return count;
+    }
+    
+    public String getBottleneckStage() {
+        AbstractStageDriver bottleneck = null;
+        int maxBlocked = 0;
+        int maxQueued = 0;
+        for (StageDriver driver : pipeline.getStageDrivers()) {
+            if (!(driver instanceof AbstractStageDriver)) continue;
+            AbstractStageDriver candidate = (AbstractStageDriver) driver;
+            int blocked = candidate.getBlockedProducerCount();
+            int queued = candidate.getQueueOccupancy();
+            if (blocked > maxBlocked || (blocked == maxBlocked && queued > maxQueued)) {
+                bottleneck = candidate;
+                maxBlocked = blocked;
+                maxQueued = queued;
+            }
+        }
+        return bottleneck == null ? null : String.valueOf(bottleneck.getStage());
+    }
+}
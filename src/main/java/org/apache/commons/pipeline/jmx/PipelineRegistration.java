@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+import org.apache.commons.pipeline.driver.control.ExecutorStageDriver;
+
+/**
+ * Registers the MBeans for a pipeline, its branches, and the driver and queue
+ * of each of their stages. The MBeans are named so that JMX consoles display
+ * them as a tree:
+ * <pre>
+ * org.apache.commons.pipeline:pipeline=&lt;id&gt;,branch=main,type=Pipeline
+ * org.apache.commons.pipeline:pipeline=&lt;id&gt;,branch=main,type=StageDriver,name=&lt;index&gt;-&lt;stage class&gt;
+ * org.apache.commons.pipeline:pipeline=&lt;id&gt;,branch=main,type=Queue,name=&lt;index&gt;-&lt;stage class&gt;
+ * </pre>
+ * Nested branches are identified by the path of branch keys from the root
+ * pipeline, separated by "/".
+ */
+public class PipelineRegistration {
+    private static final Log log = LogFactory.getLog(PipelineRegistration.class);
+    
+    /** The JMX domain under which all pipeline MBeans are registered. */
+    public static final String DOMAIN = "org.apache.commons.pipeline";
+    
+    private final MBeanServer server;
+    private final List<ObjectName> names = new ArrayList<ObjectName>();
+    
+    private PipelineRegistration(MBeanServer server) {
+        this.server = server;
+    }
+    
+    /**
+     * Registers the MBeans for the specified pipeline and all of its branches.
+     * Failure to register an individual MBean is logged and does not prevent
+     * the others from being registered.
+     *
+     * @param pipeline the root pipeline
+     * @param id identifier distinguishing the pipeline from others registered with the server
+     * @param server the server with which to register the MBeans
+     * @return the registration, used to unregister the MBeans
+     */
+    public static PipelineRegistration register(Pipeline pipeline, String id, MBeanServer server) {
+        PipelineRegistration registration = new PipelineRegistration(server);
+        registration.registerBranch(pipeline, "pipeline=" + quote(id), Pipeline.MAIN_BRANCH, Pipeline.MAIN_BRANCH);
+        return registration;
+    }
+    
+    /**
+     * Returns the names of the registered MBeans.
+     */
+    public List<ObjectName> getObjectNames() {
+        return names;
+    }
+    
+    /**
+     * Unregisters all of the MBeans registered by this registration.
+     */
+    public void unregister() {
+        for (ObjectName name : names) {
+            try {
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.warn("Failed to unregister " + name + " from JMX server", e);
+            }
+        }
+        names.clear();
+    }
+    
+    private void registerBranch(Pipeline pipeline, String prefix, String branchName, String path) {
+        String branchPrefix = prefix + ",branch=" + quote(path);
+        register(new PipelineMonitor(pipeline, branchName), PipelineMBean.class, branchPrefix + ",type=Pipeline");
+        
+        int index = 0;
+        for (StageDriver driver : pipeline.getStageDrivers()) {
+            String name = quote(index++ + "-" + driver.getStage().getClass().getSimpleName());
+            if (driver instanceof ExecutorStageDriver) {
+                register(new ExecutorStageDriverMonitor((ExecutorStageDriver) driver), ExecutorStageDriverMBean.class,
+                        branchPrefix + ",type=StageDriver,name=" + name);
+            } else {
+                register(new StageDriverMonitor(driver), StageDriverMBean.class, branchPrefix + ",type=StageDriver,name=" + name);
+            }
+            
+            if (driver instanceof AbstractStageDriver) {
+                register(new QueueMonitor((AbstractStageDriver) driver), QueueMBean.class, branchPrefix + ",type=Queue,name=" + name);
+            }
+        }
+        
+        for (Map.Entry<String,Pipeline> branch : pipeline.getBranches().entrySet()) {
+            String childPath = Pipeline.MAIN_BRANCH.equals(path) ? branch.getKey() : path + "/" + branch.getKey();
+            registerBranch(branch.getValue(), prefix, branch.getKey(), childPath);
+        }
+    }
+    
+    private <T> void register(T monitor, Class<T> mbeanInterface, String properties) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (server.isRegistered(name)) {
+                log.info("JMX Overlap. Multiple instances of '" + name + "'. Only one will be registered.");
+            } else {
+                server.registerMBean(new StandardMBean(monitor, mbeanInterface), name);
+                names.add(name);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to register with JMX server", e);
+        }
+    }
+    
+    /**
+     * Quotes the value if it contains characters that may not appear in an
+     * unquoted ObjectName property value.
+     */
+    private static String quote(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (",=:\"*?\n".indexOf(value.charAt(i)) >= 0) return ObjectName.quote(value);
+        }
+        return value;
+    }
+}
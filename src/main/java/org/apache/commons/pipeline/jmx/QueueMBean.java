@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+/**
+ * Management interface for the queue of objects awaiting processing by a stage.
+ */
+public interface QueueMBean {
+    
+    /**
+     * @return number of objects currently waiting in the queue
+     */
+    public int getOccupancy();
+    
+    /**
+     * @return number of objects that can be added without blocking, or
+     * {@link Integer#MAX_VALUE} if the queue is unbounded
+     */
+    public int getRemainingCapacity();
+    
+    /**
+     * @return number of producer threads currently blocked waiting for space
+     */
+    public int getBlockedProducerCount();
+}
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+
+/**
+ * Exposes the queue of a stage driver through the {@link QueueMBean} interface.
+ */
+public class QueueMonitor implements QueueMBean {
+    private final AbstractStageDriver driver;
+    
+    /**
+     * Creates a new QueueMonitor for the queue of the specified driver.
+     */
+    public QueueMonitor(AbstractStageDriver driver) {
+        if (driver == null) throw new IllegalArgumentException("Driver may not be null.");
+        this.driver = driver;
+    }
+    
+    public int getOccupancy() {
+        return driver.getQueueOccupancy();
+    }
+    
+    public int getRemainingCapacity() {
+        return driver.getQueueRemainingCapacity();
+    }
+    
+    public int getBlockedProducerCount() {
+        return driver.getBlockedProducerCount();
+    }
+}
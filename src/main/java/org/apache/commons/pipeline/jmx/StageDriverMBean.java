@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+/**
+ * Management interface for the driver of a single stage.
+ */
+public interface StageDriverMBean {
+    
+    /**
+     * @return description of the stage run by the driver
+     */
+    public String getStageName();
+    
+    /**
+     * @return class name of the driver
+     */
+    public String getDriverClassName();
+    
+    /**
+     * @return current state of the driver
+     */
+    public String getState();
+    
+    /**
+     * @return number of threads allocated to processing objects for the stage,
+     * or zero if objects are processed in the threads that feed them
+     */
+    public int getWorkerCount();
+    
+    /**
+     * @return classification of the stage's workload: CPU_BOUND, BLOCKING,
+     * CONTENDED, or UNKNOWN if it has not been measured
+     */
+    public String getWorkload();
+    
+    /**
+     * @return fraction of processing time spent on the CPU, or NaN if it has
+     * not been measured
+     */
+    public double getCpuRatio();
+    
+    /**
+     * @return number of objects fed to the driver
+     */
+    public long getObjectsFed();
+    
+    /**
+     * @return number of objects processed by the stage without error
+     */
+    public long getObjectsProcessed();
+    
+    /**
+     * @return rate at which objects were fed to the driver since the
+     * previous sample, in objects per second
+     */
+    public double getFedPerSecond();
+    
+    /**
+     * @return rate at which objects were processed by the stage since the
+     * previous sample, in objects per second
+     */
+    public double getProcessedPerSecond();
+    
+    /**
+     * @return number of objects whose processing failed
+     */
+    public int getProcessingExceptionCount();
+    
+    /**
+     * @return number of fatal errors recorded by the driver
+     */
+    public int getFatalErrorCount();
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+import org.apache.commons.pipeline.driver.control.AbstractPrioritizableStageDriver;
+import org.apache.commons.pipeline.driver.control.StageWorkload;
+
+/**
+ * Exposes a stage driver through the {@link StageDriverMBean} interface.
+ * Counts and rates are only available for drivers extending
+ * {@link AbstractStageDriver}; for other drivers they are reported as -1.
+ */
+public class StageDriverMonitor implements StageDriverMBean {
+    //minimum time between rate samples, so that rates are not computed over
+    //meaninglessly short periods when several attributes are read at once
+    private static final long MIN_SAMPLE_NANOS = 1000000000L;
+    
+    /**
+     * The monitored driver.
+     */
+    protected final StageDriver driver;
+    
+    //the monitored driver, if it keeps statistics
+    private final AbstractStageDriver stats;
+    
+    private final Rate fedRate = new Rate();
+    private final Rate processedRate = new Rate();
+    
+    /**
+     * Rate of change of a count between successive samples.
+     */
+    private static final class Rate {
+        private long lastCount;
+        private long lastTime = System.nanoTime();
+        private double rate;
+        
+        synchronized double sample(long count) {
+            long now = System.nanoTime();
+            long elapsed = now - lastTime;
+            if (elapsed >= MIN_SAMPLE_NANOS) {
+                rate = (count - lastCount) * 1e9 / elapsed;
+                lastCount = count;
+                lastTime = now;
+            }
+            return rate;
+        }
+    }
+    
+    /**
+     * Creates a new StageDriverMonitor for the specified driver.
+     */
+    public StageDriverMonitor(StageDriver driver) {
+        if (driver == null) throw new IllegalArgumentException("Driver may not be null.");
+        this.driver = driver;
+        this.stats = (driver instanceof AbstractStageDriver) ? (AbstractStageDriver) driver : null;
+    }
+    
+    public String getStageName() {
+        return String.valueOf(driver.getStage());
+    }
+    
+    public String getDriverClassName() {
+        return driver.getClass().getName();
+    }
+    
+    public String getState() {
+        return String.valueOf(driver.getState());
+    }
+    
+    public int getWorkerCount() {
+        return stats == null ? -1 : stats.getWorkerCount();
+    }
+    
+    public String getWorkload() {
+        if (driver instanceof AbstractPrioritizableStageDriver) {
+            return ((AbstractPrioritizableStageDriver) driver).getWorkload().name();
+        }
+        return StageWorkload.UNKNOWN.name();
+    }
+    
+    public double getCpuRatio() {
+        if (driver instanceof AbstractPrioritizableStageDriver) {
+            return ((AbstractPrioritizableStageDriver) driver).getWorkloadMonitor().getCpuRatio();
+        }
+        return Double.NaN;
+    }
+    
+    public long getObjectsFed() {
+        return stats == null ? -1 : stats.getObjectsFed();
+    }
+    
+    public long getObjectsProcessed() {
+        return stats == null ? -1 : stats.getObjectsProcessed();
+    }
+    
+    public double getFedPerSecond() {
+        return stats == null ? -1 : fedRate.sample(stats.getObjectsFed());
+    }
+    
+    public double getProcessedPerSecond() {
+        return stats == null ? -1 : processedRate.sample(stats.getObjectsProcessed());
+    }
+    
+    public int getProcessingExceptionCount() {
+        return driver.getProcessingExceptions().size();
+    }
+    
+    public int getFatalErrorCount() {
+        return driver.getFatalErrors().size();
+    }
+}
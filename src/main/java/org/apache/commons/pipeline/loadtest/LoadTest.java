@@ -0,0 +1,447 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.config.DigesterPipelineFactory;
+import org.apache.commons.pipeline.driver.AbstractStageDriver;
+import org.apache.commons.pipeline.stage.ExtendedBaseStage;
+import org.apache.commons.pipeline.util.RollingHistogram;
+import org.apache.commons.pipeline.util.StripedCounter;
+
+/**
+ * Runs a pipeline under a synthetic load and measures how it performs. Items
+ * are fed to the pipeline's source feeder either at a fixed rate (an open
+ * loop, in which arrivals do not wait for earlier items to complete) or by a
+ * fixed number of outstanding items (a closed loop, in which a new item is fed
+ * each time one leaves the pipeline). After a warmup period the test measures,
+ * for the length of its duration, the throughput of the pipeline, the
+ * end-to-end latency of the items fed and the mean number of workers, queue
+ * length and utilization of each stage.
+ *
+ * <p>Items are {@link LoadTestItem}s, which stages are expected to pass on
+ * unchanged; this is the case for {@link SyntheticStage}, which can be
+ * substituted for the stages of a configuration file with a
+ * {@link SyntheticStageRuleSet}. Latency is measured when an item reaches the
+ * terminal feeder of the pipeline, so it is only measured for items that pass
+ * through every stage. Utilization is only reported for SyntheticStages and
+ * {@link ExtendedBaseStage}s, which record the time they spend processing.</p>
+ *
+ * <p>The test can be run from the command line with
+ * <code>LoadTest &lt;configuration file&gt; [&lt;properties file&gt;]</code>,
+ * where the properties file may set the rate, concurrency, warmup, duration
+ * and sampleInterval properties of the test as well as the stage substitutions
+ * described by {@link SyntheticStageRuleSet}.</p>
+ */
+public class LoadTest {
+    private final Log log = LogFactory.getLog(LoadTest.class);
+    
+    private final Pipeline pipeline;
+    
+    //bounds of the measurement window, as values of System.nanoTime()
+    private volatile long measureStart;
+    private volatile long measureEnd;
+    
+    //counts of items fed and completed within the measurement window
+    private final StripedCounter fed = new StripedCounter();
+    private final StripedCounter completed = new StripedCounter();
+    
+    //end-to-end latencies of items fed within the measurement window
+    private RollingHistogram latencies;
+    
+    //permits for outstanding items in a closed loop test, or null in an open loop test
+    private Semaphore outstanding;
+    
+    /**
+     * Creates a new LoadTest for the specified pipeline, which must not yet
+     * have been started.
+     * @param pipeline the pipeline to test
+     */
+    public LoadTest(Pipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+    
+    /**
+     * Starts the pipeline, feeds it for the warmup period and duration of the
+     * test, then finishes it and returns the measurements.
+     * @throws StageException if the pipeline cannot be started or finished
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public LoadTestReport run() throws StageException, InterruptedException {
+        if (rate <= 0 && concurrency < 1) throw new IllegalStateException("Either a rate or a concurrency must be set.");
+        
+        final Feeder terminalFeeder = pipeline.getTerminalFeeder();
+        pipeline.setTerminalFeeder(new Feeder() {
+            public void feed(Object obj) {
+                complete(obj);
+                terminalFeeder.feed(obj);
+            }
+        });
+        
+        fed.reset();
+        completed.reset();
+        latencies = new RollingHistogram(1000, (int) (duration / 1000) + 2);
+        outstanding = rate > 0 ? null : new Semaphore(concurrency);
+        
+        Sampler sampler = new Sampler(pipeline.getStageDrivers());
+        try {
+            pipeline.start();
+            
+            long start = System.nanoTime();
+            measureStart = start + warmup * 1000000L;
+            measureEnd = measureStart + duration * 1000000L;
+            sampler.start();
+            if (outstanding == null) {
+                feedAtRate(start);
+            } else {
+                feedClosedLoop();
+            }
+            
+            sampler.join();
+        } finally {
+            sampler.interrupt();
+            pipeline.finish();
+            pipeline.setTerminalFeeder(terminalFeeder);
+        }
+        
+        LoadTestReport report = new LoadTestReport(duration, fed.sum(), completed.sum(),
+                latencies.snapshot(measureEnd - 1), sampler.getStageReports());
+        if (log.isDebugEnabled()) log.debug(report);
+        return report;
+    }
+    
+    /**
+     * Feeds items at the rate of the test until the end of the measurement
+     * window. Each item is scheduled independently of the time at which the
+     * previous item was actually fed, so that a pipeline that blocks its
+     * producer is charged for the delay in the latency of the items that follow.
+     */
+    private void feedAtRate(long start) {
+        Feeder feeder = pipeline.getSourceFeeder();
+        for (long seq = 0; ; seq++) {
+            long scheduled = start + (long) (seq * 1e9 / rate);
+            if (scheduled >= measureEnd) break;
+            
+            for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            
+            feed(feeder, new LoadTestItem(seq, scheduled));
+        }
+    }
+    
+    /**
+     * Feeds a new item each time the number of outstanding items falls below
+     * the concurrency of the test, until the end of the measurement window.
+     */
+    private void feedClosedLoop() throws InterruptedException {
+        Feeder feeder = pipeline.getSourceFeeder();
+        for (long seq = 0; ; seq++) {
+            long remaining = measureEnd - System.nanoTime();
+            if (remaining <= 0 || !outstanding.tryAcquire(remaining, TimeUnit.NANOSECONDS)) break;
+            
+            feed(feeder, new LoadTestItem(seq, System.nanoTime()));
+        }
+    }
+    
+    private void feed(Feeder feeder, LoadTestItem item) {
+        long scheduled = item.getScheduledTime();
+        if (scheduled >= measureStart && scheduled < measureEnd) fed.increment();
+        feeder.feed(item);
+    }
+    
+    /**
+     * Records the completion of an object that has reached the terminal feeder.
+     */
+    private void complete(Object obj) {
+        long now = System.nanoTime();
+        if (now >= measureStart && now < measureEnd) completed.increment();
+        
+        if (obj instanceof LoadTestItem) {
+            long scheduled = ((LoadTestItem) obj).getScheduledTime();
+            if (scheduled >= measureStart && scheduled < measureEnd) {
+                //items that complete after the window are recorded in its last interval
+                latencies.record(now - scheduled, Math.min(now, measureEnd - 1));
+            }
+        }
+        
+        if (outstanding != null) outstanding.release();
+    }
+    
+    /**
+     * Returns the time in nanoseconds that the specified stage has spent
+     * processing objects, or -1 if the stage does not record it.
+     */
+    private static long getBusyTime(Stage stage) {
+        if (stage instanceof SyntheticStage) return ((SyntheticStage) stage).getBusyTime();
+        if (stage instanceof ExtendedBaseStage) return ((ExtendedBaseStage) stage).getTotalServiceTime() * 1000000L;
+        return -1;
+    }
+    
+    /**
+     * Thread that samples the state of each stage driver during the
+     * measurement window.
+     */
+    private class Sampler extends Thread {
+        private final List<StageDriver> drivers;
+        private final long[] workers;
+        private final long[] queued;
+        private int samples;
+        private final List<LoadTestReport.StageReport> reports = new ArrayList<LoadTestReport.StageReport>();
+        
+        Sampler(List<StageDriver> drivers) {
+            super("LoadTest sampler");
+            this.setDaemon(true);
+            this.drivers = new ArrayList<StageDriver>(drivers);
+            this.workers = new long[drivers.size()];
+            this.queued = new long[drivers.size()];
+        }
+        
+        public void run() {
+            try {
+                sleepUntil(measureStart);
+                long[] busy = new long[drivers.size()];
+                long[] processed = new long[drivers.size()];
+                for (int i = 0; i < drivers.size(); i++) {
+                    busy[i] = getBusyTime(drivers.get(i).getStage());
+                    processed[i] = getProcessed(drivers.get(i));
+                }
+                
+                while (System.nanoTime() < measureEnd) {
+                    for (int i = 0; i < drivers.size(); i++) {
+                        StageDriver driver = drivers.get(i);
+                        if (driver instanceof AbstractStageDriver) {
+                            workers[i] += ((AbstractStageDriver) driver).getWorkerCount();
+                            queued[i] += ((AbstractStageDriver) driver).getQueueOccupancy();
+                        }
+                    }
+                    
+                    samples++;
+                    sleepUntil(Math.min(System.nanoTime() + sampleInterval * 1000000L, measureEnd));
+                }
+                
+                for (int i = 0; i < drivers.size(); i++) {
+                    StageDriver driver = drivers.get(i);
+                    boolean sampled = samples > 0 && driver instanceof AbstractStageDriver;
+                    double meanWorkers = sampled ? (double) workers[i] / samples : Double.NaN;
+                    double meanQueueLength = sampled ? (double) queued[i] / samples : Double.NaN;
+                    
+                    //stages processed in the feeding thread are counted as having one worker
+                    double utilization = Double.NaN;
+                    long busyEnd = getBusyTime(driver.getStage());
+                    if (busy[i] >= 0 && busyEnd >= 0 && sampled) {
+                        utilization = (busyEnd - busy[i]) / (duration * 1000000.0 * Math.max(meanWorkers, 1));
+                    }
+                    
+                    reports.add(new LoadTestReport.StageReport(String.valueOf(driver.getStage()),
+                            getProcessed(driver) - processed[i], meanWorkers, meanQueueLength, utilization));
+                }
+            } catch (InterruptedException e) {
+                log.warn("Load test sampling interrupted.", e);
+            }
+        }
+        
+        private long getProcessed(StageDriver driver) {
+            return driver instanceof AbstractStageDriver ? ((AbstractStageDriver) driver).getObjectsProcessed() : 0;
+        }
+        
+        private void sleepUntil(long time) throws InterruptedException {
+            for (long wait = time - System.nanoTime(); wait > 0; wait = time - System.nanoTime()) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        
+        /**
+         * Returns the measurements of each stage once sampling has completed.
+         */
+        List<LoadTestReport.StageReport> getStageReports() {
+            return this.reports;
+        }
+    }
+    
+    /**
+     * Holds value of property rate.
+     */
+    private double rate;
+    
+    /**
+     * Getter for property rate.
+     * @return Value of property rate.
+     */
+    public double getRate() {
+        return this.rate;
+    }
+    
+    /**
+     * Setter for property rate. This is the number of items per second fed to
+     * the pipeline in an open loop test; if it is zero, the default, the test
+     * runs in a closed loop with the configured concurrency instead.
+     * @param rate New value of property rate.
+     */
+    public void setRate(double rate) {
+        if (rate < 0) throw new IllegalArgumentException("Rate may not be negative.");
+        this.rate = rate;
+    }
+    
+    /**
+     * Holds value of property concurrency.
+     */
+    private int concurrency = 1;
+    
+    /**
+     * Getter for property concurrency.
+     * @return Value of property concurrency.
+     */
+    public int getConcurrency() {
+        return this.concurrency;
+    }
+    
+    /**
+     * Setter for property concurrency. This is the number of items that are
+     * kept in the pipeline at once in a closed loop test.
+     * @param concurrency New value of property concurrency.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) throw new IllegalArgumentException("Concurrency must be at least 1.");
+        this.concurrency = concurrency;
+    }
+    
+    /**
+     * Holds value of property warmup.
+     */
+    private long warmup = 5000;
+    
+    /**
+     * Getter for property warmup.
+     * @return Value of property warmup.
+     */
+    public long getWarmup() {
+        return this.warmup;
+    }
+    
+    /**
+     * Setter for property warmup. This is the time in milliseconds for which
+     * the pipeline is fed before measurement begins.
+     * @param warmup New value of property warmup.
+     */
+    public void setWarmup(long warmup) {
+        if (warmup < 0) throw new IllegalArgumentException("Warmup may not be negative.");
+        this.warmup = warmup;
+    }
+    
+    /**
+     * Holds value of property duration.
+     */
+    private long duration = 30000;
+    
+    /**
+     * Getter for property duration.
+     * @return Value of property duration.
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+    
+    /**
+     * Setter for property duration. This is the time in milliseconds for
+     * which the pipeline is measured.
+     * @param duration New value of property duration.
+     */
+    public void setDuration(long duration) {
+        if (duration < 1) throw new IllegalArgumentException("Duration must be at least one millisecond.");
+        this.duration = duration;
+    }
+    
+    /**
+     * Holds value of property sampleInterval.
+     */
+    private long sampleInterval = 100;
+    
+    /**
+     * Getter for property sampleInterval.
+     * @return Value of property sampleInterval.
+     */
+    public long getSampleInterval() {
+        return this.sampleInterval;
+    }
+    
+    /**
+     * Setter for property sampleInterval. This is the interval in milliseconds
+     * at which worker counts and queue lengths are sampled.
+     * @param sampleInterval New value of property sampleInterval.
+     */
+    public void setSampleInterval(long sampleInterval) {
+        if (sampleInterval < 1) throw new IllegalArgumentException("Sample interval must be at least one millisecond.");
+        this.sampleInterval = sampleInterval;
+    }
+    
+    /**
+     * Runs a load test of the pipeline described by the configuration file
+     * named by the first argument, using the test properties and stage
+     * substitutions in the properties file named by the optional second
+     * argument, and prints the report to standard output.
+     */
+    public static void main(String[] argv) {
+        if (argv.length < 1) {
+            System.err.println("Usage: LoadTest <configuration file> [<properties file>]");
+            return;
+        }
+        
+        try {
+            Properties props = new Properties();
+            if (argv.length > 1) {
+                InputStream in = new FileInputStream(argv[1]);
+                try {
+                    props.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+            
+            DigesterPipelineFactory factory = new DigesterPipelineFactory(new File(argv[0]).toURI().toURL());
+            factory.addRuleSet(new SyntheticStageRuleSet(props));
+            
+            LoadTest test = new LoadTest(factory.createPipeline());
+            if (props.containsKey("rate")) test.setRate(Double.parseDouble(props.getProperty("rate")));
+            if (props.containsKey("concurrency")) test.setConcurrency(Integer.parseInt(props.getProperty("concurrency")));
+            if (props.containsKey("warmup")) test.setWarmup(Long.parseLong(props.getProperty("warmup")));
+            if (props.containsKey("duration")) test.setDuration(Long.parseLong(props.getProperty("duration")));
+            if (props.containsKey("sampleInterval")) test.setSampleInterval(Long.parseLong(props.getProperty("sampleInterval")));
+            
+            System.out.println(test.run());
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.loadtest;
+
+/**
+ * An object fed to a pipeline by a {@link LoadTest}. It records when it was
+ * due to be fed, so that its latency can be measured when it reaches the end
+ * of the pipeline, including any time spent waiting to be fed.
+ */
+public class LoadTestItem {
+    private final long sequence;
+    private final long scheduledTime;
+    
+    /**
+     * Creates a new LoadTestItem.
+     * @param sequence the number of items fed before this one
+     * @param scheduledTime the value of {@link System#nanoTime()} at which the
+     * item was due to be fed
+     */
+    public LoadTestItem(long sequence, long scheduledTime) {
+        this.sequence = sequence;
+        this.scheduledTime = scheduledTime;
+    }
+    
+    /**
+     * Returns the number of items fed before this one.
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+    
+    /**
+     * Returns the value of {@link System#nanoTime()} at which the item was due to be fed.
+     */
+    public long getScheduledTime() {
+        return this.scheduledTime;
+    }
+    
+    public String toString() {
+        return "LoadTestItem(" + sequence + ")";
+    }
+}
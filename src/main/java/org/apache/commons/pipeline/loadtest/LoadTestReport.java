@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.loadtest;
+
+import java.util.Collections;
+import java.util.List;
+import org.apache.commons.pipeline.util.RollingHistogram;
+
+/**
+ * The results of a {@link LoadTest}, measured after its warmup period.
+ */
+public class LoadTestReport {
+    private final long duration;
+    private final long fed;
+    private final long completed;
+    private final RollingHistogram.Snapshot latencies;
+    private final List<StageReport> stages;
+    
+    LoadTestReport(long duration, long fed, long completed, RollingHistogram.Snapshot latencies, List<StageReport> stages) {
+        this.duration = duration;
+        this.fed = fed;
+        this.completed = completed;
+        this.latencies = latencies;
+        this.stages = Collections.unmodifiableList(stages);
+    }
+    
+    /**
+     * Returns the measured time in milliseconds.
+     */
+    public long getDuration() {
+        return duration;
+    }
+    
+    /**
+     * Returns the number of items fed to the pipeline.
+     */
+    public long getFed() {
+        return fed;
+    }
+    
+    /**
+     * Returns the number of objects that left the pipeline.
+     */
+    public long getCompleted() {
+        return completed;
+    }
+    
+    /**
+     * Returns the number of items fed to the pipeline per second.
+     */
+    public double getOfferedRate() {
+        return fed * 1000.0 / duration;
+    }
+    
+    /**
+     * Returns the number of objects that left the pipeline per second.
+     */
+    public double getThroughput() {
+        return completed * 1000.0 / duration;
+    }
+    
+    /**
+     * Returns the time in milliseconds within which the specified percentage
+     * of items passed through the pipeline, measured from the time each was
+     * due to be fed, to within the precision of {@link RollingHistogram}.
+     * @param percentile the percentile, between 0 and 100
+     */
+    public double getLatencyAtPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000000.0;
+    }
+    
+    /**
+     * Returns the longest time in milliseconds an item took to pass through the pipeline.
+     */
+    public double getMaxLatency() {
+        return latencies.getMax() / 1000000.0;
+    }
+    
+    /**
+     * Returns the reports for the stages of the pipeline, in order.
+     */
+    public List<StageReport> getStages() {
+        return stages;
+    }
+    
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("offered=").append(round(getOfferedRate())).append("/s");
+        b.append(", throughput=").append(round(getThroughput())).append("/s");
+        b.append(", latency p50=").append(round(getLatencyAtPercentile(50))).append("ms");
+        b.append(" p90=").append(round(getLatencyAtPercentile(90))).append("ms");
+        b.append(" p99=").append(round(getLatencyAtPercentile(99))).append("ms");
+        b.append(" p99.9=").append(round(getLatencyAtPercentile(99.9))).append("ms");
+        b.append(" max=").append(round(getMaxLatency())).append("ms");
+        for (StageReport stage : stages) b.append("\n  ").append(stage);
+        return b.toString();
+    }
+    
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+    
+    /**
+     * The measurements of a single stage.
+     */
+    public static class StageReport {
+        private final String stage;
+        private final long processed;
+        private final double meanWorkers;
+        private final double meanQueueLength;
+        private final double utilization;
+        
+        StageReport(String stage, long processed, double meanWorkers, double meanQueueLength, double utilization) {
+            this.stage = stage;
+            this.processed = processed;
+            this.meanWorkers = meanWorkers;
+            this.meanQueueLength = meanQueueLength;
+            this.utilization = utilization;
+        }
+        
+        /**
+         * Returns the description of the stage.
+         */
+        public String getStage() {
+            return stage;
+        }
+        
+        /**
+         * Returns the number of objects processed by the stage.
+         */
+        public long getProcessed() {
+            return processed;
+        }
+        
+        /**
+         * Returns the mean number of threads processing objects for the stage.
+         */
+        public double getMeanWorkers() {
+            return meanWorkers;
+        }
+        
+        /**
+         * Returns the mean number of objects waiting to be processed by the stage.
+         */
+        public double getMeanQueueLength() {
+            return meanQueueLength;
+        }
+        
+        /**
+         * Returns the fraction of the time that the threads of the stage spent
+         * processing objects, or NaN if the stage does not measure it. Only
+         * {@link SyntheticStage}s and {@link org.apache.commons.pipeline.stage.ExtendedBaseStage}s
+         * measure the time spent processing.
+         */
+        public double getUtilization() {
+            return utilization;
+        }
+        
+        public String toString() {
+            return stage + ": processed=" + processed + ", workers=" + round(meanWorkers)
+                    + ", queue=" + round(meanQueueLength) + ", utilization=" + round(utilization);
+        }
+    }
+}
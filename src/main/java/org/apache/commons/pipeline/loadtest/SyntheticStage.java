@@ -0,0 +1,245 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.loadtest;
+
+import java.util.Random;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.control.simulation.TimeDistribution;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.util.StripedCounter;
+
+/**
+ * A stage that stands in for a real stage in a load test. For each object it
+ * spends a service time drawn from a configurable distribution, part of it
+ * computing and the rest sleeping, and then passes the object on unchanged.
+ *
+ * <p>The stage is configured through bean properties, so it can be declared
+ * in a Digester configuration file or substituted for a configured stage by
+ * {@link SyntheticStageRuleSet}. A <code>cpuFraction</code> of 1 models a
+ * CPU-bound stage and a fraction of 0 a stage that waits on I/O.</p>
+ */
+public class SyntheticStage extends BaseStage {
+    /** The names of the supported service time distributions. */
+    public static final String CONSTANT = "constant", EXPONENTIAL = "exponential",
+            UNIFORM = "uniform", LOG_NORMAL = "lognormal";
+    
+    //time spent processing objects
+    private final StripedCounter busyNanos = new StripedCounter();
+    
+    //distribution built from the properties, or set directly
+    private TimeDistribution serviceTime;
+    
+    private Random random = new Random();
+    
+    //sink for the results of computation, so that it cannot be optimized away
+    private volatile double sink;
+    
+    /** Creates a new SyntheticStage with a constant service time of one millisecond. */
+    public SyntheticStage() {
+    }
+    
+    /**
+     * Creates a new SyntheticStage.
+     * @param serviceTime the distribution of service times in milliseconds
+     * @param cpuFraction the fraction of the service time spent computing
+     */
+    public SyntheticStage(TimeDistribution serviceTime, double cpuFraction) {
+        setServiceTime(serviceTime);
+        setCpuFraction(cpuFraction);
+    }
+    
+    /**
+     * Spends a service time on the object and passes it to the next stage.
+     */
+    public void process(Object obj) throws StageException {
+        long start = System.nanoTime();
+        long total = (long) (getServiceTime().sample(random) * 1000000);
+        long computeUntil = start + (long) (total * cpuFraction);
+        
+        double x = 1;
+        while (System.nanoTime() < computeUntil) {
+            for (int i = 0; i < 100; i++) x = Math.sqrt(x + i);
+        }
+        sink = x;
+        
+        long remaining = start + total - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+            } catch (InterruptedException e) {
+                throw new StageException(this, "Interrupted while simulating service time.", e);
+            }
+        }
+        
+        busyNanos.add(System.nanoTime() - start);
+        this.emit(obj);
+    }
+    
+    /**
+     * Returns the total time spent processing objects, in nanoseconds.
+     */
+    public long getBusyTime() {
+        return busyNanos.sum();
+    }
+    
+    /**
+     * Returns the distribution of service times in milliseconds, creating it
+     * from the distribution properties if it has not been set directly.
+     */
+    public synchronized TimeDistribution getServiceTime() {
+        if (serviceTime == null) serviceTime = createServiceTime();
+        return this.serviceTime;
+    }
+    
+    /**
+     * Sets the distribution of service times in milliseconds directly, instead
+     * of through the distribution properties.
+     */
+    public synchronized void setServiceTime(TimeDistribution serviceTime) {
+        if (serviceTime == null) throw new IllegalArgumentException("Service time distribution may not be null.");
+        this.serviceTime = serviceTime;
+    }
+    
+    /**
+     * Creates the distribution described by the distribution properties.
+     */
+    private TimeDistribution createServiceTime() {
+        if (CONSTANT.equals(distribution)) {
+            return new TimeDistribution.Constant(meanServiceTime);
+        } else if (EXPONENTIAL.equals(distribution)) {
+            return new TimeDistribution.Exponential(meanServiceTime);
+        } else if (UNIFORM.equals(distribution)) {
+            //a uniform distribution with the same coefficient of variation, narrowed if needed to keep it above zero
+            double halfWidth = Math.min(meanServiceTime, meanServiceTime * coefficientOfVariation * Math.sqrt(3));
+            return new TimeDistribution.Uniform(meanServiceTime - halfWidth, meanServiceTime + halfWidth);
+        } else {
+            return new TimeDistribution.LogNormal(meanServiceTime, coefficientOfVariation);
+        }
+    }
+    
+    /**
+     * Holds value of property distribution.
+     */
+    private String distribution = CONSTANT;
+    
+    /**
+     * Getter for property distribution.
+     * @return Value of property distribution.
+     */
+    public String getDistribution() {
+        return this.distribution;
+    }
+    
+    /**
+     * Setter for property distribution. This is one of {@link #CONSTANT},
+     * {@link #EXPONENTIAL}, {@link #UNIFORM} or {@link #LOG_NORMAL}.
+     * @param distribution New value of property distribution.
+     */
+    public synchronized void setDistribution(String distribution) {
+        if (!(CONSTANT.equals(distribution) || EXPONENTIAL.equals(distribution)
+                || UNIFORM.equals(distribution) || LOG_NORMAL.equals(distribution))) {
+            throw new IllegalArgumentException("Unknown service time distribution: " + distribution);
+        }
+        this.distribution = distribution;
+        this.serviceTime = null;
+    }
+    
+    /**
+     * Holds value of property meanServiceTime.
+     */
+    private double meanServiceTime = 1;
+    
+    /**
+     * Getter for property meanServiceTime.
+     * @return Value of property meanServiceTime.
+     */
+    public double getMeanServiceTime() {
+        return this.meanServiceTime;
+    }
+    
+    /**
+     * Setter for property meanServiceTime.
+     * @param meanServiceTime New value of property meanServiceTime, in milliseconds.
+     */
+    public synchronized void setMeanServiceTime(double meanServiceTime) {
+        if (meanServiceTime <= 0) throw new IllegalArgumentException("Mean service time must be positive.");
+        this.meanServiceTime = meanServiceTime;
+        this.serviceTime = null;
+    }
+    
+    /**
+     * Holds value of property coefficientOfVariation.
+     */
+    private double coefficientOfVariation = 1;
+    
+    /**
+     * Getter for property coefficientOfVariation.
+     * @return Value of property coefficientOfVariation.
+     */
+    public double getCoefficientOfVariation() {
+        return this.coefficientOfVariation;
+    }
+    
+    /**
+     * Setter for property coefficientOfVariation. This is the ratio of the
+     * standard deviation of service times to their mean, and is used by the
+     * uniform and log-normal distributions.
+     * @param coefficientOfVariation New value of property coefficientOfVariation.
+     */
+    public synchronized void setCoefficientOfVariation(double coefficientOfVariation) {
+        if (coefficientOfVariation < 0) throw new IllegalArgumentException("Coefficient of variation may not be negative.");
+        this.coefficientOfVariation = coefficientOfVariation;
+        this.serviceTime = null;
+    }
+    
+    /**
+     * Holds value of property cpuFraction.
+     */
+    private volatile double cpuFraction = 1;
+    
+    /**
+     * Getter for property cpuFraction.
+     * @return Value of property cpuFraction.
+     */
+    public double getCpuFraction() {
+        return this.cpuFraction;
+    }
+    
+    /**
+     * Setter for property cpuFraction. This is the fraction of each service
+     * time spent computing; the remainder is spent sleeping.
+     * @param cpuFraction New value of property cpuFraction.
+     */
+    public void setCpuFraction(double cpuFraction) {
+        if (cpuFraction < 0 || cpuFraction > 1) throw new IllegalArgumentException("CPU fraction must be between 0 and 1.");
+        this.cpuFraction = cpuFraction;
+    }
+    
+    /**
+     * Setter for property seed. Setting a seed makes the sequence of service
+     * times drawn repeatable.
+     * @param seed New value of property seed.
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+    
+    public String toString() {
+        return "SyntheticStage(" + getServiceTime() + ", cpu " + cpuFraction + ")";
+    }
+}
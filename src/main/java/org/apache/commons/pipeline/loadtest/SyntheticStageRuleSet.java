@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.loadtest;
+
+import java.util.Map;
+import java.util.Properties;
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.digester.Digester;
+import org.apache.commons.digester.Rule;
+import org.apache.commons.digester.RuleSetBase;
+import org.apache.commons.pipeline.Pipeline;
+import org.xml.sax.Attributes;
+
+/**
+ * A Digester RuleSet that replaces stages declared in a pipeline configuration
+ * file with {@link SyntheticStage}s, so that the configured drivers and
+ * pipeline structure can be load tested without the resources the real stages
+ * need. It must be added to a {@link org.apache.commons.pipeline.config.DigesterPipelineFactory}
+ * after the standard rules, which is the case for rule sets added with
+ * {@link org.apache.commons.pipeline.config.DigesterPipelineFactory#addRuleSet}.
+ *
+ * <p>Substitutions are described by properties of the form
+ * <code>stage.<em>index</em>.<em>property</em>=<em>value</em></code>, where
+ * <em>index</em> is the zero-based position of the stage in the root pipeline
+ * and <em>property</em> is a property of SyntheticStage, for example
+ * <code>stage.1.meanServiceTime=5</code>. Every stage with at least one such
+ * property is replaced. Properties of the form
+ * <code>stage.*.<em>property</em></code> replace every stage, and are
+ * overridden by properties for individual stages. Stages of branch pipelines
+ * are not replaced.</p>
+ */
+public class SyntheticStageRuleSet extends RuleSetBase {
+    private static final String PREFIX = "stage.";
+    private static final String ALL = "*";
+    
+    private final Properties substitutions;
+    
+    /**
+     * Creates a new SyntheticStageRuleSet.
+     * @param substitutions properties describing the stages to replace
+     */
+    public SyntheticStageRuleSet(Properties substitutions) {
+        this.substitutions = substitutions;
+    }
+    
+    public void addRuleInstances(Digester digester) {
+        //the pattern must be the same as that of the standard stage rules so
+        //that this rule fires after the stage has been created, but before it is added
+        digester.addRule("*/pipeline/stage", new SubstituteStageRule());
+    }
+    
+    /**
+     * Returns true if the stage at the specified index is to be replaced.
+     */
+    boolean isSubstituted(int index) {
+        for (Object key : substitutions.keySet()) {
+            String owner = ownerOf((String) key);
+            if (ALL.equals(owner) || String.valueOf(index).equals(owner)) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Creates the stage that replaces the stage at the specified index.
+     */
+    SyntheticStage createStage(int index) throws Exception {
+        SyntheticStage stage = new SyntheticStage();
+        configure(stage, ALL);
+        configure(stage, String.valueOf(index));
+        return stage;
+    }
+    
+    private void configure(SyntheticStage stage, String owner) throws Exception {
+        for (Map.Entry<Object, Object> entry : substitutions.entrySet()) {
+            String key = (String) entry.getKey();
+            if (owner.equals(ownerOf(key))) {
+                BeanUtils.setProperty(stage, key.substring(PREFIX.length() + owner.length() + 1), entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Returns the index, or "*", to which a substitution property applies, or
+     * null if the key is not a substitution property.
+     */
+    private static String ownerOf(String key) {
+        if (!key.startsWith(PREFIX)) return null;
+        int end = key.indexOf('.', PREFIX.length());
+        return end < 0 ? null : key.substring(PREFIX.length(), end);
+    }
+    
+    /**
+     * Replaces the stage on top of the stack with a synthetic stage before the
+     * standard rules add it to the pipeline.
+     */
+    private class SubstituteStageRule extends Rule {
+        public void begin(String namespace, String name, Attributes attributes) throws Exception {
+            Pipeline pipeline = (Pipeline) digester.peek(1);
+            if (pipeline != digester.getRoot()) return;
+            
+            int index = pipeline.getStages().size();
+            if (isSubstituted(index)) {
+                digester.pop();
+                digester.push(createStage(index));
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.util.KeyFactory;
+import org.apache.commons.pipeline.util.KeySet;
+import org.apache.commons.pipeline.util.OffHeapHashSet;
+import org.apache.commons.pipeline.util.ScalableBloomFilter;
+
+/**
+ * Passes on only the first object received for each key, where the key of
+ * an object is produced by the {@link KeyFactory}, or is the object itself if
+ * no key factory is set. Objects whose key has been seen before are dropped,
+ * or fed to the duplicate branch if one is set.
+ *
+ * <p>Seen keys are held in one of two ways, chosen by the mode:</p>
+ * <ul>
+ * <li>{@link Mode#EXACT} holds every key in an {@link OffHeapHashSet}, outside the
+ * Java heap. Memory use grows with the total size of the distinct keys.</li>
+ * <li>{@link Mode#APPROXIMATE} holds the keys in a {@link ScalableBloomFilter}.
+ * Memory use grows only with the number of distinct keys, at about
+ * 1.44 log<sub>2</sub>(1/rate) bits per key, but a new key is wrongly treated
+ * as a duplicate with a probability of at most the false-positive rate.</li>
+ * </ul>
+ *
+ * <p>Keys are converted to bytes before being stored: byte arrays are used
+ * as they are and all other keys are converted to strings and encoded as
+ * UTF-8, so keys must have a <code>toString()</code> that identifies them.
+ * A key whose class does not override <code>toString()</code>, and so would
+ * be identified only by its identity hash code, is rejected: processing the
+ * object fails with a {@link StageException}, and the object is neither passed
+ * on nor remembered. Set a key factory producing identifying keys for such
+ * objects. The number of distinct and duplicate objects and the memory used are
+ * reported through JMX.</p>
+ */
+public class DeduplicationStage extends ExtendedBaseStage implements DeduplicationStageMBean {
+    /**
+     * The ways in which seen keys can be held.
+     */
+    public enum Mode {
+        /** Every key is held in an off-heap hash set. */
+        EXACT,
+        /** Keys are held in a scalable Bloom filter. */
+        APPROXIMATE
+    }
+    
+    private final AtomicLong duplicates = new AtomicLong();
+    
+    private volatile KeySet seen;
+    
+    //whether each class of key seen overrides toString()
+    private final ConcurrentMap<Class<?>, Boolean> identifyingStrings = new ConcurrentHashMap<Class<?>, Boolean>();
+    
+    /** Creates a new instance of DeduplicationStage */
+    public DeduplicationStage() {
+    }
+    
+    /**
+     * Creates the set of seen keys.
+     */
+    public void innerPreprocess() throws StageException {
+        if (mode == Mode.APPROXIMATE) {
+            seen = new ScalableBloomFilter(expectedSize, falsePositiveRate);
+        } else {
+            seen = new OffHeapHashSet(expectedSize);
+        }
+    }
+    
+    /**
+     * Passes on the object if its key has not been seen, and otherwise drops
+     * it or feeds it to the duplicate branch.
+     */
+    public void innerProcess(Object obj) throws StageException {
+        Object key = keyFactory == null ? obj : keyFactory.generateKey(obj);
+        if (seen.add(toBytes(key))) {
+            this.emit(obj);
+        } else {
+            duplicates.incrementAndGet();
+            if (duplicateBranch != null) this.emit(duplicateBranch, obj);
+        }
+    }
+    
+    /**
+     * Releases the memory holding the seen keys.
+     */
+    public void release() {
+        KeySet set = this.seen;
+        if (set instanceof OffHeapHashSet) ((OffHeapHashSet) set).clear();
+    }
+    
+    public String status() {
+        return "Unique: " + getUniqueCount() + ", duplicates: " + getDuplicateCount()
+        + ", memory used: " + getMemoryUsage() + " bytes";
+    }
+    
+    private byte[] toBytes(Object key) throws StageException {
+        if (key instanceof byte[]) return (byte[]) key;
+        if (key != null && !(key instanceof String) && !hasIdentifyingString(key.getClass())) {
+            throw new StageException(this, "Key " + key + " of " + key.getClass()
+            + " does not override toString(), so equal keys would not be recognized; set a key factory.");
+        }
+        try {
+            return String.valueOf(key).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new StageException(this, e);
+        }
+    }
+    
+    /**
+     * Returns true if the class overrides Object.toString(), remembering the
+     * answer for each class seen.
+     */
+    private boolean hasIdentifyingString(Class<?> type) throws StageException {
+        Boolean result = identifyingStrings.get(type);
+        if (result == null) {
+            try {
+                result = type.getMethod("toString").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException e) {
+                throw new StageException(this, e);
+            }
+            identifyingStrings.put(type, result);
+        }
+        return result;
+    }
+    
+    public String getModeName() {
+        return mode.name();
+    }
+    
+    public long getUniqueCount() {
+        KeySet set = this.seen;
+        return set == null ? 0 : set.size();
+    }
+    
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+    
+    public long getMemoryUsage() {
+        KeySet set = this.seen;
+        return set == null ? 0 : set.getMemoryUsage();
+    }
+    
+    /**
+     * Holds value of property keyFactory.
+     */
+    private KeyFactory<Object,? extends Object> keyFactory;
+    
+    /**
+     * Getter for property keyFactory.
+     * @return Value of property keyFactory.
+     */
+    public KeyFactory<Object,? extends Object> getKeyFactory() {
+        return this.keyFactory;
+    }
+    
+    /**
+     * Setter for property keyFactory.
+     * @param keyFactory New value of property keyFactory.
+     */
+    public void setKeyFactory(KeyFactory<Object,? extends Object> keyFactory) {
+        this.keyFactory = keyFactory;
+    }
+    
+    /**
+     * Holds value of property mode.
+     */
+    private Mode mode = Mode.EXACT;
+    
+    /**
+     * Getter for property mode.
+     * @return Value of property mode.
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+    
+    /**
+     * Setter for property mode.
+     * @param mode New value of property mode.
+     */
+    public void setMode(Mode mode) {
+        if (mode == null) throw new IllegalArgumentException("Mode may not be null.");
+        this.mode = mode;
+    }
+    
+    /**
+     * Setter for property modeName, allowing the mode to be configured by
+     * name, for example from a Digester configuration file.
+     * @param modeName The name of a {@link Mode} constant.
+     * @throws IllegalArgumentException if there is no mode with the specified name
+     */
+    public void setModeName(String modeName) {
+        if (modeName == null) throw new IllegalArgumentException("Mode may not be null.");
+        this.mode = Mode.valueOf(modeName);
+    }
+    
+    /**
+     * Holds value of property expectedSize.
+     */
+    private int expectedSize = 1 << 16;
+    
+    /**
+     * Getter for property expectedSize.
+     * @return Value of property expectedSize.
+     */
+    public int getExpectedSize() {
+        return this.expectedSize;
+    }
+    
+    /**
+     * Setter for property expectedSize. This is the number of distinct keys
+     * for which room is made initially; more room is made as needed.
+     * @param expectedSize New value of property expectedSize.
+     */
+    public void setExpectedSize(int expectedSize) {
+        if (expectedSize < 1) throw new IllegalArgumentException("Expected size must be positive.");
+        this.expectedSize = expectedSize;
+    }
+    
+    /**
+     * Holds value of property falsePositiveRate.
+     */
+    private double falsePositiveRate = 0.001;
+    
+    /**
+     * Getter for property falsePositiveRate.
+     * @return Value of property falsePositiveRate.
+     */
+    public double getFalsePositiveRate() {
+        return this.falsePositiveRate;
+    }
+    
+    /**
+     * Setter for property falsePositiveRate. This is the maximum probability
+     * that an object with a new key is treated as a duplicate in approximate
+     * mode.
+     * @param falsePositiveRate New value of property falsePositiveRate.
+     */
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False-positive rate must be between zero and one.");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+    }
+    
+    /**
+     * Holds value of property duplicateBranch.
+     */
+    private String duplicateBranch;
+    
+    /**
+     * Getter for property duplicateBranch.
+     * @return Value of property duplicateBranch.
+     */
+    public String getDuplicateBranch() {
+        return this.duplicateBranch;
+    }
+    
+    /**
+     * Setter for property duplicateBranch. If set, duplicates are fed to the
+     * branch with this key instead of being dropped.
+     * @param duplicateBranch New value of property duplicateBranch.
+     */
+    public void setDuplicateBranch(String duplicateBranch) {
+        this.duplicateBranch = duplicateBranch;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+/**
+ * Interface to JMX enable the DeduplicationStage.
+ */
+public interface DeduplicationStageMBean extends ExtendedBaseStageMBean {
+    /**
+     * @return the deduplication mode, EXACT or APPROXIMATE
+     */
+    public String getModeName();
+    
+    /**
+     * @return number of distinct keys seen
+     */
+    public long getUniqueCount();
+    
+    /**
+     * @return number of objects recognized as duplicates
+     */
+    public long getDuplicateCount();
+    
+    /**
+     * @return number of bytes of memory, on or off the heap, holding the seen keys
+     */
+    public long getMemoryUsage();
+}
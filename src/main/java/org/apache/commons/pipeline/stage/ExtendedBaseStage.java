@@ -19,8 +19,13 @@ package org.apache.commons.pipeline.stage;
 import java.lang.management.ManagementFactory;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -28,14 +33,16 @@ import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.management.StandardMBean;
 
-import org.apache.commons.lang.time.StopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.commons.math.stat.descriptive.SynchronizedDescriptiveStatistics;
 import org.apache.commons.pipeline.Feeder;
 import org.apache.commons.pipeline.Stage;
 import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.util.BroadcastFeeder;
+import org.apache.commons.pipeline.util.RollingHistogram;
+import org.apache.commons.pipeline.util.StripedCounter;
+import org.apache.commons.pipeline.util.WindowedAverage;
 
 /**
  * Base class for pipeline stages. Keeps track of performance statistics and allows
@@ -54,20 +61,41 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
     private static final String DEFAULT_QUEUE_NAME = "[DefaultQueue]";
     /** Default number of objects after which a status message is logged */
     private static final int DEFAULT_STATUS_INTERVAL = 1000;
+    /** Maximum number of objects a thread processes between status interval checks */
+    private static final int STATUS_CHECK_BATCH = 64;
+    /** Nanoseconds per millisecond, used to report times in milliseconds */
+    private static final long NANOS_PER_MILLI = 1000000L;
+    /** Default length in milliseconds of each interval of the latency histograms */
+    private static final long DEFAULT_LATENCY_INTERVAL = 10000L;
+    /** Default number of intervals covered by the latency histograms */
+    private static final int DEFAULT_LATENCY_INTERVAL_COUNT = 6;
     protected final Log log = LogFactory.getLog( getClass() );
 
     protected StageContext stageContext;
     private Feeder downstreamFeeder;
+    // Branch feeders are looked up once; the pipeline's branches do not change once it is running.
+    private final ConcurrentMap<String, Feeder> branchFeeders = new ConcurrentHashMap<String, Feeder>();
+    private final ConcurrentMap<List<String>, Broadcast> broadcasts = new ConcurrentHashMap<List<String>, Broadcast>();
+    private volatile int broadcastLaneCapacity = BroadcastFeeder.DEFAULT_LANE_CAPACITY;
     private String stageName;
-    private final AtomicLong objectsReceived = new AtomicLong(0);
-    private final AtomicLong unhandledExceptions = new AtomicLong(0);
-    private final AtomicLong totalServiceTime = new AtomicLong(0);
-    private final AtomicLong totalEmitTime = new AtomicLong(0);
-    private final AtomicLong totalEmits = new AtomicLong(0);
-    private final Map<String, AtomicLong> emitTimeByBranch = new HashMap<String, AtomicLong>();
+    // Counters are striped so that concurrent worker threads do not contend;
+    // times are accumulated in nanoseconds and reported in milliseconds.
+    private final StripedCounter objectsReceived = new StripedCounter();
+    private final StripedCounter unhandledExceptions = new StripedCounter();
+    private final StripedCounter totalServiceTime = new StripedCounter();
+    private final StripedCounter totalEmitTime = new StripedCounter();
+    private final StripedCounter totalEmits = new StripedCounter();
+    private final ConcurrentMap<String, StripedCounter> emitTimeByBranch = new ConcurrentHashMap<String, StripedCounter>();
     private int currentStatWindowSize = DEFAULT_DESCRIPTIVE_STATS_WINDOW_SIZE;
-    private SynchronizedDescriptiveStatistics serviceTimeStatistics;
-    private long statusInterval = DEFAULT_STATUS_INTERVAL;
+    private volatile WindowedAverage serviceTimeStatistics = new WindowedAverage(DEFAULT_DESCRIPTIVE_STATS_WINDOW_SIZE);
+    private volatile long statusInterval = DEFAULT_STATUS_INTERVAL;
+    private volatile int statusCheckBatch = STATUS_CHECK_BATCH;
+    private final AtomicLong nextStatusAt = new AtomicLong(DEFAULT_STATUS_INTERVAL);
+    private volatile long latencyInterval = DEFAULT_LATENCY_INTERVAL;
+    private volatile int latencyIntervalCount = DEFAULT_LATENCY_INTERVAL_COUNT;
+    private volatile RollingHistogram serviceTimeHistogram = newLatencyHistogram();
+    private volatile RollingHistogram emitTimeHistogram = newLatencyHistogram();
+    private volatile RollingHistogram queueWaitHistogram = newLatencyHistogram();
     private Integer statusBatchSize = 1;
     private boolean collectBranchStats = false;
     private boolean preProcessed = false; // prevent recursion.
@@ -81,31 +109,38 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
     private final String className = getClass().getSimpleName();
 
     /**
-     * ThreadLocal sum of time spent waiting on blocked queues during the current process call.
+     * Per-thread emit statistics for the process call in progress. Emit totals
+     * are only published once the process call completes so that reported emit
+     * times never exceed reported process times. The ThreadLocal is per stage
+     * instance, since a synchronously driven downstream stage runs its process
+     * calls nested within this stage's emit calls on the same thread.
      */
-    protected static ThreadLocal<AtomicLong> emitTotal = new ThreadLocal<AtomicLong>() {
-        protected synchronized AtomicLong initialValue() {
-            return new AtomicLong();
+    private final ThreadLocal<CallStats> callStats = new ThreadLocal<CallStats>() {
+        protected CallStats initialValue() {
+            return new CallStats();
         }
     };
 
     /**
-     * ThreadLocal sum of time spent waiting on blocked queues during the current process call by queue name.
+     * Mutable statistics owned by a single thread; reused across process calls.
      */
-    protected static ThreadLocal<Map<String, AtomicLong>> threadLocalEmitBranchTime = new ThreadLocal<Map<String, AtomicLong>>() {
-        protected synchronized Map<String, AtomicLong> initialValue() {
-            return new HashMap<String, AtomicLong>();
-        }
-    };
-
-    /**
-     * ThreadLocal count of emit calls during the current process call.
-     */
-    protected static ThreadLocal<AtomicInteger> emitCount = new ThreadLocal<AtomicInteger>() {
-        protected synchronized AtomicInteger initialValue() {
-            return new AtomicInteger();
+    private static final class CallStats {
+        private boolean inProcess;
+        private long emitTime;
+        private int emits;
+        private Map<String, long[]> branchTimes;
+        private int sinceStatusCheck;
+
+        void addBranchTime(String branch, long time) {
+            if (branchTimes == null) branchTimes = new HashMap<String, long[]>();
+            long[] total = branchTimes.get(branch);
+            if (total == null) {
+                branchTimes.put(branch, new long[] { time });
+            } else {
+                total[0] += time;
+            }
         }
-    };
+    }
 
     /**
      * ThreadLocal formatter since they are not thread safe.
@@ -185,66 +220,81 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
      */
     public final void preprocess() throws StageException {
         if ( !preProcessed ) {
-            serviceTimeStatistics = new SynchronizedDescriptiveStatistics();
-            serviceTimeStatistics.setWindowSize(currentStatWindowSize);
             innerPreprocess();
         }
         preProcessed = true;
     }
 
     public final void process( Object obj ) throws StageException {
-        objectsReceived.incrementAndGet();
-        StopWatch stopWatch = new StopWatch();
-        stopWatch.start();
+        objectsReceived.increment();
+        CallStats call = callStats.get();
+        call.inProcess = true;
+        long start = System.nanoTime();
         try {
             this.innerProcess( obj );
         } catch (Exception e) {
             // Hate to catch Exception, but don't want anything killing off the thread
             // and hanging the pipeline.
             log.error("Uncaught exception in " + className + ": " + e.getMessage(), e);
-            unhandledExceptions.incrementAndGet();
+            unhandledExceptions.increment();
+        } finally {
+            call.inProcess = false;
+        }
+        long end = System.nanoTime();
+        long serviceTime = end - start;
+
+        totalServiceTime.add(serviceTime);
+        serviceTimeStatistics.addValue(serviceTime, end);
+        serviceTimeHistogram.record(serviceTime, end);
+
+        // Publish the emit statistics gathered during this call.
+        if (call.emits > 0) {
+            totalEmits.add(call.emits);
+            totalEmitTime.add(call.emitTime);
+            call.emits = 0;
+            call.emitTime = 0;
         }
-        stopWatch.stop();
-
-        long totalTime = stopWatch.getTime();
-        totalServiceTime.addAndGet(totalTime);
 
-        // I hate to synchronize anything in the base class, but this
-        // call should be very fast and is not thread safe.
-        serviceTimeStatistics.addValue(totalTime);
+        if (call.branchTimes != null && !call.branchTimes.isEmpty()) {
+            for (Map.Entry<String, long[]> entry : call.branchTimes.entrySet()) {
+                branchEmitTime(entry.getKey()).add(entry.getValue()[0]);
+            }
+            call.branchTimes.clear();
+        }
 
-        // Use ThreadLocals so that the stats only reflect process
-        // calls that have completed. Otherwise the emit times can
-        // exceed the process times.
-        totalEmits.addAndGet(emitCount.get().intValue());
-        totalEmitTime.addAndGet(emitTotal.get().longValue());
-        emitCount.remove();
-        emitTotal.remove();
+        // Only consult the shared counters every few objects.
+        if ( ++call.sinceStatusCheck >= statusCheckBatch ) {
+            call.sinceStatusCheck = 0;
+            checkStatusInterval();
+        }
+    }
 
-        if (collectBranchStats) {
-            for (Map.Entry<String, AtomicLong> entry : threadLocalEmitBranchTime.get().entrySet()) {
-                if (emitTimeByBranch.containsKey(entry.getKey())) {
-                    emitTimeByBranch.get(entry.getKey()).addAndGet(entry.getValue().longValue());
-                } else {
-                    // Race condition. containsKey could return false and another thread could insert
-                    // here. We can synchronize here and we will very rarely hit this block. Only the first
-                    // time each queue is accessed.
-                    synchronized (emitTimeByBranch) {
-                        // Double check for the race condition.
-                        if (emitTimeByBranch.containsKey(entry.getKey())) {
-                            emitTimeByBranch.get(entry.getKey()).addAndGet(entry.getValue().longValue());
-                        } else {
-                            emitTimeByBranch.put(entry.getKey(), new AtomicLong(entry.getValue().longValue()));
-                        }
-                    }
-                }
+    /**
+     * Logs the stage status if another status interval has elapsed since the
+     * last status message. At most one thread logs for each interval.
+     */
+    private void checkStatusInterval() {
+        long received = objectsReceived.sum();
+        long next = nextStatusAt.get();
+        if ( received >= next ) {
+            long interval = statusInterval;
+            if ( nextStatusAt.compareAndSet( next, (received / interval + 1) * interval ) ) {
+                logStatus();
             }
-            threadLocalEmitBranchTime.remove();
         }
+    }
 
-        if ( objectsReceived.longValue() % statusInterval == 0 ) {
-            logStatus();
+    /**
+     * Returns the emit time counter for the specified branch, creating it if necessary.
+     */
+    private StripedCounter branchEmitTime(String branch) {
+        StripedCounter counter = emitTimeByBranch.get(branch);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = emitTimeByBranch.putIfAbsent(branch, created);
+            if (counter == null) counter = created;
         }
+        return counter;
     }
 
     /**
@@ -267,8 +317,88 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
      * Convenience method to feed the specified object to the first stage of the specified branch.
      */
     public final void emit( String branch, Object obj ) {
-        Feeder feeder = this.stageContext.getBranchFeeder( branch );
-        feed( branch, feeder, obj );
+        feed( branch, branchFeeder( branch ), obj );
+    }
+
+    /**
+     * Feeds the specified object to the first stage of each of the specified
+     * branches. Delivery to each branch is done by a {@link BroadcastFeeder},
+     * so a branch whose queue is full does not delay delivery to the others;
+     * this method only blocks if a branch has fallen more than the broadcast
+     * lane capacity behind. The branch feeders are resolved on the first
+     * broadcast to each set of branches, and every object broadcast is
+     * delivered before this stage's postprocessing completes.
+     */
+    public final void broadcast( Object obj, String... branches ) {
+        List<String> key = Arrays.asList( branches );
+        Broadcast broadcast = broadcasts.get( key );
+        if ( broadcast == null ) {
+            List<Feeder> feeders = new ArrayList<Feeder>( branches.length );
+            for ( String branch : branches ) {
+                feeders.add( branchFeeder( branch ) );
+            }
+            Broadcast created = new Broadcast( key.toString(), new BroadcastFeeder( feeders, broadcastLaneCapacity, null ) );
+            broadcast = broadcasts.putIfAbsent( new ArrayList<String>( key ), created );
+            if ( broadcast == null ) {
+                broadcast = created;
+            } else {
+                closeQuietly( created.feeder );
+            }
+        }
+        feed( broadcast.name, broadcast.feeder, obj );
+    }
+
+    /**
+     * The feeder for a set of branches to which objects are broadcast, and
+     * the name under which its emit statistics are reported.
+     */
+    private static final class Broadcast {
+        private final String name;
+        private final BroadcastFeeder feeder;
+
+        Broadcast( String name, BroadcastFeeder feeder ) {
+            this.name = name;
+            this.feeder = feeder;
+        }
+    }
+
+    /**
+     * Returns the feeder for the specified branch, looking it up on first use.
+     */
+    private Feeder branchFeeder( String branch ) {
+        Feeder feeder = branchFeeders.get( branch );
+        if ( feeder == null ) {
+            feeder = stageContext.getBranchFeeder( branch );
+            if ( feeder != null ) {
+                branchFeeders.put( branch, feeder );
+            }
+        }
+        return feeder;
+    }
+
+    /**
+     * Waits for every broadcast object to be delivered and stops the broadcast threads.
+     */
+    private void closeBroadcastFeeders() throws StageException {
+        try {
+            for ( Broadcast broadcast : broadcasts.values() ) {
+                broadcast.feeder.close();
+            }
+        } catch ( InterruptedException e ) {
+            throw new StageException( this, "Interrupted while waiting for broadcast objects to be delivered.", e );
+        } catch ( IllegalStateException e ) {
+            throw new StageException( this, "Failed to deliver broadcast objects.", e );
+        } finally {
+            broadcasts.clear();
+        }
+    }
+
+    private void closeQuietly( BroadcastFeeder feeder ) {
+        try {
+            feeder.close();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void feed(String name, Feeder feeder, Object obj ) {
@@ -279,26 +409,26 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
                        " object to invalid feeder" );
             return;
         }
-        StopWatch emitWatch = new StopWatch();
-        emitWatch.start();
+        long start = System.nanoTime();
 
         // Pass the emitted object to the next stage (default or branch)
         feeder.feed( obj );
 
-        emitWatch.stop();
-
-        // Use ThreadLocal variables so the emit totals do not
-        // go up until the process call completes.
-        emitTotal.get().addAndGet( emitWatch.getTime() );
-        emitCount.get().incrementAndGet();
-
-        if (collectBranchStats) {
-            if (! threadLocalEmitBranchTime.get().containsKey(name)) {
-                AtomicLong currentTotal = new AtomicLong(emitWatch.getTime());
-                threadLocalEmitBranchTime.get().put(name, currentTotal);
-            } else {
-                threadLocalEmitBranchTime.get().get(name).addAndGet(emitWatch.getTime());
-            }
+        long end = System.nanoTime();
+        long emitTime = end - start;
+        emitTimeHistogram.record(emitTime, end);
+
+        CallStats call = callStats.get();
+        if (call.inProcess) {
+            // Held by the thread until the process call completes.
+            call.emitTime += emitTime;
+            call.emits++;
+            if (collectBranchStats) call.addBranchTime(name, emitTime);
+        } else {
+            // Emitted outside of process (e.g. during postprocessing).
+            totalEmitTime.add(emitTime);
+            totalEmits.increment();
+            if (collectBranchStats) branchEmitTime(name).add(emitTime);
         }
     }
 
@@ -311,7 +441,11 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
     public final void postprocess() throws StageException {
         if ( !postProcessed ) {
             logStatus();
-            innerPostprocess();
+            try {
+                innerPostprocess();
+            } finally {
+                closeBroadcastFeeders();
+            }
         }
         postProcessed = true;
     }
@@ -348,13 +482,15 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         StringBuilder sb = new StringBuilder( 512 );
         NumberFormat formatter = floatFormatter.get();
 
-        float serviceTime = ( totalServiceTime.floatValue() / 1000.0f );
-        float emitTime = ( totalEmitTime.floatValue() / 1000.0f );
+        long received = getObjectsReceived();
+        long emits = getTotalEmits();
+        float serviceTime = ( getTotalServiceTime() / 1000.0f );
+        float emitTime = ( getTotalEmitTime() / 1000.0f );
         float netServiceTime = ( serviceTime - emitTime );
 
         float emitPercentage = 0.0f;
-        float emitFloat = totalEmits.floatValue();
-        float recvFloat = objectsReceived.floatValue();
+        float emitFloat = (float) emits;
+        float recvFloat = (float) received;
         if (recvFloat > 0) {
             emitPercentage = (emitFloat / recvFloat)*100.0f;
         }
@@ -365,9 +501,9 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
             sb.append("\n\tStatus Batch Size (all /obj and /sec include this): ").append(statusBatchSize);
         }
 
-        sb.append( "\n\tTotal objects received:" ).append( objectsReceived );
-        sb.append( "\n\tTotal unhandled exceptions:" ).append( unhandledExceptions );
-        sb.append( "\n\tTotal objects emitted:" ).append( totalEmits );
+        sb.append( "\n\tTotal objects received:" ).append( received );
+        sb.append( "\n\tTotal unhandled exceptions:" ).append( unhandledExceptions.sum() );
+        sb.append( "\n\tTotal objects emitted:" ).append( emits );
         if (emitFloat > 0) {
             sb.append(" (").append(formatter.format(emitPercentage)).append("%)");
         }
@@ -381,10 +517,10 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         float avgServiceTime = 0;
         float avgEmitTime = 0;
         float avgNetServiceTime = 0;
-        if ( objectsReceived.longValue() > 0 ) {
-            avgServiceTime = ( serviceTime / objectsReceived.floatValue()/statusBatchSize );
-            avgEmitTime = ( emitTime / objectsReceived.floatValue()/statusBatchSize );
-            avgNetServiceTime = ( netServiceTime / objectsReceived.floatValue()/statusBatchSize );
+        if ( received > 0 ) {
+            avgServiceTime = ( serviceTime / recvFloat/statusBatchSize );
+            avgEmitTime = ( emitTime / recvFloat/statusBatchSize );
+            avgNetServiceTime = ( netServiceTime / recvFloat/statusBatchSize );
         }
 
         sb.append( "\n\tAverage gross processing time (sec/obj):" )
@@ -394,17 +530,20 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         sb.append( "\n\tAverage net processing time (sec/obj):" )
           .append( formatter.format( avgNetServiceTime ) );
 
-        if (serviceTimeStatistics != null) {
-            long count = serviceTimeStatistics.getN();
-            if (count > 0) {
-                double avgMillis = getCurrentServiceTimeAverage()/(float)statusBatchSize;
-                sb.append( "\n\tAverage gross processing time in last ")
-                  .append(count)
-                  .append(" (sec/obj):" )
-                  .append( formatter.format( avgMillis/1000 ) );
-            }
+        WindowedAverage window = serviceTimeStatistics;
+        long count = window.getN();
+        if (count > 0) {
+            double avgMillis = window.getMean()/NANOS_PER_MILLI/(float)statusBatchSize;
+            sb.append( "\n\tAverage gross processing time in last ")
+              .append(count)
+              .append(" (sec/obj):" )
+              .append( formatter.format( avgMillis/1000 ) );
         }
 
+        appendPercentiles( sb, "Service time", serviceTimeHistogram );
+        appendPercentiles( sb, "Emit blocked time", emitTimeHistogram );
+        appendPercentiles( sb, "Queue wait time", queueWaitHistogram );
+
         float grossThroughput = 0;
         if ( avgServiceTime > 0 ) {
             grossThroughput = ( 1.0f / avgServiceTime );
@@ -432,17 +571,10 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         // No need to output for a non-branching stage or if there was very little
         // blocking (as defined in the constant)
         if (collectBranchStats && emitTimeByBranch.size() > 1 && percBlocking >= BRANCH_BLOCK_THRESHOLD) {
-            try {
-                for (Map.Entry<String, AtomicLong> entry : emitTimeByBranch.entrySet()) {
-                    float branchBlockSec = (entry.getValue().floatValue()/1000.0f);
-                    float branchBlockPerc = (branchBlockSec/emitTime) * 100;
-                    sb.append("\n\t\t% branch ").append(entry.getKey()).append(":").append(formatter.format(branchBlockPerc));
-                }
-            } catch (RuntimeException e) {
-                // Synchronizing would be slow, ConcurrentMod is possible but unlikely since the map is
-                // only modified the first time a stage is emitted to so just catch and
-                // log it. No need to stop all processing over a reporting failure.
-                sb.append("\n\t\tproblem getting per-branch stats: ").append(e.getMessage());
+            for (Map.Entry<String, StripedCounter> entry : emitTimeByBranch.entrySet()) {
+                float branchBlockSec = ((entry.getValue().sum() / NANOS_PER_MILLI)/1000.0f);
+                float branchBlockPerc = (branchBlockSec/emitTime) * 100;
+                sb.append("\n\t\t% branch ").append(entry.getKey()).append(":").append(formatter.format(branchBlockPerc));
             }
         }
 
@@ -457,6 +589,30 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         return sb.toString();
     }
 
+    /**
+     * Appends the percentiles of the specified histogram in milliseconds,
+     * if any values have been recorded within its window.
+     */
+    private void appendPercentiles( StringBuilder sb, String name, RollingHistogram histogram ) {
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        if ( snapshot.getCount() == 0 ) {
+            return;
+        }
+        NumberFormat formatter = floatFormatter.get();
+        long window = histogram.getIntervalMillis() * histogram.getIntervalCount() / 1000;
+        sb.append( "\n\t" ).append( name ).append( " in last " ).append( window )
+          .append( " sec (ms) p50/p90/p99/p99.9/max:" )
+          .append( formatter.format( nanosToMillis( snapshot.getValueAtPercentile( 50.0 ) ) ) ).append( "/" )
+          .append( formatter.format( nanosToMillis( snapshot.getValueAtPercentile( 90.0 ) ) ) ).append( "/" )
+          .append( formatter.format( nanosToMillis( snapshot.getValueAtPercentile( 99.0 ) ) ) ).append( "/" )
+          .append( formatter.format( nanosToMillis( snapshot.getValueAtPercentile( 99.9 ) ) ) ).append( "/" )
+          .append( formatter.format( nanosToMillis( snapshot.getMax() ) ) );
+    }
+
+    private static double nanosToMillis( long nanos ) {
+        return nanos / (double) NANOS_PER_MILLI;
+    }
+
     protected String formatTotalTimeStat( String name, AtomicLong totalTime ) {
         return formatTotalTimeStat( name, totalTime.longValue() );
     }
@@ -535,7 +691,11 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
      * @see org.apache.commons.pipeline.ExtendedBaseStageMBean#setStatusInterval(long)
      */
     public void setStatusInterval( Long statusInterval ) {
-        this.statusInterval = statusInterval;
+        long interval = statusInterval.longValue();
+        if (interval < 1) throw new IllegalArgumentException("Status interval must be at least 1.");
+        this.statusInterval = interval;
+        this.statusCheckBatch = (int) Math.min(STATUS_CHECK_BATCH, interval);
+        this.nextStatusAt.set((objectsReceived.sum() / interval + 1) * interval);
     }
 
     public Integer getStatusBatchSize() {
@@ -550,28 +710,28 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
      * @see org.apache.commons.pipeline.ExtendedBaseStageMBean#getObjectsReceived()
      */
     public long getObjectsReceived() {
-        return objectsReceived.longValue();
+        return objectsReceived.sum();
     }
 
     /**
      * @see org.apache.commons.pipeline.ExtendedBaseStageMBean#getTotalServiceTime()
      */
     public long getTotalServiceTime() {
-        return totalServiceTime.longValue();
+        return totalServiceTime.sum() / NANOS_PER_MILLI;
     }
 
     /**
      * @see org.apache.commons.pipeline.ExtendedBaseStageMBean#getTotalEmitTime()
      */
     public long getTotalEmitTime() {
-        return totalEmitTime.longValue();
+        return totalEmitTime.sum() / NANOS_PER_MILLI;
     }
 
     /**
      * @see org.apache.commons.pipeline.ExtendedBaseStageMBean#getTotalEmits()
      */
     public long getTotalEmits() {
-        return totalEmits.longValue();
+        return totalEmits.sum();
     }
 
     /**
@@ -588,16 +748,35 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
         this.collectBranchStats = collectBranchStats;
     }
 
+    /**
+     * Returns the number of objects that may wait for delivery to each branch
+     * of a {@link #broadcast} before the broadcasting thread blocks.
+     */
+    public int getBroadcastLaneCapacity() {
+        return broadcastLaneCapacity;
+    }
+
+    /**
+     * Sets the number of objects that may wait for delivery to each branch of
+     * a {@link #broadcast} before the broadcasting thread blocks. This applies
+     * to sets of branches that have not yet been broadcast to.
+     */
+    public void setBroadcastLaneCapacity(int broadcastLaneCapacity) {
+        if (broadcastLaneCapacity < 1) throw new IllegalArgumentException("Broadcast lane capacity must be at least 1.");
+        this.broadcastLaneCapacity = broadcastLaneCapacity;
+    }
+
     public Integer getCurrentStatWindowSize() {
         return Integer.valueOf(currentStatWindowSize);
     }
 
+    /**
+     * Sets the size of the service time window. Changing the size discards
+     * the values currently in the window.
+     */
     public void setCurrentStatWindowSize(Integer newStatWindowSize) {
-        if (serviceTimeStatistics != null
-                && newStatWindowSize != this.currentStatWindowSize) {
-            synchronized (serviceTimeStatistics) {
-                serviceTimeStatistics.setWindowSize(newStatWindowSize);
-            }
+        if (newStatWindowSize.intValue() != this.currentStatWindowSize) {
+            serviceTimeStatistics = new WindowedAverage(newStatWindowSize.intValue());
         }
         this.currentStatWindowSize = newStatWindowSize;
     }
@@ -622,14 +801,125 @@ public abstract class ExtendedBaseStage implements Stage, ExtendedBaseStageMBean
      * Returns a moving average of the service time. This does not yet take into account time spent
      * calling emit, nor does it return minimum, maximum or other statistical information at this time.
      *
-     * @return Average time to process the last <code>currentStatWindowSize</code> objects.
+     * @return Average time in milliseconds to process the last <code>currentStatWindowSize</code> objects.
      */
     public double getCurrentServiceTimeAverage() {
-        double avg = -1.0d;
+        return serviceTimeStatistics.getMean() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Records the time a driver thread waited on this stage's queue before
+     * taking an object for processing; zero is recorded for objects that were
+     * already waiting. This is called by the queueing drivers when they dequeue
+     * an object; stages do not ordinarily call it themselves. The time objects
+     * spent in the queue is recorded by the Tracer of the trace package.
+     *
+     * @param nanos the time waited, in nanoseconds
+     */
+    public void recordQueueWait(long nanos) {
+        queueWaitHistogram.record(nanos);
+    }
+
+    public long getServiceTimeP50Nanos() {
+        return serviceTimeHistogram.snapshot().getValueAtPercentile(50.0);
+    }
+
+    public long getServiceTimeP90Nanos() {
+        return serviceTimeHistogram.snapshot().getValueAtPercentile(90.0);
+    }
+
+    public long getServiceTimeP99Nanos() {
+        return serviceTimeHistogram.snapshot().getValueAtPercentile(99.0);
+    }
+
+    public long getServiceTimeP999Nanos() {
+        return serviceTimeHistogram.snapshot().getValueAtPercentile(99.9);
+    }
+
+    public long getServiceTimeMaxNanos() {
+        return serviceTimeHistogram.snapshot().getMax();
+    }
+
+    public long getEmitTimeP50Nanos() {
+        return emitTimeHistogram.snapshot().getValueAtPercentile(50.0);
+    }
+
+    public long getEmitTimeP90Nanos() {
+        return emitTimeHistogram.snapshot().getValueAtPercentile(90.0);
+    }
+
+    public long getEmitTimeP99Nanos() {
+        return emitTimeHistogram.snapshot().getValueAtPercentile(99.0);
+    }
+
+    public long getEmitTimeP999Nanos() {
+        return emitTimeHistogram.snapshot().getValueAtPercentile(99.9);
+    }
+
+    public long getEmitTimeMaxNanos() {
+        return emitTimeHistogram.snapshot().getMax();
+    }
+
+    public long getQueueWaitP50Nanos() {
+        return queueWaitHistogram.snapshot().getValueAtPercentile(50.0);
+    }
+
+    public long getQueueWaitP90Nanos() {
+        return queueWaitHistogram.snapshot().getValueAtPercentile(90.0);
+    }
+
+    public long getQueueWaitP99Nanos() {
+        return queueWaitHistogram.snapshot().getValueAtPercentile(99.0);
+    }
 
-        // Hate to synchronize in the base class, but this should be very quick.
-        avg = serviceTimeStatistics.getMean();
+    public long getQueueWaitP999Nanos() {
+        return queueWaitHistogram.snapshot().getValueAtPercentile(99.9);
+    }
+
+    public long getQueueWaitMaxNanos() {
+        return queueWaitHistogram.snapshot().getMax();
+    }
+
+    public Long getLatencyInterval() {
+        return Long.valueOf(latencyInterval);
+    }
+
+    /**
+     * Sets the length of each latency histogram interval. Changing the
+     * interval discards the values currently in the histograms.
+     */
+    public void setLatencyInterval(Long latencyInterval) {
+        resetLatencyHistograms(latencyInterval.longValue(), this.latencyIntervalCount);
+    }
 
-        return avg;
+    public Integer getLatencyIntervalCount() {
+        return Integer.valueOf(latencyIntervalCount);
+    }
+
+    /**
+     * Sets the number of intervals covered by the latency histograms. Changing
+     * the count discards the values currently in the histograms.
+     */
+    public void setLatencyIntervalCount(Integer latencyIntervalCount) {
+        resetLatencyHistograms(this.latencyInterval, latencyIntervalCount.intValue());
+    }
+
+    /**
+     * Replaces the latency histograms. The new histograms are created, and so
+     * the arguments validated, before any property is changed.
+     */
+    private synchronized void resetLatencyHistograms(long interval, int count) {
+        RollingHistogram serviceTime = new RollingHistogram(interval, count);
+        RollingHistogram emitTime = new RollingHistogram(interval, count);
+        RollingHistogram queueWait = new RollingHistogram(interval, count);
+        this.latencyInterval = interval;
+        this.latencyIntervalCount = count;
+        this.serviceTimeHistogram = serviceTime;
+        this.emitTimeHistogram = emitTime;
+        this.queueWaitHistogram = queueWait;
+    }
+
+    private RollingHistogram newLatencyHistogram() {
+        return new RollingHistogram(latencyInterval, latencyIntervalCount);
     }
 }
@@ -100,4 +100,103 @@ public interface ExtendedBaseStageMBean {
 	 */
 	public void setCurrentStatWindowSize(Integer newStatWindowSize);
 
+	/**
+	 * @return median service time in nanoseconds over the latency window
+	 */
+	public long getServiceTimeP50Nanos();
+
+	/**
+	 * @return 90th percentile service time in nanoseconds over the latency window
+	 */
+	public long getServiceTimeP90Nanos();
+
+	/**
+	 * @return 99th percentile service time in nanoseconds over the latency window
+	 */
+	public long getServiceTimeP99Nanos();
+
+	/**
+	 * @return 99.9th percentile service time in nanoseconds over the latency window
+	 */
+	public long getServiceTimeP999Nanos();
+
+	/**
+	 * @return maximum service time in nanoseconds over the latency window
+	 */
+	public long getServiceTimeMaxNanos();
+
+	/**
+	 * @return median time in nanoseconds blocked on downstream queues per emit
+	 */
+	public long getEmitTimeP50Nanos();
+
+	/**
+	 * @return 90th percentile time in nanoseconds blocked on downstream queues per emit
+	 */
+	public long getEmitTimeP90Nanos();
+
+	/**
+	 * @return 99th percentile time in nanoseconds blocked on downstream queues per emit
+	 */
+	public long getEmitTimeP99Nanos();
+
+	/**
+	 * @return 99.9th percentile time in nanoseconds blocked on downstream queues per emit
+	 */
+	public long getEmitTimeP999Nanos();
+
+	/**
+	 * @return maximum time in nanoseconds blocked on a downstream queue by one emit
+	 */
+	public long getEmitTimeMaxNanos();
+
+	/**
+	 * @return median time in nanoseconds the driver waited on the queue for an object
+	 */
+	public long getQueueWaitP50Nanos();
+
+	/**
+	 * @return 90th percentile time in nanoseconds the driver waited on the queue for an object
+	 */
+	public long getQueueWaitP90Nanos();
+
+	/**
+	 * @return 99th percentile time in nanoseconds the driver waited on the queue for an object
+	 */
+	public long getQueueWaitP99Nanos();
+
+	/**
+	 * @return 99.9th percentile time in nanoseconds the driver waited on the queue for an object
+	 */
+	public long getQueueWaitP999Nanos();
+
+	/**
+	 * @return maximum time in nanoseconds the driver waited on the queue for an object
+	 */
+	public long getQueueWaitMaxNanos();
+
+	/**
+	 * @return length in milliseconds of each interval of the latency histograms
+	 */
+	public Long getLatencyInterval();
+
+	/**
+	 * The latency histograms cover a rolling window of
+	 * <code>latencyIntervalCount</code> intervals of this length. Changing it
+	 * discards the values currently recorded.
+	 *
+	 * @param latencyInterval interval length in milliseconds
+	 */
+	public void setLatencyInterval(Long latencyInterval);
+
+	/**
+	 * @return number of intervals covered by the latency histograms
+	 */
+	public Integer getLatencyIntervalCount();
+
+	/**
+	 * @param latencyIntervalCount number of intervals covered by the latency histograms
+	 */
+	public void setLatencyIntervalCount(Integer latencyIntervalCount);
+
 }
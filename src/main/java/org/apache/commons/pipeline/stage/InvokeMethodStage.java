@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.util.MethodInvoker;
 
 /**
  * Calls a method on the processed object giving it the arguments specified
@@ -35,12 +36,16 @@ public class InvokeMethodStage extends BaseStage {
     private Method method;
     private Object[] arguments;
     
+    // Invoker bound to the method and arguments at construction time
+    private final MethodInvoker invoker;
+    
     /**
      * Creates a new instance of InvokeMethodStage
      */
     public InvokeMethodStage(Method method){
         this.method = method;
         this.arguments = new Object[] { };
+        this.invoker = MethodInvoker.onTarget(method, arguments);
     }
     
     /**
@@ -49,6 +54,7 @@ public class InvokeMethodStage extends BaseStage {
     public InvokeMethodStage(Method method, Object... arguments) {
         this.method = method;
         this.arguments = arguments;
+        this.invoker = MethodInvoker.onTarget(method, arguments);
     }
     
     /**
@@ -61,6 +67,7 @@ public class InvokeMethodStage extends BaseStage {
         
         this.method = clazz.getMethod(methodName, argTypes);
         this.arguments = arguments;
+        this.invoker = MethodInvoker.onTarget(method, arguments);
     }
     
     /** Returns the method to be accessed by processing
@@ -82,7 +89,7 @@ public class InvokeMethodStage extends BaseStage {
      */
     public void process(Object obj) throws org.apache.commons.pipeline.StageException {        
         try {
-            Object result = method.invoke(obj, arguments);
+            Object result = invoker.invoke(obj);
             this.emit(result);
         } catch (IllegalAccessException e){
             throw new StageException(this, e);
@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.util.MethodInvoker;
 
 /**
  * Runs a static method with the object (or array) being processed. The returned object 
@@ -37,12 +38,16 @@ public class InvokeStaticMethodStage extends BaseStage {
     // Method used to process objects in the queue
     private Method method;
     
+    // Invoker bound to the method at construction time
+    private final MethodInvoker invoker;
+    
     /**
      * Creates a new instance of InvokeStaticMethodStage
      */
     public InvokeStaticMethodStage(Method method) {
         super();
         this.method = method;
+        this.invoker = MethodInvoker.withArgument(method);
     }
     
     /** 
@@ -60,6 +65,7 @@ public class InvokeStaticMethodStage extends BaseStage {
         }
         
         this.method = clazz.getMethod(methodName, argTypes);
+        this.invoker = MethodInvoker.withArgument(method);
     }
     
     /** 
@@ -79,7 +85,7 @@ public class InvokeStaticMethodStage extends BaseStage {
      */
     public void process(Object obj) throws StageException {
         try {
-            Object result = this.method.invoke(null, obj);
+            Object result = this.invoker.invoke(obj);
             if (result != null){
                 this.emit(result);
             } else if (nullResultBranchKey != null) {
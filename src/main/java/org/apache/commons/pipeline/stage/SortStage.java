@@ -0,0 +1,636 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.validation.ConsumedTypes;
+import org.apache.commons.pipeline.validation.ProducesConsumed;
+
+/**
+ * Sorts the objects it receives and emits them in order when the stage is
+ * finished. Objects are ordered by the comparator, or by their natural
+ * ordering if no comparator is set; objects that compare equal are emitted
+ * in the order in which they were received.
+ *
+ * <p>At most runSize objects are held in memory at a time for each sort
+ * thread, plus one run being filled. Once a run is full it is handed to a
+ * sort thread, which sorts it and spills it to a compressed temporary file
+ * while the stage continues to receive objects, so that several runs are
+ * sorted in parallel. When the stage is finished, the spilled runs and the
+ * objects still in memory are merged in a single k-way merge, preceded by
+ * intermediate merges if there are more runs than the merge factor. Spilled
+ * objects must be {@link java.io.Serializable}.</p>
+ *
+ * <p>If topK is set, only the first topK objects in order are kept, in a
+ * bounded heap, and nothing is spilled.</p>
+ */
+@ConsumedTypes(Object.class)
+@ProducesConsumed
+public class SortStage extends BaseStage {
+    private final Log log = LogFactory.getLog(SortStage.class);
+    
+    //number of objects written between resets of the object streams' handle tables
+    private static final int RESET_INTERVAL = 1024;
+    
+    //the run being filled
+    private List<Object> buffer;
+    
+    //the first topK objects, with the last of them at the head
+    private PriorityQueue<Entry> top;
+    
+    //number of objects received in top-K mode, used to order equal objects
+    private long arrivals;
+    
+    //runs being sorted and spilled
+    private final List<Future<File>> spills = new ArrayList<Future<File>>();
+    
+    //runs that have been spilled
+    private final List<File> runs = new ArrayList<File>();
+    
+    //every file written by a sort thread and not yet deleted; guarded by itself
+    private final Set<File> spilled = new HashSet<File>();
+    
+    //set when the stage is released; files written afterwards are deleted at once
+    private boolean released;
+    
+    private ExecutorService sorter;
+    
+    //limits the number of runs held in memory while waiting to be spilled
+    private Semaphore spillPermits;
+    
+    private Comparator<Object> order;
+    
+    /** Creates a new instance of SortStage */
+    public SortStage() {
+    }
+    
+    /**
+     * Creates a new instance of SortStage that orders objects with the
+     * specified comparator.
+     */
+    public SortStage(Comparator<Object> comparator) {
+        this.comparator = comparator;
+    }
+    
+    /**
+     * Prepares the buffer or heap and starts the sort threads.
+     */
+    public void preprocess() throws StageException {
+        this.order = comparator == null ? new NaturalOrder() : comparator;
+        synchronized (spilled) {
+            this.released = false;
+        }
+        
+        if (topK > 0) {
+            this.top = new PriorityQueue<Entry>(topK, Collections.reverseOrder(new EntryOrder()));
+            this.arrivals = 0;
+        } else {
+            this.buffer = new ArrayList<Object>();
+            this.spillPermits = new Semaphore(sortThreads);
+            this.sorter = Executors.newFixedThreadPool(sortThreads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SortStage spill");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+    
+    /**
+     * Adds the object to the current run, handing the run off to be spilled
+     * if it is full, or to the heap in top-K mode.
+     */
+    public synchronized void process(Object obj) throws StageException {
+        if (top != null) {
+            //an object equal to the last one kept arrived later, so it is not kept
+            if (top.size() < topK) {
+                top.add(new Entry(obj, arrivals++));
+            } else if (order.compare(obj, top.peek().obj) < 0) {
+                top.poll();
+                top.add(new Entry(obj, arrivals++));
+            }
+            
+            return;
+        }
+        
+        buffer.add(obj);
+        if (buffer.size() >= runSize) {
+            spill(buffer);
+            buffer = new ArrayList<Object>();
+        }
+    }
+    
+    /**
+     * Waits for a sort thread to become free and hands it the run to be
+     * sorted and written to a temporary file.
+     */
+    private void spill(final List<Object> run) throws StageException {
+        try {
+            spillPermits.acquire();
+        } catch (InterruptedException e) {
+            throw new StageException(this, "Interrupted while waiting to spill a run.", e);
+        }
+        
+        spills.add(sorter.submit(new Callable<File>() {
+            public File call() throws IOException {
+                try {
+                    Collections.sort(run, order);
+                    File file = write(run.iterator(), run.size());
+                    synchronized (spilled) {
+                        if (released) {
+                            delete(file);
+                        } else {
+                            spilled.add(file);
+                        }
+                    }
+                    
+                    return file;
+                } finally {
+                    spillPermits.release();
+                }
+            }
+        }));
+    }
+    
+    /**
+     * Emits all objects in order.
+     */
+    public synchronized void postprocess() throws StageException {
+        if (top != null) {
+            List<Entry> sorted = new ArrayList<Entry>(top);
+            top.clear();
+            Collections.sort(sorted, new EntryOrder());
+            for (Entry entry : sorted) this.emit(entry.obj);
+            return;
+        }
+        
+        try {
+            for (Future<File> spill : spills) runs.add(spill.get());
+            spills.clear();
+            
+            Collections.sort(buffer, order);
+            if (runs.isEmpty()) {
+                for (Object obj : buffer) this.emit(obj);
+            } else {
+                //merge consecutive groups of runs, keeping the runs in the order received
+                while (runs.size() > mergeFactor) {
+                    List<File> merged = new ArrayList<File>();
+                    try {
+                        while (!runs.isEmpty()) {
+                            List<File> group = runs.subList(0, Math.min(mergeFactor, runs.size()));
+                            merged.add(group.size() == 1 ? group.get(0) : mergeToFile(new ArrayList<File>(group)));
+                            group.clear();
+                        }
+                    } finally {
+                        runs.addAll(merged);
+                    }
+                }
+                
+                List<Cursor> cursors = open(runs);
+                cursors.add(new Cursor(buffer.iterator(), cursors.size()));
+                merge(cursors, new Emitter() {
+                    public void emit(Object obj) {
+                        SortStage.this.emit(obj);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new StageException(this, "Unable to merge sorted runs.", e);
+        } catch (ClassNotFoundException e) {
+            throw new StageException(this, "Unable to read sorted run.", e);
+        } catch (InterruptedException e) {
+            throw new StageException(this, "Interrupted while waiting for runs to be spilled.", e);
+        } catch (ExecutionException e) {
+            throw new StageException(this, "Unable to spill sorted run.", e.getCause());
+        } finally {
+            sorter.shutdown();
+            buffer.clear();
+            deleteRuns();
+        }
+    }
+    
+    /**
+     * Stops the sort threads and deletes any temporary files. This does not
+     * wait for runs still being written; a sort thread deletes its file
+     * itself if it finishes after the stage has been released.
+     */
+    public synchronized void release() {
+        if (sorter != null) sorter.shutdownNow();
+        synchronized (spilled) {
+            released = true;
+        }
+        
+        for (Future<File> spill : spills) spill.cancel(true);
+        spills.clear();
+        deleteRuns();
+    }
+    
+    /**
+     * Deletes the spilled and merged runs.
+     */
+    private void deleteRuns() {
+        Set<File> files = new LinkedHashSet<File>(runs);
+        synchronized (spilled) {
+            files.addAll(spilled);
+            spilled.clear();
+        }
+        
+        for (File run : files) delete(run);
+        runs.clear();
+    }
+    
+    /**
+     * Merges the specified runs into a new run and deletes them.
+     */
+    private File mergeToFile(List<File> sources) throws IOException, ClassNotFoundException {
+        final File run = createRunFile();
+        boolean merged = false;
+        try {
+            long count = 0;
+            List<Cursor> cursors = open(sources);
+            for (Cursor cursor : cursors) count += cursor.remaining;
+            
+            final ObjectOutputStream out = openOutput(run, count);
+            try {
+                merge(cursors, new Emitter() {
+                    private int written;
+                    
+                    public void emit(Object obj) throws IOException {
+                        out.writeObject(obj);
+                        if (++written % RESET_INTERVAL == 0) out.reset();
+                    }
+                });
+            } finally {
+                out.close();
+            }
+            merged = true;
+        } finally {
+            if (!merged) delete(run);
+            for (File source : sources) delete(source);
+        }
+        
+        return run;
+    }
+    
+    /**
+     * Repeatedly passes the smallest head of the cursors to the emitter until
+     * all cursors are exhausted. Ties go to the cursor with the lowest index,
+     * which holds the objects received earliest.
+     */
+    private void merge(List<Cursor> cursors, Emitter emitter) throws IOException, ClassNotFoundException {
+        PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, cursors.size()), new Comparator<Cursor>() {
+            public int compare(Cursor a, Cursor b) {
+                int result = order.compare(a.head, b.head);
+                return result != 0 ? result : a.index - b.index;
+            }
+        });
+        
+        try {
+            for (Cursor cursor : cursors) {
+                if (cursor.advance()) heap.add(cursor);
+            }
+            
+            while (!heap.isEmpty()) {
+                Cursor cursor = heap.poll();
+                emitter.emit(cursor.head);
+                if (cursor.advance()) heap.add(cursor);
+            }
+        } finally {
+            for (Cursor cursor : cursors) cursor.close();
+        }
+    }
+    
+    private List<Cursor> open(List<File> files) throws IOException {
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        try {
+            for (File file : files) {
+                ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536)));
+                cursors.add(new Cursor(in, in.readLong(), cursors.size()));
+            }
+        } catch (IOException e) {
+            for (Cursor cursor : cursors) cursor.close();
+            throw e;
+        }
+        
+        return cursors;
+    }
+    
+    /**
+     * Writes the objects to a new temporary file, preceded by their number.
+     */
+    private File write(Iterator<Object> objects, long count) throws IOException {
+        File run = createRunFile();
+        boolean written = false;
+        try {
+            ObjectOutputStream out = openOutput(run, count);
+            try {
+                for (int i = 1; objects.hasNext(); i++) {
+                    out.writeObject(objects.next());
+                    if (i % RESET_INTERVAL == 0) out.reset();
+                }
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written) delete(run);
+        }
+        
+        return run;
+    }
+    
+    private File createRunFile() throws IOException {
+        return File.createTempFile("sort", ".run", tempDirectory);
+    }
+    
+    private void delete(File run) {
+        if (run.exists() && !run.delete()) log.warn("Unable to delete temporary file " + run);
+    }
+    
+    private ObjectOutputStream openOutput(File run, long count) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(run), 65536)));
+        out.writeLong(count);
+        return out;
+    }
+    
+    /**
+     * Receives the merged objects in order.
+     */
+    private interface Emitter {
+        public void emit(Object obj) throws IOException;
+    }
+    
+    /**
+     * The position in a sorted run, either spilled to a file or in memory.
+     */
+    private static class Cursor {
+        private final int index;
+        private ObjectInputStream in;
+        private Iterator<Object> iterator;
+        private long remaining;
+        private Object head;
+        
+        Cursor(ObjectInputStream in, long count, int index) {
+            this.in = in;
+            this.remaining = count;
+            this.index = index;
+        }
+        
+        Cursor(Iterator<Object> iterator, int index) {
+            this.iterator = iterator;
+            this.index = index;
+        }
+        
+        /**
+         * Moves to the next object, returning false if the run is exhausted.
+         */
+        boolean advance() throws IOException, ClassNotFoundException {
+            if (iterator != null) {
+                if (!iterator.hasNext()) return false;
+                head = iterator.next();
+                return true;
+            }
+            
+            if (remaining == 0) return false;
+            remaining--;
+            head = in.readObject();
+            return true;
+        }
+        
+        void close() {
+            head = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    //the run is being discarded
+                }
+                in = null;
+            }
+        }
+    }
+    
+    /**
+     * An object kept in top-K mode with its arrival number.
+     */
+    private static class Entry {
+        private final Object obj;
+        private final long arrival;
+        
+        Entry(Object obj, long arrival) {
+            this.obj = obj;
+            this.arrival = arrival;
+        }
+    }
+    
+    /**
+     * Orders entries by their objects, and equal objects by arrival.
+     */
+    private class EntryOrder implements Comparator<Entry> {
+        public int compare(Entry a, Entry b) {
+            int result = order.compare(a.obj, b.obj);
+            return result != 0 ? result : (a.arrival < b.arrival ? -1 : (a.arrival == b.arrival ? 0 : 1));
+        }
+    }
+    
+    /**
+     * Orders objects by their natural ordering.
+     */
+    private static class NaturalOrder implements Comparator<Object> {
+        @SuppressWarnings("unchecked")
+        public int compare(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+    
+    /**
+     * Returns the number of runs spilled to disk so far, including those
+     * still being written.
+     */
+    public synchronized int getSpilledRunCount() {
+        return spills.size() + runs.size();
+    }
+    
+    /**
+     * Holds value of property comparator.
+     */
+    private Comparator<Object> comparator;
+    
+    /**
+     * Getter for property comparator.
+     * @return Value of property comparator.
+     */
+    public Comparator<Object> getComparator() {
+        return this.comparator;
+    }
+    
+    /**
+     * Setter for property comparator. If no comparator is set, objects must
+     * be {@link Comparable}.
+     * @param comparator New value of property comparator.
+     */
+    public void setComparator(Comparator<Object> comparator) {
+        this.comparator = comparator;
+    }
+    
+    /**
+     * Holds value of property runSize.
+     */
+    private int runSize = 100000;
+    
+    /**
+     * Getter for property runSize.
+     * @return Value of property runSize.
+     */
+    public int getRunSize() {
+        return this.runSize;
+    }
+    
+    /**
+     * Setter for property runSize. This is the memory budget of the stage,
+     * expressed as the number of objects sorted in memory as one run; at most
+     * sortThreads + 1 runs are held in memory at once.
+     * @param runSize New value of property runSize.
+     */
+    public void setRunSize(int runSize) {
+        if (runSize < 1) throw new IllegalArgumentException("Run size must be positive.");
+        this.runSize = runSize;
+    }
+    
+    /**
+     * Holds value of property sortThreads.
+     */
+    private int sortThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    
+    /**
+     * Getter for property sortThreads.
+     * @return Value of property sortThreads.
+     */
+    public int getSortThreads() {
+        return this.sortThreads;
+    }
+    
+    /**
+     * Setter for property sortThreads. This is the number of runs that are
+     * sorted and spilled concurrently. The default is half the number of
+     * available processors.
+     * @param sortThreads New value of property sortThreads.
+     */
+    public void setSortThreads(int sortThreads) {
+        if (sortThreads < 1) throw new IllegalArgumentException("Number of sort threads must be positive.");
+        this.sortThreads = sortThreads;
+    }
+    
+    /**
+     * Holds value of property mergeFactor.
+     */
+    private int mergeFactor = 64;
+    
+    /**
+     * Getter for property mergeFactor.
+     * @return Value of property mergeFactor.
+     */
+    public int getMergeFactor() {
+        return this.mergeFactor;
+    }
+    
+    /**
+     * Setter for property mergeFactor. This is the largest number of spilled
+     * runs that are read at once while merging.
+     * @param mergeFactor New value of property mergeFactor.
+     */
+    public void setMergeFactor(int mergeFactor) {
+        if (mergeFactor < 2) throw new IllegalArgumentException("Merge factor must be at least 2.");
+        this.mergeFactor = mergeFactor;
+    }
+    
+    /**
+     * Holds value of property topK.
+     */
+    private int topK = 0;
+    
+    /**
+     * Getter for property topK.
+     * @return Value of property topK.
+     */
+    public int getTopK() {
+        return this.topK;
+    }
+    
+    /**
+     * Setter for property topK. If positive, only this many of the first
+     * objects in order are kept and emitted.
+     * @param topK New value of property topK.
+     */
+    public void setTopK(int topK) {
+        if (topK < 0) throw new IllegalArgumentException("Top K may not be negative.");
+        this.topK = topK;
+    }
+    
+    /**
+     * Holds value of property tempDirectory.
+     */
+    private File tempDirectory;
+    
+    /**
+     * Getter for property tempDirectory.
+     * @return Value of property tempDirectory.
+     */
+    public File getTempDirectory() {
+        return this.tempDirectory;
+    }
+    
+    /**
+     * Setter for property tempDirectory. Spilled runs are written to this
+     * directory, or to the system's default temporary directory if it is not set.
+     * @param tempDirectory New value of property tempDirectory.
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+}
@@ -0,0 +1,731 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.util.Accumulator;
+import org.apache.commons.pipeline.util.KeyFactory;
+import org.apache.commons.pipeline.validation.ConsumedTypes;
+import org.apache.commons.pipeline.validation.ProducedTypes;
+
+/**
+ * Groups the objects it receives into time windows and emits one
+ * {@link Window} per group and window, carrying the results of a configurable
+ * set of {@link Accumulator}s over the objects that fell into it.
+ *
+ * <p>Objects are grouped by the key produced by the {@link KeyFactory}, or
+ * into a single group if no key factory is set. The time and value of each
+ * object are read by an {@link Extractor}; the default extractor takes the
+ * current time and the value of objects that are {@link Number}s. Three kinds
+ * of windows are supported:</p>
+ * <ul>
+ * <li>{@link WindowType#TUMBLING} windows of the window size that do not overlap;</li>
+ * <li>{@link WindowType#SLIDING} windows of the window size that start every
+ * slide period, so that each object falls into several windows;</li>
+ * <li>{@link WindowType#SESSION} windows that extend as long as the objects of
+ * a group arrive less than the session gap apart.</li>
+ * </ul>
+ *
+ * <p>A window is complete once its end plus the allowed lateness has passed.
+ * Time is the wall clock unless eventTime is set, in which case it is the
+ * largest time read from any object so far. Completed windows are not
+ * checked for on each object, but are emitted by a task that runs every
+ * flush interval on a timer thread belonging to the stage, so a stage whose
+ * downstream feeder blocks does not delay the windows of other stages.
+ * Objects that fall into a window that is already complete are counted as
+ * late and discarded. Any windows still open are emitted when the stage
+ * is finished.</p>
+ *
+ * <p>Each group is locked separately while objects are added to its windows,
+ * so objects of different groups can be processed concurrently.</p>
+ */
+@ConsumedTypes(Object.class)
+@ProducedTypes(WindowAggregationStage.Window.class)
+public class WindowAggregationStage extends BaseStage {
+    private final Log log = LogFactory.getLog(WindowAggregationStage.class);
+    
+    //key used for all objects if there is no key factory or it produces a null key
+    private static final Object NO_KEY = new Object();
+    
+    /**
+     * The kinds of windows supported by this stage.
+     */
+    public enum WindowType {
+        /** Consecutive windows of a fixed size. */
+        TUMBLING,
+        /** Overlapping windows of a fixed size starting at a fixed interval. */
+        SLIDING,
+        /** Windows separated by gaps in the arrival of objects. */
+        SESSION
+    }
+    
+    /**
+     * Strategy for reading the time and value of an object.
+     */
+    public interface Extractor {
+        /**
+         * Returns the time of the specified object in milliseconds.
+         */
+        public long getTimestamp(Object obj);
+        
+        /**
+         * Adds the value of the specified object to the accumulator.
+         */
+        public void accumulate(Object obj, Accumulator accumulator);
+    }
+    
+    /**
+     * Extractor for {@link Number}s that uses the current time. Integral
+     * numbers are added as longs and all others as doubles. Other objects add
+     * nothing to the accumulators, but are still counted by {@link Window#getCount()}.
+     */
+    public static class NumberExtractor implements Extractor {
+        public long getTimestamp(Object obj) {
+            return System.currentTimeMillis();
+        }
+        
+        public void accumulate(Object obj, Accumulator accumulator) {
+            if (obj instanceof Long || obj instanceof Integer || obj instanceof Short || obj instanceof Byte) {
+                accumulator.add(((Number) obj).longValue());
+            } else if (obj instanceof Number) {
+                accumulator.add(((Number) obj).doubleValue());
+            }
+        }
+    }
+    
+    /**
+     * The results for a single group and window, emitted once the window is
+     * complete.
+     */
+    public static class Window {
+        private final Object key;
+        private long start;
+        private long end;
+        private long count;
+        private final Accumulator[] accumulators;
+        
+        Window(Object key, long start, long end, Accumulator[] prototypes) {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+            this.accumulators = new Accumulator[prototypes.length];
+            for (int i = 0; i < prototypes.length; i++) accumulators[i] = prototypes[i].newInstance();
+        }
+        
+        void add(Object obj, Extractor extractor) {
+            count++;
+            for (Accumulator accumulator : accumulators) extractor.accumulate(obj, accumulator);
+        }
+        
+        void merge(Window other) {
+            this.start = Math.min(this.start, other.start);
+            this.end = Math.max(this.end, other.end);
+            this.count += other.count;
+            for (int i = 0; i < accumulators.length; i++) accumulators[i].merge(other.accumulators[i]);
+        }
+        
+        /**
+         * Returns the key of the group, or null if objects are not grouped.
+         */
+        public Object getKey() {
+            return key == NO_KEY ? null : key;
+        }
+        
+        /**
+         * Returns the start of the window in milliseconds, inclusive.
+         */
+        public long getStart() {
+            return this.start;
+        }
+        
+        /**
+         * Returns the end of the window in milliseconds, exclusive.
+         */
+        public long getEnd() {
+            return this.end;
+        }
+        
+        /**
+         * Returns the number of objects that fell into the window.
+         */
+        public long getCount() {
+            return this.count;
+        }
+        
+        /**
+         * Returns the accumulator at the specified index, in the order in which
+         * the accumulators were configured.
+         */
+        public Accumulator getAccumulator(int index) {
+            return accumulators[index];
+        }
+        
+        /**
+         * Returns the accumulators of the window.
+         */
+        public List<Accumulator> getAccumulators() {
+            return Collections.unmodifiableList(Arrays.asList(accumulators));
+        }
+        
+        public String toString() {
+            return "Window[key=" + getKey() + ", start=" + start + ", end=" + end + ", count=" + count
+                    + ", " + Arrays.asList(accumulators) + "]";
+        }
+    }
+    
+    /**
+     * The open windows of a group. A group that has been retired has been
+     * removed from the map of groups and must not be used.
+     */
+    private static class Group {
+        private final List<Window> windows = new ArrayList<Window>(2);
+        private boolean retired;
+    }
+    
+    //orders windows for emission
+    private static final Comparator<Window> BY_END = new Comparator<Window>() {
+        public int compare(Window a, Window b) {
+            return a.end < b.end ? -1 : (a.end == b.end ? 0 : 1);
+        }
+    };
+    
+    private final ConcurrentMap<Object, Group> groups = new ConcurrentHashMap<Object, Group>();
+    
+    //largest object time seen, used as the current time if eventTime is set
+    private final AtomicLong maxTimestamp = new AtomicLong(Long.MIN_VALUE);
+    
+    private final AtomicLong lateCount = new AtomicLong();
+    
+    private Accumulator[] prototypes;
+    
+    //runs the flush task; created when the stage is preprocessed
+    private ScheduledExecutorService timer;
+    
+    private ScheduledFuture<?> flushTask;
+    
+    /** Creates a new instance of WindowAggregationStage */
+    public WindowAggregationStage() {
+    }
+    
+    /**
+     * Validates the configuration and schedules the flush task.
+     */
+    public void preprocess() throws StageException {
+        if (windowType != WindowType.SESSION && windowSize <= 0) {
+            throw new StageException(this, "Window size must be positive.");
+        }
+        if (windowType == WindowType.SLIDING && (slide <= 0 || slide > windowSize)) {
+            throw new StageException(this, "Slide must be positive and no larger than the window size.");
+        }
+        if (windowType == WindowType.SESSION && sessionGap <= 0) {
+            throw new StageException(this, "Session gap must be positive.");
+        }
+        
+        this.prototypes = accumulators.isEmpty()
+        ? new Accumulator[] { new Accumulator.Count() }
+        : accumulators.toArray(new Accumulator[accumulators.size()]);
+        
+        this.flushTask = startTimer().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush(false);
+                } catch (RuntimeException e) {
+                    log.error("Unable to emit completed windows of stage " + WindowAggregationStage.this, e);
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Adds the object to the windows of its group into which it falls.
+     */
+    public void process(Object obj) throws StageException {
+        long timestamp = extractor.getTimestamp(obj);
+        if (eventTime) {
+            for (long max = maxTimestamp.get(); timestamp > max; max = maxTimestamp.get()) {
+                if (maxTimestamp.compareAndSet(max, timestamp)) break;
+            }
+        }
+        
+        Object key = keyFactory == null ? null : keyFactory.generateKey(obj);
+        if (key == null) key = NO_KEY;
+        
+        while (true) {
+            Group group = groups.get(key);
+            if (group == null) {
+                Group created = new Group();
+                group = groups.putIfAbsent(key, created);
+                if (group == null) group = created;
+            }
+            
+            synchronized (group) {
+                //the group was emptied and removed by a flush; look it up again
+                if (group.retired) continue;
+                
+                boolean added;
+                switch (windowType) {
+                    case SESSION: added = addToSession(group, key, obj, timestamp); break;
+                    case SLIDING: added = addToWindows(group, key, obj, timestamp, slide); break;
+                    default: added = addToWindows(group, key, obj, timestamp, windowSize);
+                }
+                
+                if (!added) {
+                    lateCount.incrementAndGet();
+                    if (log.isDebugEnabled()) log.debug("Discarding late object " + obj + " with time " + timestamp);
+                }
+                
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Adds the object to every fixed-size window, starting at a multiple of
+     * the interval, into which it falls. Returns false if all of those
+     * windows are already complete.
+     */
+    private boolean addToWindows(Group group, Object key, Object obj, long timestamp, long interval) {
+        long now = currentTime();
+        boolean added = false;
+        for (long start = timestamp - mod(timestamp, interval); start > timestamp - windowSize; start -= interval) {
+            long end = start + windowSize;
+            if (isComplete(end, now)) break;
+            
+            Window window = null;
+            for (Window open : group.windows) {
+                if (open.start == start) {
+                    window = open;
+                    break;
+                }
+            }
+            
+            if (window == null) {
+                window = new Window(key, start, end, prototypes);
+                group.windows.add(window);
+            }
+            
+            window.add(obj, extractor);
+            added = true;
+        }
+        
+        return added;
+    }
+    
+    /**
+     * Adds the object to the session of the group into which it falls,
+     * starting a new session or merging existing ones as necessary. Returns
+     * false if the object falls into a session that is already complete.
+     */
+    private boolean addToSession(Group group, Object key, Object obj, long timestamp) {
+        long end = timestamp + sessionGap;
+        if (isComplete(end, currentTime())) return false;
+        
+        Window session = new Window(key, timestamp, end, prototypes);
+        session.add(obj, extractor);
+        
+        //merge every open session that is within the gap of the new object
+        for (Iterator<Window> i = group.windows.iterator(); i.hasNext();) {
+            Window open = i.next();
+            if (open.start - sessionGap <= timestamp && timestamp < open.end) {
+                session.merge(open);
+                i.remove();
+            }
+        }
+        
+        group.windows.add(session);
+        return true;
+    }
+    
+    /**
+     * Emits the windows that are complete, or all windows if all is true.
+     * @return the number of windows emitted
+     */
+    private synchronized int flush(boolean all) {
+        long now = currentTime();
+        List<Window> completed = new ArrayList<Window>();
+        for (Map.Entry<Object, Group> entry : groups.entrySet()) {
+            Group group = entry.getValue();
+            synchronized (group) {
+                for (Iterator<Window> i = group.windows.iterator(); i.hasNext();) {
+                    Window window = i.next();
+                    if (all || isComplete(window.end, now)) {
+                        completed.add(window);
+                        i.remove();
+                    }
+                }
+                
+                if (group.windows.isEmpty()) {
+                    group.retired = true;
+                    groups.remove(entry.getKey(), group);
+                }
+            }
+        }
+        
+        Collections.sort(completed, BY_END);
+        for (Window window : completed) this.emit(window);
+        return completed.size();
+    }
+    
+    /**
+     * Stops the timer and emits all windows that are still open.
+     */
+    public void postprocess() throws StageException {
+        stopTimer();
+        flush(true);
+    }
+    
+    /**
+     * Stops the timer.
+     */
+    public void release() {
+        stopTimer();
+    }
+    
+    /**
+     * Creates the timer thread of this stage, replacing any previous one.
+     */
+    private synchronized ScheduledExecutorService startTimer() {
+        stopTimer();
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WindowAggregationStage flush timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+        return this.timer;
+    }
+    
+    /**
+     * Cancels the flush task and shuts down the timer. A flush already in
+     * progress is allowed to finish.
+     */
+    private synchronized void stopTimer() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+    }
+    
+    private boolean isComplete(long end, long now) {
+        return end + allowedLateness <= now;
+    }
+    
+    private long currentTime() {
+        return eventTime ? maxTimestamp.get() : System.currentTimeMillis();
+    }
+    
+    //remainder of value divided by divisor that is never negative
+    private static long mod(long value, long divisor) {
+        long remainder = value % divisor;
+        return remainder < 0 ? remainder + divisor : remainder;
+    }
+    
+    /**
+     * Returns the number of objects discarded because they fell into windows
+     * that were already complete.
+     */
+    public long getLateCount() {
+        return lateCount.get();
+    }
+    
+    /**
+     * Returns the number of windows currently open.
+     */
+    public int getOpenWindowCount() {
+        int count = 0;
+        for (Group group : groups.values()) {
+            synchronized (group) {
+                count += group.windows.size();
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Holds value of property keyFactory.
+     */
+    private KeyFactory<Object,? extends Object> keyFactory;
+    
+    /**
+     * Getter for property keyFactory.
+     * @return Value of property keyFactory.
+     */
+    public KeyFactory<Object,? extends Object> getKeyFactory() {
+        return this.keyFactory;
+    }
+    
+    /**
+     * Setter for property keyFactory. If no key factory is set, all objects
+     * belong to a single group.
+     * @param keyFactory New value of property keyFactory.
+     */
+    public void setKeyFactory(KeyFactory<Object,? extends Object> keyFactory) {
+        this.keyFactory = keyFactory;
+    }
+    
+    /**
+     * Holds value of property extractor.
+     */
+    private Extractor extractor = new NumberExtractor();
+    
+    /**
+     * Getter for property extractor.
+     * @return Value of property extractor.
+     */
+    public Extractor getExtractor() {
+        return this.extractor;
+    }
+    
+    /**
+     * Setter for property extractor.
+     * @param extractor New value of property extractor.
+     */
+    public void setExtractor(Extractor extractor) {
+        if (extractor == null) throw new IllegalArgumentException("Extractor may not be null.");
+        this.extractor = extractor;
+    }
+    
+    /**
+     * Holds value of property accumulators.
+     */
+    private List<Accumulator> accumulators = new ArrayList<Accumulator>();
+    
+    /**
+     * Getter for property accumulators.
+     * @return Value of property accumulators.
+     */
+    public List<Accumulator> getAccumulators() {
+        return this.accumulators;
+    }
+    
+    /**
+     * Setter for property accumulators. Each accumulator serves as the
+     * prototype for the accumulators of every window. If no accumulators are
+     * set, objects are counted.
+     * @param accumulators New value of property accumulators.
+     */
+    public void setAccumulators(List<Accumulator> accumulators) {
+        this.accumulators = new ArrayList<Accumulator>(accumulators);
+    }
+    
+    /**
+     * Adds an accumulator to be computed for every window.
+     */
+    public void addAccumulator(Accumulator accumulator) {
+        this.accumulators.add(accumulator);
+    }
+    
+    /**
+     * Holds value of property windowType.
+     */
+    private WindowType windowType = WindowType.TUMBLING;
+    
+    /**
+     * Getter for property windowType.
+     * @return Value of property windowType.
+     */
+    public WindowType getWindowType() {
+        return this.windowType;
+    }
+    
+    /**
+     * Setter for property windowType.
+     * @param windowType New value of property windowType.
+     */
+    public void setWindowType(WindowType windowType) {
+        this.windowType = windowType;
+    }
+    
+    /**
+     * Getter for property windowTypeName.
+     * @return The name of the window type.
+     */
+    public String getWindowTypeName() {
+        return this.windowType.name();
+    }
+    
+    /**
+     * Setter for property windowTypeName, allowing the window type to be
+     * configured by name, for example from a Digester configuration file.
+     * @param windowTypeName The name of a {@link WindowType} constant.
+     * @throws IllegalArgumentException if there is no window type with the specified name
+     */
+    public void setWindowTypeName(String windowTypeName) {
+        this.windowType = WindowType.valueOf(windowTypeName);
+    }
+    
+    /**
+     * Holds value of property windowSize.
+     */
+    private long windowSize = 60000;
+    
+    /**
+     * Getter for property windowSize.
+     * @return Value of property windowSize.
+     */
+    public long getWindowSize() {
+        return this.windowSize;
+    }
+    
+    /**
+     * Setter for property windowSize. This is the size in milliseconds of
+     * tumbling and sliding windows.
+     * @param windowSize New value of property windowSize.
+     */
+    public void setWindowSize(long windowSize) {
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * Holds value of property slide.
+     */
+    private long slide = 10000;
+    
+    /**
+     * Getter for property slide.
+     * @return Value of property slide.
+     */
+    public long getSlide() {
+        return this.slide;
+    }
+    
+    /**
+     * Setter for property slide. This is the interval in milliseconds between
+     * the starts of consecutive sliding windows.
+     * @param slide New value of property slide.
+     */
+    public void setSlide(long slide) {
+        this.slide = slide;
+    }
+    
+    /**
+     * Holds value of property sessionGap.
+     */
+    private long sessionGap = 30000;
+    
+    /**
+     * Getter for property sessionGap.
+     * @return Value of property sessionGap.
+     */
+    public long getSessionGap() {
+        return this.sessionGap;
+    }
+    
+    /**
+     * Setter for property sessionGap. A session ends when no object of its
+     * group arrives for this many milliseconds.
+     * @param sessionGap New value of property sessionGap.
+     */
+    public void setSessionGap(long sessionGap) {
+        this.sessionGap = sessionGap;
+    }
+    
+    /**
+     * Holds value of property allowedLateness.
+     */
+    private long allowedLateness = 0;
+    
+    /**
+     * Getter for property allowedLateness.
+     * @return Value of property allowedLateness.
+     */
+    public long getAllowedLateness() {
+        return this.allowedLateness;
+    }
+    
+    /**
+     * Setter for property allowedLateness. Windows are kept open for this
+     * many milliseconds after their end to receive objects that arrive late.
+     * @param allowedLateness New value of property allowedLateness.
+     */
+    public void setAllowedLateness(long allowedLateness) {
+        if (allowedLateness < 0) throw new IllegalArgumentException("Allowed lateness may not be negative.");
+        this.allowedLateness = allowedLateness;
+    }
+    
+    /**
+     * Holds value of property eventTime.
+     */
+    private boolean eventTime = false;
+    
+    /**
+     * Getter for property eventTime.
+     * @return Value of property eventTime.
+     */
+    public boolean isEventTime() {
+        return this.eventTime;
+    }
+    
+    /**
+     * Setter for property eventTime. If true, the current time is taken to be
+     * the largest time read from any object, rather than the wall clock, so
+     * windows are completed only as objects with later times arrive.
+     * @param eventTime New value of property eventTime.
+     */
+    public void setEventTime(boolean eventTime) {
+        this.eventTime = eventTime;
+    }
+    
+    /**
+     * Holds value of property flushInterval.
+     */
+    private long flushInterval = 1000;
+    
+    /**
+     * Getter for property flushInterval.
+     * @return Value of property flushInterval.
+     */
+    public long getFlushInterval() {
+        return this.flushInterval;
+    }
+    
+    /**
+     * Setter for property flushInterval. This is the interval in milliseconds
+     * at which completed windows are emitted.
+     * @param flushInterval New value of property flushInterval.
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval <= 0) throw new IllegalArgumentException("Flush interval must be positive.");
+        this.flushInterval = flushInterval;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.trace;
+
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.commons.pipeline.Stage;
+
+/**
+ * The trace of a sampled object through a pipeline. A trace is made up of
+ * hops: the first is created when the object is fed to the source feeder of
+ * the pipeline, and another is added each time the object, or an object a
+ * stage emits while processing it, is queued for a stage. Each hop records
+ * the time the object was queued and the time it was taken from the queue for
+ * processing. Hops are immutable apart from their dequeue time and refer to
+ * the hop before them, so objects emitted by the same stage share the hops
+ * that precede them.
+ *
+ * <p>While a stage processes a traced object, the hop is the current trace of
+ * the processing thread; this is how it is carried to the objects the stage
+ * emits, whether to the next stage or to a branch.</p>
+ */
+public final class Trace {
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<Trace>();
+    
+    private final Tracer tracer;
+    private final Trace previous;
+    private final Stage stage;
+    private final long ingressTime;
+    private final long enqueueTime;
+    private volatile long dequeueTime = -1;
+    
+    /**
+     * Creates the first hop of a trace, for an object fed to a pipeline at
+     * the specified time.
+     */
+    Trace(Tracer tracer, long ingressTime) {
+        this.tracer = tracer;
+        this.previous = null;
+        this.stage = null;
+        this.ingressTime = ingressTime;
+        this.enqueueTime = ingressTime;
+        this.dequeueTime = ingressTime;
+    }
+    
+    /**
+     * Creates a hop for an object queued for the specified stage at the
+     * specified time.
+     */
+    private Trace(Trace previous, Stage stage, long enqueueTime) {
+        this.tracer = previous.tracer;
+        this.previous = previous;
+        this.stage = stage;
+        this.ingressTime = previous.ingressTime;
+        this.enqueueTime = enqueueTime;
+    }
+    
+    /**
+     * Returns the trace of the object being processed by the current thread,
+     * or null if that object is not traced.
+     */
+    public static Trace current() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * Makes the specified trace the current trace of this thread and returns
+     * the trace it replaces, which should be restored once processing of the
+     * traced object is complete.
+     * @param trace the new current trace, or null to clear the current trace
+     * @return the previous current trace, or null if there was none
+     */
+    public static Trace setCurrent(Trace trace) {
+        Trace previous = CURRENT.get();
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+        
+        return previous;
+    }
+    
+    /**
+     * Adds a hop to this trace for the specified object, which is being queued
+     * for the specified stage now, and returns the object wrapped with the new
+     * hop for queueing.
+     * @param stage the stage for which the object is queued
+     * @param payload the object being queued
+     */
+    public TracedObject enqueue(Stage stage, Object payload) {
+        return new TracedObject(payload, new Trace(this, stage, System.nanoTime()));
+    }
+    
+    /**
+     * Records that the object has been taken from the queue of the stage of
+     * this hop for processing.
+     */
+    void dequeue() {
+        long now = System.nanoTime();
+        this.dequeueTime = now;
+        tracer.recordQueueWait(this, now - enqueueTime);
+    }
+    
+    /**
+     * Records that the object has left the pipeline.
+     */
+    void complete() {
+        tracer.recordCompletion(this, System.nanoTime() - ingressTime);
+    }
+    
+    /**
+     * Returns the tracer that sampled the traced object.
+     */
+    public Tracer getTracer() {
+        return this.tracer;
+    }
+    
+    /**
+     * Returns the previous hop of the trace, or null if this is the first.
+     */
+    public Trace getPrevious() {
+        return this.previous;
+    }
+    
+    /**
+     * Returns the stage for which the object was queued, or null if this is
+     * the first hop.
+     */
+    public Stage getStage() {
+        return this.stage;
+    }
+    
+    /**
+     * Returns the value of {@link System#nanoTime()} when the traced object
+     * was fed to the pipeline.
+     */
+    public long getIngressTime() {
+        return this.ingressTime;
+    }
+    
+    /**
+     * Returns the value of {@link System#nanoTime()} when the object was
+     * queued for the stage of this hop. This is before the object was
+     * accepted by the queue, so time spent waiting for space in a bounded
+     * queue counts as queue wait.
+     */
+    public long getEnqueueTime() {
+        return this.enqueueTime;
+    }
+    
+    /**
+     * Returns the value of {@link System#nanoTime()} when the object was taken
+     * from the queue of the stage of this hop, or -1 if it is still queued.
+     */
+    public long getDequeueTime() {
+        return this.dequeueTime;
+    }
+    
+    /**
+     * Returns the time in nanoseconds the object spent queued for the stage of
+     * this hop, or -1 if it is still queued.
+     */
+    public long getQueueWait() {
+        long dequeued = this.dequeueTime;
+        return dequeued < 0 ? -1 : dequeued - enqueueTime;
+    }
+    
+    /**
+     * Returns the hops of this trace in order, from the first to this one.
+     */
+    public List<Trace> getHops() {
+        LinkedList<Trace> hops = new LinkedList<Trace>();
+        for (Trace hop = this; hop != null; hop = hop.previous) hops.addFirst(hop);
+        return hops;
+    }
+    
+    public String toString() {
+        StringBuilder b = new StringBuilder("Trace[");
+        for (Trace hop : getHops()) {
+            if (hop.stage == null) continue;
+            if (b.length() > 6) b.append(", ");
+            b.append(hop.stage).append(": +").append((hop.enqueueTime - ingressTime) / 1000).append("us");
+            long wait = hop.getQueueWait();
+            b.append(" wait ").append(wait < 0 ? "-" : (wait / 1000) + "us");
+        }
+        
+        return b.append("]").toString();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.trace;
+
+/**
+ * The envelope in which a traced object is held in a stage driver's queue.
+ * Drivers unwrap it with {@link #dequeue()} before the object is processed;
+ * stages never see it.
+ */
+public final class TracedObject {
+    private final Object payload;
+    private final Trace trace;
+    
+    TracedObject(Object payload, Trace trace) {
+        this.payload = payload;
+        this.trace = trace;
+    }
+    
+    /**
+     * Returns the object being traced.
+     */
+    public Object getPayload() {
+        return this.payload;
+    }
+    
+    /**
+     * Returns the hop of the trace for the queue holding this envelope.
+     */
+    public Trace getTrace() {
+        return this.trace;
+    }
+    
+    /**
+     * Records that the object has been taken from the queue for processing and
+     * returns the hop of its trace, which should be made the current trace
+     * while the object is processed.
+     */
+    public Trace dequeue() {
+        trace.dequeue();
+        return trace;
+    }
+    
+    public String toString() {
+        return String.valueOf(payload);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.trace;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.util.RollingHistogram;
+import org.apache.commons.pipeline.util.StripedCounter;
+
+/**
+ * Samples objects fed to a pipeline and measures how long each sampled object
+ * takes to pass through it, and how long it waits in the queue of each stage.
+ * A tracer is attached to a pipeline with
+ * {@link org.apache.commons.pipeline.Pipeline#setTracer(Tracer)}, and is used
+ * by any branches of that pipeline that do not have a tracer of their own.
+ *
+ * <p>Objects are sampled when they are fed to the pipeline's source feeder.
+ * A {@link Trace} is started for each sampled object and carried with it, and
+ * with the objects stages emit while processing it, in an envelope around the
+ * object while it is queued; unsampled objects are not wrapped. End-to-end
+ * latency, from the source feeder to a terminal feeder, is recorded in a
+ * single histogram. An object that leaves through several terminal feeders,
+ * for example because a stage fed it to a branch as well as to the next stage,
+ * is recorded once for each. The queue wait of each hop is recorded in a
+ * histogram for the stage.</p>
+ *
+ * <p>Traces are not carried through queues that order their contents, such
+ * as priority and delay queues, by objects emitted from threads other than
+ * the one processing the traced object, or by objects fed to a driver before
+ * it is started.</p>
+ */
+public class Tracer {
+    private final long intervalMillis;
+    private final int intervalCount;
+    
+    //number of objects considered for sampling, used to spread samples evenly
+    private final AtomicLong sequence = new AtomicLong();
+    
+    //number of traces started and completed
+    private final StripedCounter started = new StripedCounter();
+    private final StripedCounter completed = new StripedCounter();
+    
+    private final RollingHistogram endToEnd;
+    private final ConcurrentMap<Stage, RollingHistogram> queueWaits = new ConcurrentHashMap<Stage, RollingHistogram>();
+    
+    /**
+     * Creates a new Tracer that traces every object, with histograms covering
+     * the last minute.
+     */
+    public Tracer() {
+        this(1.0);
+    }
+    
+    /**
+     * Creates a new Tracer that traces the specified fraction of objects, with
+     * histograms covering the last minute.
+     * @param sampleRate the fraction of objects to trace, between 0 and 1
+     */
+    public Tracer(double sampleRate) {
+        this(sampleRate, 1000, 60);
+    }
+    
+    /**
+     * Creates a new Tracer that traces the specified fraction of objects, with
+     * histograms covering the specified number of intervals of the specified
+     * length.
+     * @param sampleRate the fraction of objects to trace, between 0 and 1
+     * @param intervalMillis the length of each histogram interval in milliseconds
+     * @param intervalCount the number of intervals covered by the histograms
+     */
+    public Tracer(double sampleRate, long intervalMillis, int intervalCount) {
+        setSampleRate(sampleRate);
+        this.intervalMillis = intervalMillis;
+        this.intervalCount = intervalCount;
+        this.endToEnd = new RollingHistogram(intervalMillis, intervalCount);
+    }
+    
+    /**
+     * Returns a feeder that starts a trace for each sampled object fed to it
+     * before passing it on to the specified feeder. Objects fed while the
+     * feeding thread already has a current trace continue that trace.
+     * @param feeder the source feeder of the pipeline
+     */
+    public Feeder getSourceFeeder(final Feeder feeder) {
+        return new Feeder() {
+            public void feed(Object obj) {
+                if (Trace.current() != null || !sample()) {
+                    feeder.feed(obj);
+                    return;
+                }
+                
+                started.increment();
+                Trace previous = Trace.setCurrent(new Trace(Tracer.this, System.nanoTime()));
+                try {
+                    feeder.feed(obj);
+                } finally {
+                    Trace.setCurrent(previous);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Returns a feeder that completes the trace of each traced object fed to
+     * it before passing it on to the specified feeder.
+     * @param feeder the terminal feeder of the pipeline
+     */
+    public Feeder getTerminalFeeder(final Feeder feeder) {
+        return new Feeder() {
+            public void feed(Object obj) {
+                Trace trace = Trace.current();
+                if (trace != null) trace.complete();
+                feeder.feed(obj);
+            }
+        };
+    }
+    
+    /**
+     * Returns true if the next object should be traced. Samples are spread
+     * evenly, so that with a sample rate of 0.1 every tenth object is traced.
+     */
+    protected boolean sample() {
+        double rate = this.sampleRate;
+        if (rate >= 1.0) return true;
+        if (rate <= 0.0) return false;
+        
+        long n = sequence.getAndIncrement();
+        return (long) ((n + 1) * rate) > (long) (n * rate);
+    }
+    
+    /**
+     * Records the time an object spent queued for the stage of the specified hop.
+     * @param hop the hop of the trace that has been dequeued
+     * @param nanos the queue wait in nanoseconds
+     */
+    protected void recordQueueWait(Trace hop, long nanos) {
+        Stage stage = hop.getStage();
+        RollingHistogram histogram = queueWaits.get(stage);
+        if (histogram == null) {
+            RollingHistogram created = new RollingHistogram(intervalMillis, intervalCount);
+            histogram = queueWaits.putIfAbsent(stage, created);
+            if (histogram == null) histogram = created;
+        }
+        
+        histogram.record(nanos);
+    }
+    
+    /**
+     * Records the end-to-end latency of an object that has reached a terminal feeder.
+     * @param trace the last hop of the object's trace
+     * @param nanos the time since the object was fed to the pipeline, in nanoseconds
+     */
+    protected void recordCompletion(Trace trace, long nanos) {
+        completed.increment();
+        endToEnd.record(nanos);
+    }
+    
+    /**
+     * Returns the number of traces started.
+     */
+    public long getTracesStarted() {
+        return started.sum();
+    }
+    
+    /**
+     * Returns the number of times a traced object has reached a terminal feeder.
+     */
+    public long getTracesCompleted() {
+        return completed.sum();
+    }
+    
+    /**
+     * Returns the histogram of end-to-end latencies in nanoseconds.
+     */
+    public RollingHistogram getEndToEndLatency() {
+        return this.endToEnd;
+    }
+    
+    /**
+     * Returns the histogram of queue waits in nanoseconds for the specified
+     * stage, or null if no traced object has been queued for it.
+     */
+    public RollingHistogram getQueueWait(Stage stage) {
+        return queueWaits.get(stage);
+    }
+    
+    /**
+     * Returns the histograms of queue waits in nanoseconds of every stage for
+     * which a traced object has been queued.
+     */
+    public Map<Stage, RollingHistogram> getQueueWaits() {
+        return Collections.unmodifiableMap(queueWaits);
+    }
+    
+    /**
+     * Holds value of property sampleRate.
+     */
+    private volatile double sampleRate;
+    
+    /**
+     * Getter for property sampleRate.
+     * @return Value of property sampleRate.
+     */
+    public double getSampleRate() {
+        return this.sampleRate;
+    }
+    
+    /**
+     * Setter for property sampleRate. This is the fraction of objects fed to
+     * the pipeline that are traced.
+     * @param sampleRate New value of property sampleRate.
+     */
+    public void setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) throw new IllegalArgumentException("Sample rate must be between 0 and 1.");
+        this.sampleRate = sampleRate;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+/**
+ * An accumulator combines a sequence of numeric values into a single result,
+ * such as their sum or maximum, without retaining the values themselves.
+ * Values are added as primitives so that no objects are allocated per value.
+ * Accumulators are not thread-safe; callers must synchronize access to
+ * an accumulator that is updated by several threads.
+ *
+ * <p>Accumulators act as their own factories: {@link #newInstance()} creates
+ * an empty accumulator of the same kind, so that a configured instance can
+ * be used as the prototype for the accumulators of each group or window.</p>
+ */
+public interface Accumulator {
+    /**
+     * Adds an integral value.
+     */
+    public void add(long value);
+    
+    /**
+     * Adds a floating-point value.
+     */
+    public void add(double value);
+    
+    /**
+     * Adds the values accumulated by another accumulator of the same kind.
+     * @throws IllegalArgumentException if the other accumulator is of a different kind
+     */
+    public void merge(Accumulator other);
+    
+    /**
+     * Returns the number of values added.
+     */
+    public long getCount();
+    
+    /**
+     * Returns the result as a long, or zero if no values have been added.
+     * The result is truncated if floating-point values have been added.
+     */
+    public long longValue();
+    
+    /**
+     * Returns the result as a double, or NaN if the result is undefined
+     * because no values have been added.
+     */
+    public double doubleValue();
+    
+    /**
+     * Creates a new, empty accumulator of the same kind.
+     */
+    public Accumulator newInstance();
+    
+    /**
+     * Base class for accumulators that counts the values added.
+     */
+    public static abstract class AbstractAccumulator implements Accumulator {
+        /**
+         * The number of values added.
+         */
+        protected long count;
+        
+        public long getCount() {
+            return this.count;
+        }
+        
+        /**
+         * Checks that the other accumulator is of the same kind as this one and
+         * adds its count to this accumulator's count.
+         */
+        protected void mergeCount(Accumulator other) {
+            if (other.getClass() != getClass()) {
+                throw new IllegalArgumentException("Cannot merge " + other.getClass().getName() + " into " + getClass().getName());
+            }
+            
+            this.count += other.getCount();
+        }
+        
+        public String toString() {
+            return getClass().getSimpleName() + "[" + doubleValue() + "]";
+        }
+    }
+    
+    /**
+     * Accumulator that counts the values added.
+     */
+    public static class Count extends AbstractAccumulator {
+        public void add(long value) {
+            count++;
+        }
+        
+        public void add(double value) {
+            count++;
+        }
+        
+        public void merge(Accumulator other) {
+            mergeCount(other);
+        }
+        
+        public long longValue() {
+            return count;
+        }
+        
+        public double doubleValue() {
+            return count;
+        }
+        
+        public Accumulator newInstance() {
+            return new Count();
+        }
+    }
+    
+    /**
+     * Accumulator that sums the values added. Integral and floating-point
+     * values are summed separately, so that sums of integral values are exact.
+     */
+    public static class Sum extends AbstractAccumulator {
+        //sum of the integral values
+        protected long longSum;
+        
+        //sum of the floating-point values
+        protected double doubleSum;
+        
+        public void add(long value) {
+            count++;
+            longSum += value;
+        }
+        
+        public void add(double value) {
+            count++;
+            doubleSum += value;
+        }
+        
+        public void merge(Accumulator other) {
+            mergeCount(other);
+            longSum += ((Sum) other).longSum;
+            doubleSum += ((Sum) other).doubleSum;
+        }
+        
+        public long longValue() {
+            return longSum + (long) doubleSum;
+        }
+        
+        public double doubleValue() {
+            return longSum + doubleSum;
+        }
+        
+        public Accumulator newInstance() {
+            return new Sum();
+        }
+    }
+    
+    /**
+     * Accumulator that computes the arithmetic mean of the values added.
+     */
+    public static class Average extends Sum {
+        public long longValue() {
+            return (long) doubleValue();
+        }
+        
+        public double doubleValue() {
+            return count == 0 ? Double.NaN : super.doubleValue() / count;
+        }
+        
+        public Accumulator newInstance() {
+            return new Average();
+        }
+    }
+    
+    /**
+     * Accumulator that finds the smallest value added.
+     */
+    public static class Min extends AbstractAccumulator {
+        //smallest integral value
+        private long longMin = Long.MAX_VALUE;
+        
+        //smallest floating-point value
+        private double doubleMin = Double.POSITIVE_INFINITY;
+        
+        public void add(long value) {
+            count++;
+            if (value < longMin) longMin = value;
+        }
+        
+        public void add(double value) {
+            count++;
+            if (value < doubleMin) doubleMin = value;
+        }
+        
+        public void merge(Accumulator other) {
+            mergeCount(other);
+            longMin = Math.min(longMin, ((Min) other).longMin);
+            doubleMin = Math.min(doubleMin, ((Min) other).doubleMin);
+        }
+        
+        public long longValue() {
+            if (count == 0) return 0;
+            return doubleMin < longMin ? (long) doubleMin : longMin;
+        }
+        
+        public double doubleValue() {
+            return count == 0 ? Double.NaN : Math.min((double) longMin, doubleMin);
+        }
+        
+        public Accumulator newInstance() {
+            return new Min();
+        }
+    }
+    
+    /**
+     * Accumulator that finds the largest value added.
+     */
+    public static class Max extends AbstractAccumulator {
+        //largest integral value
+        private long longMax = Long.MIN_VALUE;
+        
+        //largest floating-point value
+        private double doubleMax = Double.NEGATIVE_INFINITY;
+        
+        public void add(long value) {
+            count++;
+            if (value > longMax) longMax = value;
+        }
+        
+        public void add(double value) {
+            count++;
+            if (value > doubleMax) doubleMax = value;
+        }
+        
+        public void merge(Accumulator other) {
+            mergeCount(other);
+            longMax = Math.max(longMax, ((Max) other).longMax);
+            doubleMax = Math.max(doubleMax, ((Max) other).doubleMax);
+        }
+        
+        public long longValue() {
+            if (count == 0) return 0;
+            return doubleMax > longMax ? (long) doubleMax : longMax;
+        }
+        
+        public double doubleValue() {
+            return count == 0 ? Double.NaN : Math.max((double) longMax, doubleMax);
+        }
+        
+        public Accumulator newInstance() {
+            return new Max();
+        }
+    }
+}
@@ -19,6 +19,12 @@
 
 package org.apache.commons.pipeline.util;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Comparator;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -28,6 +34,9 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageDriver;
 
 /**
@@ -232,4 +241,357 @@ public interface BlockingQueueFactory<T> extends QueueFactory<T> {
             this.fair = fair;
         }
     }
+    
+    /**
+     * Factory for {@link MappedBlockingQueue}s, whose contents survive a
+     * restart of the JVM. Each queue belongs to a stage and is kept in its
+     * own subdirectory of the configured directory, named for the position of
+     * the stage in its pipeline, so that a pipeline configured in the same way
+     * reopens the same queues when it is restarted. The class of the stage is
+     * recorded with the queue, and reopening the queue for a stage of another
+     * class fails rather than feeding the stage objects queued for a
+     * different one. A queue's directory is locked while the queue is open,
+     * so branches whose stages share positions need factories with separate
+     * directories.
+     */
+    public static class MappedQueueFactory<T> extends AbstractQueueFactory<T> implements StageQueueFactory<T> {
+        private static final String STAGE_FILE = "stage";
+        
+        /**
+         * Mapped queues are kept for a particular stage, so this always throws
+         * an IllegalStateException; use {@link #createQueue(Stage, StageContext)}.
+         */
+        public MappedBlockingQueue<T> createQueue() {
+            throw new IllegalStateException("Mapped queues are kept for a particular stage and must be created for one.");
+        }
+        
+        public synchronized MappedBlockingQueue<T> createQueue(Stage stage, StageContext context) {
+            if (directory == null) throw new IllegalStateException("No directory has been set for the queues.");
+            
+            int index = context instanceof Pipeline ? ((Pipeline) context).getStages().indexOf(stage) : -1;
+            if (index < 0) throw new IllegalStateException("Unable to determine the position of stage " + stage + " in its pipeline.");
+            
+            File queueDirectory = new File(directory, "stage-" + index);
+            MappedBlockingQueue<T> queue;
+            try {
+                queue = new MappedBlockingQueue<T>(queueDirectory, segmentSize, capacity, serializer, maxFreeSegments, sync);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open queue in " + queueDirectory, e);
+            }
+            
+            boolean checked = false;
+            try {
+                checkStage(queueDirectory, stage.getClass().getName());
+                checked = true;
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read or record the stage of queue " + queueDirectory, e);
+            } finally {
+                if (!checked) queue.close();
+            }
+            
+            //initial contents are only added to a queue that has not been used before
+            if (this.initialContents != null && queue.isNewlyCreated()) {
+                queue.addAll(this.initialContents);
+            }
+            
+            return queue;
+        }
+        
+        /**
+         * Records the class of the stage owning the queue in the specified
+         * directory, or checks that it matches the class already recorded.
+         */
+        private static void checkStage(File queueDirectory, String stageClass) throws IOException {
+            File file = new File(queueDirectory, STAGE_FILE);
+            if (file.exists()) {
+                byte[] bytes = new byte[(int) file.length()];
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    in.readFully(bytes);
+                } finally {
+                    in.close();
+                }
+                
+                String recorded = new String(bytes, "UTF-8");
+                if (!recorded.equals(stageClass)) {
+                    throw new IllegalStateException("Queue " + queueDirectory + " belongs to a stage of " + recorded
+                            + " and cannot be reopened for a stage of " + stageClass + ".");
+                }
+            } else {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(stageClass.getBytes("UTF-8"));
+                } finally {
+                    out.close();
+                }
+            }
+        }
+        
+        /**
+         * Holds value of property directory.
+         */
+        private File directory;
+        
+        /**
+         * Getter for property directory.
+         * @return Value of property directory.
+         */
+        public File getDirectory() {
+            return this.directory;
+        }
+        
+        /**
+         * Setter for property directory.
+         * @param directory New value of property directory.
+         */
+        public void setDirectory(File directory) {
+            this.directory = directory;
+        }
+        
+        /**
+         * Getter for property directoryName.
+         * @return The path of the directory holding the queues, or null if none has been set.
+         */
+        public String getDirectoryName() {
+            File directory = this.directory;
+            return directory == null ? null : directory.getPath();
+        }
+        
+        /**
+         * Setter for property directoryName. This sets the directory holding
+         * the queues from its path, for use in pipeline configurations.
+         * @param directoryName New value of property directoryName.
+         */
+        public void setDirectoryName(String directoryName) {
+            if (directoryName == null) throw new IllegalArgumentException("Directory name may not be null.");
+            setDirectory(new File(directoryName));
+        }
+        
+        /**
+         * Holds value of property segmentSize.
+         */
+        private int segmentSize = 64 * 1024 * 1024;
+        
+        /**
+         * Getter for property segmentSize.
+         * @return Value of property segmentSize.
+         */
+        public int getSegmentSize() {
+            return this.segmentSize;
+        }
+        
+        /**
+         * Setter for property segmentSize. This must not be changed for a
+         * directory that already holds queues.
+         * @param segmentSize New value of property segmentSize.
+         */
+        public void setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+        
+        /**
+         * Holds value of property capacity.
+         */
+        private int capacity = Integer.MAX_VALUE;
+        
+        /**
+         * Getter for property capacity.
+         * @return Value of property capacity.
+         */
+        public int getCapacity() {
+            return this.capacity;
+        }
+        
+        /**
+         * Setter for property capacity.
+         * @param capacity New value of property capacity.
+         */
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        /**
+         * Holds value of property serializer.
+         */
+        private Serializer<T> serializer = new CodecSerializer<T>();
+        
+        /**
+         * Getter for property serializer.
+         * @return Value of property serializer.
+         */
+        public Serializer<T> getSerializer() {
+            return this.serializer;
+        }
+        
+        /**
+         * Setter for property serializer. The default encodes objects with the
+         * codecs of the default {@link CodecRegistry}.
+         * @param serializer New value of property serializer.
+         */
+        public void setSerializer(Serializer<T> serializer) {
+            this.serializer = serializer;
+        }
+        
+        /**
+         * Holds value of property maxFreeSegments.
+         */
+        private int maxFreeSegments = 2;
+        
+        /**
+         * Getter for property maxFreeSegments.
+         * @return Value of property maxFreeSegments.
+         */
+        public int getMaxFreeSegments() {
+            return this.maxFreeSegments;
+        }
+        
+        /**
+         * Setter for property maxFreeSegments.
+         * @param maxFreeSegments New value of property maxFreeSegments.
+         */
+        public void setMaxFreeSegments(int maxFreeSegments) {
+            this.maxFreeSegments = maxFreeSegments;
+        }
+        
+        /**
+         * Holds value of property sync.
+         */
+        private boolean sync = false;
+        
+        /**
+         * Getter for property sync.
+         * @return Value of property sync.
+         */
+        public boolean isSync() {
+            return this.sync;
+        }
+        
+        /**
+         * Setter for property sync.
+         * @param sync New value of property sync.
+         */
+        public void setSync(boolean sync) {
+            this.sync = sync;
+        }
+    }
+    
+    /**
+     * Factory for {@link OverflowBlockingQueue}s, which hold a bounded number
+     * of objects in memory and spill the rest to compressed temporary files.
+     */
+    public static class OverflowQueueFactory<T> extends AbstractQueueFactory<T> implements BlockingQueueFactory<T> {
+        public OverflowBlockingQueue<T> createQueue() {
+            OverflowBlockingQueue<T> queue = new OverflowBlockingQueue<T>(memoryCapacity, capacity, objectsPerFile,
+                    tempDirectory, serializer);
+            if (this.initialContents != null) queue.addAll(this.initialContents);
+            return queue;
+        }
+        
+        /**
+         * Holds value of property memoryCapacity.
+         */
+        private int memoryCapacity = 10000;
+        
+        /**
+         * Getter for property memoryCapacity.
+         * @return Value of property memoryCapacity.
+         */
+        public int getMemoryCapacity() {
+            return this.memoryCapacity;
+        }
+        
+        /**
+         * Setter for property memoryCapacity. This is the heap budget of each
+         * queue, expressed as the number of objects held in memory.
+         * @param memoryCapacity New value of property memoryCapacity.
+         */
+        public void setMemoryCapacity(int memoryCapacity) {
+            this.memoryCapacity = memoryCapacity;
+        }
+        
+        /**
+         * Holds value of property capacity.
+         */
+        private int capacity = Integer.MAX_VALUE;
+        
+        /**
+         * Getter for property capacity.
+         * @return Value of property capacity.
+         */
+        public int getCapacity() {
+            return this.capacity;
+        }
+        
+        /**
+         * Setter for property capacity.
+         * @param capacity New value of property capacity.
+         */
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        /**
+         * Holds value of property objectsPerFile.
+         */
+        private int objectsPerFile = 10000;
+        
+        /**
+         * Getter for property objectsPerFile.
+         * @return Value of property objectsPerFile.
+         */
+        public int getObjectsPerFile() {
+            return this.objectsPerFile;
+        }
+        
+        /**
+         * Setter for property objectsPerFile.
+         * @param objectsPerFile New value of property objectsPerFile.
+         */
+        public void setObjectsPerFile(int objectsPerFile) {
+            this.objectsPerFile = objectsPerFile;
+        }
+        
+        /**
+         * Holds value of property tempDirectory.
+         */
+        private File tempDirectory;
+        
+        /**
+         * Getter for property tempDirectory.
+         * @return Value of property tempDirectory.
+         */
+        public File getTempDirectory() {
+            return this.tempDirectory;
+        }
+        
+        /**
+         * Setter for property tempDirectory.
+         * @param tempDirectory New value of property tempDirectory.
+         */
+        public void setTempDirectory(File tempDirectory) {
+            this.tempDirectory = tempDirectory;
+        }
+        
+        /**
+         * Holds value of property serializer.
+         */
+        private Serializer<T> serializer = new CodecSerializer<T>();
+        
+        /**
+         * Getter for property serializer.
+         * @return Value of property serializer.
+         */
+        public Serializer<T> getSerializer() {
+            return this.serializer;
+        }
+        
+        /**
+         * Setter for property serializer. The default encodes objects with the
+         * codecs of the default {@link CodecRegistry}.
+         * @param serializer New value of property serializer.
+         */
+        public void setSerializer(Serializer<T> serializer) {
+            this.serializer = serializer;
+        }
+    }
 }
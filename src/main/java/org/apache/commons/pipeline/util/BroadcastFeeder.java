@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.trace.Trace;
+
+/**
+ * A {@link Feeder} that passes every object fed to it on to each of a number
+ * of other feeders, typically the feeders of several branches. Each target
+ * feeder has its own lane: a bounded buffer drained into the feeder by at most
+ * one thread at a time, so that objects reach each feeder in the order they
+ * were fed, but a feeder that blocks, for example because the queue of a slow
+ * branch is full, delays only the objects in its own lane. The thread feeding
+ * this feeder blocks only when the lane of a target is full, and then only
+ * after the object has been offered to every other lane.
+ *
+ * <p>Because objects are delivered asynchronously, {@link #flush()} must be
+ * called before the target feeders are shut down, for example from the
+ * postprocess method of the stage using this feeder. If delivery to a target
+ * fails, the objects remaining in its lane are discarded and subsequent calls
+ * to {@link #feed(Object)} and {@link #flush()} throw an IllegalStateException.</p>
+ */
+public class BroadcastFeeder implements Feeder {
+    /**
+     * The default number of objects each lane can hold.
+     */
+    public static final int DEFAULT_LANE_CAPACITY = 256;
+    
+    private static final Log log = LogFactory.getLog(BroadcastFeeder.class);
+    
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    
+    private final Lane[] lanes;
+    
+    private final Executor executor;
+    
+    //the executor created by this feeder, or null if one was supplied
+    private final ExecutorService ownExecutor;
+    
+    /**
+     * Creates a new BroadcastFeeder that delivers objects to the specified
+     * feeders using lanes of the default capacity and threads of its own.
+     * @param feeders the feeders to which objects are passed
+     */
+    public BroadcastFeeder(List<? extends Feeder> feeders) {
+        this(feeders, DEFAULT_LANE_CAPACITY, null);
+    }
+    
+    /**
+     * Creates a new BroadcastFeeder.
+     * @param feeders the feeders to which objects are passed
+     * @param laneCapacity the number of objects each lane can hold
+     * @param executor the executor that runs the threads draining the lanes,
+     * which must be able to run one thread per lane at once, or null to create
+     * threads as they are needed
+     */
+    public BroadcastFeeder(List<? extends Feeder> feeders, int laneCapacity, Executor executor) {
+        if (feeders == null || feeders.isEmpty()) throw new IllegalArgumentException("At least one feeder is required.");
+        if (laneCapacity < 1) throw new IllegalArgumentException("Lane capacity must be at least 1.");
+        
+        this.lanes = new Lane[feeders.size()];
+        for (int i = 0; i < lanes.length; i++) {
+            if (feeders.get(i) == null) throw new IllegalArgumentException("Feeder may not be null.");
+            lanes[i] = new Lane(i, feeders.get(i), laneCapacity);
+        }
+        
+        if (executor == null) {
+            this.ownExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BroadcastFeeder-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.executor = ownExecutor;
+        } else {
+            this.ownExecutor = null;
+            this.executor = executor;
+        }
+    }
+    
+    /**
+     * Adds the object to the lane of every target feeder. If the lanes of some
+     * targets are full, the object is first added to the others and then this
+     * method waits for space in each full lane in turn.
+     * @throws IllegalStateException if delivery to a target has failed
+     */
+    public void feed(Object obj) {
+        for (Lane lane : lanes) lane.checkFailure();
+        
+        Trace trace = Trace.current();
+        Object delivery = trace == null ? obj : new Delivery(obj, trace);
+        
+        boolean[] full = null;
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].offer(delivery)) {
+                if (full == null) full = new boolean[lanes.length];
+                full[i] = true;
+            }
+        }
+        
+        if (full != null) {
+            for (int i = 0; i < lanes.length; i++) {
+                if (!full[i]) continue;
+                try {
+                    lanes[i].put(delivery);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Unexpected interrupt while waiting for space to become available for object "
+                            + obj + " in broadcast lane " + i, e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Waits until every object fed so far has been passed on to its target feeders.
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if delivery to a target has failed
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            while (!isIdle()) this.wait();
+        }
+        
+        for (Lane lane : lanes) lane.checkFailure();
+    }
+    
+    /**
+     * Flushes this feeder and stops the threads it created, if any.
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if delivery to a target has failed
+     */
+    public void close() throws InterruptedException {
+        try {
+            flush();
+        } finally {
+            if (ownExecutor != null) ownExecutor.shutdown();
+        }
+    }
+    
+    /**
+     * Returns the number of objects waiting in the lane of the target with the specified index.
+     */
+    public int getLaneOccupancy(int index) {
+        return lanes[index].queue.size();
+    }
+    
+    /**
+     * Returns true if every lane is empty and no object is being delivered.
+     */
+    private boolean isIdle() {
+        for (Lane lane : lanes) {
+            if (lane.scheduled.get() || !lane.queue.isEmpty()) {
+                if (lane.failure == null) return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * An object fed while its feeding thread had a current trace, which is
+     * restored while the object is delivered so that the trace continues.
+     */
+    private static final class Delivery {
+        private final Object obj;
+        private final Trace trace;
+        
+        Delivery(Object obj, Trace trace) {
+            this.obj = obj;
+            this.trace = trace;
+        }
+    }
+    
+    /**
+     * The buffer of objects awaiting delivery to a single target feeder.
+     */
+    private final class Lane implements Runnable {
+        private final int index;
+        private final Feeder feeder;
+        private final BlockingQueue<Object> queue;
+        
+        //true while a thread has been asked to drain the lane
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        
+        private volatile RuntimeException failure;
+        
+        Lane(int index, Feeder feeder, int capacity) {
+            this.index = index;
+            this.feeder = feeder;
+            this.queue = new LinkedBlockingQueue<Object>(capacity);
+        }
+        
+        boolean offer(Object delivery) {
+            if (!queue.offer(delivery)) return false;
+            schedule();
+            return true;
+        }
+        
+        void put(Object delivery) throws InterruptedException {
+            queue.put(delivery);
+            schedule();
+        }
+        
+        void checkFailure() {
+            RuntimeException e = this.failure;
+            if (e != null) throw new IllegalStateException("Delivery to broadcast target " + index + " (" + feeder + ") failed.", e);
+        }
+        
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) executor.execute(this);
+        }
+        
+        public void run() {
+            try {
+                for (Object delivery = queue.poll(); delivery != null; delivery = queue.poll()) deliver(delivery);
+            } catch (RuntimeException e) {
+                log.error("Delivery to broadcast target " + index + " (" + feeder + ") failed; discarding " + queue.size() + " queued objects.", e);
+                this.failure = e;
+                queue.clear();
+            } finally {
+                scheduled.set(false);
+                synchronized (BroadcastFeeder.this) {
+                    BroadcastFeeder.this.notifyAll();
+                }
+            }
+            
+            //pick up objects added after the last poll but before the lane was unscheduled
+            if (failure == null && !queue.isEmpty()) schedule();
+        }
+        
+        private void deliver(Object delivery) {
+            if (delivery instanceof Delivery) {
+                Delivery traced = (Delivery) delivery;
+                Trace previous = Trace.setCurrent(traced.trace);
+                try {
+                    feeder.feed(traced.obj);
+                } finally {
+                    Trace.setCurrent(previous);
+                }
+            } else {
+                feeder.feed(delivery);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * A codec encodes objects of one type to bytes in a {@link ByteBuffer} and
+ * decodes them again. Codecs write only the content of an object; its length
+ * and type are recorded by the framing format of the {@link CodecRegistry},
+ * so a codec is always told how many bytes to decode. Codecs must be
+ * thread-safe.
+ *
+ * <p>This interface also supplies codecs for strings, byte arrays, files,
+ * the primitive wrapper types and, as a fallback, any serializable object.</p>
+ */
+public interface Codec<T> {
+    /**
+     * Returns the exact number of bytes that {@link #encode} will write for
+     * the specified object.
+     */
+    public int sizeOf(T obj);
+    
+    /**
+     * Writes the object at the buffer's position, advancing the position by
+     * {@link #sizeOf} bytes.
+     * @throws java.nio.BufferOverflowException if the buffer has too little space remaining
+     */
+    public void encode(T obj, ByteBuffer buffer);
+    
+    /**
+     * Reads an object that was encoded as the specified number of bytes,
+     * starting at the buffer's position.
+     */
+    public T decode(ByteBuffer buffer, int length);
+    
+    /**
+     * Encodes strings as UTF-8.
+     */
+    public static class StringCodec implements Codec<String> {
+        public int sizeOf(String s) {
+            int size = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    size++;
+                } else if (c < 0x800) {
+                    size += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    size += 4;
+                    i++;
+                } else {
+                    size += 3;
+                }
+            }
+            
+            return size;
+        }
+        
+        public void encode(String s, ByteBuffer buffer) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | (c >> 6)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | (cp >> 18)));
+                    buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    buffer.put((byte) (0xE0 | (c >> 12)));
+                    buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+        
+        public String decode(ByteBuffer buffer, int length) {
+            char[] chars = new char[length];
+            int count = 0;
+            int end = buffer.position() + length;
+            while (buffer.position() < end) {
+                int b = buffer.get() & 0xFF;
+                if (b < 0x80) {
+                    chars[count++] = (char) b;
+                } else if (b < 0xE0) {
+                    chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+                } else if (b < 0xF0) {
+                    chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+                } else {
+                    int cp = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F);
+                    count += Character.toChars(cp, chars, count);
+                }
+            }
+            
+            return new String(chars, 0, count);
+        }
+    }
+    
+    /**
+     * Encodes byte arrays as they are.
+     */
+    public static class ByteArrayCodec implements Codec<byte[]> {
+        public int sizeOf(byte[] bytes) {
+            return bytes.length;
+        }
+        
+        public void encode(byte[] bytes, ByteBuffer buffer) {
+            buffer.put(bytes);
+        }
+        
+        public byte[] decode(ByteBuffer buffer, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+    
+    /**
+     * Encodes files as their paths.
+     */
+    public static class FileCodec implements Codec<File> {
+        private final StringCodec strings = new StringCodec();
+        
+        public int sizeOf(File file) {
+            return strings.sizeOf(file.getPath());
+        }
+        
+        public void encode(File file, ByteBuffer buffer) {
+            strings.encode(file.getPath(), buffer);
+        }
+        
+        public File decode(ByteBuffer buffer, int length) {
+            return new File(strings.decode(buffer, length));
+        }
+    }
+    
+    /**
+     * Encodes longs as eight bytes.
+     */
+    public static class LongCodec implements Codec<Long> {
+        public int sizeOf(Long value) {
+            return 8;
+        }
+        
+        public void encode(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+        
+        public Long decode(ByteBuffer buffer, int length) {
+            return buffer.getLong();
+        }
+    }
+    
+    /**
+     * Encodes integers as four bytes.
+     */
+    public static class IntegerCodec implements Codec<Integer> {
+        public int sizeOf(Integer value) {
+            return 4;
+        }
+        
+        public void encode(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+        
+        public Integer decode(ByteBuffer buffer, int length) {
+            return buffer.getInt();
+        }
+    }
+    
+    /**
+     * Encodes shorts as two bytes.
+     */
+    public static class ShortCodec implements Codec<Short> {
+        public int sizeOf(Short value) {
+            return 2;
+        }
+        
+        public void encode(Short value, ByteBuffer buffer) {
+            buffer.putShort(value);
+        }
+        
+        public Short decode(ByteBuffer buffer, int length) {
+            return buffer.getShort();
+        }
+    }
+    
+    /**
+     * Encodes bytes as one byte.
+     */
+    public static class ByteCodec implements Codec<Byte> {
+        public int sizeOf(Byte value) {
+            return 1;
+        }
+        
+        public void encode(Byte value, ByteBuffer buffer) {
+            buffer.put(value);
+        }
+        
+        public Byte decode(ByteBuffer buffer, int length) {
+            return buffer.get();
+        }
+    }
+    
+    /**
+     * Encodes doubles as eight bytes.
+     */
+    public static class DoubleCodec implements Codec<Double> {
+        public int sizeOf(Double value) {
+            return 8;
+        }
+        
+        public void encode(Double value, ByteBuffer buffer) {
+            buffer.putDouble(value);
+        }
+        
+        public Double decode(ByteBuffer buffer, int length) {
+            return buffer.getDouble();
+        }
+    }
+    
+    /**
+     * Encodes floats as four bytes.
+     */
+    public static class FloatCodec implements Codec<Float> {
+        public int sizeOf(Float value) {
+            return 4;
+        }
+        
+        public void encode(Float value, ByteBuffer buffer) {
+            buffer.putFloat(value);
+        }
+        
+        public Float decode(ByteBuffer buffer, int length) {
+            return buffer.getFloat();
+        }
+    }
+    
+    /**
+     * Encodes characters as two bytes.
+     */
+    public static class CharacterCodec implements Codec<Character> {
+        public int sizeOf(Character value) {
+            return 2;
+        }
+        
+        public void encode(Character value, ByteBuffer buffer) {
+            buffer.putChar(value);
+        }
+        
+        public Character decode(ByteBuffer buffer, int length) {
+            return buffer.getChar();
+        }
+    }
+    
+    /**
+     * Encodes booleans as one byte.
+     */
+    public static class BooleanCodec implements Codec<Boolean> {
+        public int sizeOf(Boolean value) {
+            return 1;
+        }
+        
+        public void encode(Boolean value, ByteBuffer buffer) {
+            buffer.put(value ? (byte) 1 : (byte) 0);
+        }
+        
+        public Boolean decode(ByteBuffer buffer, int length) {
+            return buffer.get() != 0;
+        }
+    }
+    
+    /**
+     * Encodes serializable objects with Java object serialization. This is
+     * much slower and more verbose than a dedicated codec, and is intended
+     * as a fallback for types for which no codec has been registered. The
+     * bytes serialized by {@link #sizeOf} are kept for the calling thread, so
+     * that encoding the same object immediately afterwards does not serialize
+     * it again.
+     */
+    public static class SerializableCodec implements Codec<Serializable> {
+        //the object last measured on each thread and its serialized form
+        private final ThreadLocal<Object[]> measured = new ThreadLocal<Object[]>() {
+            protected Object[] initialValue() {
+                return new Object[2];
+            }
+        };
+        
+        public int sizeOf(Serializable obj) {
+            byte[] bytes = serialize(obj);
+            Object[] cached = measured.get();
+            cached[0] = obj;
+            cached[1] = bytes;
+            return bytes.length;
+        }
+        
+        public void encode(Serializable obj, ByteBuffer buffer) {
+            Object[] cached = measured.get();
+            byte[] bytes = cached[0] == obj ? (byte[]) cached[1] : serialize(obj);
+            cached[0] = null;
+            cached[1] = null;
+            buffer.put(bytes);
+        }
+        
+        public Serializable decode(ByteBuffer buffer, int length) {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            try {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                return (Serializable) in.readObject();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to deserialize object.", e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Class of serialized object not found.", e);
+            }
+        }
+        
+        private byte[] serialize(Serializable obj) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(obj);
+                out.close();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to serialize object " + obj, e);
+            }
+        }
+    }
+}
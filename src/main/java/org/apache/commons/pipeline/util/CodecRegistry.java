@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry of {@link Codec}s keyed by the class of the objects they encode,
+ * which reads and writes objects of any registered type in a common
+ * length-prefixed framing format. Each frame consists of:
+ * <ol>
+ * <li>the length of the encoded object in bytes, as a four-byte integer;</li>
+ * <li>the type id of the object's codec, as a two-byte unsigned integer;</li>
+ * <li>the encoded object.</li>
+ * </ol>
+ * All integers are big-endian. The type id identifies the codec used to
+ * decode the frame, so the registries that write and read a frame must
+ * register the same codecs under the same ids.
+ *
+ * <p>The codec for an object is the one registered for its class or, failing
+ * that, for the nearest superclass or interface; the result of the search is
+ * cached. If no codec is found and the object is serializable, it is encoded
+ * with Java serialization under type id 0, unless the fallback has been
+ * disabled. The built-in codecs for strings, byte arrays, files and the
+ * primitive wrapper types use type ids 1 to 11; ids from 256 up are left for
+ * applications. Codecs should be registered before the registry is used.</p>
+ */
+public class CodecRegistry {
+    /**
+     * The size in bytes of the header preceding each encoded object in a frame.
+     */
+    public static final int FRAME_HEADER = 6;
+    
+    /**
+     * The type id of objects encoded with Java serialization.
+     */
+    public static final int SERIALIZABLE_ID = 0;
+    
+    private static final CodecRegistry DEFAULT = new CodecRegistry(true);
+    
+    //codecs by the class for which they were registered
+    private final ConcurrentMap<Class<?>, Entry> registered = new ConcurrentHashMap<Class<?>, Entry>();
+    
+    //codecs by class, including classes resolved to a codec registered for a supertype
+    private final ConcurrentMap<Class<?>, Entry> byClass = new ConcurrentHashMap<Class<?>, Entry>();
+    
+    //codecs by type id
+    private volatile Entry[] byId = new Entry[0];
+    
+    private final Entry serializable = new Entry(SERIALIZABLE_ID, new Codec.SerializableCodec());
+    
+    private volatile boolean fallback = true;
+    
+    /**
+     * A codec and its type id.
+     */
+    private static class Entry {
+        private final int id;
+        private final Codec<Object> codec;
+        
+        @SuppressWarnings("unchecked")
+        Entry(int id, Codec<?> codec) {
+            this.id = id;
+            this.codec = (Codec<Object>) codec;
+        }
+    }
+    
+    /**
+     * Creates a new, empty registry.
+     */
+    public CodecRegistry() {
+        this(false);
+    }
+    
+    /**
+     * Creates a new registry.
+     * @param builtIns if true, the built-in codecs are registered
+     */
+    public CodecRegistry(boolean builtIns) {
+        if (builtIns) {
+            register(1, String.class, new Codec.StringCodec());
+            register(2, byte[].class, new Codec.ByteArrayCodec());
+            register(3, File.class, new Codec.FileCodec());
+            register(4, Long.class, new Codec.LongCodec());
+            register(5, Integer.class, new Codec.IntegerCodec());
+            register(6, Short.class, new Codec.ShortCodec());
+            register(7, Byte.class, new Codec.ByteCodec());
+            register(8, Double.class, new Codec.DoubleCodec());
+            register(9, Float.class, new Codec.FloatCodec());
+            register(10, Character.class, new Codec.CharacterCodec());
+            register(11, Boolean.class, new Codec.BooleanCodec());
+        }
+    }
+    
+    /**
+     * Returns the shared registry holding the built-in codecs. Applications
+     * may register further codecs with it.
+     */
+    public static CodecRegistry getDefault() {
+        return DEFAULT;
+    }
+    
+    /**
+     * Registers a codec for objects of the specified class and its subclasses.
+     * @param id the type id written in frames for objects encoded by the codec,
+     * between 1 and 65535
+     * @throws IllegalStateException if another codec is registered under the id
+     */
+    public synchronized <T> void register(int id, Class<T> type, Codec<? super T> codec) {
+        if (id < 1 || id > 0xFFFF) throw new IllegalArgumentException("Type id must be between 1 and 65535.");
+        if (type == null || codec == null) throw new IllegalArgumentException("Type and codec may not be null.");
+        
+        Entry[] ids = this.byId;
+        if (id < ids.length && ids[id] != null && ids[id].codec != codec) {
+            throw new IllegalStateException("Another codec is already registered with type id " + id);
+        }
+        
+        Entry entry = new Entry(id, codec);
+        if (id >= ids.length) {
+            Entry[] grown = new Entry[id + 1];
+            System.arraycopy(ids, 0, grown, 0, ids.length);
+            ids = grown;
+        } else {
+            ids = ids.clone();
+        }
+        ids[id] = entry;
+        this.byId = ids;
+        
+        registered.put(type, entry);
+        
+        //classes resolved to a supertype's codec may now resolve differently
+        byClass.clear();
+        byClass.putAll(registered);
+    }
+    
+    /**
+     * Returns the codec that would be used for objects of the specified class.
+     * @throws IllegalArgumentException if there is no codec for the class
+     */
+    public Codec<Object> getCodec(Class<?> type) {
+        return lookup(type).codec;
+    }
+    
+    /**
+     * Returns the number of bytes needed to frame the specified object.
+     */
+    public int frameSize(Object obj) {
+        return FRAME_HEADER + lookup(obj.getClass()).codec.sizeOf(obj);
+    }
+    
+    /**
+     * Writes the specified object as a frame at the buffer's position.
+     * @throws java.nio.BufferOverflowException if the buffer has too little space remaining
+     */
+    public void writeFrame(Object obj, ByteBuffer buffer) {
+        Entry entry = lookup(obj.getClass());
+        int size = entry.codec.sizeOf(obj);
+        if (buffer.remaining() < FRAME_HEADER + size) throw new BufferOverflowException();
+        
+        buffer.putInt(size);
+        buffer.putShort((short) entry.id);
+        int start = buffer.position();
+        entry.codec.encode(obj, buffer);
+        if (buffer.position() != start + size) {
+            throw new IllegalStateException("Codec for " + obj.getClass().getName() + " wrote "
+                    + (buffer.position() - start) + " bytes rather than the " + size + " it reported.");
+        }
+    }
+    
+    /**
+     * Reads the frame at the buffer's position and returns the decoded object.
+     * @throws BufferUnderflowException if the buffer does not hold the whole frame
+     * @throws IllegalArgumentException if the frame's type id is not registered
+     */
+    public Object readFrame(ByteBuffer buffer) {
+        if (!hasFrame(buffer)) throw new BufferUnderflowException();
+        
+        int size = buffer.getInt();
+        int id = buffer.getShort() & 0xFFFF;
+        Entry entry;
+        if (id == SERIALIZABLE_ID) {
+            entry = serializable;
+        } else {
+            Entry[] ids = this.byId;
+            entry = id < ids.length ? ids[id] : null;
+            if (entry == null) throw new IllegalArgumentException("No codec is registered with type id " + id);
+        }
+        
+        int end = buffer.position() + size;
+        Object obj = entry.codec.decode(buffer, size);
+        buffer.position(end);
+        return obj;
+    }
+    
+    /**
+     * Returns true if a whole frame is available at the buffer's position.
+     */
+    public static boolean hasFrame(ByteBuffer buffer) {
+        return buffer.remaining() >= FRAME_HEADER && buffer.remaining() - FRAME_HEADER >= buffer.getInt(buffer.position());
+    }
+    
+    /**
+     * Returns the specified object as a frame in a new byte array.
+     */
+    public byte[] toBytes(Object obj) {
+        byte[] bytes = new byte[frameSize(obj)];
+        writeFrame(obj, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+    
+    /**
+     * Decodes the object framed in the specified byte array.
+     */
+    public Object fromBytes(byte[] bytes) {
+        return readFrame(ByteBuffer.wrap(bytes));
+    }
+    
+    /**
+     * Returns whether serializable objects without a registered codec are
+     * encoded with Java serialization.
+     */
+    public boolean isFallback() {
+        return this.fallback;
+    }
+    
+    /**
+     * Sets whether serializable objects without a registered codec are
+     * encoded with Java serialization. Frames encoded that way can always be
+     * read.
+     */
+    public void setFallback(boolean fallback) {
+        this.fallback = fallback;
+    }
+    
+    /**
+     * Finds the codec for the specified class.
+     */
+    private Entry lookup(Class<?> type) {
+        Entry entry = byClass.get(type);
+        if (entry != null) return entry;
+        
+        entry = search(type);
+        if (entry != null) {
+            byClass.put(type, entry);
+            return entry;
+        }
+        
+        if (fallback && Serializable.class.isAssignableFrom(type)) return serializable;
+        throw new IllegalArgumentException("No codec is registered for " + type.getName());
+    }
+    
+    /**
+     * Returns the codec registered for the nearest superclass or interface
+     * of the specified class, or null if there is none.
+     */
+    private Entry search(Class<?> type) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            Entry entry = registered.get(c);
+            if (entry != null) return entry;
+        }
+        
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                Entry entry = registered.get(i);
+                if (entry == null) entry = search(i);
+                if (entry != null) return entry;
+            }
+        }
+        
+        return null;
+    }
+}
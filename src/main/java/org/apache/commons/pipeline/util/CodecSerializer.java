@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+
+/**
+ * Serializer that writes objects as frames of a {@link CodecRegistry}, so that
+ * objects of registered types are encoded by their codecs and other
+ * serializable objects by Java serialization.
+ */
+public class CodecSerializer<T> implements Serializer<T> {
+    private final CodecRegistry registry;
+    
+    /**
+     * Creates a new CodecSerializer that uses the default registry.
+     */
+    public CodecSerializer() {
+        this(CodecRegistry.getDefault());
+    }
+    
+    /**
+     * Creates a new CodecSerializer that uses the specified registry.
+     */
+    public CodecSerializer(CodecRegistry registry) {
+        if (registry == null) throw new IllegalArgumentException("Registry may not be null.");
+        this.registry = registry;
+    }
+    
+    public byte[] serialize(T obj) throws IOException {
+        try {
+            return registry.toBytes(obj);
+        } catch (IllegalArgumentException e) {
+            throw ioException("Unable to encode object " + obj, e);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public T deserialize(byte[] bytes) throws IOException {
+        try {
+            return (T) registry.fromBytes(bytes);
+        } catch (IllegalArgumentException e) {
+            throw ioException("Unable to decode object.", e);
+        } catch (BufferUnderflowException e) {
+            throw ioException("Truncated frame of " + bytes.length + " bytes.", e);
+        }
+    }
+    
+    /**
+     * Returns the registry used by this serializer.
+     */
+    public CodecRegistry getRegistry() {
+        return this.registry;
+    }
+    
+    private static IOException ioException(String message, Throwable cause) {
+        IOException e = new IOException(message);
+        e.initCause(cause);
+        return e;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import org.apache.commons.pipeline.Feeder;
+
+/**
+ * A {@link Feeder} that counts the objects fed to it before passing them on to
+ * another feeder. Set as the terminal feeder of a pipeline, it measures the
+ * number of objects that have made it all the way through the pipeline.
+ */
+public class CountingFeeder implements Feeder {
+    //the feeder to which objects are passed
+    private final Feeder feeder;
+    
+    //the number of objects fed
+    private final StripedCounter count = new StripedCounter();
+    
+    /**
+     * Creates a new CountingFeeder that discards the objects it counts.
+     */
+    public CountingFeeder() {
+        this(Feeder.VOID);
+    }
+    
+    /**
+     * Creates a new CountingFeeder that passes the objects it counts to the
+     * specified feeder.
+     * @param feeder the feeder to which counted objects are passed
+     */
+    public CountingFeeder(Feeder feeder) {
+        if (feeder == null) throw new IllegalArgumentException("Feeder may not be null.");
+        this.feeder = feeder;
+    }
+    
+    /**
+     * Passes the object on to the wrapped feeder, then counts it.
+     */
+    public void feed(Object obj) {
+        this.feeder.feed(obj);
+        this.count.increment();
+    }
+    
+    /**
+     * Returns the number of objects that have been fed to this feeder.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+    
+    /**
+     * Returns the feeder to which counted objects are passed.
+     */
+    public Feeder getFeeder() {
+        return this.feeder;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+/**
+ * Hash functions shared by the key set implementations.
+ */
+final class Hashing {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    
+    private Hashing() {
+    }
+    
+    /**
+     * Returns a well-distributed 64-bit hash of the specified bytes.
+     */
+    static long hash64(byte[] bytes) {
+        long h = SEED ^ bytes.length;
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            long k = 0;
+            for (int j = 7; j >= 0; j--) k = (k << 8) | (bytes[i + j] & 0xFFL);
+            h = Long.rotateLeft(h ^ mix(k), 27) * 5 + 0x52DCE729L;
+        }
+        
+        long k = 0;
+        for (int j = bytes.length - 1; j >= i; j--) k = (k << 8) | (bytes[j] & 0xFFL);
+        return mix(h ^ mix(k));
+    }
+    
+    /**
+     * The finalization step of MurmurHash3, which spreads every input bit
+     * over the whole result.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+/**
+ * A set of keys in serialized form, used to detect keys that have been seen
+ * before. Implementations may be approximate, in which case {@link #add(byte[])}
+ * may occasionally report a key that has not been seen as already present,
+ * but never the reverse.
+ */
+public interface KeySet {
+    /**
+     * Adds the key to the set.
+     * @return true if the key was not already present, false if it was
+     * (or, for an approximate set, may have been) present
+     */
+    public boolean add(byte[] key);
+    
+    /**
+     * Returns the number of keys that have been added.
+     */
+    public long size();
+    
+    /**
+     * Returns the number of bytes of memory, on or off the heap, allocated
+     * to hold the keys.
+     */
+    public long getMemoryUsage();
+}
@@ -0,0 +1,695 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.trace.TracedObject;
+
+/**
+ * A BlockingQueue whose contents are kept in memory-mapped files, so that
+ * objects queued when the JVM exits or crashes are still queued when the
+ * queue is reopened on the same directory.
+ *
+ * <p>Objects are serialized by a {@link Serializer} and appended to segment
+ * files of a fixed size. Each record consists of its length, the low 32 bits
+ * of the sequence number of its segment, a CRC32 checksum of these and of the
+ * serialized object, and the serialized object itself. A record is valid only
+ * if it carries the sequence number of its segment and its checksum matches,
+ * so a record left partially written by a crash, or leftover bytes in a
+ * reused segment file, are never taken for a record. The position of the next
+ * record to be taken is kept in a separate mapped file and is updated as each
+ * object is taken, so an object that has been taken but not yet processed
+ * when the JVM crashes is not delivered again.</p>
+ *
+ * <p>Once every record of a segment has been taken, the segment file is kept
+ * for reuse by a later segment, up to the maximum number of free segments,
+ * and deleted otherwise. Because records carry the sequence number of their
+ * segment and a checksum, stale records in a reused file are never mistaken
+ * for new ones and reused files need not be cleared.</p>
+ *
+ * <p>The queue holds a lock on a file in its directory until it is closed,
+ * so that the directory cannot be opened by a second queue, whether in the
+ * same JVM or in another process.</p>
+ *
+ * <p>Writes to mapped files survive a crash of the JVM but, unless sync is
+ * set, not a crash of the operating system. Traces cannot be carried through
+ * the queue, so {@link TracedObject}s are unwrapped before being stored.
+ * Objects are serialized and deserialized outside the queue's lock.</p>
+ */
+public class MappedBlockingQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private static final Log log = LogFactory.getLog(MappedBlockingQueue.class);
+    
+    //size of the header preceding each record: length, segment tag and checksum
+    private static final int HEADER = 12;
+    
+    //length recorded in the header that marks the end of the records in a segment
+    private static final int END_OF_SEGMENT = -1;
+    
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String POSITION_FILE = "position";
+    private static final String LOCK_FILE = "lock";
+    
+    private static final byte[] NO_BYTES = new byte[0];
+    
+    private final File directory;
+    private final int segmentSize;
+    private final int capacity;
+    private final Serializer<T> serializer;
+    private final int maxFreeSegments;
+    private final boolean sync;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    
+    //segments holding records, from the one being read to the one being written
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    
+    //consumed segment files available for reuse
+    private final LinkedList<Segment> free = new LinkedList<Segment>();
+    
+    //mapped file holding the read position
+    private final MappedByteBuffer position;
+    
+    private int readOffset;
+    private int writeOffset;
+    private int count;
+    private boolean closed;
+    
+    //whether the queue's files did not exist when it was opened
+    private final boolean newlyCreated;
+    
+    //lock held on the directory while the queue is open
+    private final RandomAccessFile lockFile;
+    private final FileLock directoryLock;
+    
+    /**
+     * A mapped segment file.
+     */
+    private static class Segment {
+        private long sequence;
+        private File file;
+        private final MappedByteBuffer buffer;
+        
+        Segment(long sequence, File file, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.file = file;
+            this.buffer = buffer;
+        }
+        
+        int tag() {
+            return (int) sequence;
+        }
+        
+        /**
+         * Returns true if a valid record or end-of-segment marker starts at
+         * the specified offset, that is if it carries the tag of this segment
+         * and its checksum matches.
+         */
+        boolean isValid(int offset) {
+            if (offset + HEADER > buffer.capacity() || buffer.getInt(offset + 4) != tag()) return false;
+            int length = buffer.getInt(offset);
+            byte[] bytes;
+            if (length == END_OF_SEGMENT) {
+                bytes = NO_BYTES;
+            } else if (length >= 0 && offset + HEADER + length <= buffer.capacity()) {
+                bytes = read(offset);
+            } else {
+                return false;
+            }
+            
+            return buffer.getInt(offset + 8) == checksum(length, tag(), bytes);
+        }
+        
+        /**
+         * Returns the bytes of the record at the specified offset.
+         */
+        byte[] read(int offset) {
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            
+            //copy through a duplicate so that the position of the shared buffer is not changed
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + HEADER);
+            record.get(bytes);
+            return bytes;
+        }
+        
+        /**
+         * Writes a record or end-of-segment marker at the specified offset.
+         * The tag is written last, so that the record is not valid until it
+         * is complete.
+         */
+        void write(int offset, int length, byte[] bytes) {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + HEADER);
+            record.put(bytes);
+            buffer.putInt(offset + 8, checksum(length, tag(), bytes));
+            buffer.putInt(offset, length);
+            buffer.putInt(offset + 4, tag());
+        }
+    }
+    
+    /**
+     * Opens the queue stored in the specified directory, creating it if it
+     * does not exist, and restores any objects queued when it was last used.
+     * @param directory the directory holding the queue's files
+     * @param segmentSize the size in bytes of each segment file, which limits
+     * the size of the serialized objects
+     * @param capacity the maximum number of objects in the queue
+     * @param serializer the serializer for the objects in the queue
+     * @param maxFreeSegments the number of consumed segment files kept for reuse
+     * @param sync if true, writes are forced to the storage device as each
+     * object is added or taken
+     * @throws IOException if the queue's files cannot be created or read
+     */
+    public MappedBlockingQueue(File directory, int segmentSize, int capacity, Serializer<T> serializer,
+            int maxFreeSegments, boolean sync) throws IOException {
+        if (segmentSize < 4 * HEADER) throw new IllegalArgumentException("Segment size must be at least " + 4 * HEADER + " bytes.");
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive.");
+        if (serializer == null) throw new IllegalArgumentException("Serializer may not be null.");
+        if (maxFreeSegments < 0) throw new IllegalArgumentException("Maximum number of free segments may not be negative.");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Unable to create queue directory " + directory);
+        
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.capacity = capacity;
+        this.serializer = serializer;
+        this.maxFreeSegments = maxFreeSegments;
+        this.sync = sync;
+        
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock directoryLock = null;
+        try {
+            directoryLock = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            //held by another queue in this JVM
+        } finally {
+            if (directoryLock == null) lockFile.close();
+        }
+        if (directoryLock == null) throw new IOException("Queue directory " + directory + " is in use by another queue.");
+        this.directoryLock = directoryLock;
+        
+        boolean opened = false;
+        try {
+            File positionFile = new File(directory, POSITION_FILE);
+            this.newlyCreated = !positionFile.exists();
+            this.position = map(positionFile, 8);
+            recover();
+            opened = true;
+        } finally {
+            if (!opened) releaseDirectory();
+        }
+    }
+    
+    /**
+     * Maps the existing segment files, discards those already consumed,
+     * and counts the records between the read position and the end of the
+     * last valid record.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        
+        List<Long> sequences = new ArrayList<Long>();
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                sequences.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring unrecognized file " + file + " in queue directory.");
+            }
+        }
+        Collections.sort(sequences);
+        
+        long stored = position.getLong(0);
+        long readSequence = stored >>> 32;
+        this.readOffset = (int) stored;
+        
+        for (Long sequence : sequences) {
+            File file = segmentFile(sequence);
+            if (file.length() != segmentSize) {
+                throw new IOException("Segment file " + file + " does not have the configured segment size of " + segmentSize + " bytes.");
+            }
+            
+            Segment segment = new Segment(sequence, file, map(file, segmentSize));
+            if (sequence < readSequence) {
+                recycle(segment);
+            } else {
+                segments.add(segment);
+            }
+        }
+        
+        if (segments.isEmpty() || segments.getFirst().sequence != readSequence) {
+            //no record has been taken from the first remaining segment
+            this.readOffset = 0;
+            if (segments.isEmpty()) segments.add(newSegment(readSequence == 0 ? 1 : readSequence));
+            savePosition();
+        }
+        
+        //count the valid records from the read position on
+        int offset = readOffset;
+        for (Iterator<Segment> i = segments.iterator(); i.hasNext();) {
+            Segment segment = i.next();
+            while (segment.isValid(offset) && segment.buffer.getInt(offset) != END_OF_SEGMENT) {
+                count++;
+                offset += HEADER + segment.buffer.getInt(offset);
+            }
+            
+            if (i.hasNext()) {
+                if (!segment.isValid(offset)) log.warn("Segment " + segment.file + " ends without a valid end-of-segment marker.");
+                offset = 0;
+            }
+        }
+        
+        this.writeOffset = offset;
+        if (count > 0) log.info("Restored " + count + " queued objects from " + directory);
+    }
+    
+    /**
+     * Adds the specified object to the queue, waiting up to the specified
+     * time for space to become available.
+     */
+    public boolean offer(T obj, long timeout, TimeUnit unit) throws InterruptedException {
+        byte[] bytes = serialize(obj);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            
+            append(bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public boolean offer(T obj) {
+        byte[] bytes = serialize(obj);
+        lock.lock();
+        try {
+            if (count >= capacity) return false;
+            append(bytes);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public void put(T obj) throws InterruptedException {
+        byte[] bytes = serialize(obj);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) notFull.await();
+            append(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        byte[] bytes;
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            
+            bytes = removeRecord();
+        } finally {
+            lock.unlock();
+        }
+        
+        return deserialize(bytes);
+    }
+    
+    public T poll() {
+        byte[] bytes;
+        lock.lock();
+        try {
+            if (count == 0) return null;
+            bytes = removeRecord();
+        } finally {
+            lock.unlock();
+        }
+        
+        return deserialize(bytes);
+    }
+    
+    public T take() throws InterruptedException {
+        byte[] bytes;
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) notEmpty.await();
+            bytes = removeRecord();
+        } finally {
+            lock.unlock();
+        }
+        
+        return deserialize(bytes);
+    }
+    
+    public T peek() {
+        byte[] bytes;
+        lock.lock();
+        try {
+            if (count == 0) return null;
+            checkOpen();
+            skipEndOfSegment();
+            bytes = segments.getFirst().read(readOffset);
+        } finally {
+            lock.unlock();
+        }
+        
+        return deserialize(bytes);
+    }
+    
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+    
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) throw new IllegalArgumentException("Cannot drain a queue into itself.");
+        int drained = 0;
+        for (T obj; drained < maxElements && (obj = poll()) != null; drained++) c.add(obj);
+        return drained;
+    }
+    
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns an iterator over a snapshot of the objects in the queue. The
+     * iterator does not support removal.
+     */
+    public Iterator<T> iterator() {
+        List<byte[]> records = new ArrayList<byte[]>();
+        lock.lock();
+        try {
+            checkOpen();
+            int offset = readOffset;
+            for (Segment segment : segments) {
+                while (records.size() < count && segment.isValid(offset) && segment.buffer.getInt(offset) != END_OF_SEGMENT) {
+                    byte[] bytes = segment.read(offset);
+                    records.add(bytes);
+                    offset += HEADER + bytes.length;
+                }
+                offset = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+        
+        List<T> snapshot = new ArrayList<T>(records.size());
+        for (byte[] bytes : records) snapshot.add(deserialize(bytes));
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+    
+    /**
+     * Forces all changes to the storage device, closes the queue and releases
+     * its directory. Objects still queued are restored when the queue is
+     * reopened.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            for (Segment segment : segments) segment.buffer.force();
+            position.force();
+            segments.clear();
+            free.clear();
+            releaseDirectory();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the directory holding the queue's files.
+     */
+    public File getDirectory() {
+        return this.directory;
+    }
+    
+    /**
+     * Returns true if the queue's files did not exist when the queue was
+     * opened, so that the queue has not been used before.
+     */
+    public boolean isNewlyCreated() {
+        return this.newlyCreated;
+    }
+    
+    /**
+     * Returns the number of segment files currently holding records.
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of consumed segment files kept for reuse.
+     */
+    public int getFreeSegmentCount() {
+        lock.lock();
+        try {
+            return free.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Appends a record, starting a new segment if it does not fit in the
+     * current one. Must be called with the lock held.
+     */
+    private void append(byte[] bytes) {
+        checkOpen();
+        
+        //room must remain for the end-of-segment marker
+        if (HEADER + bytes.length > segmentSize - HEADER) {
+            throw new IllegalArgumentException("Serialized object of " + bytes.length
+                    + " bytes is too large for segments of " + segmentSize + " bytes.");
+        }
+        
+        Segment segment = segments.getLast();
+        if (writeOffset + HEADER + bytes.length > segmentSize - HEADER) {
+            segment.write(writeOffset, END_OF_SEGMENT, NO_BYTES);
+            if (sync) segment.buffer.force();
+            
+            try {
+                segment = newSegment(segment.sequence + 1);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create a new segment in " + directory, e);
+            }
+            segments.add(segment);
+            writeOffset = 0;
+        }
+        
+        segment.write(writeOffset, bytes.length, bytes);
+        if (sync) segment.buffer.force();
+        
+        writeOffset += HEADER + bytes.length;
+        count++;
+        notEmpty.signal();
+    }
+    
+    /**
+     * Removes the record at the read position and returns its bytes. Must be
+     * called with the lock held when the queue is not empty.
+     */
+    private byte[] removeRecord() {
+        checkOpen();
+        skipEndOfSegment();
+        
+        byte[] bytes = segments.getFirst().read(readOffset);
+        readOffset += HEADER + bytes.length;
+        savePosition();
+        
+        count--;
+        notFull.signal();
+        return bytes;
+    }
+    
+    /**
+     * Moves the read position to the next segment if it is at the end of the
+     * current one, recycling the consumed segment.
+     */
+    private void skipEndOfSegment() {
+        Segment head = segments.getFirst();
+        if (head.buffer.getInt(readOffset) == END_OF_SEGMENT && head.isValid(readOffset)) {
+            segments.removeFirst();
+            readOffset = 0;
+            savePosition();
+            recycle(head);
+        }
+    }
+    
+    private void savePosition() {
+        position.putLong(0, (segments.getFirst().sequence << 32) | readOffset);
+        if (sync) position.force();
+    }
+    
+    /**
+     * Keeps a consumed segment for reuse, or deletes it if enough are kept.
+     */
+    private void recycle(Segment segment) {
+        if (free.size() < maxFreeSegments) {
+            free.add(segment);
+        } else if (!segment.file.delete()) {
+            log.warn("Unable to delete consumed segment file " + segment.file);
+        }
+    }
+    
+    /**
+     * Returns a segment with the specified sequence number, reusing a free
+     * segment file if there is one.
+     */
+    private Segment newSegment(long sequence) throws IOException {
+        File file = segmentFile(sequence);
+        while (!free.isEmpty()) {
+            Segment segment = free.removeFirst();
+            if (segment.file.renameTo(file)) {
+                segment.sequence = sequence;
+                segment.file = file;
+                return segment;
+            }
+            
+            if (!segment.file.delete()) log.warn("Unable to delete consumed segment file " + segment.file);
+        }
+        
+        return new Segment(sequence, file, map(file, segmentSize));
+    }
+    
+    private File segmentFile(long sequence) {
+        return new File(directory, SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+    }
+    
+    /**
+     * Maps the specified file, creating it with the specified size if it
+     * does not exist.
+     */
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) raf.setLength(size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+    
+    /**
+     * Returns the CRC32 checksum of a record's length, tag and bytes.
+     */
+    private static int checksum(int length, int tag, byte[] bytes) {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(length).putInt(tag);
+        
+        CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, 8);
+        crc.update(bytes, 0, bytes.length);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Releases the lock on the queue's directory.
+     */
+    private void releaseDirectory() {
+        try {
+            directoryLock.release();
+            lockFile.close();
+        } catch (IOException e) {
+            log.warn("Unable to release the lock on queue directory " + directory, e);
+        }
+    }
+    
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("Queue in " + directory + " has been closed.");
+    }
+    
+    @SuppressWarnings("unchecked")
+    private byte[] serialize(T obj) {
+        if (obj == null) throw new NullPointerException();
+        Object payload = obj instanceof TracedObject ? ((TracedObject) obj).getPayload() : obj;
+        try {
+            return serializer.serialize((T) payload);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to serialize object " + obj, e);
+        }
+    }
+    
+    private T deserialize(byte[] bytes) {
+        try {
+            return serializer.deserialize(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to deserialize object from queue in " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.PipelineLifecycleJob;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.trace.Trace;
+
+/**
+ * Merges the objects fed to several inputs into a single stream fed to one
+ * output feeder, so that the outputs of several branches can be joined and
+ * processed by a common downstream pipeline. Each input, typically set as the
+ * terminal feeder of a branch, has a bounded buffer, and a single merge thread
+ * takes objects from the buffers in weighted round-robin order: in each round,
+ * up to <em>weight</em> objects are taken from each input. When every input
+ * has the same weight, the inputs are interleaved fairly; a producer blocks
+ * only when the buffer of its own input is full.
+ *
+ * <p>The merge reaches the end of its stream once every input has been closed
+ * and its buffered objects passed on. An input can be closed explicitly, or
+ * by registering it as a lifecycle job of the pipeline that feeds it, in which
+ * case it is closed when that pipeline finishes.</p>
+ *
+ * <p>The MergeFeeder itself should be registered as a lifecycle job of the
+ * pipeline that owns the inputs' pipelines, usually the root pipeline of a
+ * diamond-shaped topology. It starts the merge thread, and the downstream
+ * pipeline if one was supplied, when that pipeline starts. When that pipeline
+ * finishes, after all of its branches, it closes any inputs that are still
+ * open, waits for the end of the stream and then finishes the downstream
+ * pipeline.</p>
+ */
+public class MergeFeeder implements PipelineLifecycleJob {
+    /**
+     * The default number of objects each input can buffer.
+     */
+    public static final int DEFAULT_INPUT_CAPACITY = 256;
+    
+    //milliseconds a blocked feed waits between checks for a failed output
+    private static final long FAILURE_CHECK_INTERVAL = 100;
+    
+    private static final Log log = LogFactory.getLog(MergeFeeder.class);
+    
+    //the feeder to which merged objects are passed
+    private final Feeder output;
+    
+    //the pipeline fed by the output feeder, or null if it is not managed by this merge
+    private final Pipeline downstream;
+    
+    private final List<Input> inputs = new ArrayList<Input>();
+    
+    //number of objects buffered over all inputs
+    private final AtomicInteger pending = new AtomicInteger();
+    
+    //counted down once every input is closed and drained
+    private final CountDownLatch complete = new CountDownLatch(1);
+    
+    private volatile Thread merger;
+    
+    private volatile RuntimeException failure;
+    
+    /**
+     * Creates a new MergeFeeder that passes merged objects to the specified feeder.
+     * @param output the feeder to which merged objects are passed
+     */
+    public MergeFeeder(Feeder output) {
+        if (output == null) throw new IllegalArgumentException("Output feeder may not be null.");
+        this.output = output;
+        this.downstream = null;
+    }
+    
+    /**
+     * Creates a new MergeFeeder that passes merged objects to the source feeder
+     * of the specified pipeline, and starts and finishes that pipeline along
+     * with the pipeline with which this merge is registered.
+     * @param downstream the pipeline that processes the merged stream
+     */
+    public MergeFeeder(Pipeline downstream) {
+        if (downstream == null) throw new IllegalArgumentException("Downstream pipeline may not be null.");
+        this.output = downstream.getSourceFeeder();
+        this.downstream = downstream;
+    }
+    
+    /**
+     * Adds an input with a weight of one and the default capacity.
+     * @param name the name of the input, used in log messages
+     */
+    public Input addInput(String name) {
+        return addInput(name, 1, DEFAULT_INPUT_CAPACITY);
+    }
+    
+    /**
+     * Adds an input. Inputs must be added before the merge is started.
+     * @param name the name of the input, used in log messages
+     * @param weight the maximum number of objects taken from the input in each round
+     * @param capacity the number of objects the input can buffer
+     */
+    public synchronized Input addInput(String name, int weight, int capacity) {
+        if (merger != null) throw new IllegalStateException("Inputs may not be added once the merge has started.");
+        if (weight < 1) throw new IllegalArgumentException("Weight must be at least 1.");
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1.");
+        
+        Input input = new Input(name, weight, capacity);
+        inputs.add(input);
+        return input;
+    }
+    
+    /**
+     * Returns the inputs of this merge.
+     */
+    public synchronized List<Input> getInputs() {
+        return Collections.unmodifiableList(new ArrayList<Input>(inputs));
+    }
+    
+    /**
+     * Starts the downstream pipeline, if any, and the merge thread.
+     * @throws StageException if the downstream pipeline cannot be started
+     */
+    public synchronized void start() throws StageException {
+        if (merger != null) throw new IllegalStateException("Merge has already been started.");
+        if (inputs.isEmpty()) throw new IllegalStateException("Merge has no inputs.");
+        
+        if (downstream != null) downstream.start();
+        merger = new Thread(new Merger(inputs.toArray(new Input[inputs.size()])), "MergeFeeder");
+        merger.setDaemon(true);
+        merger.start();
+    }
+    
+    /**
+     * Closes every input, waits until every buffered object has been passed
+     * on and finishes the downstream pipeline, if any.
+     * @throws StageException if the downstream pipeline cannot be finished
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if the output feeder has failed
+     */
+    public void finish() throws StageException, InterruptedException {
+        for (Input input : getInputs()) input.close();
+        awaitCompletion();
+        checkFailure();
+        if (downstream != null) downstream.finish();
+    }
+    
+    /**
+     * Starts the merge when the pipeline with which it is registered starts.
+     */
+    public void onStart(Pipeline pipeline) {
+        try {
+            start();
+        } catch (StageException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    
+    /**
+     * Finishes the merge when the pipeline with which it is registered finishes.
+     */
+    public void onFinish(Pipeline pipeline) {
+        try {
+            finish();
+        } catch (StageException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException("Interrupted while waiting for the merge to complete.", e);
+        }
+    }
+    
+    /**
+     * Waits until every input has been closed and its objects passed on.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        complete.await();
+    }
+    
+    /**
+     * Waits up to the specified time for every input to be closed and its
+     * objects passed on.
+     * @return true if the merge completed, false if the time elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return complete.await(timeout, unit);
+    }
+    
+    /**
+     * Returns true once every input has been closed and its objects passed on.
+     */
+    public boolean isComplete() {
+        return complete.getCount() == 0;
+    }
+    
+    private void checkFailure() {
+        RuntimeException e = this.failure;
+        if (e != null) throw new IllegalStateException("Merged objects could not be fed to " + output + ".", e);
+    }
+    
+    private void wakeMerger() {
+        Thread thread = this.merger;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+    
+    /**
+     * An object fed while its feeding thread had a current trace, which is
+     * restored while the object is passed on so that the trace continues.
+     */
+    private static final class Delivery {
+        private final Object obj;
+        private final Trace trace;
+        
+        Delivery(Object obj, Trace trace) {
+            this.obj = obj;
+            this.trace = trace;
+        }
+    }
+    
+    /**
+     * One of the inputs of the merge. An input is a Feeder, so it can be set
+     * as the terminal feeder of a branch, and a PipelineLifecycleJob that
+     * closes the input when the pipeline with which it is registered finishes.
+     */
+    public final class Input implements Feeder, PipelineLifecycleJob {
+        private final String name;
+        private final int weight;
+        private final BlockingQueue<Object> buffer;
+        private volatile boolean closed;
+        
+        Input(String name, int weight, int capacity) {
+            this.name = name;
+            this.weight = weight;
+            this.buffer = new LinkedBlockingQueue<Object>(capacity);
+        }
+        
+        /**
+         * Buffers the object for merging, waiting for space if the buffer is full.
+         * A feed waiting for space gives up once the output has failed, since the
+         * buffer will never be drained.
+         * @throws IllegalStateException if the input is closed or the output has failed
+         */
+        public void feed(Object obj) {
+            checkFailure();
+            if (closed) throw new IllegalStateException("Merge input " + name + " is closed.");
+            
+            Trace trace = Trace.current();
+            Object item = trace == null ? obj : new Delivery(obj, trace);
+            try {
+                while (!buffer.offer(item, FAILURE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) checkFailure();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Unexpected interrupt while waiting for space to become available for object "
+                        + obj + " in merge input " + name, e);
+            }
+            
+            //the merger may have failed while this feed was waiting
+            if (failure != null) {
+                buffer.remove(item);
+                checkFailure();
+            }
+            
+            if (pending.getAndIncrement() == 0) wakeMerger();
+        }
+        
+        /**
+         * Marks the end of this input's stream. Objects already buffered are
+         * still passed on.
+         */
+        public void close() {
+            closed = true;
+            wakeMerger();
+        }
+        
+        /**
+         * Returns true if this input has been closed.
+         */
+        public boolean isClosed() {
+            return this.closed;
+        }
+        
+        /**
+         * Returns the name of this input.
+         */
+        public String getName() {
+            return this.name;
+        }
+        
+        /**
+         * Returns the maximum number of objects taken from this input in each round.
+         */
+        public int getWeight() {
+            return this.weight;
+        }
+        
+        /**
+         * Returns the number of objects buffered by this input.
+         */
+        public int getBufferedCount() {
+            return buffer.size();
+        }
+        
+        public void onStart(Pipeline pipeline) {
+        }
+        
+        /**
+         * Closes this input when the pipeline feeding it finishes.
+         */
+        public void onFinish(Pipeline pipeline) {
+            close();
+        }
+        
+        public String toString() {
+            return "MergeFeeder.Input[" + name + "]";
+        }
+    }
+    
+    /**
+     * Takes objects from the inputs in weighted round-robin order and passes
+     * them to the output until every input is closed and empty.
+     */
+    private class Merger implements Runnable {
+        private final Input[] inputs;
+        
+        Merger(Input[] inputs) {
+            this.inputs = inputs;
+        }
+        
+        public void run() {
+            try {
+                while (true) {
+                    boolean merged = false;
+                    for (Input input : inputs) {
+                        for (int i = 0; i < input.weight; i++) {
+                            Object obj = input.buffer.poll();
+                            if (obj == null) break;
+                            pending.decrementAndGet();
+                            deliver(obj);
+                            merged = true;
+                        }
+                    }
+                    
+                    if (!merged) {
+                        if (isDrained()) break;
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.error("Merged objects could not be fed to " + output + "; merge halted.", e);
+                failure = e;
+                
+                //discard buffered objects; producers waiting for space see the failure
+                for (Input input : inputs) input.buffer.clear();
+            } finally {
+                complete.countDown();
+            }
+        }
+        
+        /**
+         * Returns true if every input is closed and empty. Inputs are checked
+         * for objects after being found closed, so that objects fed before an
+         * input was closed are not lost.
+         */
+        private boolean isDrained() {
+            for (Input input : inputs) {
+                if (!input.closed) return false;
+            }
+            
+            return pending.get() == 0;
+        }
+        
+        private void deliver(Object obj) {
+            if (obj instanceof Delivery) {
+                Delivery traced = (Delivery) obj;
+                Trace previous = Trace.setCurrent(traced.trace);
+                try {
+                    output.feed(traced.obj);
+                } finally {
+                    Trace.setCurrent(previous);
+                }
+            } else {
+                output.feed(obj);
+            }
+        }
+    }
+}
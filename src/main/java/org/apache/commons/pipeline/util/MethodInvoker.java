@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A MethodInvoker binds a reflective {@link Method} to the shape of the call
+ * that will be made on each processed object, so that the per-method work
+ * (argument checking and access checks) is done once when the invoker is
+ * created instead of on every call.
+ * Stages that call a configured method for each object they process should
+ * obtain an invoker at construction time and retain it.
+ * <p>
+ * Invokers are created by the installed {@link Generator} when it can produce
+ * one for the method, and otherwise call the method reflectively. The
+ * commons-pipeline-invoke module provides a generator that calls the method
+ * through an implementation of a functional interface spun at run time, which
+ * the JIT can inline like a direct call; it is installed automatically when it
+ * is found on the class path. Another generator can be installed by calling
+ * {@link #setGenerator} or by naming its class, which must have a public
+ * no-argument constructor, in the system property
+ * <code>org.apache.commons.pipeline.util.invoker.generator</code>.
+ */
+public abstract class MethodInvoker {
+    /**
+     * Name of the system property naming the class of the generator installed
+     * when this class is loaded.
+     */
+    public static final String GENERATOR_PROPERTY = "org.apache.commons.pipeline.util.invoker.generator";
+
+    /**
+     * Class of the generator installed when the system property is not set,
+     * if it is present on the class path.
+     */
+    public static final String DEFAULT_GENERATOR = "org.apache.commons.pipeline.invoke.LambdaInvokerGenerator";
+
+    private static final Log log = LogFactory.getLog(MethodInvoker.class);
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static volatile Generator generator;
+
+    static {
+        String className = System.getProperty(GENERATOR_PROPERTY);
+        if (className != null) {
+            try {
+                generator = (Generator) Class.forName(className).newInstance();
+            } catch (Exception e) {
+                log.error("Unable to install method invoker generator " + className, e);
+            }
+        } else {
+            try {
+                generator = (Generator) Class.forName(DEFAULT_GENERATOR).newInstance();
+            } catch (ClassNotFoundException e) {
+                //the invoke module is not on the class path; invoke reflectively
+            } catch (Exception e) {
+                log.error("Unable to install method invoker generator " + DEFAULT_GENERATOR, e);
+            } catch (LinkageError e) {
+                //the invoke module requires a newer JVM; invoke reflectively
+            }
+        }
+    }
+
+    /**
+     * The method called by this invoker.
+     */
+    protected final Method method;
+
+    /**
+     * Creates a new MethodInvoker for the specified method, suppressing
+     * Java language access checks if the security manager permits it.
+     */
+    protected MethodInvoker(Method method) {
+        if (method == null) throw new IllegalArgumentException("Method may not be null.");
+        this.method = method;
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            //access checks will simply be performed on each call
+        }
+    }
+
+    /**
+     * Calls the bound method for the specified object.
+     *
+     * @param obj the object being processed
+     * @return the value returned by the method, or null for void methods
+     * @throws IllegalAccessException if the method is not accessible
+     * @throws InvocationTargetException if the method itself throws an exception
+     */
+    public abstract Object invoke(Object obj) throws IllegalAccessException, InvocationTargetException;
+
+    /**
+     * Returns the method called by this invoker.
+     */
+    public final Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Returns the installed generator, or null if methods are always invoked
+     * reflectively.
+     */
+    public static Generator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Installs the generator used to create invokers. Invokers that have already
+     * been created are not affected.
+     * @param generator the generator, or null to always invoke methods reflectively
+     */
+    public static void setGenerator(Generator generator) {
+        MethodInvoker.generator = generator;
+    }
+
+    /**
+     * Creates an invoker that calls the specified method on each object
+     * with a fixed set of arguments. As with {@link Method#invoke(Object, Object[])},
+     * the processed object is ignored if the method is static.
+     *
+     * @param method the method to call
+     * @param arguments the arguments passed on every call
+     * @throws IllegalArgumentException if the number of arguments does not match
+     * the method signature
+     */
+    public static MethodInvoker onTarget(Method method, Object... arguments) {
+        if (method == null) throw new IllegalArgumentException("Method may not be null.");
+
+        Object[] args = (arguments == null || arguments.length == 0) ? NO_ARGS : arguments.clone();
+        if (method.getParameterTypes().length != args.length) {
+            throw new IllegalArgumentException("Method " + method + " cannot be invoked with " + args.length + " argument(s).");
+        }
+
+        Generator g = generator;
+        if (g != null) {
+            MethodInvoker invoker = g.onTarget(method, args);
+            if (invoker != null) return invoker;
+        }
+
+        return new TargetInvoker(method, args);
+    }
+
+    /**
+     * Creates an invoker that calls the specified static method with each
+     * object as its sole argument.
+     *
+     * @param method a static method accepting a single argument
+     * @throws IllegalArgumentException if the method is not static or does not
+     * accept exactly one argument
+     */
+    public static MethodInvoker withArgument(Method method) {
+        if (method == null) throw new IllegalArgumentException("Method may not be null.");
+        if (!Modifier.isStatic(method.getModifiers())) {
+            throw new IllegalArgumentException("Method " + method + " is not static.");
+        }
+        if (method.getParameterTypes().length != 1) {
+            throw new IllegalArgumentException("Method " + method + " must accept exactly one argument.");
+        }
+
+        Generator g = generator;
+        if (g != null) {
+            MethodInvoker invoker = g.withArgument(method);
+            if (invoker != null) return invoker;
+        }
+
+        return new StaticInvoker(method);
+    }
+
+    /**
+     * Creates invokers that call methods without reflection. The arguments
+     * passed to a generator have already been checked against the method
+     * signature. A generator that cannot create an invoker for a method returns
+     * null, and the method is then invoked reflectively; the invokers it does
+     * create must behave like {@link Method#invoke(Object, Object[])}, wrapping
+     * any exception thrown by the method in an {@link InvocationTargetException}.
+     */
+    public interface Generator {
+        /**
+         * Creates an invoker that calls the specified method on each object with
+         * the specified arguments, or returns null.
+         *
+         * @param method the method to call, which may be static
+         * @param arguments the arguments passed on every call; the array is not
+         * modified after this call
+         */
+        MethodInvoker onTarget(Method method, Object[] arguments);
+
+        /**
+         * Creates an invoker that calls the specified static method with each
+         * object as its sole argument, or returns null.
+         *
+         * @param method a static method accepting a single argument
+         */
+        MethodInvoker withArgument(Method method);
+    }
+
+    /**
+     * Reflective invoker for methods called on the processed object. The argument array is shared between calls;
+     * it is never modified by {@link Method#invoke(Object, Object[])}.
+     */
+    private static final class TargetInvoker extends MethodInvoker {
+        private final Object[] arguments;
+
+        TargetInvoker(Method method, Object[] arguments) {
+            super(method);
+            this.arguments = arguments;
+        }
+
+        public Object invoke(Object obj) throws IllegalAccessException, InvocationTargetException {
+            return method.invoke(obj, arguments);
+        }
+    }
+
+    /**
+     * Reflective invoker for static methods of a single argument. A new argument array is
+     * created for each call: the invoker may be shared between threads, and
+     * allocating a one-element array is cheaper than looking up a reusable
+     * array per thread (see InvokerBenchmark in the benchmarks module).
+     */
+    private static final class StaticInvoker extends MethodInvoker {
+        StaticInvoker(Method method) {
+            super(method);
+        }
+
+        public Object invoke(Object obj) throws IllegalAccessException, InvocationTargetException {
+            return method.invoke(null, new Object[] { obj });
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An exact {@link KeySet} that keeps its keys outside the Java heap, so that
+ * very large sets neither enlarge the heap nor add to garbage collection work.
+ *
+ * <p>Keys are copied into direct buffers allocated in chunks, each key
+ * preceded by its length. The table mapping each key's 64-bit hash to the
+ * location of the key is divided into segments chosen by the upper bits of
+ * the hash, each an open-addressing hash table with linear probing held in
+ * direct buffers. Each slot holds the location and the full hash, so that
+ * most probes of occupied slots are rejected without comparing keys and a
+ * segment can be rehashed without reading the keys back. A segment is
+ * doubled when more than half of its slots are occupied; because segments
+ * grow independently, the set can hold far more keys than fit in a single
+ * buffer, and each doubling moves only a fraction of them.</p>
+ *
+ * <p>The memory is released only when the set is garbage collected, so
+ * {@link #clear()} should be called when the set is no longer needed to let
+ * it be reclaimed promptly. Instances are thread-safe.</p>
+ */
+public class OffHeapHashSet implements KeySet {
+    /**
+     * The default size in bytes of the chunks in which keys are stored.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    
+    //number of upper hash bits choosing the segment
+    private static final int SEGMENT_BITS = 4;
+    
+    private static final int MINIMUM_SEGMENT_CAPACITY = 16;
+    
+    //maximum number of slots in a segment; each of its tables must fit in one buffer
+    private static final int MAXIMUM_SEGMENT_CAPACITY = 1 << 27;
+    
+    private final int chunkSize;
+    
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    
+    private long size;
+    
+    //chunks holding the keys; a location is the chunk index in the upper
+    //32 bits and the position within the chunk in the lower 32 bits
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    
+    private long chunkBytes;
+    
+    /**
+     * Creates a new set with room for the specified number of keys before the
+     * table must grow, storing keys in chunks of the default size.
+     */
+    public OffHeapHashSet(int expectedSize) {
+        this(expectedSize, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Creates a new set with room for the specified number of keys before the
+     * table must grow, storing keys in chunks of the specified size.
+     */
+    public OffHeapHashSet(int expectedSize, int chunkSize) {
+        if (expectedSize < 0) throw new IllegalArgumentException("Expected size may not be negative.");
+        if (chunkSize < 16) throw new IllegalArgumentException("Chunk size must be at least 16 bytes.");
+        this.chunkSize = chunkSize;
+        
+        long expectedPerSegment = ((long) expectedSize + segments.length - 1) / segments.length;
+        int capacity = MINIMUM_SEGMENT_CAPACITY;
+        while (capacity < MAXIMUM_SEGMENT_CAPACITY && capacity / 2 < expectedPerSegment) capacity <<= 1;
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment(capacity);
+    }
+    
+    public synchronized boolean add(byte[] key) {
+        long hash = Hashing.hash64(key);
+        if (!segmentFor(hash).add(hash, key)) return false;
+        size++;
+        return true;
+    }
+    
+    /**
+     * Returns true if the set contains the specified key.
+     */
+    public synchronized boolean contains(byte[] key) {
+        long hash = Hashing.hash64(key);
+        return segmentFor(hash).contains(hash, key);
+    }
+    
+    public synchronized long size() {
+        return this.size;
+    }
+    
+    public synchronized long getMemoryUsage() {
+        long slots = 0;
+        for (Segment segment : segments) slots += segment.mask + 1;
+        return slots * 16 + chunkBytes;
+    }
+    
+    /**
+     * Removes all keys and releases the memory holding them, keeping only
+     * empty segments of the minimum size.
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        chunkBytes = 0;
+        size = 0;
+        for (Segment segment : segments) segment.allocate(MINIMUM_SEGMENT_CAPACITY);
+    }
+    
+    private Segment segmentFor(long hash) {
+        return segments[(int) (hash >>> (64 - SEGMENT_BITS))];
+    }
+    
+    /**
+     * A hash table for the keys whose hashes share the same upper bits. The
+     * lower bits of the hash choose the slot, so they are independent of the
+     * bits choosing the segment.
+     */
+    private final class Segment {
+        //location of the key in each slot plus one, or zero if the slot is empty
+        private LongBuffer locations;
+        
+        //hash of the key in each slot
+        private LongBuffer hashes;
+        
+        private int mask;
+        
+        private int size;
+        
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+        
+        boolean add(long hash, byte[] key) {
+            for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+                long location = locations.get(slot);
+                if (location == 0) {
+                    //at least one slot must stay empty to terminate probing
+                    if (size == mask) throw new IllegalStateException("Set cannot hold more than " + mask + " keys with the same hash prefix.");
+                    locations.put(slot, store(key) + 1);
+                    hashes.put(slot, hash);
+                    if (++size > (mask + 1) / 2) grow();
+                    return true;
+                }
+                
+                if (hashes.get(slot) == hash && keyEquals(location - 1, key)) return false;
+            }
+        }
+        
+        boolean contains(long hash, byte[] key) {
+            for (int slot = (int) hash & mask;; slot = (slot + 1) & mask) {
+                long location = locations.get(slot);
+                if (location == 0) return false;
+                if (hashes.get(slot) == hash && keyEquals(location - 1, key)) return true;
+            }
+        }
+        
+        void allocate(int capacity) {
+            this.locations = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+            this.hashes = ByteBuffer.allocateDirect(capacity * 8).asLongBuffer();
+            this.mask = capacity - 1;
+            this.size = 0;
+        }
+        
+        /**
+         * Doubles the segment and reinserts every key using its stored hash.
+         * Once the segment has reached its maximum size, it is left to fill
+         * beyond half.
+         */
+        private void grow() {
+            int capacity = (mask + 1) << 1;
+            if (capacity > MAXIMUM_SEGMENT_CAPACITY) return;
+            
+            LongBuffer oldLocations = this.locations;
+            LongBuffer oldHashes = this.hashes;
+            int oldSize = this.size;
+            allocate(capacity);
+            for (int i = 0; i < oldLocations.capacity(); i++) {
+                long location = oldLocations.get(i);
+                if (location == 0) continue;
+                
+                long hash = oldHashes.get(i);
+                int slot = (int) hash & mask;
+                while (locations.get(slot) != 0) slot = (slot + 1) & mask;
+                locations.put(slot, location);
+                hashes.put(slot, hash);
+            }
+            this.size = oldSize;
+        }
+    }
+    
+    /**
+     * Copies the key into the current chunk, starting a new chunk if it does
+     * not fit, and returns its location.
+     */
+    private long store(byte[] key) {
+        int length = 4 + key.length;
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+            chunks.add(chunk);
+            chunkBytes += chunk.capacity();
+        }
+        
+        long location = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        chunk.putInt(key.length);
+        chunk.put(key);
+        return location;
+    }
+    
+    private boolean keyEquals(long location, byte[] key) {
+        ByteBuffer chunk = chunks.get((int) (location >>> 32));
+        int position = (int) location;
+        if (chunk.getInt(position) != key.length) return false;
+        
+        position += 4;
+        for (int i = 0; i < key.length; i++) {
+            if (chunk.get(position + i) != key[i]) return false;
+        }
+        
+        return true;
+    }
+}
@@ -0,0 +1,637 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.commons.pipeline.trace.TracedObject;
+
+/**
+ * A BlockingQueue that holds up to a fixed number of objects in memory and
+ * spills any further objects to compressed temporary files, so that a burst
+ * of objects costs disk I/O rather than stalling producers or exhausting the
+ * heap. Spilled objects are read back in order as the consumer catches up.
+ *
+ * <p>The objects in memory are always older than the spilled objects: once
+ * an object has been spilled, new objects are spilled too until every spilled
+ * object has been read back. Spilled objects are written, with their lengths,
+ * to a series of gzip-compressed files each holding up to a fixed number of
+ * objects, and are read back in batches, starting with the oldest file, when
+ * fewer than half of the in-memory budget remains in memory. Files are
+ * deleted once they have been read, and any remaining files are deleted by
+ * {@link #close()}, which should be called once the queue is no longer
+ * used.</p>
+ *
+ * <p>Objects are serialized, and the spill files written and read, without
+ * holding the lock that guards the queue, so threads taking objects that are
+ * already in memory are not held up by disk I/O. A producer reserves its
+ * place in the spill order under the queue lock and writes its object once
+ * the objects spilled before it have been written.</p>
+ *
+ * <p>Objects are spilled with a {@link Serializer}. Traces cannot be carried
+ * through the spill files, so {@link TracedObject}s are unwrapped when they
+ * are spilled. Iterators and the methods based on them see only the objects
+ * held in memory.</p>
+ */
+public class OverflowBlockingQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private static final Log log = LogFactory.getLog(OverflowBlockingQueue.class);
+    
+    private final int memoryCapacity;
+    private final int capacity;
+    private final int objectsPerFile;
+    private final File tempDirectory;
+    private final Serializer<T> serializer;
+    
+    //guards the objects in memory and the counts
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    
+    //guards the spill files and streams; never held while acquiring the queue lock
+    private final ReentrantLock fileLock = new ReentrantLock();
+    private final Condition written = fileLock.newCondition();
+    
+    //the oldest objects, held in memory
+    private final LinkedList<T> memory = new LinkedList<T>();
+    
+    //spill files from oldest to newest; the last one may be open for writing
+    private final LinkedList<SpillFile> files = new LinkedList<SpillFile>();
+    
+    private DataOutputStream writer;
+    private DataInputStream reader;
+    
+    //number of spilled objects not yet read back, including those still being written
+    private int overflowCount;
+    
+    //true while a thread is reading spilled objects back
+    private boolean refilling;
+    
+    //the place in the spill order given to the next spilled object
+    private long nextTicket;
+    
+    //number of places in the spill order whose objects have been written or abandoned
+    private long writtenTickets;
+    
+    //spills with earlier places were discarded by close(); set holding both locks
+    private long discardBefore;
+    
+    //incremented by close() so that reads in progress are discarded; set holding both locks
+    private int generation;
+    
+    //statistics
+    private volatile long spilledCount;
+    private volatile long spilledBytes;
+    private volatile long compressedBytes;
+    private volatile int spillFileCount;
+    private int peakOverflow;
+    
+    /**
+     * A spill file and the number of its objects not yet read back.
+     */
+    private static class SpillFile {
+        private final File file;
+        private int remaining;
+        
+        SpillFile(File file) {
+            this.file = file;
+        }
+    }
+    
+    /**
+     * Creates a new queue.
+     * @param memoryCapacity the number of objects held in memory before
+     * further objects are spilled
+     * @param capacity the maximum number of objects in the queue, in memory
+     * or spilled
+     * @param objectsPerFile the maximum number of objects written to each spill file
+     * @param tempDirectory the directory for spill files, or null for the
+     * system's default temporary directory
+     * @param serializer the serializer for spilled objects
+     */
+    public OverflowBlockingQueue(int memoryCapacity, int capacity, int objectsPerFile, File tempDirectory, Serializer<T> serializer) {
+        if (memoryCapacity < 1) throw new IllegalArgumentException("Memory capacity must be positive.");
+        if (capacity < memoryCapacity) throw new IllegalArgumentException("Capacity may not be smaller than the memory capacity.");
+        if (objectsPerFile < 1) throw new IllegalArgumentException("Number of objects per file must be positive.");
+        if (serializer == null) throw new IllegalArgumentException("Serializer may not be null.");
+        
+        this.memoryCapacity = memoryCapacity;
+        this.capacity = capacity;
+        this.objectsPerFile = objectsPerFile;
+        this.tempDirectory = tempDirectory;
+        this.serializer = serializer;
+    }
+    
+    public boolean offer(T obj, long timeout, TimeUnit unit) throws InterruptedException {
+        if (obj == null) throw new NullPointerException();
+        long ticket;
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size0() >= capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            
+            ticket = insert(obj);
+        } finally {
+            lock.unlock();
+        }
+        
+        if (ticket >= 0) spill(obj, ticket);
+        return true;
+    }
+    
+    public boolean offer(T obj) {
+        if (obj == null) throw new NullPointerException();
+        long ticket;
+        lock.lock();
+        try {
+            if (size0() >= capacity) return false;
+            ticket = insert(obj);
+        } finally {
+            lock.unlock();
+        }
+        
+        if (ticket >= 0) spill(obj, ticket);
+        return true;
+    }
+    
+    public void put(T obj) throws InterruptedException {
+        if (obj == null) throw new NullPointerException();
+        long ticket;
+        lock.lockInterruptibly();
+        try {
+            while (size0() >= capacity) notFull.await();
+            ticket = insert(obj);
+        } finally {
+            lock.unlock();
+        }
+        
+        if (ticket >= 0) spill(obj, ticket);
+    }
+    
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (!available()) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public T poll() {
+        lock.lock();
+        try {
+            while (!available()) {
+                if (size0() == 0) return null;
+                
+                //another thread is reading spilled objects back
+                notEmpty.awaitUninterruptibly();
+            }
+            
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!available()) notEmpty.await();
+            return extract();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public T peek() {
+        lock.lock();
+        try {
+            while (!available()) {
+                if (size0() == 0) return null;
+                notEmpty.awaitUninterruptibly();
+            }
+            
+            return memory.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+    
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) throw new IllegalArgumentException("Cannot drain a queue into itself.");
+        int drained = 0;
+        for (T obj; drained < maxElements && (obj = poll()) != null; drained++) c.add(obj);
+        return drained;
+    }
+    
+    public int size() {
+        lock.lock();
+        try {
+            return size0();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - size0();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns an iterator over a snapshot of the objects held in memory.
+     * Spilled objects are not included. The iterator does not support removal.
+     */
+    public Iterator<T> iterator() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<T>(memory)).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Discards all spilled objects and deletes the spill files. Objects being
+     * spilled or read back concurrently are discarded too.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            fileLock.lock();
+            try {
+                closeQuietly(writer);
+                closeQuietly(reader);
+                writer = null;
+                reader = null;
+                for (SpillFile spill : files) delete(spill.file);
+                files.clear();
+                spillFileCount = 0;
+                
+                discardBefore = nextTicket;
+                writtenTickets = nextTicket;
+                generation++;
+                written.signalAll();
+            } finally {
+                fileLock.unlock();
+            }
+            
+            overflowCount = 0;
+            refilling = false;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of objects held in memory.
+     */
+    public int getMemoryCount() {
+        lock.lock();
+        try {
+            return memory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the number of spilled objects not yet read back.
+     */
+    public int getOverflowCount() {
+        lock.lock();
+        try {
+            return overflowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the largest number of spilled objects waiting to be read back
+     * at any one time.
+     */
+    public int getPeakOverflowCount() {
+        lock.lock();
+        try {
+            return peakOverflow;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the total number of objects spilled.
+     */
+    public long getSpilledCount() {
+        return spilledCount;
+    }
+    
+    /**
+     * Returns the total number of bytes of serialized objects spilled,
+     * before compression.
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+    
+    /**
+     * Returns the total size of the spill files completed so far, after compression.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+    
+    /**
+     * Returns the number of spill files currently on disk.
+     */
+    public int getSpillFileCount() {
+        return spillFileCount;
+    }
+    
+    private int size0() {
+        return memory.size() + overflowCount;
+    }
+    
+    /**
+     * Adds the object to memory, or reserves its place in the spill order if
+     * memory is full or older objects have been spilled. Must be called with
+     * the lock held.
+     * @return the object's place in the spill order, or -1 if it was added to memory
+     */
+    private long insert(T obj) {
+        long ticket = -1;
+        if (overflowCount == 0 && memory.size() < memoryCapacity) {
+            memory.add(obj);
+        } else {
+            ticket = nextTicket++;
+            overflowCount++;
+            if (overflowCount > peakOverflow) peakOverflow = overflowCount;
+        }
+        
+        notEmpty.signal();
+        return ticket;
+    }
+    
+    /**
+     * Returns true if there is an object in memory, first reading spilled
+     * objects back if memory is running low and no other thread is doing so.
+     * Must be called with the lock held, which is released while reading.
+     */
+    private boolean available() {
+        if (overflowCount > 0 && memory.size() <= memoryCapacity / 2 && !refilling) refill();
+        return !memory.isEmpty();
+    }
+    
+    /**
+     * Removes the oldest object. Must be called with the lock held when an
+     * object is in memory.
+     */
+    private T extract() {
+        T obj = memory.removeFirst();
+        notFull.signal();
+        return obj;
+    }
+    
+    /**
+     * Serializes the object and writes it to the current spill file once all
+     * objects with earlier places in the spill order have been written.
+     * Must be called without holding the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private void spill(T obj, long ticket) {
+        byte[] bytes = null;
+        RuntimeException failure = null;
+        try {
+            Object payload = obj instanceof TracedObject ? ((TracedObject) obj).getPayload() : obj;
+            bytes = serializer.serialize((T) payload);
+        } catch (IOException e) {
+            failure = new IllegalStateException("Unable to spill object " + obj + " to disk.", e);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        if (bytes == null) unreserve(ticket);
+        
+        fileLock.lock();
+        try {
+            while (ticket >= discardBefore && writtenTickets != ticket) written.awaitUninterruptibly();
+            
+            //nothing is written if the queue was closed after the place was reserved
+            if (ticket >= discardBefore) {
+                try {
+                    if (bytes != null) write(bytes);
+                } catch (IOException e) {
+                    failure = new IllegalStateException("Unable to spill object " + obj + " to disk.", e);
+                } finally {
+                    writtenTickets++;
+                    written.signalAll();
+                }
+            }
+        } finally {
+            fileLock.unlock();
+        }
+        
+        if (failure != null) {
+            if (bytes != null) unreserve(ticket);
+            throw failure;
+        }
+    }
+    
+    /**
+     * Gives up the place in the spill order of an object that could not be spilled.
+     */
+    private void unreserve(long ticket) {
+        lock.lock();
+        try {
+            if (ticket >= discardBefore) {
+                overflowCount--;
+                notFull.signal();
+                
+                //wake consumers waiting for an object that will not arrive
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Appends the record to the current spill file. Must be called with the
+     * file lock held.
+     */
+    private void write(byte[] bytes) throws IOException {
+        if (writer == null) {
+            SpillFile spill = new SpillFile(File.createTempFile("overflow", ".spill", tempDirectory));
+            try {
+                writer = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(spill.file), 65536)));
+            } finally {
+                if (writer == null) delete(spill.file);
+            }
+            files.add(spill);
+            spillFileCount = files.size();
+        }
+        
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+        
+        SpillFile current = files.getLast();
+        current.remaining++;
+        spilledCount++;
+        spilledBytes += bytes.length;
+        if (current.remaining >= objectsPerFile) closeWriter();
+    }
+    
+    private void closeWriter() throws IOException {
+        writer.close();
+        writer = null;
+        compressedBytes += files.getLast().file.length();
+    }
+    
+    /**
+     * Reads spilled objects back into memory, oldest first, until memory is
+     * full or no spilled objects remain. If memory is not empty, only objects
+     * already written are read, and nothing is read if the spill files are
+     * busy. Must be called with the lock held; the lock is released while the
+     * objects are read and deserialized.
+     */
+    private void refill() {
+        boolean wait = memory.isEmpty();
+        int wanted = Math.min(overflowCount, memoryCapacity - memory.size());
+        long spilledBefore = nextTicket;
+        int readGeneration = generation;
+        List<byte[]> records = new ArrayList<byte[]>(wanted);
+        List<T> objects = new ArrayList<T>(wanted);
+        
+        refilling = true;
+        lock.unlock();
+        try {
+            read(records, wanted, wait ? spilledBefore : -1, readGeneration);
+            for (byte[] bytes : records) objects.add(serializer.deserialize(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read spilled objects back from disk.", e);
+        } finally {
+            lock.lock();
+            if (generation == readGeneration) {
+                refilling = false;
+                memory.addAll(objects);
+                overflowCount -= records.size();
+                notEmpty.signalAll();
+                if (objects.size() < records.size()) notFull.signalAll();
+            }
+        }
+    }
+    
+    /**
+     * Reads up to the wanted number of records from the spill files, after
+     * waiting for objects spilled before the specified place in the spill
+     * order to be written. If that place is negative, nothing is waited for
+     * and nothing is read if another thread holds the file lock. Nothing is
+     * read if the queue has been closed since the read was requested.
+     */
+    private void read(List<byte[]> records, int wanted, long spilledBefore, int readGeneration) {
+        if (spilledBefore < 0) {
+            if (!fileLock.tryLock()) return;
+        } else {
+            fileLock.lock();
+        }
+        
+        try {
+            while (generation == readGeneration && writtenTickets < spilledBefore) written.awaitUninterruptibly();
+            if (generation != readGeneration) return;
+            
+            while (records.size() < wanted && !files.isEmpty()) {
+                SpillFile oldest = files.getFirst();
+                if (reader == null) {
+                    //the file must be complete before it can be read
+                    if (writer != null && files.size() == 1) closeWriter();
+                    reader = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(oldest.file), 65536)));
+                }
+                
+                byte[] bytes = new byte[reader.readInt()];
+                reader.readFully(bytes);
+                records.add(bytes);
+                
+                if (--oldest.remaining == 0) {
+                    reader.close();
+                    reader = null;
+                    files.removeFirst();
+                    spillFileCount = files.size();
+                    delete(oldest.file);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read spilled objects back from disk.", e);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+    
+    private static void delete(File file) {
+        if (!file.delete()) log.warn("Unable to delete spill file " + file);
+    }
+    
+    private static void closeQuietly(Closeable stream) {
+        if (stream == null) return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warn("Unable to close spill file.", e);
+        }
+    }
+}
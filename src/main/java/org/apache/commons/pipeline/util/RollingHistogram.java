@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>Fixed-memory histogram of nanosecond durations over a rolling time window.
+ * Values are counted in logarithmic buckets in the manner of HdrHistogram:
+ * each power of two is divided into {@value #SUB_BUCKETS} linear sub-buckets,
+ * so reported percentiles are within about 3% of the recorded values.
+ * Values up to {@value #MAX_EXPONENT} binary orders of magnitude (about two
+ * minutes) are tracked; larger values are counted in the highest bucket, but
+ * the exact maximum is always retained.</p>
+ *
+ * <p>The window is divided into a number of intervals of equal length, each
+ * with its own set of buckets. Intervals are recycled as the window rolls
+ * forward, so recording does not allocate once each interval has been used.
+ * Recording is lock-free, and each interval's buckets are striped in the same
+ * manner as {@link StripedCounter} so that threads recording concurrently
+ * rarely update the same counts; snapshots sum the stripes. A value recorded
+ * concurrently with the recycling of its interval may be lost.</p>
+ */
+public class RollingHistogram {
+    /** Number of linear sub-buckets per power of two. */
+    public static final int SUB_BUCKETS = 32;
+
+    /** Base-two exponent of the largest value that is resolved by a bucket. */
+    public static final int MAX_EXPONENT = 36;
+
+    //values below this threshold each have their own bucket
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    //number of bits of sub-bucket index
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    //total number of buckets per interval
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    //length of each interval
+    private final long intervalNanos;
+
+    //the intervals, indexed by interval number modulo their count
+    private final Interval[] intervals;
+
+    //mask used to map a thread probe onto a stripe
+    private final int mask;
+
+    /**
+     * The counts recorded during a single interval by the threads that share
+     * a stripe.
+     */
+    private static final class Stripe {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong max = new AtomicLong();
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0L);
+            max.set(0L);
+        }
+
+        void record(long value) {
+            counts.incrementAndGet(bucketFor(value));
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) current = max.get();
+        }
+    }
+
+    /**
+     * The counts recorded during a single interval. Stripes are created
+     * lazily as threads first record values, and kept when the interval is
+     * recycled.
+     */
+    private static final class Interval {
+        private final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicReferenceArray<Stripe> stripes;
+
+        Interval(int stripeCount) {
+            this.stripes = new AtomicReferenceArray<Stripe>(stripeCount);
+        }
+
+        void reset() {
+            for (int i = 0; i < stripes.length(); i++) {
+                Stripe stripe = stripes.get(i);
+                if (stripe != null) stripe.reset();
+            }
+        }
+
+        void record(long value, int i) {
+            Stripe stripe = stripes.get(i);
+            if (stripe == null) {
+                stripes.compareAndSet(i, null, new Stripe());
+                stripe = stripes.get(i);
+            }
+            stripe.record(value);
+        }
+    }
+
+    /**
+     * Creates a new histogram covering a window of the specified number of
+     * intervals of the specified length.
+     *
+     * @param intervalMillis the length of each interval in milliseconds
+     * @param intervalCount the number of intervals in the window
+     */
+    public RollingHistogram(long intervalMillis, int intervalCount) {
+        if (intervalMillis < 1) throw new IllegalArgumentException("Interval length must be at least one millisecond.");
+        if (intervalCount < 1) throw new IllegalArgumentException("Interval count must be at least 1.");
+        this.intervalNanos = intervalMillis * 1000000L;
+        int stripes = StripedCounter.defaultStripes();
+        this.mask = stripes - 1;
+        this.intervals = new Interval[intervalCount];
+        for (int i = 0; i < intervalCount; i++) intervals[i] = new Interval(stripes);
+    }
+
+    /**
+     * Records a duration observed at the current time.
+     *
+     * @param value the duration in nanoseconds
+     */
+    public void record(long value) {
+        record(value, System.nanoTime());
+    }
+
+    /**
+     * Records a duration observed at the specified time. Callers that have
+     * just read {@link System#nanoTime()} to measure the duration should pass
+     * that reading here rather than reading the clock again.
+     *
+     * @param value the duration in nanoseconds; negative values are recorded as zero
+     * @param now the current value of {@link System#nanoTime()}
+     */
+    public void record(long value, long now) {
+        long epoch = epochOf(now);
+        Interval interval = intervals[indexOf(epoch)];
+        long current = interval.epoch.get();
+        if (current < epoch && interval.epoch.compareAndSet(current, epoch)) interval.reset();
+        interval.record(Math.max(0L, value), StripedCounter.probe() & mask);
+    }
+
+    /**
+     * Returns a snapshot of the values recorded within the window ending now.
+     */
+    public Snapshot snapshot() {
+        return snapshot(System.nanoTime());
+    }
+
+    /**
+     * Returns a snapshot of the values recorded within the window ending at
+     * the specified time.
+     */
+    public Snapshot snapshot(long now) {
+        long epoch = epochOf(now);
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        long max = 0;
+        for (Interval interval : intervals) {
+            long e = interval.epoch.get();
+            if (e <= epoch - intervals.length || e > epoch) continue;
+            for (int j = 0; j < interval.stripes.length(); j++) {
+                Stripe stripe = interval.stripes.get(j);
+                if (stripe == null) continue;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    long c = stripe.counts.get(i);
+                    counts[i] += c;
+                    total += c;
+                }
+                max = Math.max(max, stripe.max.get());
+            }
+        }
+        return new Snapshot(counts, total, max);
+    }
+
+    /**
+     * Returns the length of each interval in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return intervalNanos / 1000000L;
+    }
+
+    /**
+     * Returns the number of intervals in the window.
+     */
+    public int getIntervalCount() {
+        return intervals.length;
+    }
+
+    private long epochOf(long now) {
+        long epoch = now / intervalNanos;
+        return (now < 0 && now % intervalNanos != 0) ? epoch - 1 : epoch;
+    }
+
+    private int indexOf(long epoch) {
+        int i = (int) (epoch % intervals.length);
+        return i < 0 ? i + intervals.length : i;
+    }
+
+    /**
+     * Returns the index of the bucket counting the specified non-negative value.
+     */
+    static int bucketFor(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the smallest value counted by the specified bucket.
+     */
+    static long lowestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) return bucket;
+        int offset = bucket - LINEAR_LIMIT;
+        int exponent = offset / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int sub = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return ((long) sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Returns a value representative of those counted by the specified bucket.
+     */
+    static long representativeValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) return bucket;
+        long low = lowestValueOf(bucket);
+        long width = lowestValueOf(bucket + 1) - low;
+        return low + width / 2;
+    }
+
+    /**
+     * An immutable view of the counts recorded within a window.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+        }
+
+        /**
+         * Returns the number of values recorded within the window.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the largest value recorded within the window, in nanoseconds.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the value at or below which the specified percentage of
+         * recorded values fall, in nanoseconds, or zero if no values have been
+         * recorded.
+         *
+         * @param percentile a percentage between 0 and 100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) return 0L;
+            long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(representativeValueOf(i), max);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An approximate {@link KeySet} whose memory use is bounded by the number of
+ * distinct keys added and the target false-positive rate, independent of the
+ * size of the keys. A key that has been added is always reported as present;
+ * a key that has not been added is wrongly reported as present with a
+ * probability of at most the false-positive rate.
+ *
+ * <p>The filter is a scalable Bloom filter: a series of Bloom filters of
+ * increasing capacity. Keys are added to the newest filter until it holds as
+ * many keys as it was sized for, and a new filter with twice the capacity is
+ * then started. The false-positive rate of each filter is half that of its
+ * predecessor, so that the combined rate stays below the target however
+ * many filters are added. Instances are thread-safe.</p>
+ */
+public class ScalableBloomFilter implements KeySet {
+    //growth in capacity of each filter over its predecessor
+    private static final int GROWTH = 2;
+    
+    //ratio of the false-positive rate of each filter to that of its predecessor
+    private static final double TIGHTENING = 0.5;
+    
+    private final double falsePositiveRate;
+    
+    private final List<Filter> filters = new ArrayList<Filter>();
+    
+    private long size;
+    
+    /**
+     * A single Bloom filter, with bit positions derived from two hashes of
+     * each key by double hashing.
+     */
+    private static class Filter {
+        private final long[] bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final long capacity;
+        private long count;
+        
+        Filter(long capacity, double falsePositiveRate) {
+            double ln2 = Math.log(2);
+            long bitCount = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            long words = Math.max(1, (bitCount + 63) / 64);
+            if (words > Integer.MAX_VALUE) throw new IllegalStateException("Bloom filter for " + capacity + " keys is too large.");
+            
+            this.bits = new long[(int) words];
+            this.bitCount = words * 64;
+            this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / capacity * ln2));
+            this.capacity = capacity;
+        }
+        
+        boolean contains(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(h1, h2, i);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            
+            return true;
+        }
+        
+        void put(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(h1, h2, i);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            
+            count++;
+        }
+        
+        private long index(long h1, long h2, int i) {
+            long combined = h1 + i * h2;
+            return (combined & Long.MAX_VALUE) % bitCount;
+        }
+    }
+    
+    /**
+     * Creates a new filter whose first Bloom filter is sized for the specified
+     * number of keys.
+     * @param initialCapacity the number of keys expected; the filter grows
+     * if more are added
+     * @param falsePositiveRate the maximum probability that a key that has not
+     * been added is reported as present
+     */
+    public ScalableBloomFilter(long initialCapacity, double falsePositiveRate) {
+        if (initialCapacity < 1) throw new IllegalArgumentException("Initial capacity must be positive.");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False-positive rate must be between zero and one.");
+        }
+        
+        this.falsePositiveRate = falsePositiveRate;
+        this.filters.add(new Filter(initialCapacity, falsePositiveRate * (1 - TIGHTENING)));
+    }
+    
+    public synchronized boolean add(byte[] key) {
+        long h1 = Hashing.hash64(key);
+        long h2 = Hashing.mix(h1) | 1;
+        for (Filter filter : filters) {
+            if (filter.contains(h1, h2)) return false;
+        }
+        
+        Filter current = filters.get(filters.size() - 1);
+        if (current.count >= current.capacity) {
+            double rate = falsePositiveRate * (1 - TIGHTENING) * Math.pow(TIGHTENING, filters.size());
+            current = new Filter(current.capacity * GROWTH, rate);
+            filters.add(current);
+        }
+        
+        current.put(h1, h2);
+        size++;
+        return true;
+    }
+    
+    /**
+     * Returns true if the key may have been added, false if it certainly has not.
+     */
+    public synchronized boolean mightContain(byte[] key) {
+        long h1 = Hashing.hash64(key);
+        long h2 = Hashing.mix(h1) | 1;
+        for (Filter filter : filters) {
+            if (filter.contains(h1, h2)) return true;
+        }
+        
+        return false;
+    }
+    
+    public synchronized long size() {
+        return this.size;
+    }
+    
+    public synchronized long getMemoryUsage() {
+        long bytes = 0;
+        for (Filter filter : filters) bytes += filter.bits.length * 8L;
+        return bytes;
+    }
+    
+    /**
+     * Returns the number of Bloom filters in the series.
+     */
+    public synchronized int getFilterCount() {
+        return filters.size();
+    }
+    
+    /**
+     * Returns the target false-positive rate.
+     */
+    public double getFalsePositiveRate() {
+        return this.falsePositiveRate;
+    }
+}
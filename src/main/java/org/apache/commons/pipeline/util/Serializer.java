@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Strategy for converting objects to and from bytes, used where objects are
+ * stored outside the Java heap.
+ */
+public interface Serializer<T> {
+    /**
+     * Returns the serialized form of the specified object.
+     * @throws IOException if the object cannot be serialized
+     */
+    public byte[] serialize(T obj) throws IOException;
+    
+    /**
+     * Recreates an object from its serialized form.
+     * @throws IOException if the bytes cannot be deserialized
+     */
+    public T deserialize(byte[] bytes) throws IOException;
+    
+    /**
+     * Serializer that uses Java object serialization, and can therefore
+     * handle any {@link java.io.Serializable} object.
+     */
+    public static class JavaSerializer<T> implements Serializer<T> {
+        public byte[] serialize(T obj) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(obj);
+            out.close();
+            return bytes.toByteArray();
+        }
+        
+        @SuppressWarnings("unchecked")
+        public T deserialize(byte[] bytes) throws IOException {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (T) in.readObject();
+            } catch (ClassNotFoundException e) {
+                IOException ioe = new IOException("Class of serialized object not found: " + e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
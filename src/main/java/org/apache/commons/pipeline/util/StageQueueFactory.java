@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.    
+ */ 
+
+package org.apache.commons.pipeline.util;
+
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.StageContext;
+
+/**
+ * A {@link BlockingQueueFactory} whose queues belong to particular stages,
+ * for example because they outlive the pipeline and must be reopened for the
+ * same stage. Stage drivers create their queues through
+ * {@link #createQueue(Stage, StageContext)} when their queue factory
+ * implements this interface.
+ */
+public interface StageQueueFactory<T> extends BlockingQueueFactory<T> {
+    /**
+     * Creates the queue for the specified stage.
+     * @param stage the stage whose objects the queue will hold
+     * @param context the context in which the stage will be run
+     */
+    public BlockingQueue<T> createQueue(Stage stage, StageContext context);
+}
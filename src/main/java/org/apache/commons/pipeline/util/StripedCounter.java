@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long-valued counter that spreads updates over a number of independent
+ * cells so that threads updating the counter concurrently rarely contend
+ * for the same memory location. Reads sum the cells and are therefore
+ * more expensive than writes; this class is intended for statistics that are
+ * updated on every processed object but read only occasionally.
+ */
+public class StripedCounter {
+    //number of longs between cells; keeps each cell on its own cache line
+    private static final int PADDING = 8;
+
+    //default number of stripes, a power of two at least twice the processor count
+    private static final int DEFAULT_STRIPES = stripesFor(Runtime.getRuntime().availableProcessors());
+
+    //the counter cells, PADDING longs apart
+    private final AtomicLongArray cells;
+
+    //mask used to map a thread probe onto a stripe
+    private final int mask;
+
+    /**
+     * Creates a new counter with a number of stripes appropriate to the
+     * number of available processors.
+     */
+    public StripedCounter() {
+        this.mask = DEFAULT_STRIPES - 1;
+        this.cells = new AtomicLongArray(DEFAULT_STRIPES * PADDING);
+    }
+
+    /**
+     * Adds the specified value to the counter.
+     */
+    public void add(long value) {
+        cells.addAndGet((probe() & mask) * PADDING, value);
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+        add(1L);
+    }
+
+    /**
+     * Returns the current sum of the counter. Updates made concurrently with
+     * this call may or may not be reflected in the result.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) sum += cells.get(i);
+        return sum;
+    }
+
+    /**
+     * Resets the counter to zero. Updates made concurrently with this call
+     * may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) cells.set(i, 0L);
+    }
+
+    /**
+     * Returns the sum of the counter as a string.
+     */
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    /**
+     * Returns a well-mixed hash of the current thread's identity, suitable for
+     * choosing a stripe.
+     */
+    static int probe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the number of stripes used for the specified number of processors.
+     */
+    static int stripesFor(int processors) {
+        int stripes = Integer.highestOneBit(Math.max(1, 2 * processors - 1)) << 1;
+        return Math.min(stripes, 64);
+    }
+
+    /**
+     * Returns the default number of stripes.
+     */
+    static int defaultStripes() {
+        return DEFAULT_STRIPES;
+    }
+}
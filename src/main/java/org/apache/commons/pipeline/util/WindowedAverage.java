@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free moving average over the most recently recorded values. Values are
+ * recorded into one of several ring buffers chosen by the recording thread,
+ * in the same manner as {@link StripedCounter}, so that concurrent writers do
+ * not share a lock or a single index. Each value is stored with the time at
+ * which it was recorded, and readers merge the rings to find the most recent
+ * <code>windowSize</code> values overall, however they were spread across the
+ * rings. Reads are therefore more expensive than writes, which suits
+ * statistics that are recorded for every processed object but only
+ * occasionally reported. Under concurrent writes the window is approximate.
+ */
+public class WindowedAverage {
+    //the ring buffers, created lazily as threads first record values
+    private final AtomicReferenceArray<Ring> rings;
+
+    //mask used to map a thread probe onto a ring
+    private final int mask;
+
+    //number of values in the window, and held by each ring
+    private final int windowSize;
+
+    /**
+     * A fixed-size ring of values written by the threads that share a stripe,
+     * with the time at which each was recorded.
+     */
+    private static final class Ring {
+        private final AtomicLongArray values;
+        private final AtomicLongArray times;
+        private final AtomicLong next = new AtomicLong();
+
+        //time of the latest value, used to keep times in the ring increasing
+        private volatile long lastTime = Long.MIN_VALUE;
+
+        Ring(int size) {
+            this.values = new AtomicLongArray(size);
+            this.times = new AtomicLongArray(size);
+        }
+
+        void add(long value, long time) {
+            //values recorded within the resolution of the clock keep their order
+            long last = lastTime;
+            if (time <= last) time = last + 1;
+            lastTime = time;
+
+            int i = (int) (next.getAndIncrement() % values.length());
+            values.set(i, value);
+            times.set(i, time);
+        }
+
+        int size() {
+            return (int) Math.min(next.get(), values.length());
+        }
+    }
+
+    /**
+     * Creates a new WindowedAverage holding the specified number of values.
+     * @param windowSize the number of most recent values over which the
+     * average is computed
+     */
+    public WindowedAverage(int windowSize) {
+        if (windowSize < 1) throw new IllegalArgumentException("Window size must be at least 1.");
+        int stripes = StripedCounter.defaultStripes();
+        this.windowSize = windowSize;
+        this.mask = stripes - 1;
+        this.rings = new AtomicReferenceArray<Ring>(stripes);
+    }
+
+    /**
+     * Records a value at the current time.
+     */
+    public void addValue(long value) {
+        addValue(value, System.nanoTime());
+    }
+
+    /**
+     * Records a value at the specified time, as returned by {@link System#nanoTime}.
+     * Callers that have just read the clock can use this to avoid reading it again.
+     */
+    public void addValue(long value, long nanoTime) {
+        int i = StripedCounter.probe() & mask;
+        Ring ring = rings.get(i);
+        if (ring == null) {
+            rings.compareAndSet(i, null, new Ring(windowSize));
+            ring = rings.get(i);
+        }
+        ring.add(value, nanoTime);
+    }
+
+    /**
+     * Returns the mean of the values currently in the window, or
+     * {@link Double#NaN} if no values have been recorded.
+     */
+    public double getMean() {
+        long[] window = window();
+        return window[1] == 0 ? Double.NaN : (double) window[0] / window[1];
+    }
+
+    /**
+     * Returns the number of values currently in the window, which is at most
+     * the window size.
+     */
+    public long getN() {
+        long n = 0;
+        for (int i = 0; i < rings.length(); i++) {
+            Ring ring = rings.get(i);
+            if (ring != null) n += ring.size();
+        }
+        return Math.min(n, windowSize);
+    }
+
+    /**
+     * Returns the number of values over which the average is computed.
+     */
+    public int getWindowSize() {
+        return this.windowSize;
+    }
+
+    /**
+     * Returns the sum and the number of the most recent values.
+     */
+    private long[] window() {
+        int n = 0;
+        for (int i = 0; i < rings.length(); i++) {
+            Ring ring = rings.get(i);
+            if (ring != null) n += ring.size();
+        }
+
+        long[] values = new long[n];
+        long[] times = new long[n];
+        n = 0;
+        for (int i = 0; i < rings.length(); i++) {
+            Ring ring = rings.get(i);
+            if (ring == null) continue;
+            int count = Math.min(ring.size(), values.length - n);
+            for (int j = 0; j < count; j++, n++) {
+                values[n] = ring.values.get(j);
+                times[n] = ring.times.get(j);
+            }
+        }
+
+        //find the time of the oldest value in the window
+        long threshold = Long.MIN_VALUE;
+        if (n > windowSize) {
+            long[] sorted = new long[n];
+            System.arraycopy(times, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+            threshold = sorted[n - windowSize];
+        }
+
+        long sum = 0;
+        long count = 0;
+        for (int i = 0; i < n && count < windowSize; i++) {
+            if (times[i] > threshold) {
+                sum += values[i];
+                count++;
+            }
+        }
+        //values recorded at the threshold time by different rings fill any remaining places
+        for (int i = 0; i < n && count < windowSize; i++) {
+            if (times[i] == threshold) {
+                sum += values[i];
+                count++;
+            }
+        }
+
+        return new long[] { sum, count };
+    }
+}
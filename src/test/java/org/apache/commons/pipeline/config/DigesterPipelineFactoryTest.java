@@ -60,6 +60,7 @@ public class DigesterPipelineFactoryTest extends AbstractLoggingTestCase {
         TestFeeder terminalFeeder = new TestFeeder();
         pipeline.setTerminalFeeder(terminalFeeder);
         assertNotNull("Pipeline exists.", pipeline);
+        assertEquals("Thread budget set from the pipeline element.", 16, pipeline.getMaxThreads());
         
         int i = 0;
         for (Stage stage : pipeline.getStages()) {
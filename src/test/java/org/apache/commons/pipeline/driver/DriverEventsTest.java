@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageDriver;
+import org.apache.commons.pipeline.StageDriver.State;
+import org.apache.commons.pipeline.driver.control.DriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.PrioritizableStageDriver;
+import org.apache.commons.pipeline.testFramework.FaultingTestStage;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+
+/**
+ * Test cases for the reporting of driver events to a DriverEventRecorder.
+ */
+public class DriverEventsTest extends TestCase {
+    
+    public DriverEventsTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(DriverEventsTest.class);
+    }
+    
+    protected void tearDown() {
+        DriverEvents.setRecorder(null);
+    }
+    
+    /**
+     * Test that processing, state changes and waits are reported.
+     */
+    public void testEvents() throws Exception {
+        RecordingRecorder recorder = new RecordingRecorder();
+        DriverEvents.setRecorder(recorder);
+        
+        Pipeline pipeline = new Pipeline();
+        DedicatedThreadStageDriverFactory factory = new DedicatedThreadStageDriverFactory();
+        BlockingQueueFactory.ArrayBlockingQueueFactory<Object> queueFactory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Object>();
+        queueFactory.setCapacity(1);
+        factory.setQueueFactory(queueFactory);
+        factory.setFaultTolerance(FaultTolerance.CHECKED);
+        pipeline.addStage(new FaultingTestStage(0), factory);
+        pipeline.addStage(new TestStage(1), new SynchronousStageDriverFactory());
+        
+        pipeline.start();
+        for (int i = 0; i < 10; i++) pipeline.getSourceFeeder().feed(i);
+        pipeline.finish();
+        
+        //every second object faults in the first stage and is not passed on
+        assertEquals(15, recorder.processed.size());
+        assertEquals(5, recorder.failed);
+        assertTrue(recorder.blocked + recorder.waits > 0);
+        assertTrue(recorder.transitions.contains(State.STOPPED + "->" + State.RUNNING));
+        assertTrue(recorder.transitions.contains(State.STOP_REQUESTED + "->" + State.FINISHED));
+    }
+    
+    /**
+     * Test that nothing is reported once the recorder is removed.
+     */
+    public void testNoRecorder() throws Exception {
+        RecordingRecorder recorder = new RecordingRecorder();
+        DriverEvents.setRecorder(recorder);
+        DriverEvents.setRecorder(null);
+        
+        Pipeline pipeline = new Pipeline();
+        pipeline.addStage(new TestStage(0), new DedicatedThreadStageDriverFactory());
+        pipeline.start();
+        pipeline.getSourceFeeder().feed("hello");
+        pipeline.finish();
+        
+        assertTrue(recorder.processed.isEmpty());
+        assertTrue(recorder.transitions.isEmpty());
+    }
+    
+    /**
+     * Recorder that keeps the events reported to it.
+     */
+    private static class RecordingRecorder implements DriverEventRecorder {
+        final List<Object> processed = Collections.synchronizedList(new ArrayList<Object>());
+        final List<String> transitions = Collections.synchronizedList(new ArrayList<String>());
+        volatile int failed;
+        volatile int blocked;
+        volatile int waits;
+        
+        public Object beginProcess(StageDriver driver, Object obj) {
+            return obj;
+        }
+        
+        public void endProcess(Object event, boolean succeeded) {
+            processed.add(event);
+            if (!succeeded) failed++;
+        }
+        
+        public Object beginFeedBlocked(StageDriver driver, Object obj) {
+            return obj;
+        }
+        
+        public void endFeedBlocked(Object event) {
+            blocked++;
+        }
+        
+        public Object beginDequeueWait(StageDriver driver) {
+            return driver;
+        }
+        
+        public void endDequeueWait(Object event, boolean received) {
+            waits++;
+        }
+        
+        public void stateChanged(StageDriver driver, State from, State to) {
+            transitions.add(from + "->" + to);
+        }
+        
+        public void priorityChanged(PrioritizableStageDriver driver, DriverControlStrategy strategy, double from, double to) {
+        }
+    }
+}
@@ -169,4 +169,41 @@ public class BalancedPoolStageDriverTest extends AbstractStageDriverTest {
         assertEquals( count, threadNames.size() );
     }
     
+    /**
+     * Test that workers removed by lowering the priority are parked rather
+     * than stopped, and are reused when the priority is raised again.
+     */
+    public void testWorkerReuse() throws Exception {
+        final Set threadNames = Collections.synchronizedSet(new HashSet());
+        TestStage threadNameTrackingStage = new TestStage( 1 ) {
+            public void process( Object obj ) throws StageException {
+                super.process( obj );
+                threadNames.add( Thread.currentThread().getName() );
+            }
+        };
+        
+        TestStageContext context = new TestStageContext();
+        context.registerDownstreamFeeder(threadNameTrackingStage, new TestFeeder());
+        threadNameTrackingStage.init(context);
+        
+        BalancedPoolStageDriver instance = new BalancedPoolStageDriver(threadNameTrackingStage, context, new BlockingQueueFactory.LinkedBlockingQueueFactory(), 3, FaultTolerance.NONE, 500, java.util.concurrent.TimeUnit.MILLISECONDS);
+        instance.start();
+        
+        for (int round = 0; round < 10; round++) {
+            instance.decreasePriority(2);
+            assertEquals( 1, instance.getWorkerCount() );
+            assertEquals( 2, instance.getIdleWorkerCount() );
+            
+            instance.increasePriority(2);
+            assertEquals( 3, instance.getWorkerCount() );
+            assertEquals( 0, instance.getIdleWorkerCount() );
+            
+            for (int i = 0; i < 10; i++) instance.getFeeder().feed( i );
+        }
+        
+        instance.finish();
+        assertSame("Driver failed to shut down correctly", instance.getState(), State.STOPPED);
+        assertEquals( 100, threadNameTrackingStage.processedObjects.size() );
+        assertTrue( "Worker threads were not reused: " + threadNames, threadNames.size() <= 3 );
+    }
 }
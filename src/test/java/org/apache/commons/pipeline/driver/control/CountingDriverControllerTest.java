@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for CountingDriverController.
+ */
+public class CountingDriverControllerTest extends TestCase {
+    
+    public CountingDriverControllerTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(CountingDriverControllerTest.class);
+    }
+    
+    /**
+     * Test that the strategy is invoked once the events received stand for the
+     * minimum number of processed objects, however many events that takes.
+     */
+    public void testSampledEvents() throws Exception {
+        final List<Integer> handled = new ArrayList<Integer>();
+        CountingDriverController controller = new CountingDriverController();
+        controller.setMinimumEventsToHandle(32);
+        controller.setDriverControlStrategy(new DriverControlStrategy() {
+            public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events) {
+                synchronized (handled) {
+                    handled.add(events.size());
+                    handled.notifyAll();
+                }
+            }
+        });
+        controller.onStart(null);
+        
+        TestStage stage = new TestStage(0);
+        controller.notify(new StageProcessTimingEvent(stage, 5, 16));
+        controller.notify(new StageProcessTimingEvent(stage, 5, 16));
+        
+        synchronized (handled) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (handled.isEmpty() && System.currentTimeMillis() < deadline) handled.wait(100);
+            assertEquals("Strategy should have been invoked with both events", 1, handled.size());
+            assertEquals(2, handled.get(0).intValue());
+        }
+        
+        //wake the controller thread so that it sees it has been stopped
+        controller.onFinish(null);
+        controller.notify(new StageProcessTimingEvent(stage, 5, 1));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.testFramework.TestStageContext;
+
+/**
+ * Test cases for EwmaDriverControlStrategy.
+ */
+public class EwmaDriverControlStrategyTest extends TestCase {
+    
+    public EwmaDriverControlStrategyTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(EwmaDriverControlStrategyTest.class);
+    }
+    
+    /**
+     * Test that a busy stage is given a thread, is then left alone during the
+     * cooldown and while its utilization is between the thresholds, and loses
+     * the thread once it goes idle.
+     */
+    public void testHandleEvents() {
+        TestStage stage = new TestStage(0);
+        TestDriver driver = new TestDriver(stage);
+        List<PrioritizableStageDriver> drivers = Collections.<PrioritizableStageDriver>singletonList(driver);
+        List<StageProcessTimingEvent> busy = new ArrayList<StageProcessTimingEvent>();
+        for (int i = 0; i < 10; i++) busy.add(new StageProcessTimingEvent(stage, 95));
+        List<StageProcessTimingEvent> idle = Collections.emptyList();
+        
+        EwmaDriverControlStrategy instance = new EwmaDriverControlStrategy();
+        instance.handleEvents(drivers, busy, 0);
+        instance.handleEvents(drivers, busy, 1000);
+        assertEquals(2.0, driver.getPriority());
+        
+        for (long t = 2000; t <= 10000; t += 1000) {
+            instance.handleEvents(drivers, busy, t);
+            assertEquals("Priority changed at " + t + " ms", 2.0, driver.getPriority());
+        }
+        
+        for (long t = 11000; t <= 20000; t += 1000) instance.handleEvents(drivers, idle, t);
+        assertEquals(1.0, driver.getPriority());
+        assertTrue(instance.getUtilization(driver) < instance.getLowerThreshold());
+    }
+    
+    /**
+     * Test that a sampled event counts for every object it stands for.
+     */
+    public void testSampledEvents() {
+        TestStage stage = new TestStage(0);
+        TestDriver each = new TestDriver(stage);
+        TestDriver sampled = new TestDriver(stage);
+        List<StageProcessTimingEvent> eachEvents = new ArrayList<StageProcessTimingEvent>();
+        for (int i = 0; i < 10; i++) eachEvents.add(new StageProcessTimingEvent(stage, 50));
+        List<StageProcessTimingEvent> sampledEvents = Collections.singletonList(new StageProcessTimingEvent(stage, 50, 10));
+        
+        EwmaDriverControlStrategy instance = new EwmaDriverControlStrategy();
+        instance.handleEvents(Collections.<PrioritizableStageDriver>singletonList(each), eachEvents, 0);
+        instance.handleEvents(Collections.<PrioritizableStageDriver>singletonList(each), eachEvents, 1000);
+        instance.handleEvents(Collections.<PrioritizableStageDriver>singletonList(sampled), sampledEvents, 0);
+        instance.handleEvents(Collections.<PrioritizableStageDriver>singletonList(sampled), sampledEvents, 1000);
+        assertEquals(instance.getUtilization(each), instance.getUtilization(sampled), 1e-9);
+    }
+    
+    /**
+     * Test that the driver raises one timing event per sampling interval.
+     */
+    public void testTimingEventInterval() throws StageException {
+        TestStage stage = new TestStage(0);
+        TestDriver driver = new TestDriver(stage);
+        stage.init(driver.context);
+        driver.setTimingEventInterval(4);
+        for (int i = 0; i < 10; i++) driver.process(Integer.valueOf(i));
+        
+        List<?> events = driver.context.raisedEvents;
+        assertEquals(3, events.size());
+        assertEquals(4, ((StageProcessTimingEvent) events.get(0)).getCount());
+        
+        try {
+            driver.setTimingEventInterval(0);
+            fail("Interval of zero should be rejected");
+        } catch (IllegalArgumentException expected) { }
+    }
+    
+    /**
+     * Driver that simply records its priority.
+     */
+    private static class TestDriver extends AbstractPrioritizableStageDriver {
+        private final TestStageContext context;
+        private double priority = 1;
+        
+        TestDriver(TestStage stage) {
+            this(stage, new TestStageContext());
+        }
+        
+        private TestDriver(TestStage stage, TestStageContext context) {
+            super(stage, context, FaultTolerance.NONE);
+            this.context = context;
+        }
+        
+        public Feeder getFeeder() {
+            return Feeder.VOID;
+        }
+        
+        public void start() { }
+        
+        public void finish() { }
+        
+        public void increasePriority(double amount) {
+            priority += amount;
+        }
+        
+        public void decreasePriority(double amount) {
+            priority -= amount;
+        }
+        
+        public double getPriority() {
+            return priority;
+        }
+    }
+}
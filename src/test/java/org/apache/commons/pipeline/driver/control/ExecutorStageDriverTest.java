@@ -35,6 +35,10 @@ import org.apache.commons.pipeline.StageContext;
 import org.apache.commons.pipeline.StageDriver;
 import org.apache.commons.pipeline.StageException;
 import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.testFramework.TestFeeder;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.testFramework.TestStageContext;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
 
 public class ExecutorStageDriverTest extends TestCase {
     
@@ -58,74 +62,204 @@ public class ExecutorStageDriverTest extends TestCase {
      * Test of getFeeder method, of class org.apache.commons.pipeline.driver.control.ExecutorStageDriver.
      */
     public void testGetFeeder() {
-        System.out.println("getFeeder");
-        
-        ExecutorStageDriver instance = null;
-        
-        Feeder expResult = null;
-        Feeder result = instance.getFeeder();
-        assertEquals(expResult, result);
-        
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        ExecutorStageDriver instance = createDriver(new TestFeeder());
+        Feeder feeder = instance.getFeeder();
+        assertNotNull(feeder);
+        assertSame(feeder, instance.getFeeder());
     }
 
     /**
      * Test of start method, of class org.apache.commons.pipeline.driver.control.ExecutorStageDriver.
      */
     public void testStart() throws Exception {
-        System.out.println("start");
-        
-        ExecutorStageDriver instance = null;
+        ExecutorStageDriver instance = createDriver(new TestFeeder());
+        instance.start();
+        assertSame(RUNNING, instance.getState());
         
+        //starting a running driver has no effect
         instance.start();
+        assertSame(RUNNING, instance.getState());
         
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        instance.finish();
+        assertSame(STOPPED, instance.getState());
     }
 
     /**
      * Test of finish method, of class org.apache.commons.pipeline.driver.control.ExecutorStageDriver.
      */
     public void testFinish() throws Exception {
-        System.out.println("finish");
-        
-        ExecutorStageDriver instance = null;
-        
+        TestFeeder terminalFeeder = new TestFeeder();
+        ExecutorStageDriver instance = createDriver(terminalFeeder);
+        instance.start();
+        for (int i = 0; i < 10; i++) instance.getFeeder().feed(i);
         instance.finish();
         
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        assertSame(STOPPED, instance.getState());
+        assertEquals(10, terminalFeeder.receivedValues.size());
+        assertEquals(0, instance.getWorkerCount());
     }
 
     /**
      * Test of increasePriority method, of class org.apache.commons.pipeline.driver.control.ExecutorStageDriver.
      */
     public void testIncreasePriority() {
-        System.out.println("increasePriority");
-        
-        double amount = 0.0;
-        ExecutorStageDriver instance = null;
-        
-        instance.increasePriority(amount);
-        
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        ExecutorStageDriver instance = createDriver(new TestFeeder());
+        double priority = instance.getPriority();
+        instance.increasePriority(2);
+        assertEquals(priority + 2, instance.getPriority());
     }
 
     /**
      * Test of decreasePriority method, of class org.apache.commons.pipeline.driver.control.ExecutorStageDriver.
      */
     public void testDecreasePriority() {
-        System.out.println("decreasePriority");
+        ExecutorStageDriver instance = createDriver(new TestFeeder());
+        instance.increasePriority(3);
+        double priority = instance.getPriority();
+        instance.decreasePriority(2);
+        assertEquals(priority - 2, instance.getPriority());
+    }
+    
+    private ExecutorStageDriver createDriver(Feeder terminalFeeder) {
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0);
+        context.registerDownstreamFeeder(stage, terminalFeeder);
+        stage.init(context);
+        return new ExecutorStageDriver(stage, context, NONE, 0, 1);
+    }
+    
+    /**
+     * Integration test of combined feed/priority change for objects.
+     */
+    public void testSingleStage() throws Exception {
+        TestStage stage = new TestStage(0);
+        PrioritizableStageDriverTestUtils.testSingleStage(this, new ExecutorStageDriverFactory(), stage);
+    }
+    
+    /**
+     * Integration test of combined feed/priority change for objects.
+     */
+    public void testMultiStage() throws Exception {
+        TestStage[] stages = {
+            new TestStage(0),
+            new CPUBoundTestStage(1, 50),
+            new IOBoundTestStage(2, 50, 250)
+        };
+        PrioritizableStageDriverTestUtils.testMultiStage(this, new ExecutorStageDriverFactory(), 30, stages);
+    }
+    
+    /**
+     * Tests that the number of workers follows the priority of the driver.
+     */
+    public void testAlterPriority() throws Exception {
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0);
+        context.registerDownstreamFeeder(stage, new TestFeeder());
+        stage.init(context);
         
-        double amount = 0.0;
-        ExecutorStageDriver instance = null;
+        ExecutorStageDriver instance = new ExecutorStageDriver(stage, context, NONE, 0, 0);
+        instance.start();
+        assertEquals(0, instance.getWorkerCount());
         
-        instance.decreasePriority(amount);
+        instance.increasePriority(3);
+        assertEquals(3.0, instance.getPriority());
+        assertEquals(3, instance.getWorkerCount());
         
-        // TODO review the generated test code and remove the default call to fail.
-        fail("The test case is a prototype.");
+        instance.decreasePriority(2);
+        assertEquals(1.0, instance.getPriority());
+        for (int i = 0; i < 100 && instance.getWorkerCount() > 1; i++) Thread.sleep(50);
+        assertEquals("Surplus workers did not retire.", 1, instance.getWorkerCount());
+        
+        instance.finish();
+        assertEquals(0, instance.getWorkerCount());
+        assertSame(STOPPED, instance.getState());
+    }
+    
+    /**
+     * Tests that feeders wait for space in a full queue, and that finish
+     * does not return until every queued object has been processed.
+     */
+    public void testBoundedQueue() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0) {
+            public void process(Object obj) throws StageException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new StageException(this, e);
+                }
+                super.process(obj);
+            }
+        };
+        TestFeeder terminalFeeder = new TestFeeder();
+        context.registerDownstreamFeeder(stage, terminalFeeder);
+        stage.init(context);
+        
+        BlockingQueueFactory.ArrayBlockingQueueFactory<Object> queueFactory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Object>();
+        queueFactory.setCapacity(2);
+        final ExecutorStageDriver instance = new ExecutorStageDriver(stage, context, queueFactory, 100, NONE, 1, 1);
+        instance.start();
+        
+        //one object is held by the worker and two fill the queue
+        final CountDownLatch fed = new CountDownLatch(1);
+        Thread feeder = new Thread() {
+            public void run() {
+                for (int i = 0; i < 4; i++) instance.getFeeder().feed(i);
+                fed.countDown();
+            }
+        };
+        feeder.start();
+        
+        assertFalse("Feeder was not blocked by a full queue.", fed.await(500, java.util.concurrent.TimeUnit.MILLISECONDS));
+        release.countDown();
+        feeder.join();
+        
+        instance.finish();
+        assertEquals(4, terminalFeeder.receivedValues.size());
+        assertEquals(4, instance.getObjectsProcessed());
+        assertSame(STOPPED, instance.getState());
+    }
+    
+    /**
+     * Test that objects fed before the driver is started are queued without limit
+     * by the default queue.
+     */
+    public void testFeedBeforeStart() throws Exception {
+        TestFeeder terminalFeeder = new TestFeeder();
+        ExecutorStageDriver instance = createDriver(terminalFeeder);
+        for (int i = 0; i < 2000; i++) instance.getFeeder().feed(i);
+        
+        instance.start();
+        instance.finish();
+        assertEquals(2000, terminalFeeder.receivedValues.size());
     }
     
+    /**
+     * Test that feeding a full bounded queue before the driver is started fails
+     * rather than blocking forever.
+     */
+    public void testFullQueueBeforeStart() throws Exception {
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0);
+        TestFeeder terminalFeeder = new TestFeeder();
+        context.registerDownstreamFeeder(stage, terminalFeeder);
+        stage.init(context);
+        
+        BlockingQueueFactory.ArrayBlockingQueueFactory<Object> queueFactory = new BlockingQueueFactory.ArrayBlockingQueueFactory<Object>();
+        queueFactory.setCapacity(2);
+        ExecutorStageDriver instance = new ExecutorStageDriver(stage, context, queueFactory, 100, NONE, 0, 1);
+        instance.getFeeder().feed(0);
+        instance.getFeeder().feed(1);
+        try {
+            instance.getFeeder().feed(2);
+            fail("Feeding a full queue before the driver was started should have failed.");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        
+        instance.start();
+        instance.finish();
+        assertEquals(2, terminalFeeder.receivedValues.size());
+    }
 }
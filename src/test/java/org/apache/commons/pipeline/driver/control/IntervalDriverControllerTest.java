@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for IntervalDriverController.
+ */
+public class IntervalDriverControllerTest extends TestCase {
+    
+    public IntervalDriverControllerTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(IntervalDriverControllerTest.class);
+    }
+    
+    /**
+     * Test that a strategy invocation that overruns the interval is followed by
+     * a full interval rather than an immediate catch-up invocation.
+     */
+    public void testOverrun() throws Exception {
+        final List<Long> starts = new ArrayList<Long>();
+        final List<Long> ends = new ArrayList<Long>();
+        IntervalDriverController controller = new IntervalDriverController();
+        controller.setInterval(50);
+        controller.setDriverControlStrategy(new DriverControlStrategy() {
+            public void handleEvents(List<PrioritizableStageDriver> drivers, List<StageProcessTimingEvent> events) {
+                synchronized (starts) {
+                    starts.add(System.currentTimeMillis());
+                }
+                if (starts.size() == 1) {
+                    try {
+                        Thread.sleep(250);
+                    } catch (InterruptedException e) {
+                        //finish early
+                    }
+                }
+                synchronized (starts) {
+                    ends.add(System.currentTimeMillis());
+                }
+            }
+        });
+        
+        controller.onStart(null);
+        Thread.sleep(500);
+        controller.onFinish(null);
+        
+        synchronized (starts) {
+            assertTrue("Strategy should have been invoked again after the overrun", starts.size() >= 2);
+            long gap = starts.get(1) - ends.get(0);
+            assertTrue("Invocation after an overrun should wait for the interval, waited " + gap + "ms", gap >= 40);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.testFramework.TestStageContext;
+
+/**
+ * Test cases for QueueDepthDriverControlStrategy.
+ */
+public class QueueDepthDriverControlStrategyTest extends TestCase {
+    private TestDriver driver;
+    private List<PrioritizableStageDriver> drivers;
+    private QueueDepthDriverControlStrategy instance;
+    
+    public QueueDepthDriverControlStrategyTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(QueueDepthDriverControlStrategyTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0);
+        stage.init(context);
+        driver = new TestDriver(stage, context, null);
+        drivers = new ArrayList<PrioritizableStageDriver>();
+        drivers.add(driver);
+        
+        instance = new QueueDepthDriverControlStrategy();
+        instance.setSmoothing(1.0);
+        instance.setMaximumPriority(16);
+    }
+    
+    /**
+     * Test that a backed-up stage is given more threads in damped steps and
+     * that threads are withdrawn once its queue is drained.
+     */
+    public void testHandleEvents() throws Exception {
+        List<StageProcessTimingEvent> events = timings(2L);
+        List<StageProcessTimingEvent> none = Collections.emptyList();
+        
+        instance.handleEvents(drivers, events, 0L);
+        assertEquals(1.0, driver.getPriority());
+        
+        //4 objects/ms arriving at a stage taking 2 ms each needs 8 threads;
+        //the step is limited by the maximum step size
+        driver.arrive(400);
+        driver.depart(100);
+        instance.handleEvents(drivers, events, 100);
+        assertEquals(3.0, driver.getPriority());
+        
+        //no more arrivals and an empty queue: back toward the minimum
+        driver.depart(300);
+        instance.handleEvents(drivers, none, 200);
+        assertEquals(2.0, driver.getPriority());
+        
+        //within the deadband, nothing changes
+        instance.setDeadband(2.0);
+        instance.handleEvents(drivers, none, 300);
+        assertEquals(2.0, driver.getPriority());
+    }
+    
+    /**
+     * Test that a stage with an empty queue is not given threads however slow it is.
+     */
+    public void testSlowStageWithEmptyQueue() throws Exception {
+        instance.handleEvents(drivers, timings(50L), 0L);
+        driver.arrive(1);
+        driver.depart(1);
+        instance.handleEvents(drivers, timings(50L), 1000);
+        assertEquals(1.0, driver.getPriority());
+    }
+    
+    /**
+     * Test that threads are moved from an idle stage to a backed-up stage when
+     * the budget they share is exhausted.
+     */
+    public void testReassignmentWithinBudget() throws Exception {
+        ThreadBudget budget = new ThreadBudget(4);
+        driver = new TestDriver((TestStage) driver.getStage(), new TestStageContext(), budget);
+        TestStage idleStage = new TestStage(1);
+        idleStage.init(new TestStageContext());
+        TestDriver idle = new TestDriver(idleStage, new TestStageContext(), budget);
+        idle.increasePriority(2);
+        drivers.clear();
+        drivers.add(driver);
+        drivers.add(idle);
+        assertEquals(4, budget.getAllocated());
+        
+        List<StageProcessTimingEvent> events = timings(2L);
+        events.addAll(timings(idle, 2L));
+        instance.handleEvents(drivers, events, 0L);
+        driver.arrive(400);
+        driver.depart(100);
+        instance.handleEvents(drivers, events, 100);
+        
+        assertEquals(3.0, driver.getPriority());
+        assertEquals(1.0, idle.getPriority());
+        assertEquals(4, budget.getAllocated());
+    }
+    
+    private List<StageProcessTimingEvent> timings(long latency) {
+        return timings(driver, latency);
+    }
+    
+    private List<StageProcessTimingEvent> timings(PrioritizableStageDriver driver, long latency) {
+        List<StageProcessTimingEvent> events = new ArrayList<StageProcessTimingEvent>();
+        for (int i = 0; i < 10; i++) events.add(new StageProcessTimingEvent(driver.getStage(), latency));
+        return events;
+    }
+    
+    /**
+     * Driver whose queue is filled and drained explicitly by the test.
+     */
+    private static class TestDriver extends AbstractPrioritizableStageDriver {
+        private final Queue<Object> queue = new LinkedList<Object>();
+        private double priority = 0;
+        
+        TestDriver(TestStage stage, TestStageContext context, ThreadBudget budget) {
+            super(stage, context, FaultTolerance.NONE);
+            setThreadBudget(budget);
+            increasePriority(1);
+        }
+        
+        void arrive(int count) {
+            for (int i = 0; i < count; i++) {
+                queue.add("Object " + i);
+                recordFed();
+            }
+        }
+        
+        void depart(int count) throws StageException {
+            for (int i = 0; i < count; i++) process(queue.remove());
+        }
+        
+        protected Queue<?> getQueue() {
+            return queue;
+        }
+        
+        public Feeder getFeeder() {
+            return Feeder.VOID;
+        }
+        
+        public void start() { }
+        
+        public void finish() { }
+        
+        public void increasePriority(double amount) {
+            priority += acquireThreads((int) amount);
+        }
+        
+        public void decreasePriority(double amount) {
+            priority -= amount;
+            releaseThreads((int) amount);
+        }
+        
+        public double getPriority() {
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.testFramework.TestStageContext;
+import org.apache.commons.pipeline.util.BlockingQueueFactory;
+
+/**
+ * Test cases for ThreadBudget.
+ */
+public class ThreadBudgetTest extends TestCase {
+    
+    public ThreadBudgetTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(ThreadBudgetTest.class);
+    }
+    
+    /**
+     * Test of acquire and release methods, of class org.apache.commons.pipeline.driver.control.ThreadBudget.
+     */
+    public void testAcquireAndRelease() {
+        ThreadBudget instance = new ThreadBudget(3);
+        assertEquals(2, instance.acquire(2));
+        assertEquals(1, instance.acquire(2));
+        assertEquals(0, instance.acquire(1));
+        assertEquals(0, instance.getAvailable());
+        
+        instance.release(2);
+        assertEquals(2, instance.getAvailable());
+        assertEquals(1, instance.getAllocated());
+        
+        try {
+            instance.release(2);
+            fail("Releasing more threads than were allocated should fail.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+    
+    /**
+     * Test that drivers sharing a budget cannot grow beyond it, and return
+     * their threads when finished.
+     */
+    public void testBalancedPoolStageDriverWithinBudget() throws Exception {
+        ThreadBudget budget = new ThreadBudget(3);
+        BalancedPoolStageDriver first = createDriver(budget, 2);
+        BalancedPoolStageDriver second = createDriver(budget, 2);
+        
+        first.start();
+        second.start();
+        assertEquals(2, first.getWorkerCount());
+        assertEquals(1, second.getWorkerCount());
+        
+        second.increasePriority(2);
+        assertEquals(1, second.getWorkerCount());
+        
+        first.decreasePriority(1);
+        second.increasePriority(2);
+        assertEquals(2, second.getWorkerCount());
+        assertEquals(0, budget.getAvailable());
+        
+        first.finish();
+        second.finish();
+        assertEquals(0, budget.getAllocated());
+    }
+    
+    /**
+     * Test that drivers created by factories without a budget of their own
+     * share the budget of the pipeline, including drivers in branches.
+     */
+    public void testPipelineBudget() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setJmxEnabled(false);
+        pipeline.setMaxThreads(3);
+        BalancedPoolStageDriverFactory factory = new BalancedPoolStageDriverFactory();
+        factory.setInitialThreads(2);
+        TestStage stage = new TestStage(0);
+        pipeline.addStage(stage, factory);
+        
+        Pipeline branch = new Pipeline();
+        TestStage branchStage = new TestStage(0);
+        branch.addStage(branchStage, factory);
+        pipeline.addBranch("branch", branch);
+        
+        pipeline.start();
+        BalancedPoolStageDriver driver = (BalancedPoolStageDriver) pipeline.getStageDriver(stage);
+        BalancedPoolStageDriver branchDriver = (BalancedPoolStageDriver) branch.getStageDriver(branchStage);
+        assertSame(pipeline.getThreadBudget(), branchDriver.getThreadBudget());
+        assertEquals(3, driver.getWorkerCount() + branchDriver.getWorkerCount());
+        assertEquals(0, pipeline.getThreadBudget().getAvailable());
+        
+        pipeline.finish();
+        assertEquals(0, pipeline.getThreadBudget().getAllocated());
+    }
+    
+    private BalancedPoolStageDriver createDriver(ThreadBudget budget, int initialThreads) {
+        TestStageContext context = new TestStageContext();
+        TestStage stage = new TestStage(0);
+        stage.init(context);
+        BalancedPoolStageDriver driver = new BalancedPoolStageDriver(stage, context, new BlockingQueueFactory.LinkedBlockingQueueFactory(),
+                initialThreads, FaultTolerance.NONE, 50, TimeUnit.MILLISECONDS);
+        driver.setThreadBudget(budget);
+        return driver;
+    }
+}
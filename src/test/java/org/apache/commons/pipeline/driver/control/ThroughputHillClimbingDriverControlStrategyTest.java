@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.driver.FaultTolerance;
+import org.apache.commons.pipeline.testFramework.TestStage;
+import org.apache.commons.pipeline.testFramework.TestStageContext;
+import org.apache.commons.pipeline.util.CountingFeeder;
+
+/**
+ * Test cases for ThroughputHillClimbingDriverControlStrategy.
+ */
+public class ThroughputHillClimbingDriverControlStrategyTest extends TestCase {
+    
+    public ThroughputHillClimbingDriverControlStrategyTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(ThroughputHillClimbingDriverControlStrategyTest.class);
+    }
+    
+    /**
+     * Test that the strategy finds the thread counts that maximize the
+     * throughput of a simulated two stage pipeline, where each thread of the
+     * first stage handles 12 objects per second and each thread of the second
+     * handles 5, and then leaves them alone for the settle period.
+     */
+    public void testHandleEvents() {
+        TestDriver first = new TestDriver(new TestStage(0), 12);
+        TestDriver second = new TestDriver(new TestStage(1), 5);
+        List<PrioritizableStageDriver> drivers = new ArrayList<PrioritizableStageDriver>();
+        drivers.add(first);
+        drivers.add(second);
+        List<StageProcessTimingEvent> events = new ArrayList<StageProcessTimingEvent>();
+        
+        CountingFeeder terminal = new CountingFeeder();
+        ThroughputHillClimbingDriverControlStrategy instance = new ThroughputHillClimbingDriverControlStrategy(terminal);
+        instance.setMaximumPriority(4);
+        instance.setSettlePeriods(100);
+        
+        for (long t = 0; t <= 30000; t += 1000) {
+            double throughput = Math.min(first.getCapacity(), second.getCapacity());
+            for (int i = 0; i < throughput; i++) terminal.feed(null);
+            instance.handleEvents(drivers, events, t);
+        }
+        
+        assertEquals(2.0, first.getPriority());
+        assertEquals(4.0, second.getPriority());
+        
+        //once settled, the configuration is left alone
+        for (long t = 31000; t <= 60000; t += 1000) {
+            double throughput = Math.min(first.getCapacity(), second.getCapacity());
+            for (int i = 0; i < throughput; i++) terminal.feed(null);
+            instance.handleEvents(drivers, events, t);
+            assertEquals(2.0, first.getPriority());
+            assertEquals(4.0, second.getPriority());
+        }
+    }
+    
+    /**
+     * Test that two stages that are bottlenecks at the same time are increased
+     * together.
+     */
+    public void testJointIncrease() {
+        TestDriver first = new TestDriver(new TestStage(0), 10);
+        TestDriver second = new TestDriver(new TestStage(1), 10);
+        List<PrioritizableStageDriver> drivers = new ArrayList<PrioritizableStageDriver>();
+        drivers.add(first);
+        drivers.add(second);
+        List<StageProcessTimingEvent> events = new ArrayList<StageProcessTimingEvent>();
+        
+        CountingFeeder terminal = new CountingFeeder();
+        ThroughputHillClimbingDriverControlStrategy instance = new ThroughputHillClimbingDriverControlStrategy(terminal);
+        instance.setMaximumPriority(3);
+        instance.setSettlePeriods(0);
+        
+        for (long t = 0; t <= 60000; t += 1000) {
+            double throughput = Math.min(first.getCapacity(), second.getCapacity());
+            for (int i = 0; i < throughput; i++) terminal.feed(null);
+            instance.handleEvents(drivers, events, t);
+        }
+        
+        assertTrue(first.getPriority() > 1 && first.getPriority() == second.getPriority());
+    }
+    
+    /**
+     * Test that the processed count of the last driver is used when no
+     * throughput feeder is set.
+     */
+    public void testWithoutFeeder() {
+        TestStage stage = new TestStage(0);
+        stage.init(new TestStageContext());
+        TestDriver driver = new TestDriver(stage, 10);
+        List<PrioritizableStageDriver> drivers = new ArrayList<PrioritizableStageDriver>();
+        drivers.add(driver);
+        List<StageProcessTimingEvent> events = new ArrayList<StageProcessTimingEvent>();
+        
+        ThroughputHillClimbingDriverControlStrategy instance = new ThroughputHillClimbingDriverControlStrategy();
+        instance.handleEvents(drivers, events, 0);
+        driver.getFeeder().feed(null);
+        instance.handleEvents(drivers, events, 1000);
+        assertEquals(1.0, instance.getBaseline());
+    }
+    
+    /**
+     * Driver whose simulated capacity is proportional to its priority.
+     */
+    private static class TestDriver extends AbstractPrioritizableStageDriver {
+        private final double rate;
+        private double priority = 1;
+        
+        TestDriver(TestStage stage, double rate) {
+            super(stage, new TestStageContext(), FaultTolerance.NONE);
+            this.rate = rate;
+        }
+        
+        double getCapacity() {
+            return rate * priority;
+        }
+        
+        public Feeder getFeeder() {
+            return new Feeder() {
+                public void feed(Object obj) {
+                    try {
+                        process(obj);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        
+        public void start() { }
+        
+        public void finish() { }
+        
+        public void increasePriority(double amount) {
+            priority += amount;
+        }
+        
+        public void decreasePriority(double amount) {
+            priority -= amount;
+        }
+        
+        public double getPriority() {
+            return priority;
+        }
+    }
+}
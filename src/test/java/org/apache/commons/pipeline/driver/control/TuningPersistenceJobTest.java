@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.Stage;
+import org.apache.commons.pipeline.stage.AddToCollectionStage;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for TuningPersistenceJob.
+ */
+public class TuningPersistenceJobTest extends TestCase {
+    private File file;
+    
+    public TuningPersistenceJobTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(TuningPersistenceJobTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        file = File.createTempFile("tuning", ".properties");
+        file.delete();
+    }
+    
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+    
+    /**
+     * Test that tuning saved when one pipeline finishes is restored when a
+     * pipeline with the same configuration starts, and only then.
+     */
+    public void testSaveAndRestore() throws Exception {
+        TuningPersistenceJob job = new TuningPersistenceJob(file);
+        
+        Pipeline first = createPipeline(new TestStage(0), 1);
+        first.addLifecycleJob(job);
+        first.start();
+        getDriver(first, 1).increasePriority(2);
+        getDriver(first, 1).getWorkloadMonitor().restore(StageWorkload.CPU_BOUND, 0.9);
+        for (int i = 0; i < 10; i++) first.getSourceFeeder().feed(i);
+        first.finish();
+        assertTrue(file.exists());
+        assertEquals(3.0, getDriver(first, 1).getPriority());
+        
+        Pipeline second = createPipeline(new TestStage(0), 1);
+        job.onStart(second);
+        assertEquals(1.0, getDriver(second, 0).getPriority());
+        assertEquals(3.0, getDriver(second, 1).getPriority());
+        assertEquals(StageWorkload.CPU_BOUND, getDriver(second, 1).getWorkload());
+        assertEquals(StageWorkload.UNKNOWN, getDriver(second, 0).getWorkload());
+        second.start();
+        assertEquals(3, getDriver(second, 1).getWorkerCount());
+        second.finish();
+        
+        Pipeline other = createPipeline(new AddToCollectionStage<Object>(new ArrayList<Object>()), 2);
+        assertFalse(TuningPersistenceJob.fingerprint(first).equals(TuningPersistenceJob.fingerprint(other)));
+        job.onStart(other);
+        assertEquals(2.0, getDriver(other, 1).getPriority());
+    }
+    
+    /**
+     * Test that saved priorities below the configured ones are restored
+     * without starting any threads.
+     */
+    public void testRestoreDecrease() throws Exception {
+        TuningPersistenceJob job = new TuningPersistenceJob(file);
+        job.onFinish(createPipeline(new TestStage(0), 1));
+        
+        Pipeline pipeline = createPipeline(new TestStage(0), 4);
+        job.onStart(pipeline);
+        assertEquals(1.0, getDriver(pipeline, 0).getPriority());
+        assertEquals(0, getDriver(pipeline, 0).getWorkerCount());
+    }
+    
+    /**
+     * Test that a missing file leaves the drivers at their configured priorities.
+     */
+    public void testMissingFile() throws Exception {
+        Pipeline pipeline = createPipeline(new TestStage(0), 2);
+        new TuningPersistenceJob(file).onStart(pipeline);
+        assertEquals(2.0, getDriver(pipeline, 1).getPriority());
+    }
+    
+    /**
+     * Test that invalid saved values for one stage are ignored without
+     * affecting the others, as a stale or corrupt file must not prevent the
+     * pipeline from starting.
+     */
+    public void testCorruptFile() throws Exception {
+        TuningPersistenceJob job = new TuningPersistenceJob();
+        job.setFileName(file.getPath());
+        assertEquals(file.getPath(), job.getFileName());
+        job.onFinish(createPipeline(new TestStage(0), 3));
+        
+        String prefix = TuningPersistenceJob.fingerprint(createPipeline(new TestStage(0), 1));
+        Properties tuning = new Properties();
+        FileInputStream in = new FileInputStream(file);
+        tuning.load(in);
+        in.close();
+        tuning.setProperty(prefix + ".0.priority", "three");
+        tuning.setProperty(prefix + ".1.workload", "NO_SUCH_WORKLOAD");
+        FileOutputStream out = new FileOutputStream(file);
+        tuning.store(out, null);
+        out.close();
+        
+        Pipeline pipeline = createPipeline(new TestStage(0), 1);
+        job.onStart(pipeline);
+        assertEquals(1.0, getDriver(pipeline, 0).getPriority());
+        assertEquals(3.0, getDriver(pipeline, 1).getPriority());
+        assertEquals(StageWorkload.UNKNOWN, getDriver(pipeline, 1).getWorkload());
+    }
+    
+    /**
+     * Test that a job without a file does nothing.
+     */
+    public void testNoFile() throws Exception {
+        Pipeline pipeline = createPipeline(new TestStage(0), 2);
+        TuningPersistenceJob job = new TuningPersistenceJob();
+        job.onStart(pipeline);
+        job.onFinish(pipeline);
+        assertEquals(2.0, getDriver(pipeline, 1).getPriority());
+    }
+    
+    private Pipeline createPipeline(Stage second, int initialThreads) throws Exception {
+        BalancedPoolStageDriverFactory factory = new BalancedPoolStageDriverFactory();
+        factory.setInitialThreads(initialThreads);
+        
+        Pipeline pipeline = new Pipeline();
+        pipeline.setJmxEnabled(false);
+        pipeline.addStage(new TestStage(0), factory);
+        pipeline.addStage(second, factory);
+        return pipeline;
+    }
+    
+    private BalancedPoolStageDriver getDriver(Pipeline pipeline, int index) {
+        return (BalancedPoolStageDriver) pipeline.getStageDrivers().get(index);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.driver.control;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for WorkloadMonitor.
+ */
+public class WorkloadMonitorTest extends TestCase {
+    
+    public WorkloadMonitorTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(WorkloadMonitorTest.class);
+    }
+    
+    /**
+     * Test of classify method, of class org.apache.commons.pipeline.driver.control.WorkloadMonitor.
+     */
+    public void testClassify() {
+        assertEquals(StageWorkload.CPU_BOUND, WorkloadMonitor.classify(0.95, 0.0));
+        assertEquals(StageWorkload.CONTENDED, WorkloadMonitor.classify(0.2, 0.5));
+        assertEquals(StageWorkload.BLOCKING, WorkloadMonitor.classify(0.05, 0.0));
+        
+        //on a host with four runnable threads per processor, a quarter of the time is all a stage can get
+        assertEquals(StageWorkload.CPU_BOUND, WorkloadMonitor.classify(0.22, 0.0, 0.25));
+        assertEquals(StageWorkload.BLOCKING, WorkloadMonitor.classify(0.05, 0.0, 0.25));
+    }
+    
+    /**
+     * Test that spinning and sleeping calls are told apart.
+     */
+    public void testGetWorkload() throws Exception {
+        WorkloadMonitor spinning = new WorkloadMonitor(1, 4);
+        WorkloadMonitor sleeping = new WorkloadMonitor(1, 4);
+        assertEquals(StageWorkload.UNKNOWN, spinning.getWorkload());
+        
+        //warm up so that compilation does not count against the spinning thread
+        PrioritizableStageDriverTestUtils.consumeNCubed(200);
+        
+        for (int i = 0; i < 4; i++) {
+            long[] sample = spinning.begin();
+            PrioritizableStageDriverTestUtils.consumeNCubed(150);
+            spinning.end(sample);
+            
+            sample = sleeping.begin();
+            Thread.sleep(5);
+            sleeping.end(sample);
+        }
+        
+        if (spinning.begin() == null) return; //thread CPU time is not supported on this platform
+        assertEquals(StageWorkload.CPU_BOUND, spinning.getWorkload());
+        assertEquals(StageWorkload.BLOCKING, sleeping.getWorkload());
+        assertTrue(sleeping.getCpuRatio() < 0.5);
+    }
+    
+    /**
+     * Test that the runnable thread count taken at the end of a window is
+     * used to classify a stage with a low CPU ratio.
+     */
+    public void testOversubscribed() throws Exception {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        WorkloadMonitor monitor = new WorkloadMonitor(1, 1) {
+            int runnableThreads() {
+                return processors * 100;
+            }
+        };
+        long[] sample = monitor.begin();
+        if (sample == null) return; //thread CPU time is not supported on this platform
+        PrioritizableStageDriverTestUtils.consumeNCubed(150);
+        Thread.sleep(20);
+        monitor.end(sample);
+        
+        assertEquals(0.01, monitor.getCpuShare(), 0.0001);
+        assertTrue(monitor.getCpuRatio() < 0.7);
+        assertEquals(StageWorkload.CPU_BOUND, monitor.getWorkload());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.driver.control.simulation;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.driver.control.DriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.EwmaDriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.QueueDepthDriverControlStrategy;
+import org.apache.commons.pipeline.driver.control.StageWorkload;
+import org.apache.commons.pipeline.driver.control.ThreadBudget;
+import org.apache.commons.pipeline.driver.control.ThroughputHillClimbingDriverControlStrategy;
+
+/**
+ * Test cases for Simulation.
+ */
+public class SimulationTest extends TestCase {
+    
+    public SimulationTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(SimulationTest.class);
+    }
+    
+    /**
+     * Test that a single stage with constant timings behaves exactly as expected.
+     */
+    public void testConstantTimes() {
+        Simulation simulation = new Simulation(null, 0);
+        simulation.setInterArrivalTime(new TimeDistribution.Constant(20));
+        simulation.addStage(new SimulatedStage("stage", new TimeDistribution.Constant(10)), 1);
+        
+        SimulationResult result = simulation.run(10000);
+        //the object arriving at the end is still being processed
+        assertEquals(500, result.getArrived());
+        assertEquals(499, result.getCompleted());
+        assertEquals(49.9, result.getThroughput(), 0.001);
+        assertEquals(10.0, result.getMeanLatency(), 0.001);
+        assertEquals(10.0, result.getMaxLatency(), 0.001);
+        assertEquals(0, result.getMaxQueueLengths()[0]);
+    }
+    
+    /**
+     * Test that runs with the same seed have the same results.
+     */
+    public void testReproducible() {
+        assertEquals(createSimulation(new EwmaDriverControlStrategy(), 42).run(60000).toString(),
+                createSimulation(new EwmaDriverControlStrategy(), 42).run(60000).toString());
+    }
+    
+    /**
+     * Test that each strategy adds threads to a slow stage until the pipeline
+     * keeps up with its input, which it cannot do without control.
+     */
+    public void testStrategies() {
+        SimulationResult uncontrolled = createSimulation(null, 1).run(120000);
+        assertTrue(uncontrolled.toString(), uncontrolled.getThroughput() < 30);
+        
+        DriverControlStrategy[] strategies = {
+            new EwmaDriverControlStrategy(), new QueueDepthDriverControlStrategy(), new ThroughputHillClimbingDriverControlStrategy()
+        };
+        for (DriverControlStrategy strategy : strategies) {
+            Simulation simulation = createSimulation(strategy, 1);
+            simulation.setWarmup(60000);
+            SimulationResult result = simulation.run(180000);
+            assertTrue(strategy.getClass().getName() + ": " + result, result.getThroughput() > 90);
+            assertTrue(strategy.getClass().getName() + ": " + result, result.getFinalThreads()[1] >= 4);
+        }
+    }
+    
+    /**
+     * Test that CPU bound stages gain nothing from more threads than processors,
+     * and that a thread budget limits the threads of all stages.
+     */
+    public void testCpuBoundAndBudget() {
+        Simulation simulation = new Simulation(null, 0);
+        simulation.setProcessors(2);
+        simulation.setInterArrivalTime(new TimeDistribution.Constant(1));
+        simulation.addStage(new SimulatedStage("cpu", new TimeDistribution.Constant(10), StageWorkload.CPU_BOUND), 8);
+        assertEquals(200.0, simulation.run(10000).getThroughput(), 5.0);
+        
+        simulation = new Simulation(null, 0);
+        simulation.setThreadBudget(new ThreadBudget(3));
+        simulation.setInterArrivalTime(new TimeDistribution.Constant(1));
+        simulation.addStage(new SimulatedStage("first", new TimeDistribution.Constant(10)), 2);
+        simulation.addStage(new SimulatedStage("second", new TimeDistribution.Constant(10)), 2);
+        SimulationResult result = simulation.run(10000);
+        assertEquals(2.0, result.getFinalThreads()[0]);
+        assertEquals(1.0, result.getFinalThreads()[1]);
+        assertEquals(100.0, result.getThroughput(), 5.0);
+    }
+    
+    /**
+     * Creates a simulation in which objects arrive at 100 per second at a
+     * fast stage followed by one that needs at least four threads to keep up.
+     */
+    private Simulation createSimulation(DriverControlStrategy strategy, long seed) {
+        Simulation simulation = new Simulation(strategy, seed);
+        simulation.setInterArrivalTime(new TimeDistribution.Exponential(10));
+        simulation.addStage(new SimulatedStage("parse", new TimeDistribution.Exponential(2)), 1);
+        simulation.addStage(new SimulatedStage("fetch", new TimeDistribution.LogNormal(35, 1)), 1);
+        return simulation;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.jmx;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.driver.SynchronousStageDriverFactory;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for PipelineRegistration.
+ */
+public class PipelineRegistrationTest extends TestCase {
+    private MBeanServer server;
+    
+    public PipelineRegistrationTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(PipelineRegistrationTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        server = MBeanServerFactory.newMBeanServer();
+    }
+    
+    /**
+     * Test of register method, of class org.apache.commons.pipeline.jmx.PipelineRegistration.
+     */
+    public void testRegister() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setJmxEnabled(false);
+        pipeline.addStage(new TestStage(0), new DedicatedThreadStageDriverFactory());
+        Pipeline branch = new Pipeline();
+        branch.addStage(new TestStage(1), new SynchronousStageDriverFactory());
+        pipeline.addBranch("b1", branch);
+        
+        PipelineRegistration registration = PipelineRegistration.register(pipeline, "test", server);
+        //two pipelines, two drivers and two queues
+        assertEquals(6, registration.getObjectNames().size());
+        
+        ObjectName main = new ObjectName("org.apache.commons.pipeline:pipeline=test,branch=main,type=Pipeline");
+        ObjectName driver = new ObjectName("org.apache.commons.pipeline:pipeline=test,branch=main,type=StageDriver,name=0-TestStage");
+        ObjectName queue = new ObjectName("org.apache.commons.pipeline:pipeline=test,branch=main,type=Queue,name=0-TestStage");
+        ObjectName branchDriver = new ObjectName("org.apache.commons.pipeline:pipeline=test,branch=b1,type=StageDriver,name=0-TestStage");
+        assertTrue(server.isRegistered(branchDriver));
+        
+        assertEquals(1, server.getAttribute(main, "StageCount"));
+        assertEquals(1, server.getAttribute(main, "BranchCount"));
+        assertEquals("STOPPED", server.getAttribute(driver, "State"));
+        
+        pipeline.start();
+        for (int i = 0; i < 5; i++) pipeline.getSourceFeeder().feed("Object " + i);
+        pipeline.getBranchFeeder("b1").feed("Branch object");
+        pipeline.finish();
+        
+        assertEquals(5L, server.getAttribute(driver, "ObjectsFed"));
+        assertEquals(5L, server.getAttribute(driver, "ObjectsProcessed"));
+        assertEquals(5L, server.getAttribute(main, "ObjectsFed"));
+        assertEquals(0, server.getAttribute(queue, "Occupancy"));
+        assertEquals(0, server.getAttribute(queue, "BlockedProducerCount"));
+        assertEquals(1L, server.getAttribute(branchDriver, "ObjectsProcessed"));
+        
+        registration.unregister();
+        assertFalse(server.isRegistered(main));
+        assertTrue(registration.getObjectNames().isEmpty());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.loadtest;
+
+import java.net.URL;
+import java.util.Properties;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.config.DigesterPipelineFactory;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.driver.ThreadPoolStageDriverFactory;
+import org.apache.commons.pipeline.driver.control.simulation.TimeDistribution;
+import org.apache.commons.pipeline.stage.LogStage;
+import org.apache.commons.pipeline.testFramework.TestFeeder;
+
+/**
+ * Test cases for LoadTest.
+ */
+public class LoadTestTest extends TestCase {
+    
+    public LoadTestTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(LoadTestTest.class);
+    }
+    
+    /**
+     * Test that an open loop test feeds items at the configured rate and
+     * measures the latency and utilization of lightly loaded stages.
+     */
+    public void testOpenLoop() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        DedicatedThreadStageDriverFactory factory = new DedicatedThreadStageDriverFactory();
+        pipeline.addStage(new SyntheticStage(new TimeDistribution.Constant(1), 0), factory);
+        pipeline.addStage(new SyntheticStage(new TimeDistribution.Constant(1), 0), factory);
+        TestFeeder terminalFeeder = new TestFeeder();
+        pipeline.setTerminalFeeder(terminalFeeder);
+        
+        LoadTest test = new LoadTest(pipeline);
+        test.setRate(200);
+        test.setWarmup(200);
+        test.setDuration(1000);
+        LoadTestReport report = test.run();
+        
+        assertEquals(200, report.getFed());
+        assertEquals(200.0, report.getOfferedRate(), 0.01);
+        assertEquals(200.0, report.getThroughput(), 20.0);
+        assertTrue(report.getLatencyAtPercentile(50) >= 2.0);
+        assertTrue(report.getLatencyAtPercentile(50) < 100.0);
+        assertTrue(report.getMaxLatency() >= report.getLatencyAtPercentile(99));
+        
+        assertEquals(2, report.getStages().size());
+        for (LoadTestReport.StageReport stage : report.getStages()) {
+            assertEquals(200.0, stage.getProcessed(), 20.0);
+            assertEquals(1.0, stage.getMeanWorkers(), 0.0);
+            assertTrue(stage.getUtilization() > 0.15);
+            assertTrue(stage.getUtilization() < 0.5);
+        }
+        
+        //every item is passed on to the original terminal feeder
+        assertEquals(240, terminalFeeder.receivedValues.size());
+        assertSame(terminalFeeder, pipeline.getTerminalFeeder());
+    }
+    
+    /**
+     * Test that a closed loop test keeps the configured number of items in
+     * the pipeline.
+     */
+    public void testClosedLoop() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        ThreadPoolStageDriverFactory factory = new ThreadPoolStageDriverFactory();
+        factory.setNumThreads(4);
+        pipeline.addStage(new SyntheticStage(new TimeDistribution.Constant(10), 0), factory);
+        
+        LoadTest test = new LoadTest(pipeline);
+        test.setConcurrency(4);
+        test.setWarmup(200);
+        test.setDuration(1000);
+        LoadTestReport report = test.run();
+        
+        //four items every ten milliseconds
+        assertTrue(report.getThroughput() > 250);
+        assertTrue(report.getThroughput() <= 400);
+        assertTrue(report.getLatencyAtPercentile(50) >= 10.0);
+        assertEquals(report.getCompleted(), report.getFed(), 4);
+        
+        LoadTestReport.StageReport stage = report.getStages().get(0);
+        assertEquals(4.0, stage.getMeanWorkers(), 0.0);
+        assertTrue(stage.getUtilization() > 0.8);
+    }
+    
+    /**
+     * Test that the stages of a configuration file are replaced according to
+     * the substitution properties.
+     */
+    public void testSubstitution() throws Exception {
+        URL confURL = this.getClass().getClassLoader().getResource("loadtest_conf.xml");
+        
+        Properties props = new Properties();
+        props.setProperty("stage.1.distribution", SyntheticStage.EXPONENTIAL);
+        props.setProperty("stage.1.meanServiceTime", "5");
+        DigesterPipelineFactory factory = new DigesterPipelineFactory(confURL);
+        factory.addRuleSet(new SyntheticStageRuleSet(props));
+        Pipeline pipeline = factory.createPipeline();
+        
+        assertEquals(3, pipeline.getStages().size());
+        assertTrue(pipeline.getStages().get(0) instanceof LogStage);
+        assertTrue(pipeline.getStages().get(2) instanceof LogStage);
+        SyntheticStage stage = (SyntheticStage) pipeline.getStages().get(1);
+        assertEquals(SyntheticStage.EXPONENTIAL, stage.getDistribution());
+        assertEquals(5.0, stage.getMeanServiceTime(), 0.0);
+        
+        props.setProperty("stage.*.meanServiceTime", "2");
+        factory = new DigesterPipelineFactory(confURL);
+        factory.addRuleSet(new SyntheticStageRuleSet(props));
+        pipeline = factory.createPipeline();
+        
+        assertEquals(3, pipeline.getStages().size());
+        for (int i = 0; i < 3; i++) {
+            stage = (SyntheticStage) pipeline.getStages().get(i);
+            assertEquals(i == 1 ? 5.0 : 2.0, stage.getMeanServiceTime(), 0.0);
+        }
+    }
+    
+    /**
+     * Test that an unknown distribution is rejected.
+     */
+    public void testInvalidDistribution() {
+        try {
+            new SyntheticStage().setDistribution("gamma");
+            fail("An unknown distribution should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
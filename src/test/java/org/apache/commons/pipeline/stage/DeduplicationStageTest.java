@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.util.KeyFactory;
+
+/**
+ * Test cases for DeduplicationStage.
+ */
+public class DeduplicationStageTest extends AbstractStageTest {
+    
+    public DeduplicationStageTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(DeduplicationStageTest.class);
+    }
+    
+    /**
+     * Test that exact mode passes on exactly the first object for each key.
+     */
+    public void testExact() throws Exception {
+        DeduplicationStage stage = createStage(DeduplicationStage.Mode.EXACT);
+        stage.preprocess();
+        for (int i = 0; i < 3000; i++) stage.process("record-" + (i % 1000));
+        
+        assertEquals(1000, testFeeder.receivedValues.size());
+        assertEquals("record-999", testFeeder.receivedValues.get(999));
+        assertEquals(1000, stage.getUniqueCount());
+        assertEquals(2000, stage.getDuplicateCount());
+        assertTrue(stage.getMemoryUsage() > 0);
+        stage.postprocess();
+        stage.release();
+    }
+    
+    /**
+     * Test that approximate mode passes on nearly every distinct object and
+     * no duplicates.
+     */
+    public void testApproximate() throws Exception {
+        DeduplicationStage stage = createStage(DeduplicationStage.Mode.APPROXIMATE);
+        stage.setExpectedSize(1000);
+        stage.setFalsePositiveRate(0.01);
+        stage.preprocess();
+        for (int i = 0; i < 20000; i++) stage.process("record-" + (i % 10000));
+        
+        int passed = testFeeder.receivedValues.size();
+        assertTrue("Too many false positives: " + passed, passed > 9800);
+        assertTrue(passed <= 10000);
+        assertEquals(20000 - passed, stage.getDuplicateCount());
+        stage.postprocess();
+    }
+    
+    /**
+     * Test that duplicates are fed to the duplicate branch when one is set,
+     * and that the key factory determines which objects are duplicates.
+     */
+    public void testDuplicateBranch() throws Exception {
+        DeduplicationStage stage = createStage(DeduplicationStage.Mode.EXACT);
+        stage.setDuplicateBranch("duplicates");
+        stage.setKeyFactory(new KeyFactory<Object,Integer>() {
+            public Integer generateKey(Object source) {
+                return ((String) source).length();
+            }
+        });
+        stage.preprocess();
+        stage.process("a");
+        stage.process("bb");
+        stage.process("c");
+        stage.process("dd");
+        stage.process("eee");
+        
+        assertEquals(3, testFeeder.receivedValues.size());
+        assertEquals(2, testContext.branchFeeders.get("duplicates").receivedValues.size());
+        assertEquals("c", testContext.branchFeeders.get("duplicates").receivedValues.get(0));
+        stage.postprocess();
+    }
+    
+    /**
+     * Test that keys identified only by their identity hash code are rejected,
+     * while a key factory can make such objects usable.
+     */
+    public void testIdentityKey() throws Exception {
+        DeduplicationStage stage = createStage(DeduplicationStage.Mode.EXACT);
+        stage.preprocess();
+        stage.process(42);
+        stage.process(new Object());
+        assertEquals("Key without an identifying toString() should have been rejected",
+                1, testFeeder.receivedValues.size());
+        assertEquals(1, stage.getUniqueCount());
+        
+        stage.setKeyFactory(new KeyFactory<Object,String>() {
+            public String generateKey(Object source) {
+                return source.getClass().getName();
+            }
+        });
+        stage.process(new Object());
+        stage.process(new Object());
+        assertEquals(2, testFeeder.receivedValues.size());
+        assertEquals(1, stage.getDuplicateCount());
+        stage.postprocess();
+        stage.release();
+    }
+    
+    /**
+     * Test that the counts and memory use are available through JMX.
+     */
+    public void testJmx() throws Exception {
+        DeduplicationStage stage = new DeduplicationStage();
+        stage.setStageName("dedupJmxTest");
+        this.init(stage);
+        stage.preprocess();
+        stage.process("x");
+        stage.process("x");
+        
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.apache.commons.pipeline:class=DeduplicationStage,name=dedupJmxTest");
+        try {
+            assertEquals(1L, server.getAttribute(name, "UniqueCount"));
+            assertEquals(1L, server.getAttribute(name, "DuplicateCount"));
+            assertEquals(stage.getMemoryUsage(), server.getAttribute(name, "MemoryUsage"));
+            assertEquals("EXACT", server.getAttribute(name, "ModeName"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+    
+    /**
+     * Test that the mode can be set by name.
+     */
+    public void testModeName() {
+        DeduplicationStage stage = new DeduplicationStage();
+        stage.setModeName("APPROXIMATE");
+        assertEquals(DeduplicationStage.Mode.APPROXIMATE, stage.getMode());
+        assertEquals("APPROXIMATE", stage.getModeName());
+        
+        try {
+            stage.setModeName("FUZZY");
+            fail("An unknown mode should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    private DeduplicationStage createStage(DeduplicationStage.Mode mode) {
+        DeduplicationStage stage = new DeduplicationStage();
+        stage.setJmxEnabled(false);
+        stage.setMode(mode);
+        this.init(stage);
+        return stage;
+    }
+}
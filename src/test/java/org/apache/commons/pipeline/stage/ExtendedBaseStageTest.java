@@ -17,12 +17,15 @@
 
 package org.apache.commons.pipeline.stage;
 
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
 import org.apache.commons.pipeline.driver.SynchronousStageDriverFactory;
 import org.apache.commons.pipeline.event.ObjectProcessedEvent;
 import org.apache.commons.pipeline.listener.ObjectProcessedEventCounter;
@@ -182,6 +185,45 @@ public class ExtendedBaseStageTest extends AbstractStageTest {
         assertMatches("% branch B:0\\.000", message);
     }
 
+    /**
+     * Verify that a broadcast object reaches every branch, and that a slow
+     * branch does not hold up the others.
+     */
+    public void testBroadcast() throws Exception {
+        final TestFeeder slow = new TestFeeder() {
+            @Override
+            public synchronized void feed(Object obj) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    // Ignored.
+                }
+                super.feed(obj);
+            }
+        };
+        testContext.branchFeeders.put("audit", slow);
+        TestFeeder index = new TestFeeder();
+        testContext.branchFeeders.put("index", index);
+        stage = defineStage(new TestStage() {
+            @Override
+            public void innerProcess(Object obj) {
+                super.broadcast(obj, "audit", "index");
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            stage.process("Object " + i);
+        }
+        assertTrue("Broadcast waited for the slow branch", System.currentTimeMillis() - start < 80);
+
+        stage.postprocess();
+        assertEquals("Incorrectly reporting objects emitted", 5, stage.getTotalEmits());
+        assertEquals(5, slow.receivedValues.size());
+        assertEquals(5, index.receivedValues.size());
+        assertEquals("Object 4", slow.receivedValues.get(4));
+    }
+
     public void testStatusInterval() {
         stage.setStatusInterval(500L);
         assertEquals("Failed to set value correctly", 500L, stage.getStatusInterval().longValue());
@@ -202,6 +244,44 @@ public class ExtendedBaseStageTest extends AbstractStageTest {
         assertEquals("Failed to set value correctly", 200, stage.getCurrentStatWindowSize().intValue());
     }
 
+    public void testLatencyInterval() throws Exception {
+        stage.setLatencyInterval(500L);
+        try {
+            stage.setLatencyInterval(0L);
+            fail("Interval of zero should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            stage.setLatencyIntervalCount(0);
+            fail("Interval count of zero should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        assertEquals("Rejected value should not have been kept", 500L, stage.getLatencyInterval().longValue());
+
+        //the histograms must still be usable after the rejected values
+        stage.setLatencyIntervalCount(4);
+        assertEquals(4, stage.getLatencyIntervalCount().intValue());
+        stage.process(new Object());
+        assertEquals(1, stage.getObjectsReceived());
+    }
+
+    public void testQueueWait() throws Exception {
+        TestStage queued = new TestStage();
+        Pipeline pipeline = new Pipeline();
+        pipeline.addStage(queued, new DedicatedThreadStageDriverFactory());
+        pipeline.start();
+
+        //the driver thread waits on the empty queue until the object arrives
+        Thread.sleep(100);
+        pipeline.getSourceFeeder().feed(new Object());
+        pipeline.finish();
+
+        assertTrue("Driver wait should have been recorded by the stage",
+                   queued.getQueueWaitMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
     public void testJmxEnabled() {
         stage.setJmxEnabled(true);
         assertTrue("Failed to set value correctly", stage.isJmxEnabled());
@@ -66,4 +66,18 @@ public class InvokeMethodStageTest extends AbstractStageTest {
         assertTrue(o instanceof String);
         assertEquals("SOME TEXT", o);
     }
+    
+    /**
+     * Test that a static method is called with the configured arguments, ignoring
+     * the processed object.
+     */
+    public void testProcessStaticMethod() throws Exception {
+        InvokeMethodStage stage = new InvokeMethodStage(Integer.class.getMethod("valueOf", String.class), "42");
+        this.init(stage);
+        
+        stage.process("ignored");
+        
+        assertEquals(1, testFeeder.receivedValues.size());
+        assertEquals(42, testFeeder.receivedValues.get(0));
+    }
 }
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.StageException;
+
+/**
+ * Test cases for SortStage.
+ */
+public class SortStageTest extends AbstractStageTest {
+    private File tempDirectory;
+    
+    public SortStageTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(SortStageTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDirectory = File.createTempFile("SortStageTest", "");
+        tempDirectory.delete();
+        tempDirectory.mkdir();
+    }
+    
+    protected void tearDown() throws Exception {
+        for (File file : tempDirectory.listFiles()) file.delete();
+        tempDirectory.delete();
+        super.tearDown();
+    }
+    
+    /**
+     * Test sorting of objects that fit in a single run.
+     */
+    public void testInMemory() throws Exception {
+        SortStage stage = createStage();
+        List<Integer> values = feed(stage, 1000);
+        stage.postprocess();
+        
+        Collections.sort(values);
+        assertEquals(values, testFeeder.receivedValues);
+        assertEquals(0, stage.getSpilledRunCount());
+    }
+    
+    /**
+     * Test sorting of objects spilled to several runs and merged in more than
+     * one pass, and that the runs are deleted afterwards.
+     */
+    public void testSpill() throws Exception {
+        SortStage stage = createStage();
+        stage.setRunSize(100);
+        stage.setMergeFactor(3);
+        stage.setSortThreads(2);
+        List<Integer> values = feed(stage, 2050);
+        assertEquals(20, stage.getSpilledRunCount());
+        stage.postprocess();
+        stage.release();
+        
+        Collections.sort(values);
+        assertEquals(values, testFeeder.receivedValues);
+        assertEquals(0, tempDirectory.listFiles().length);
+    }
+    
+    /**
+     * Test that objects comparing equal are emitted in the order received,
+     * across spilled runs.
+     */
+    public void testStable() throws Exception {
+        SortStage stage = createStage();
+        stage.setRunSize(10);
+        stage.setMergeFactor(2);
+        stage.setComparator(new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                return ((String) a).charAt(0) - ((String) b).charAt(0);
+            }
+        });
+        stage.preprocess();
+        for (int i = 0; i < 100; i++) stage.process((i % 2 == 0 ? "b" : "a") + i);
+        stage.postprocess();
+        
+        List<Object> received = testFeeder.receivedValues;
+        assertEquals(100, received.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("a" + (2 * i + 1), received.get(i));
+            assertEquals("b" + (2 * i), received.get(50 + i));
+        }
+    }
+    
+    /**
+     * Test that top-K mode emits only the first K objects in order.
+     */
+    public void testTopK() throws Exception {
+        SortStage stage = createStage();
+        stage.setTopK(10);
+        List<Integer> values = feed(stage, 1000);
+        stage.postprocess();
+        
+        Collections.sort(values);
+        assertEquals(values.subList(0, 10), testFeeder.receivedValues);
+    }
+    
+    /**
+     * Test that top-K mode keeps the earliest of objects comparing equal and
+     * emits them in the order received.
+     */
+    public void testTopKStable() throws Exception {
+        SortStage stage = createStage();
+        stage.setTopK(5);
+        stage.setComparator(new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                return ((String) a).charAt(0) - ((String) b).charAt(0);
+            }
+        });
+        stage.preprocess();
+        for (int i = 0; i < 5; i++) stage.process("b" + i);
+        for (int i = 5; i < 20; i++) stage.process("a" + i);
+        stage.postprocess();
+        
+        List<Object> received = testFeeder.receivedValues;
+        assertEquals(5, received.size());
+        for (int i = 0; i < 5; i++) assertEquals("a" + (5 + i), received.get(i));
+    }
+    
+    /**
+     * Test that releasing the stage does not wait for a run being spilled,
+     * and that the run's file is deleted once it has been written.
+     */
+    public void testReleaseDuringSpill() throws Exception {
+        final CountDownLatch sorting = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final Thread[] sorter = new Thread[1];
+        SortStage stage = createStage();
+        stage.setRunSize(10);
+        stage.setSortThreads(1);
+        stage.setComparator(new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                //ignore interrupts, like a sort or a write in progress
+                sorter[0] = Thread.currentThread();
+                sorting.countDown();
+                while (proceed.getCount() > 0) {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        //keep waiting
+                    }
+                }
+                
+                return ((Integer) a).compareTo((Integer) b);
+            }
+        });
+        feed(stage, 10);
+        sorting.await();
+        
+        final CountDownLatch released = new CountDownLatch(1);
+        final SortStage target = stage;
+        new Thread() {
+            public void run() {
+                target.release();
+                released.countDown();
+            }
+        }.start();
+        
+        try {
+            assertTrue("release() waited for the spill", released.await(5, TimeUnit.SECONDS));
+        } finally {
+            proceed.countDown();
+        }
+        
+        sorter[0].join(5000);
+        assertFalse(sorter[0].isAlive());
+        assertEquals(0, tempDirectory.listFiles().length);
+    }
+    
+    /**
+     * Test that a run which cannot be written is deleted rather than left
+     * in the temporary directory.
+     */
+    public void testFailedSpill() throws Exception {
+        SortStage stage = createStage();
+        stage.setRunSize(5);
+        stage.setSortThreads(1);
+        stage.setComparator(new Comparator<Object>() {
+            public int compare(Object a, Object b) {
+                return ((Unserializable) a).value - ((Unserializable) b).value;
+            }
+        });
+        stage.preprocess();
+        for (int i = 0; i < 10; i++) stage.process(new Unserializable(i));
+        
+        try {
+            stage.postprocess();
+            fail("Spilling objects that are not serializable should fail.");
+        } catch (StageException e) {
+            //expected
+        }
+        stage.release();
+        
+        assertEquals(0, tempDirectory.listFiles().length);
+    }
+    
+    private static class Unserializable {
+        private final int value;
+        
+        Unserializable(int value) {
+            this.value = value;
+        }
+    }
+    
+    private SortStage createStage() {
+        SortStage stage = new SortStage();
+        stage.setTempDirectory(tempDirectory);
+        this.init(stage);
+        return stage;
+    }
+    
+    /**
+     * Starts the stage and feeds it the specified number of random integers.
+     */
+    private List<Integer> feed(SortStage stage, int count) throws Exception {
+        Random random = new Random(count);
+        List<Integer> values = new ArrayList<Integer>();
+        stage.preprocess();
+        for (int i = 0; i < count; i++) {
+            Integer value = random.nextInt(count);
+            values.add(value);
+            stage.process(value);
+        }
+        
+        return values;
+    }
+}
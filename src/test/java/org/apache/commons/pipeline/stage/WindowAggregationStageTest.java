@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.stage;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.stage.WindowAggregationStage.Window;
+import org.apache.commons.pipeline.stage.WindowAggregationStage.WindowType;
+import org.apache.commons.pipeline.util.Accumulator;
+import org.apache.commons.pipeline.util.KeyFactory;
+
+/**
+ * Test cases for WindowAggregationStage.
+ */
+public class WindowAggregationStageTest extends AbstractStageTest {
+    
+    public WindowAggregationStageTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(WindowAggregationStageTest.class);
+    }
+    
+    /**
+     * Test tumbling windows with several accumulators.
+     */
+    public void testTumbling() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.TUMBLING);
+        stage.addAccumulator(new Accumulator.Sum());
+        stage.addAccumulator(new Accumulator.Max());
+        stage.addAccumulator(new Accumulator.Average());
+        this.init(stage);
+        
+        stage.preprocess();
+        for (long t = 0; t < 3000; t += 10) stage.process(new Record("a", t, t % 1000));
+        stage.postprocess();
+        
+        assertEquals(3, testFeeder.receivedValues.size());
+        for (int i = 0; i < 3; i++) {
+            Window window = (Window) testFeeder.receivedValues.get(i);
+            assertEquals(i * 1000, window.getStart());
+            assertEquals(i * 1000 + 1000, window.getEnd());
+            assertEquals(100, window.getCount());
+            assertEquals(49500, window.getAccumulator(0).longValue());
+            assertEquals(990, window.getAccumulator(1).longValue());
+            assertEquals(495.0, window.getAccumulator(2).doubleValue(), 0.0001);
+        }
+    }
+    
+    /**
+     * Test that objects are grouped by key.
+     */
+    public void testGroups() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.TUMBLING);
+        stage.setKeyFactory(new KeyFactory<Object,String>() {
+            public String generateKey(Object source) {
+                return ((Record) source).key;
+            }
+        });
+        this.init(stage);
+        
+        stage.preprocess();
+        for (int i = 0; i < 30; i++) stage.process(new Record(i % 3 == 0 ? "a" : "b", i, 1));
+        stage.postprocess();
+        
+        assertEquals(2, testFeeder.receivedValues.size());
+        for (Object obj : testFeeder.receivedValues) {
+            Window window = (Window) obj;
+            assertEquals("a".equals(window.getKey()) ? 10 : 20, window.getAccumulator(0).longValue());
+        }
+    }
+    
+    /**
+     * Test that each object falls into every overlapping sliding window.
+     */
+    public void testSliding() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.SLIDING);
+        stage.setSlide(500);
+        this.init(stage);
+        
+        stage.preprocess();
+        stage.process(new Record("a", 750, 1));
+        stage.process(new Record("a", 1250, 1));
+        stage.postprocess();
+        
+        List<Object> windows = testFeeder.receivedValues;
+        assertEquals(3, windows.size());
+        assertEquals(0, ((Window) windows.get(0)).getStart());
+        assertEquals(1, ((Window) windows.get(0)).getCount());
+        assertEquals(500, ((Window) windows.get(1)).getStart());
+        assertEquals(2, ((Window) windows.get(1)).getCount());
+        assertEquals(1000, ((Window) windows.get(2)).getStart());
+        assertEquals(1, ((Window) windows.get(2)).getCount());
+    }
+    
+    /**
+     * Test that sessions are extended and merged by objects within the gap.
+     */
+    public void testSession() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.SESSION);
+        stage.setSessionGap(100);
+        stage.setAllowedLateness(1000);
+        this.init(stage);
+        
+        stage.preprocess();
+        stage.process(new Record("a", 0, 1));
+        stage.process(new Record("a", 180, 1));
+        assertEquals(2, stage.getOpenWindowCount());
+        
+        //falls within the gap of both sessions, which are merged
+        stage.process(new Record("a", 90, 1));
+        assertEquals(1, stage.getOpenWindowCount());
+        
+        stage.process(new Record("a", 500, 1));
+        stage.postprocess();
+        
+        assertEquals(2, testFeeder.receivedValues.size());
+        Window first = (Window) testFeeder.receivedValues.get(0);
+        assertEquals(0, first.getStart());
+        assertEquals(280, first.getEnd());
+        assertEquals(3, first.getCount());
+        Window second = (Window) testFeeder.receivedValues.get(1);
+        assertEquals(500, second.getStart());
+        assertEquals(1, second.getCount());
+    }
+    
+    /**
+     * Test that completed windows are emitted by the timer and that objects
+     * falling into them afterwards are discarded as late.
+     */
+    public void testTimerFlush() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.TUMBLING);
+        stage.setFlushInterval(10);
+        this.init(stage);
+        
+        stage.preprocess();
+        stage.process(new Record("a", 100, 1));
+        stage.process(new Record("a", 2500, 1));
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (testFeeder.receivedValues.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(1, testFeeder.receivedValues.size());
+        assertEquals(0, ((Window) testFeeder.receivedValues.get(0)).getStart());
+        
+        stage.process(new Record("a", 500, 1));
+        assertEquals(1, stage.getLateCount());
+        
+        stage.postprocess();
+        assertEquals(2, testFeeder.receivedValues.size());
+        assertEquals(2000, ((Window) testFeeder.receivedValues.get(1)).getStart());
+    }
+    
+    /**
+     * Test that a stage whose downstream feeder blocks does not delay the
+     * windows of another stage.
+     */
+    public void testIndependentTimers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        WindowAggregationStage blocked = createStage(WindowType.TUMBLING);
+        blocked.setFlushInterval(10);
+        testContext.registerDownstreamFeeder(blocked, new Feeder() {
+            public void feed(Object obj) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        blocked.init(testContext);
+        
+        WindowAggregationStage stage = createStage(WindowType.TUMBLING);
+        stage.setFlushInterval(10);
+        this.init(stage);
+        
+        try {
+            blocked.preprocess();
+            blocked.process(new Record("a", 100, 1));
+            blocked.process(new Record("a", 2500, 1));
+            Thread.sleep(50);
+            
+            stage.preprocess();
+            stage.process(new Record("a", 100, 1));
+            stage.process(new Record("a", 2500, 1));
+            
+            long deadline = System.currentTimeMillis() + 5000;
+            while (testFeeder.receivedValues.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(5);
+            assertEquals(1, testFeeder.receivedValues.size());
+            stage.postprocess();
+        } finally {
+            release.countDown();
+            blocked.release();
+        }
+    }
+    
+    /**
+     * Test that the window type can be set by name.
+     */
+    public void testWindowTypeName() throws Exception {
+        WindowAggregationStage stage = new WindowAggregationStage();
+        stage.setWindowTypeName("SESSION");
+        assertEquals(WindowType.SESSION, stage.getWindowType());
+        assertEquals("SESSION", stage.getWindowTypeName());
+        
+        try {
+            stage.setWindowTypeName("HOPPING");
+            fail("An unknown window type should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    /**
+     * Test that an invalid configuration is rejected when the stage starts.
+     */
+    public void testInvalidSlide() throws Exception {
+        WindowAggregationStage stage = createStage(WindowType.SLIDING);
+        stage.setSlide(2000);
+        this.init(stage);
+        
+        try {
+            stage.preprocess();
+            fail("A slide larger than the window size should be rejected.");
+        } catch (StageException expected) {
+        }
+    }
+    
+    /**
+     * Test that the default extractor counts objects that are not numbers
+     * without adding them to the accumulators.
+     */
+    public void testNonNumbers() throws Exception {
+        WindowAggregationStage stage = new WindowAggregationStage();
+        stage.setWindowSize(60000);
+        stage.setFlushInterval(60000);
+        stage.addAccumulator(new Accumulator.Sum());
+        stage.addAccumulator(new Accumulator.Count());
+        this.init(stage);
+        
+        stage.preprocess();
+        stage.process("text");
+        stage.process(5);
+        stage.process(2.5);
+        stage.process(new Object());
+        stage.postprocess();
+        
+        //the objects may straddle the boundary of a processing-time window
+        long count = 0;
+        double sum = 0;
+        long values = 0;
+        for (Object obj : testFeeder.receivedValues) {
+            Window window = (Window) obj;
+            count += window.getCount();
+            sum += window.getAccumulator(0).doubleValue();
+            values += window.getAccumulator(1).longValue();
+        }
+        assertEquals(4, count);
+        assertEquals(7.5, sum, 0.0001);
+        assertEquals(2, values);
+    }
+    
+    private WindowAggregationStage createStage(WindowType type) {
+        WindowAggregationStage stage = new WindowAggregationStage();
+        stage.setWindowType(type);
+        stage.setWindowSize(1000);
+        stage.setEventTime(true);
+        stage.setFlushInterval(60000);
+        stage.setExtractor(new RecordExtractor());
+        return stage;
+    }
+    
+    private static class Record {
+        final String key;
+        final long time;
+        final long value;
+        
+        Record(String key, long time, long value) {
+            this.key = key;
+            this.time = time;
+            this.value = value;
+        }
+    }
+    
+    private static class RecordExtractor implements WindowAggregationStage.Extractor {
+        public long getTimestamp(Object obj) {
+            return ((Record) obj).time;
+        }
+        
+        public void accumulate(Object obj, Accumulator accumulator) {
+            accumulator.add(((Record) obj).value);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.trace;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.driver.SynchronousStageDriverFactory;
+import org.apache.commons.pipeline.driver.ThreadPoolStageDriverFactory;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.testFramework.TestFeeder;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for Tracer.
+ */
+public class TracerTest extends TestCase {
+    
+    public TracerTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(TracerTest.class);
+    }
+    
+    /**
+     * Test that every traced object is timed from the source feeder to the
+     * terminal feeder, and its queue waits recorded for every queued stage.
+     */
+    public void testEndToEnd() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        TestStage stage0 = new TestStage(0);
+        TestStage stage1 = new TestStage(1);
+        TestStage stage2 = new TestStage(2);
+        pipeline.addStage(stage0, new DedicatedThreadStageDriverFactory());
+        pipeline.addStage(stage1, new SynchronousStageDriverFactory());
+        pipeline.addStage(stage2, new ThreadPoolStageDriverFactory());
+        TestFeeder terminalFeeder = new TestFeeder();
+        pipeline.setTerminalFeeder(terminalFeeder);
+        
+        Tracer tracer = new Tracer();
+        pipeline.setTracer(tracer);
+        pipeline.start();
+        Feeder feeder = pipeline.getSourceFeeder();
+        for (int i = 0; i < 50; i++) feeder.feed("Object " + i);
+        pipeline.finish();
+        
+        assertEquals(50, tracer.getTracesStarted());
+        assertEquals(50, tracer.getTracesCompleted());
+        assertEquals(50, tracer.getEndToEndLatency().snapshot().getCount());
+        assertEquals(50, tracer.getQueueWait(stage0).snapshot().getCount());
+        assertNull("Synchronously processed stages are not queued.", tracer.getQueueWait(stage1));
+        assertEquals(50, tracer.getQueueWait(stage2).snapshot().getCount());
+        
+        //stages and the terminal feeder only ever see the objects themselves
+        assertEquals(50, terminalFeeder.receivedValues.size());
+        for (Object obj : terminalFeeder.receivedValues) assertTrue(obj instanceof String);
+        for (Object obj : stage2.processedObjects) assertTrue(obj instanceof String);
+        assertNull(Trace.current());
+    }
+    
+    /**
+     * Test that only the configured fraction of objects is traced.
+     */
+    public void testSampleRate() throws Exception {
+        Pipeline pipeline = new Pipeline();
+        TestStage stage = new TestStage(0);
+        pipeline.addStage(stage, new DedicatedThreadStageDriverFactory());
+        
+        Tracer tracer = new Tracer(0.25);
+        pipeline.setTracer(tracer);
+        pipeline.start();
+        for (int i = 0; i < 100; i++) pipeline.getSourceFeeder().feed(i);
+        pipeline.finish();
+        
+        assertEquals(25, tracer.getTracesStarted());
+        assertEquals(25, tracer.getTracesCompleted());
+        assertEquals(25, tracer.getQueueWait(stage).snapshot().getCount());
+        assertEquals(100, stage.processedObjects.size());
+        
+        try {
+            tracer.setSampleRate(1.5);
+            fail("A sample rate greater than one should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    /**
+     * Test that traces are carried into branches, and completed at the
+     * terminal feeder of each.
+     */
+    public void testBranch() throws Exception {
+        Pipeline branch = new Pipeline();
+        TestStage branchStage = new TestStage(1);
+        branch.addStage(branchStage, new DedicatedThreadStageDriverFactory());
+        
+        Pipeline pipeline = new Pipeline();
+        BranchingStage stage = new BranchingStage();
+        pipeline.addStage(stage, new DedicatedThreadStageDriverFactory());
+        pipeline.addBranch("side", branch);
+        
+        Tracer tracer = new Tracer();
+        pipeline.setTracer(tracer);
+        pipeline.start();
+        for (int i = 0; i < 10; i++) pipeline.getSourceFeeder().feed(i);
+        pipeline.finish();
+        
+        assertEquals(10, tracer.getTracesStarted());
+        assertEquals(20, tracer.getTracesCompleted());
+        assertEquals(10, tracer.getQueueWait(branchStage).snapshot().getCount());
+        
+        //the source feeder hop and the hop for the branching stage's queue
+        assertEquals(10, stage.hopCounts[2]);
+    }
+    
+    /**
+     * Stage that feeds each object both downstream and to the side branch,
+     * and counts the hops of the traces it sees.
+     */
+    private static class BranchingStage extends BaseStage {
+        int[] hopCounts = new int[4];
+        
+        public void process(Object obj) throws StageException {
+            Trace trace = Trace.current();
+            if (trace != null) hopCounts[trace.getHops().size()]++;
+            emit(obj);
+            emit("side", obj);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Feeder;
+
+/**
+ * Test cases for BroadcastFeeder.
+ */
+public class BroadcastFeederTest extends TestCase {
+    
+    public BroadcastFeederTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(BroadcastFeederTest.class);
+    }
+    
+    /**
+     * Test that every target receives every object, in order.
+     */
+    public void testDelivery() throws Exception {
+        ListFeeder a = new ListFeeder();
+        ListFeeder b = new ListFeeder();
+        BroadcastFeeder feeder = new BroadcastFeeder(Arrays.asList(a, b), 4, null);
+        
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < 1000; i++) {
+            feeder.feed(i);
+            expected.add(i);
+        }
+        feeder.close();
+        
+        assertEquals(expected, a.received);
+        assertEquals(expected, b.received);
+    }
+    
+    /**
+     * Test that a blocked target does not delay delivery to the others until
+     * its lane is full.
+     */
+    public void testSlowTarget() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ListFeeder blocked = new ListFeeder() {
+            public void feed(Object obj) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                super.feed(obj);
+            }
+        };
+        ListFeeder fast = new ListFeeder();
+        BroadcastFeeder feeder = new BroadcastFeeder(Arrays.asList(blocked, fast), 10, null);
+        
+        //one object is held by the blocked delivery and ten wait in its lane
+        for (int i = 0; i < 11; i++) feeder.feed(i);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast.received.size() < 11 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(11, fast.received.size());
+        assertTrue(blocked.received.isEmpty());
+        assertEquals(10, feeder.getLaneOccupancy(0));
+        
+        release.countDown();
+        feeder.close();
+        assertEquals(fast.received, blocked.received);
+    }
+    
+    /**
+     * Test that a failed delivery is reported to the feeding thread.
+     */
+    public void testFailure() throws Exception {
+        Feeder failing = new Feeder() {
+            public void feed(Object obj) {
+                throw new IllegalStateException("Planned failure");
+            }
+        };
+        ListFeeder ok = new ListFeeder();
+        BroadcastFeeder feeder = new BroadcastFeeder(Arrays.asList(failing, ok), 10, null);
+        
+        feeder.feed("first");
+        try {
+            feeder.flush();
+            fail("The failed delivery should be reported.");
+        } catch (IllegalStateException expected) {
+        }
+        
+        try {
+            feeder.feed("second");
+            fail("Feeding after a failed delivery should be rejected.");
+        } catch (IllegalStateException expected) {
+        }
+        
+        assertEquals(Collections.singletonList("first"), ok.received);
+    }
+    
+    private static class ListFeeder implements Feeder {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        
+        public void feed(Object obj) {
+            received.add(obj);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.File;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for CodecRegistry and the built-in codecs.
+ */
+public class CodecRegistryTest extends TestCase {
+    
+    public CodecRegistryTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(CodecRegistryTest.class);
+    }
+    
+    /**
+     * Test that objects of each built-in type survive a round trip.
+     */
+    public void testBuiltIns() {
+        CodecRegistry registry = new CodecRegistry(true);
+        Object[] values = {
+            "", "plain ascii", "caf\u00e9 \u20ac \ud83d\ude00 \ud800", new File("some/dir/file.txt"),
+            Long.MIN_VALUE, 42, (short) -7, (byte) 3, Math.PI, 1.5f, '\u00e9', Boolean.TRUE
+        };
+        
+        for (Object value : values) {
+            assertEquals(value, registry.fromBytes(registry.toBytes(value)));
+        }
+        
+        byte[] bytes = {1, 2, 3, -128, 127};
+        assertTrue(Arrays.equals(bytes, (byte[]) registry.fromBytes(registry.toBytes(bytes))));
+    }
+    
+    /**
+     * Test that the string codec produces the same bytes as the platform
+     * UTF-8 encoder.
+     */
+    public void testStringEncoding() throws Exception {
+        String s = "a\u00e9\u20ac\ud83d\ude00z";
+        Codec.StringCodec codec = new Codec.StringCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(codec.sizeOf(s));
+        codec.encode(s, buffer);
+        assertTrue(Arrays.equals(s.getBytes("UTF-8"), buffer.array()));
+    }
+    
+    /**
+     * Test that unregistered serializable objects use Java serialization,
+     * and that other objects are rejected.
+     */
+    public void testFallback() {
+        CodecRegistry registry = new CodecRegistry(true);
+        Date date = new Date(123456789L);
+        byte[] frame = registry.toBytes(date);
+        assertEquals(CodecRegistry.SERIALIZABLE_ID, ByteBuffer.wrap(frame).getShort(4));
+        assertEquals(date, registry.fromBytes(frame));
+        
+        try {
+            registry.toBytes(new Object());
+            fail("Unserializable object without a codec should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+        
+        registry.setFallback(false);
+        try {
+            registry.toBytes(date);
+            fail("Fallback to serialization should be disabled.");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(date, registry.fromBytes(frame));
+    }
+    
+    /**
+     * Test that a custom codec is used for subclasses of the registered type
+     * and for implementations of a registered interface.
+     */
+    public void testCustomCodec() {
+        CodecRegistry registry = new CodecRegistry();
+        registry.register(256, Point.class, new PointCodec());
+        registry.register(257, CharSequence.class, new CharSequenceCodec());
+        
+        Object copy = registry.fromBytes(registry.toBytes(new LabelledPoint(3, 4)));
+        assertEquals(Point.class, copy.getClass());
+        assertEquals(3, ((Point) copy).x);
+        assertEquals(4, ((Point) copy).y);
+        assertSame(registry.getCodec(Point.class), registry.getCodec(LabelledPoint.class));
+        
+        assertEquals("text", registry.fromBytes(registry.toBytes(new StringBuilder("text"))));
+        assertSame(registry.getCodec(CharSequence.class), registry.getCodec(StringBuilder.class));
+        
+        try {
+            registry.register(256, String.class, new Codec.StringCodec());
+            fail("Duplicate type id should be rejected.");
+        } catch (IllegalStateException expected) {
+        }
+        
+        try {
+            new CodecRegistry(true).fromBytes(registry.toBytes(new Point(1, 2)));
+            fail("Unknown type id should be rejected.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    /**
+     * Test that several frames can be read from one buffer, and that a
+     * partial frame is detected.
+     */
+    public void testFraming() {
+        CodecRegistry registry = CodecRegistry.getDefault();
+        Object[] values = { "first", 2L, new byte[100], "last" };
+        
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int size = 0;
+        for (Object value : values) {
+            size += registry.frameSize(value);
+            registry.writeFrame(value, buffer);
+        }
+        assertEquals(size, buffer.position());
+        
+        //expose the frames a few bytes at a time, as a stream would
+        ByteBuffer in = buffer.duplicate();
+        in.flip();
+        int end = in.limit();
+        int read = 0;
+        for (int limit = 0; limit < end + 7; limit += 7) {
+            in.limit(Math.min(limit, end));
+            while (CodecRegistry.hasFrame(in)) {
+                Object value = registry.readFrame(in);
+                assertEquals(values[read].getClass(), value.getClass());
+                read++;
+            }
+        }
+        assertEquals(values.length, read);
+        assertEquals(end, in.position());
+        
+        ByteBuffer partial = ByteBuffer.wrap(registry.toBytes("truncated"), 0, 8);
+        assertFalse(CodecRegistry.hasFrame(partial));
+        try {
+            registry.readFrame(partial);
+            fail("Partial frame should not be read.");
+        } catch (BufferUnderflowException expected) {
+        }
+        assertEquals(0, partial.position());
+    }
+    
+    /**
+     * Test that the codec serializer round trips objects and reports
+     * failures as IOExceptions.
+     */
+    public void testSerializer() throws Exception {
+        CodecSerializer<Object> serializer = new CodecSerializer<Object>();
+        assertEquals("value", serializer.deserialize(serializer.serialize("value")));
+        assertEquals(new Date(5), serializer.deserialize(serializer.serialize(new Date(5))));
+        
+        try {
+            serializer.serialize(new Object());
+            fail("Unserializable object should be rejected.");
+        } catch (java.io.IOException expected) {
+        }
+        
+        try {
+            serializer.deserialize(new byte[3]);
+            fail("Truncated frame should be rejected.");
+        } catch (java.io.IOException expected) {
+        }
+    }
+    
+    private static class CharSequenceCodec implements Codec<CharSequence> {
+        private final Codec.StringCodec strings = new Codec.StringCodec();
+        
+        public int sizeOf(CharSequence s) {
+            return strings.sizeOf(s.toString());
+        }
+        
+        public void encode(CharSequence s, ByteBuffer buffer) {
+            strings.encode(s.toString(), buffer);
+        }
+        
+        public CharSequence decode(ByteBuffer buffer, int length) {
+            return strings.decode(buffer, length);
+        }
+    }
+    
+    private static class Point {
+        final int x, y;
+        
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+    
+    private static class LabelledPoint extends Point {
+        LabelledPoint(int x, int y) {
+            super(x, y);
+        }
+    }
+    
+    private static class PointCodec implements Codec<Point> {
+        public int sizeOf(Point p) {
+            return 8;
+        }
+        
+        public void encode(Point p, ByteBuffer buffer) {
+            buffer.putInt(p.x).putInt(p.y);
+        }
+        
+        public Point decode(ByteBuffer buffer, int length) {
+            return new Point(buffer.getInt(), buffer.getInt());
+        }
+    }
+}
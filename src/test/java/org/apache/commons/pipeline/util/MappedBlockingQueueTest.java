@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.stage.AddToCollectionStage;
+import org.apache.commons.pipeline.testFramework.TestFeeder;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for MappedBlockingQueue and MappedQueueFactory.
+ */
+public class MappedBlockingQueueTest extends TestCase {
+    private File directory;
+    private File crashed;
+    
+    public MappedBlockingQueueTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(MappedBlockingQueueTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("MappedBlockingQueueTest", "");
+        directory.delete();
+        crashed = new File(directory.getPath() + "-crashed");
+    }
+    
+    protected void tearDown() throws Exception {
+        delete(directory);
+        delete(crashed);
+    }
+    
+    /**
+     * Test that objects are taken in order across many segments, and that
+     * consumed segments are recycled.
+     */
+    public void testOrderAcrossSegments() throws Exception {
+        MappedBlockingQueue<String> queue = open(Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) queue.put("item-" + i);
+        assertEquals(1000, queue.size());
+        assertTrue(queue.getSegmentCount() > 10);
+        
+        for (int i = 0; i < 1000; i++) assertEquals("item-" + i, queue.take());
+        assertNull(queue.poll());
+        assertEquals(2, queue.getFreeSegmentCount());
+        
+        //recycled segments are reused
+        for (int i = 0; i < 1000; i++) queue.put("again-" + i);
+        for (int i = 0; i < 1000; i++) assertEquals("again-" + i, queue.poll());
+        //the position and lock files, the segment being used and the free segments
+        assertTrue(directory.list().length <= 5);
+        queue.close();
+    }
+    
+    /**
+     * Test that objects still queued are restored when the queue is reopened,
+     * including after the queue was abandoned without being closed.
+     */
+    public void testRestart() throws Exception {
+        MappedBlockingQueue<String> queue = open(Integer.MAX_VALUE);
+        for (int i = 0; i < 100; i++) queue.put("item-" + i);
+        for (int i = 0; i < 30; i++) queue.take();
+        queue.close();
+        
+        queue = open(Integer.MAX_VALUE);
+        assertFalse(queue.isNewlyCreated());
+        assertEquals(70, queue.size());
+        assertEquals("item-30", queue.peek());
+        for (int i = 30; i < 50; i++) assertEquals("item-" + i, queue.take());
+        queue.put("item-100");
+        
+        //simulate a crash by opening a copy of the files taken without closing
+        crashed.mkdir();
+        for (File file : directory.listFiles()) copy(file, new File(crashed, file.getName()));
+        MappedBlockingQueue<String> reopened = open(crashed, Integer.MAX_VALUE);
+        assertEquals(51, reopened.size());
+        List<String> remaining = new ArrayList<String>();
+        reopened.drainTo(remaining);
+        assertEquals("item-50", remaining.get(0));
+        assertEquals("item-100", remaining.get(50));
+        reopened.close();
+    }
+    
+    /**
+     * Test that the queue blocks producers when it is full.
+     */
+    public void testCapacity() throws Exception {
+        MappedBlockingQueue<String> queue = open(2);
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertFalse(queue.offer("c"));
+        assertFalse(queue.offer("c", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals("a", queue.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer("c"));
+        
+        List<String> contents = new ArrayList<String>();
+        for (String s : queue) contents.add(s);
+        assertEquals(2, contents.size());
+        assertEquals("c", contents.get(1));
+        queue.close();
+    }
+    
+    /**
+     * Test that a corrupted record and the records after it are not restored,
+     * and that new records are appended in their place.
+     */
+    public void testCorruptRecord() throws Exception {
+        MappedBlockingQueue<String> queue = open(Integer.MAX_VALUE);
+        queue.put("a");
+        queue.put("b");
+        queue.put("c");
+        queue.close();
+        
+        //flip the last byte of the second record
+        File segment = new File(directory, "segment-1.dat");
+        byte[] first = new Serializer.JavaSerializer<String>().serialize("a");
+        int offset = 2 * (12 + first.length) - 1;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+        
+        queue = open(Integer.MAX_VALUE);
+        assertEquals(1, queue.size());
+        queue.put("d");
+        assertEquals("a", queue.take());
+        assertEquals("d", queue.take());
+        assertNull(queue.poll());
+        queue.close();
+    }
+    
+    /**
+     * Test that a directory cannot be opened by two queues at once.
+     */
+    public void testLocked() throws Exception {
+        MappedBlockingQueue<String> queue = open(Integer.MAX_VALUE);
+        queue.put("a");
+        try {
+            open(Integer.MAX_VALUE);
+            fail("A directory in use by another queue should not be opened.");
+        } catch (IOException e) {
+            //expected
+        }
+        queue.close();
+        
+        queue = open(Integer.MAX_VALUE);
+        assertEquals("a", queue.take());
+        queue.close();
+    }
+    
+    /**
+     * Test that the factory keeps a queue for each stage and refuses to
+     * reopen it for a stage of another class.
+     */
+    public void testStageMismatch() throws Exception {
+        BlockingQueueFactory.MappedQueueFactory<Object> factory = new BlockingQueueFactory.MappedQueueFactory<Object>();
+        factory.setDirectory(directory);
+        factory.setSegmentSize(4096);
+        
+        Pipeline pipeline = new Pipeline();
+        TestStage stage = new TestStage(0);
+        pipeline.addStage(stage, new DedicatedThreadStageDriverFactory());
+        try {
+            factory.createQueue();
+            fail("Mapped queues should only be created for a stage.");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        
+        MappedBlockingQueue<Object> queue = factory.createQueue(stage, pipeline);
+        assertEquals(new File(directory, "stage-0"), queue.getDirectory());
+        queue.put("a");
+        queue.close();
+        
+        Pipeline other = new Pipeline();
+        AddToCollectionStage<Object> otherStage = new AddToCollectionStage<Object>(new ArrayList<Object>());
+        other.addStage(otherStage, new DedicatedThreadStageDriverFactory());
+        try {
+            factory.createQueue(otherStage, other);
+            fail("A queue should not be reopened for a stage of another class.");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        
+        queue = factory.createQueue(stage, pipeline);
+        assertEquals("a", queue.take());
+        queue.close();
+    }
+    
+    /**
+     * Test that a driver uses the queue transparently through the factory,
+     * configured by directory name as from a pipeline configuration.
+     */
+    @SuppressWarnings("unchecked")
+    public void testDriver() throws Exception {
+        BlockingQueueFactory.MappedQueueFactory factory = new BlockingQueueFactory.MappedQueueFactory();
+        factory.setDirectoryName(directory.getPath());
+        assertEquals(directory, factory.getDirectory());
+        factory.setSegmentSize(4096);
+        DedicatedThreadStageDriverFactory driverFactory = new DedicatedThreadStageDriverFactory();
+        driverFactory.setQueueFactory(factory);
+        
+        Pipeline pipeline = new Pipeline();
+        pipeline.addStage(new TestStage(0), driverFactory);
+        TestFeeder terminal = new TestFeeder();
+        pipeline.setTerminalFeeder(terminal);
+        pipeline.start();
+        for (int i = 0; i < 500; i++) pipeline.getSourceFeeder().feed("item-" + i);
+        pipeline.finish();
+        
+        assertEquals(500, terminal.receivedValues.size());
+        assertEquals("item-499", terminal.receivedValues.get(499));
+        assertTrue(new File(directory, "stage-0").isDirectory());
+    }
+    
+    private MappedBlockingQueue<String> open(int capacity) throws Exception {
+        return open(directory, capacity);
+    }
+    
+    private MappedBlockingQueue<String> open(File directory, int capacity) throws Exception {
+        return new MappedBlockingQueue<String>(directory, 256, capacity, new Serializer.JavaSerializer<String>(), 2, false);
+    }
+    
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[4096];
+                for (int n; (n = in.read(buffer)) > 0;) out.write(buffer, 0, n);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        file.delete();
+    }
+}
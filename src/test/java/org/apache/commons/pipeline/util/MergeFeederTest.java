@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.commons.pipeline.Feeder;
+import org.apache.commons.pipeline.Pipeline;
+import org.apache.commons.pipeline.StageException;
+import org.apache.commons.pipeline.driver.DedicatedThreadStageDriverFactory;
+import org.apache.commons.pipeline.stage.BaseStage;
+import org.apache.commons.pipeline.testFramework.TestFeeder;
+import org.apache.commons.pipeline.testFramework.TestStage;
+
+/**
+ * Test cases for MergeFeeder.
+ */
+public class MergeFeederTest extends TestCase {
+    
+    public MergeFeederTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(MergeFeederTest.class);
+    }
+    
+    /**
+     * Test that inputs of equal weight are interleaved fairly.
+     */
+    public void testFairInterleaving() throws Exception {
+        ListFeeder output = new ListFeeder();
+        MergeFeeder merge = new MergeFeeder(output);
+        MergeFeeder.Input a = merge.addInput("a");
+        MergeFeeder.Input b = merge.addInput("b");
+        
+        //fill both inputs before starting so that the merge order is deterministic
+        for (int i = 0; i < 3; i++) {
+            a.feed("a" + i);
+            b.feed("b" + i);
+        }
+        merge.start();
+        merge.finish();
+        
+        List<Object> expected = new ArrayList<Object>();
+        for (int i = 0; i < 3; i++) {
+            expected.add("a" + i);
+            expected.add("b" + i);
+        }
+        assertEquals(expected, output.received);
+        assertTrue(merge.isComplete());
+    }
+    
+    /**
+     * Test that each round takes up to the weight of each input.
+     */
+    public void testWeightedInterleaving() throws Exception {
+        ListFeeder output = new ListFeeder();
+        MergeFeeder merge = new MergeFeeder(output);
+        MergeFeeder.Input heavy = merge.addInput("heavy", 3, 100);
+        MergeFeeder.Input light = merge.addInput("light", 1, 100);
+        
+        for (int i = 0; i < 6; i++) heavy.feed("h");
+        for (int i = 0; i < 4; i++) light.feed("l");
+        merge.start();
+        merge.finish();
+        
+        List<Object> expected = new ArrayList<Object>();
+        for (String s : "h h h l h h h l l l".split(" ")) expected.add(s);
+        assertEquals(expected, output.received);
+    }
+    
+    /**
+     * Test that the merge completes only once every input has been closed.
+     */
+    public void testEndOfStream() throws Exception {
+        ListFeeder output = new ListFeeder();
+        MergeFeeder merge = new MergeFeeder(output);
+        MergeFeeder.Input a = merge.addInput("a");
+        MergeFeeder.Input b = merge.addInput("b");
+        merge.start();
+        
+        a.feed(1);
+        a.close();
+        assertFalse(merge.awaitCompletion(100, TimeUnit.MILLISECONDS));
+        
+        b.feed(2);
+        b.close();
+        assertTrue(merge.awaitCompletion(5, TimeUnit.SECONDS));
+        assertEquals(2, output.received.size());
+        
+        try {
+            a.feed(3);
+            fail("Feeding a closed input should be rejected.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+    
+    /**
+     * Test that a failure of the output is reported to the inputs' producers.
+     */
+    public void testFailure() throws Exception {
+        MergeFeeder merge = new MergeFeeder(new Feeder() {
+            public void feed(Object obj) {
+                throw new IllegalStateException("Planned failure");
+            }
+        });
+        MergeFeeder.Input a = merge.addInput("a");
+        merge.start();
+        a.feed("first");
+        assertTrue(merge.awaitCompletion(5, TimeUnit.SECONDS));
+        
+        try {
+            a.feed("second");
+            fail("Feeding after a failed delivery should be rejected.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+    
+    /**
+     * Test that producers blocked on a full buffer are released when the
+     * output fails.
+     */
+    public void testFailureReleasesBlockedProducers() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        MergeFeeder merge = new MergeFeeder(new Feeder() {
+            public void feed(Object obj) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                
+                throw new IllegalStateException("Planned failure");
+            }
+        });
+        final MergeFeeder.Input a = merge.addInput("a", 1, 1);
+        merge.start();
+        
+        final CountDownLatch rejected = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        while (true) a.feed("obj");
+                    } catch (IllegalStateException expected) {
+                        rejected.countDown();
+                    }
+                }
+            }.start();
+        }
+        
+        Thread.sleep(100);
+        release.countDown();
+        assertTrue(merge.awaitCompletion(5, TimeUnit.SECONDS));
+        assertTrue("Blocked producers were not released", rejected.await(5, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * Test a diamond: a root stage feeds two branches whose outputs are merged
+     * into a single downstream pipeline.
+     */
+    public void testDiamond() throws Exception {
+        Pipeline downstream = new Pipeline();
+        downstream.addStage(new TestStage(0), new DedicatedThreadStageDriverFactory());
+        TestFeeder terminal = new TestFeeder();
+        downstream.setTerminalFeeder(terminal);
+        MergeFeeder merge = new MergeFeeder(downstream);
+        
+        Pipeline root = new Pipeline();
+        root.addStage(new SplittingStage(), new DedicatedThreadStageDriverFactory());
+        for (String name : new String[] { "left", "right" }) {
+            Pipeline branch = new Pipeline();
+            branch.addStage(new TestStage(0), new DedicatedThreadStageDriverFactory());
+            MergeFeeder.Input input = merge.addInput(name);
+            branch.setTerminalFeeder(input);
+            branch.addLifecycleJob(input);
+            root.addBranch(name, branch);
+        }
+        root.addLifecycleJob(merge);
+        
+        root.start();
+        for (int i = 0; i < 100; i++) root.getSourceFeeder().feed(i);
+        root.finish();
+        
+        assertTrue(merge.isComplete());
+        assertEquals(200, terminal.receivedValues.size());
+        Set<Object> distinct = new HashSet<Object>(terminal.receivedValues);
+        assertEquals(200, distinct.size());
+    }
+    
+    /**
+     * Stage that feeds each object to both the left and the right branch.
+     */
+    private static class SplittingStage extends BaseStage {
+        public void process(Object obj) throws StageException {
+            emit("left", "left" + obj);
+            emit("right", "right" + obj);
+        }
+    }
+    
+    private static class ListFeeder implements Feeder {
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        
+        public void feed(Object obj) {
+            received.add(obj);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for MethodInvoker.
+ */
+public class MethodInvokerTest extends TestCase {
+
+    public MethodInvokerTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(MethodInvokerTest.class);
+    }
+
+    protected void tearDown() {
+        MethodInvoker.setGenerator(null);
+    }
+
+    /**
+     * Test of onTarget method, of class org.apache.commons.pipeline.util.MethodInvoker.
+     */
+    public void testOnTarget() throws Exception {
+        Method method = String.class.getMethod("indexOf", String.class);
+        MethodInvoker invoker = MethodInvoker.onTarget(method, "c");
+
+        assertSame(method, invoker.getMethod());
+        assertEquals(2, invoker.invoke("abc"));
+        assertEquals(-1, invoker.invoke("xyz"));
+    }
+
+    /**
+     * Test of onTarget method with a static method, which ignores the processed object.
+     */
+    public void testOnTargetStatic() throws Exception {
+        MethodInvoker invoker = MethodInvoker.onTarget(Integer.class.getMethod("valueOf", String.class), "5");
+
+        assertEquals(5, invoker.invoke("ignored"));
+        assertEquals(5, invoker.invoke(null));
+    }
+
+    /**
+     * Test that invokers are obtained from the installed generator, and created
+     * reflectively when it returns null.
+     */
+    public void testGenerator() throws Exception {
+        final Method method = String.class.getMethod("length");
+        MethodInvoker.setGenerator(new MethodInvoker.Generator() {
+            public MethodInvoker onTarget(Method m, Object[] arguments) {
+                return new MethodInvoker(m) {
+                    public Object invoke(Object obj) {
+                        return "generated";
+                    }
+                };
+            }
+
+            public MethodInvoker withArgument(Method m) {
+                return null;
+            }
+        });
+
+        assertEquals("generated", MethodInvoker.onTarget(method).invoke("abc"));
+        assertEquals(5, MethodInvoker.withArgument(Integer.class.getMethod("valueOf", String.class)).invoke("5"));
+
+        MethodInvoker.setGenerator(null);
+        assertEquals(3, MethodInvoker.onTarget(method).invoke("abc"));
+    }
+
+    /**
+     * Test of onTarget method with an argument count that doesn't match the method.
+     */
+    public void testOnTargetArgumentMismatch() throws Exception {
+        Method method = String.class.getMethod("indexOf", String.class);
+        try {
+            MethodInvoker.onTarget(method);
+            fail("Invoker should not have been created for a mismatched argument count.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    /**
+     * Test of withArgument method, of class org.apache.commons.pipeline.util.MethodInvoker.
+     */
+    public void testWithArgument() throws Exception {
+        MethodInvoker invoker = MethodInvoker.withArgument(Integer.class.getMethod("valueOf", String.class));
+
+        assertEquals(5, invoker.invoke("5"));
+
+        try {
+            invoker.invoke("five");
+            fail("Exception thrown by the invoked method should have been propagated.");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    /**
+     * Test of withArgument method with an instance method.
+     */
+    public void testWithArgumentNonStatic() throws Exception {
+        try {
+            MethodInvoker.withArgument(String.class.getMethod("concat", String.class));
+            fail("Invoker should not have been created for an instance method.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
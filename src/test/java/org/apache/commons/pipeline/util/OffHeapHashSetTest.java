@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for OffHeapHashSet and ScalableBloomFilter.
+ */
+public class OffHeapHashSetTest extends TestCase {
+    
+    public OffHeapHashSetTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(OffHeapHashSetTest.class);
+    }
+    
+    /**
+     * Test that keys are found exactly, across table growth and chunk boundaries.
+     */
+    public void testExact() throws Exception {
+        OffHeapHashSet set = new OffHeapHashSet(4, 64);
+        for (int i = 0; i < 10000; i++) assertTrue(set.add(key(i)));
+        for (int i = 0; i < 10000; i++) assertFalse(set.add(key(i)));
+        
+        assertEquals(10000, set.size());
+        assertTrue(set.contains(key(1234)));
+        assertFalse(set.contains(key(10000)));
+        assertTrue(set.add(new byte[0]));
+        assertFalse(set.add(new byte[0]));
+        
+        //a key larger than a chunk gets a chunk of its own
+        byte[] large = new byte[1000];
+        assertTrue(set.add(large));
+        assertTrue(set.contains(large));
+        
+        long memory = set.getMemoryUsage();
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(key(1)));
+        assertTrue(set.getMemoryUsage() < memory);
+    }
+    
+    /**
+     * Test that the Bloom filter never misses a key it holds, grows beyond its
+     * initial capacity and keeps its false-positive rate near the target.
+     */
+    public void testBloomFilter() throws Exception {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        for (int i = 0; i < 20000; i++) filter.add(key(i));
+        for (int i = 0; i < 20000; i++) assertTrue(filter.mightContain(key(i)));
+        assertTrue(filter.getFilterCount() > 1);
+        
+        int falsePositives = 0;
+        for (int i = 20000; i < 120000; i++) {
+            if (filter.mightContain(key(i))) falsePositives++;
+        }
+        assertTrue("False-positive rate too high: " + falsePositives, falsePositives < 1500);
+        
+        //far less memory than the keys themselves
+        assertTrue(filter.getMemoryUsage() < 20000 * 4);
+    }
+    
+    private static byte[] key(int i) throws Exception {
+        return ("key-" + i).getBytes("UTF-8");
+    }
+}
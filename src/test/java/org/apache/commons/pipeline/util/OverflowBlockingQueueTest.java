@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.commons.pipeline.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for OverflowBlockingQueue.
+ */
+public class OverflowBlockingQueueTest extends TestCase {
+    private File directory;
+    
+    public OverflowBlockingQueueTest(String testName) {
+        super(testName);
+    }
+    
+    public static Test suite() {
+        return new TestSuite(OverflowBlockingQueueTest.class);
+    }
+    
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("OverflowBlockingQueueTest", "");
+        directory.delete();
+        directory.mkdir();
+    }
+    
+    protected void tearDown() throws Exception {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+    
+    /**
+     * Test that a burst beyond the memory capacity is spilled and read back
+     * in order, and that the spill files are deleted.
+     */
+    public void testBurst() throws Exception {
+        OverflowBlockingQueue<Integer> queue = create(100, Integer.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) assertTrue(queue.offer(i));
+        
+        assertEquals(1000, queue.size());
+        assertEquals(100, queue.getMemoryCount());
+        assertEquals(900, queue.getOverflowCount());
+        assertEquals(900, queue.getSpilledCount());
+        assertTrue(queue.getSpillFileCount() >= 9);
+        
+        for (int i = 0; i < 500; i++) assertEquals(Integer.valueOf(i), queue.take());
+        
+        //objects added while older objects are spilled go after them
+        queue.put(1000);
+        for (int i = 500; i <= 1000; i++) assertEquals(Integer.valueOf(i), queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, directory.list().length);
+        assertEquals(900, queue.getPeakOverflowCount());
+        assertTrue(queue.getCompressedBytes() > 0);
+    }
+    
+    /**
+     * Test that objects are delivered in order while a producer and a
+     * consumer run concurrently.
+     */
+    public void testConcurrent() throws Exception {
+        final OverflowBlockingQueue<Integer> queue = create(10, Integer.MAX_VALUE);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < 5000; i++) queue.offer(i);
+                done.countDown();
+            }
+        };
+        producer.start();
+        
+        for (int i = 0; i < 5000; i++) assertEquals(Integer.valueOf(i), queue.poll(5, TimeUnit.SECONDS));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, queue.size());
+    }
+    
+    /**
+     * Test that each producer's objects are delivered once and in order while
+     * several producers spill concurrently.
+     */
+    public void testConcurrentProducers() throws Exception {
+        final OverflowBlockingQueue<Integer> queue = create(10, 1000);
+        final int producers = 4;
+        final int count = 5000;
+        for (int p = 0; p < producers; p++) {
+            final int base = p * count;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < count; i++) queue.put(base + i);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }.start();
+        }
+        
+        int[] next = new int[producers];
+        for (int i = 0; i < producers * count; i++) {
+            Integer obj = queue.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Object " + i + " was not delivered", obj);
+            assertEquals(next[obj / count]++, obj % count);
+        }
+        
+        assertNull(queue.poll());
+        assertEquals(0, directory.list().length);
+    }
+    
+    /**
+     * Test that objects in memory can be taken while a producer is spilling.
+     */
+    public void testSpillWithoutLock() throws Exception {
+        final CountDownLatch serializing = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final OverflowBlockingQueue<Integer> queue = new OverflowBlockingQueue<Integer>(2, 10, 100, directory,
+                new Serializer.JavaSerializer<Integer>() {
+            public byte[] serialize(Integer obj) throws IOException {
+                serializing.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+                
+                return super.serialize(obj);
+            }
+        });
+        queue.put(0);
+        queue.put(1);
+        
+        Thread producer = new Thread() {
+            public void run() {
+                queue.offer(2);
+            }
+        };
+        producer.start();
+        assertTrue(serializing.await(5, TimeUnit.SECONDS));
+        
+        final CountDownLatch taken = new CountDownLatch(2);
+        new Thread() {
+            public void run() {
+                if (Integer.valueOf(0).equals(queue.poll())) taken.countDown();
+                if (Integer.valueOf(1).equals(queue.poll())) taken.countDown();
+            }
+        }.start();
+        
+        try {
+            assertTrue("Objects in memory were not available during a spill", taken.await(5, TimeUnit.SECONDS));
+        } finally {
+            proceed.countDown();
+        }
+        
+        assertEquals(Integer.valueOf(2), queue.poll(5, TimeUnit.SECONDS));
+        producer.join(5000);
+        assertEquals(0, queue.size());
+    }
+    
+    /**
+     * Test that the total capacity bounds the queue.
+     */
+    public void testCapacity() throws Exception {
+        OverflowBlockingQueue<Integer> queue = create(2, 5);
+        for (int i = 0; i < 5; i++) assertTrue(queue.offer(i));
+        assertFalse(queue.offer(5));
+        assertEquals(0, queue.remainingCapacity());
+        assertEquals(Integer.valueOf(0), queue.peek());
+        
+        queue.close();
+        assertEquals(2, queue.size());
+        assertEquals(0, directory.list().length);
+    }
+    
+    private OverflowBlockingQueue<Integer> create(int memoryCapacity, int capacity) {
+        return new OverflowBlockingQueue<Integer>(memoryCapacity, capacity, 100, directory, new Serializer.JavaSerializer<Integer>());
+    }
+}
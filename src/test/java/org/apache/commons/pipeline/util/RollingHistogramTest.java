@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for RollingHistogram.
+ */
+public class RollingHistogramTest extends TestCase {
+    private static final long MILLI = 1000000L;
+
+    public RollingHistogramTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(RollingHistogramTest.class);
+    }
+
+    /**
+     * Test that every bucket counts the values between its lowest value and
+     * the lowest value of the next bucket.
+     */
+    public void testBucketBoundaries() {
+        for (int bucket = 0; bucket < RollingHistogram.bucketFor(Long.MAX_VALUE); bucket++) {
+            long low = RollingHistogram.lowestValueOf(bucket);
+            long next = RollingHistogram.lowestValueOf(bucket + 1);
+            assertEquals(bucket, RollingHistogram.bucketFor(low));
+            assertEquals(bucket, RollingHistogram.bucketFor(next - 1));
+            assertTrue((next - low) * RollingHistogram.SUB_BUCKETS <= Math.max(low, RollingHistogram.SUB_BUCKETS));
+        }
+    }
+
+    /**
+     * Test of getValueAtPercentile method, of class org.apache.commons.pipeline.util.RollingHistogram.Snapshot.
+     */
+    public void testPercentiles() {
+        RollingHistogram histogram = new RollingHistogram(1000, 4);
+        long now = 5000 * MILLI;
+        for (long i = 1; i <= 1000; i++) histogram.record(i * 1000, now);
+
+        RollingHistogram.Snapshot snapshot = histogram.snapshot(now);
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertWithin(500000, snapshot.getValueAtPercentile(50.0));
+        assertWithin(990000, snapshot.getValueAtPercentile(99.0));
+        assertEquals(1000000, snapshot.getValueAtPercentile(100.0));
+        assertEquals(0, new RollingHistogram(1000, 4).snapshot(now).getValueAtPercentile(50.0));
+    }
+
+    /**
+     * Test that values leave the snapshot once their interval falls out of the window.
+     */
+    public void testRolling() {
+        RollingHistogram histogram = new RollingHistogram(1000, 3);
+        long start = 10000 * MILLI;
+        histogram.record(5000, start);
+        histogram.record(7000, start + 1000 * MILLI);
+
+        assertEquals(2, histogram.snapshot(start + 2000 * MILLI).getCount());
+        RollingHistogram.Snapshot later = histogram.snapshot(start + 3000 * MILLI);
+        assertEquals(1, later.getCount());
+        assertEquals(7000, later.getMax());
+
+        //recording into a recycled interval discards its old counts
+        histogram.record(9000, start + 4000 * MILLI);
+        assertEquals(1, histogram.snapshot(start + 4000 * MILLI).getCount());
+        assertEquals(9000, histogram.snapshot(start + 4000 * MILLI).getMax());
+    }
+
+    /**
+     * Test that values recorded concurrently by several threads are all counted.
+     */
+    public void testConcurrentRecording() throws Exception {
+        final RollingHistogram histogram = new RollingHistogram(60000, 2);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000L;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) histogram.record(value);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(80000, snapshot.getCount());
+        assertEquals(8000, snapshot.getMax());
+        assertWithin(4000, snapshot.getValueAtPercentile(50.0));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                Math.abs(expected - actual) <= expected / RollingHistogram.SUB_BUCKETS);
+    }
+}
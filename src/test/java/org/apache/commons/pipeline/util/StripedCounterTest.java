@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for StripedCounter.
+ */
+public class StripedCounterTest extends TestCase {
+
+    public StripedCounterTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(StripedCounterTest.class);
+    }
+
+    /**
+     * Test of add, sum and reset methods, of class org.apache.commons.pipeline.util.StripedCounter.
+     */
+    public void testAddAndReset() {
+        StripedCounter counter = new StripedCounter();
+        assertEquals(0, counter.sum());
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.sum());
+        assertEquals("42", counter.toString());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+    /**
+     * Verify that no updates are lost when many threads update the counter.
+     */
+    public void testConcurrentIncrement() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        final int perThread = 10000;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < perThread; j++) counter.increment();
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(threads.length * perThread, counter.sum());
+    }
+
+    /**
+     * Test of stripesFor method, of class org.apache.commons.pipeline.util.StripedCounter.
+     */
+    public void testStripesFor() {
+        assertEquals(2, StripedCounter.stripesFor(1));
+        assertEquals(8, StripedCounter.stripesFor(4));
+        assertEquals(16, StripedCounter.stripesFor(6));
+        assertEquals(64, StripedCounter.stripesFor(256));
+    }
+}
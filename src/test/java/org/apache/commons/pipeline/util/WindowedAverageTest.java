@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.commons.pipeline.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Test cases for WindowedAverage.
+ */
+public class WindowedAverageTest extends TestCase {
+
+    public WindowedAverageTest(String testName) {
+        super(testName);
+    }
+
+    public static Test suite() {
+        return new TestSuite(WindowedAverageTest.class);
+    }
+
+    /**
+     * Test of getMean method on an empty window.
+     */
+    public void testEmpty() {
+        WindowedAverage average = new WindowedAverage(10);
+        assertEquals(0, average.getN());
+        assertTrue(Double.isNaN(average.getMean()));
+    }
+
+    /**
+     * Verify that only the most recent values recorded by a thread are averaged.
+     */
+    public void testWindow() {
+        WindowedAverage average = new WindowedAverage(4);
+        for (int i = 1; i <= 4; i++) average.addValue(i);
+        assertEquals(4, average.getN());
+        assertEquals(2.5, average.getMean(), 0.0001);
+
+        average.addValue(10);
+        average.addValue(10);
+        assertEquals(4, average.getN());
+        assertEquals(6.75, average.getMean(), 0.0001);
+    }
+
+    /**
+     * Verify that the window covers the most recent values recorded by all
+     * threads together, rather than a window per thread.
+     */
+    public void testWindowAcrossThreads() throws Exception {
+        final WindowedAverage average = new WindowedAverage(10);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100; i++) average.addValue(1);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(10, average.getN());
+        assertEquals(1.0, average.getMean(), 0.0001);
+
+        //later values displace all of the earlier ones, whichever ring holds them
+        for (int i = 0; i < 10; i++) average.addValue(5);
+        assertEquals(10, average.getN());
+        assertEquals(5.0, average.getMean(), 0.0001);
+    }
+
+    /**
+     * Test of constructor with an illegal window size.
+     */
+    public void testIllegalWindowSize() {
+        try {
+            new WindowedAverage(0);
+            fail("Window size of zero should have been rejected.");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}